@@ -0,0 +1,157 @@
+package es.uniovi.ssii.rb.benchmark;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmarkov.core.model.network.EvidenceCase;
+import org.openmarkov.core.model.network.ProbNet;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.inference.huginPropagation.HuginPropagation;
+import org.openmarkov.inference.likelihoodWeighting.LikelihoodWeighting;
+import org.openmarkov.inference.likelihoodWeighting.LogicSampling;
+import org.openmarkov.inference.variableElimination.tasks.VEPropagation;
+import org.openmarkov.io.probmodel.reader.PGMXReader_0_2;
+
+// End-to-end benchmarks of the propagation algorithms on the networks bundled
+// in src/main/resources/networks. Each invocation builds the algorithm and
+// answers one query, which is what InferenceTester measures, but without the
+// console output and after warm-up, in forked JVMs.
+//
+// Run with: java -jar target/benchmarks.jar InferenceBenchmark -prof gc
+// or restrict the networks with, e.g., -p network=alarm.pgmx,Pigs.pgmx
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InferenceBenchmark {
+
+	/**
+	 * A query on a network: a random evidence case and a variable of interest
+	 * not in the evidence. The seed is fixed, so all the algorithms answer the
+	 * same query.
+	 */
+	@State(Scope.Benchmark)
+	public abstract static class Query {
+
+		@Param({ "1" })
+		public int numFindings;
+
+		ProbNet probNet;
+		EvidenceCase evidence;
+		List<Variable> variablesOfInterest;
+
+		protected abstract String getNetworkName();
+
+		@Setup(Level.Trial)
+		public void setUp() throws Exception {
+			String name = getNetworkName();
+			try (InputStream stream = InferenceBenchmark.class.getResourceAsStream("/networks/" + name)) {
+				probNet = new PGMXReader_0_2().loadProbNet(name, stream);
+			}
+			Random random = new Random(9762L);
+			evidence = new EvidenceCase();
+			List<Variable> variablesToPick = probNet.getVariables();
+			for (int i = 0; i < numFindings && variablesToPick.size() > 1; i++) {
+				Variable variable = variablesToPick.remove(random.nextInt(variablesToPick.size()));
+				evidence.addFinding(probNet, variable.getName(),
+						variable.getStates()[random.nextInt(variable.getNumStates())].getName());
+			}
+			variablesOfInterest = new ArrayList<>();
+			variablesOfInterest.add(variablesToPick.get(random.nextInt(variablesToPick.size())));
+		}
+	}
+
+	/**
+	 * All the bundled networks
+	 */
+	@State(Scope.Benchmark)
+	public static class AnyNetwork extends Query {
+
+		@Param({ "asia.pgmx", "alarm.pgmx", "Barley.pgmx", "Child.pgmx", "Diabetes.pgmx", "insurance.pgmx",
+				"Link.pgmx", "Pigs.pgmx", "water.pgmx", "win95pts.pgmx" })
+		public String network;
+
+		@Override
+		protected String getNetworkName() {
+			return network;
+		}
+	}
+
+	/**
+	 * The networks on which variable elimination finishes in reasonable time
+	 * (as in InferenceTester, Diabetes is excluded)
+	 */
+	@State(Scope.Benchmark)
+	public static class EliminableNetwork extends Query {
+
+		@Param({ "asia.pgmx", "alarm.pgmx", "Barley.pgmx", "Child.pgmx", "insurance.pgmx", "Link.pgmx",
+				"Pigs.pgmx", "water.pgmx", "win95pts.pgmx" })
+		public String network;
+
+		@Override
+		protected String getNetworkName() {
+			return network;
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Sampling {
+
+		@Param({ "10000" })
+		public int sampleSize;
+	}
+
+	@Benchmark
+	public Map<Variable, TablePotential> variableElimination(EliminableNetwork query) throws Exception {
+		VEPropagation propagation = new VEPropagation(query.probNet);
+		propagation.setVariablesOfInterest(query.variablesOfInterest);
+		propagation.setPostResolutionEvidence(query.evidence);
+		return propagation.getPosteriorValues();
+	}
+
+	@Benchmark
+	public Map<Variable, TablePotential> huginPropagation(AnyNetwork query) throws Exception {
+		HuginPropagation propagation = new HuginPropagation(query.probNet);
+		propagation.setVariablesOfInterest(query.variablesOfInterest);
+		propagation.setPostResolutionEvidence(query.evidence);
+		return propagation.getPosteriorValues();
+	}
+
+	@Benchmark
+	public Map<Variable, TablePotential> logicSampling(AnyNetwork query, Sampling sampling) throws Exception {
+		LogicSampling propagation = new LogicSampling(query.probNet);
+		propagation.setSampleSize(sampling.sampleSize);
+		propagation.setSeed(9762L);
+		propagation.setVariablesOfInterest(new ArrayList<>(query.variablesOfInterest));
+		propagation.setPostResolutionEvidence(query.evidence);
+		return propagation.getPosteriorValues();
+	}
+
+	@Benchmark
+	public Map<Variable, TablePotential> likelihoodWeighting(AnyNetwork query, Sampling sampling) throws Exception {
+		LikelihoodWeighting propagation = new LikelihoodWeighting(query.probNet);
+		propagation.setSampleSize(sampling.sampleSize);
+		propagation.setSeed(9762L);
+		propagation.setVariablesOfInterest(new ArrayList<>(query.variablesOfInterest));
+		propagation.setPostResolutionEvidence(query.evidence);
+		return propagation.getPosteriorValues();
+	}
+}
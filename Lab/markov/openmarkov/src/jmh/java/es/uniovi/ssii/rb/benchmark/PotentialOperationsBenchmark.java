@@ -0,0 +1,140 @@
+package es.uniovi.ssii.rb.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.PotentialRole;
+import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.core.model.network.potential.operation.DiscretePotentialOperations;
+import org.openmarkov.core.model.network.potential.operation.PotentialOperationPlan;
+
+// Micro benchmarks of the table kernels in DiscretePotentialOperations on
+// synthetic potentials. Two potentials share half of their variables, as a
+// clique and a separator message do in a junction tree.
+//
+// Run with: java -jar target/benchmarks.jar PotentialOperationsBenchmark -prof gc
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Benchmark)
+public class PotentialOperationsBenchmark {
+
+	/**
+	 * Number of variables of each operand and number of states of every
+	 * variable. The product has one and a half times as many variables as an
+	 * operand, so 12 ternary variables (3^18 values, about 3 GB) would not fit
+	 * in the heap of the fork
+	 */
+	@Param({ "4x2", "8x2", "12x2", "4x3", "8x3" })
+	public String shape;
+
+	private int numVariables;
+	private int numStates;
+
+	private TablePotential first;
+	private TablePotential second;
+	private TablePotential product;
+	private TablePotential productMarginal;
+	private List<TablePotential> operands;
+	private List<Variable> variablesToKeep;
+	private List<Variable> variablesToEliminate;
+	private List<Variable> reversedVariables;
+	private PotentialOperationPlan multiplicationPlan;
+	private PotentialOperationPlan marginalizationPlan;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		String[] dimensions = shape.split("x");
+		numVariables = Integer.parseInt(dimensions[0]);
+		numStates = Integer.parseInt(dimensions[1]);
+		Random random = new Random(9762L);
+		int overlap = numVariables / 2;
+		List<Variable> variables = new ArrayList<>();
+		for (int i = 0; i < numVariables + overlap; i++) {
+			variables.add(new Variable("X" + i, numStates));
+		}
+		first = randomPotential(variables.subList(0, numVariables), random);
+		second = randomPotential(variables.subList(overlap, overlap + numVariables), random);
+
+		operands = new ArrayList<>();
+		operands.add(first);
+		operands.add(second);
+
+		product = DiscretePotentialOperations.multiply(operands);
+
+		// keep the variables shared by both operands, as a separator does
+		variablesToKeep = new ArrayList<>(second.getVariables());
+		variablesToKeep.retainAll(first.getVariables());
+		variablesToEliminate = new ArrayList<>(product.getVariables());
+		variablesToEliminate.removeAll(variablesToKeep);
+		productMarginal = DiscretePotentialOperations.marginalize(product, variablesToKeep);
+
+		reversedVariables = new ArrayList<>(product.getVariables());
+		Collections.reverse(reversedVariables);
+
+		multiplicationPlan = PotentialOperationPlan.multiplication(operands, null);
+		marginalizationPlan = PotentialOperationPlan.marginalization(operands, variablesToKeep, null);
+	}
+
+	@Benchmark
+	public TablePotential multiply() {
+		return DiscretePotentialOperations.multiply(operands);
+	}
+
+	@Benchmark
+	public TablePotential marginalize() {
+		return DiscretePotentialOperations.marginalize(product, variablesToKeep);
+	}
+
+	@Benchmark
+	public TablePotential multiplyAndMarginalize() {
+		return DiscretePotentialOperations.multiplyAndMarginalize(operands, variablesToKeep, variablesToEliminate);
+	}
+
+	@Benchmark
+	public TablePotential multiplyWithPlan() {
+		return PotentialOperationPlan.multiplication(operands, multiplicationPlan).execute(operands);
+	}
+
+	@Benchmark
+	public TablePotential multiplyAndMarginalizeWithPlan() {
+		return PotentialOperationPlan.marginalization(operands, variablesToKeep, marginalizationPlan)
+				.execute(operands);
+	}
+
+	@Benchmark
+	public TablePotential divide() {
+		return DiscretePotentialOperations.divide(product, productMarginal);
+	}
+
+	@Benchmark
+	public TablePotential reorder() {
+		return DiscretePotentialOperations.reorder(product, reversedVariables);
+	}
+
+	private static TablePotential randomPotential(List<Variable> variables, Random random) {
+		TablePotential potential = new TablePotential(new ArrayList<>(variables), PotentialRole.JOINT_PROBABILITY);
+		for (int i = 0; i < potential.values.length; i++) {
+			potential.values[i] = random.nextDouble();
+		}
+		return potential;
+	}
+}
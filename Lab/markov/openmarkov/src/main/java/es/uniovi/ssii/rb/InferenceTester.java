@@ -19,6 +19,7 @@ import org.openmarkov.core.model.network.potential.TablePotential;
 import org.openmarkov.inference.huginPropagation.HuginPropagation;
 import org.openmarkov.inference.likelihoodWeighting.LikelihoodWeighting;
 import org.openmarkov.inference.likelihoodWeighting.LogicSampling;
+import org.openmarkov.inference.loopyBeliefPropagation.LoopyBeliefPropagation;
 import org.openmarkov.inference.variableElimination.tasks.VEPropagation;
 import org.openmarkov.io.probmodel.reader.PGMXReader_0_2;
 
@@ -176,6 +177,35 @@ public class InferenceTester {
 		return (endTime - startTime);
 	}
 
+	private long LoopyBeliefPropagation(List<Variable> variablesOfInterest, EvidenceCase evidence) {
+		LoopyBeliefPropagation propagation = null;
+		try {
+			propagation = new LoopyBeliefPropagation(probNet);
+		} catch (NotEvaluableNetworkException e) {
+			e.printStackTrace();
+		}
+		propagation.setVariablesOfInterest(variablesOfInterest);
+
+		propagation.setPostResolutionEvidence(evidence);
+
+		System.out.print("Loopy belief propagation\n");
+		long startTime = System.nanoTime();
+		try {
+			Map<Variable, TablePotential> posteriorProbabilities = propagation.getPosteriorValues();
+			printProbabilities(evidence, variablesOfInterest, posteriorProbabilities);
+
+		} catch (IncompatibleEvidenceException e) {
+			e.printStackTrace();
+		} catch (OutOfMemoryError e) {
+			e.printStackTrace();
+		}
+		long endTime = System.nanoTime();
+
+		printTime(endTime - startTime);
+
+		return (endTime - startTime);
+	}
+
 	public static void printProbabilities(EvidenceCase evidence, List<Variable> variablesOfInterest,
 			Map<Variable, TablePotential> posteriorProbabilities) {
 
@@ -264,6 +294,7 @@ public class InferenceTester {
 			long tiempoLogicS = 0;
 			long tiempoHugin = 0;
 			long tiempoLikely = 0;
+			long tiempoLoopy = 0;
 			for (int i = 0; i < 5; i++) {
 				System.out.format("Network \"%s\" with %d nodes and %d links\n", obj.getProbNet().getName(),
 						obj.getProbNet().getNumNodes(), obj.getProbNet().getLinks().size());
@@ -280,17 +311,19 @@ public class InferenceTester {
 					tiempoHugin += ejecutarHuginPropagation(obj, variablesOfInterest, evidence);
 					tiempoLogicS += ejecutarLogicSampling(obj, variablesOfInterest, evidence, sampleSize);
 					tiempoLikely += ejecutarLikelihoodWeighting(obj, variablesOfInterest, evidence, sampleSize);
+					tiempoLoopy += ejecutarLoopyBeliefPropagation(obj, variablesOfInterest, evidence);
 				} else {
 					tiempoVE += ejecutarVEInference(obj, variablesOfInterest, evidence);
 					tiempoHugin += ejecutarHuginPropagation(obj, variablesOfInterest, evidence);
 					tiempoLogicS += ejecutarLogicSampling(obj, variablesOfInterest, evidence, sampleSize);
 					tiempoLikely += ejecutarLikelihoodWeighting(obj, variablesOfInterest, evidence, sampleSize);
+					tiempoLoopy += ejecutarLoopyBeliefPropagation(obj, variablesOfInterest, evidence);
 				}
 			}
 			System.out.println("----------------------------------------------------------------------------------");
 			System.out.println("RED: " + obj.probNet.getName() + ", TIEMPO VE: " + (tiempoVE / 5) + ", TIEMPO HUGIN: "
 					+ (tiempoHugin / 5) + ", TIEMPO LOGIC: " + (tiempoLogicS / 5) + ", TIEMPO LIKELY: "
-					+ (tiempoLikely / 5));
+					+ (tiempoLikely / 5) + ", TIEMPO LOOPY: " + (tiempoLoopy / 5));
 			System.out.println("----------------------------------------------------------------------------------");
 		}
 
@@ -324,6 +357,11 @@ public class InferenceTester {
 		return obj.LogicSampling(variablesOfInterest, evidence, sampleSize);
 	}
 
+	private static long ejecutarLoopyBeliefPropagation(InferenceTester obj, List<Variable> variablesOfInterest,
+			EvidenceCase evidence) {
+		return obj.LoopyBeliefPropagation(variablesOfInterest, evidence);
+	}
+
 	private static long ejecutarHuginPropagation(InferenceTester obj, List<Variable> variablesOfInterest,
 			EvidenceCase evidence) {
 		return obj.HuginPropagation(variablesOfInterest, evidence);
@@ -53,11 +53,25 @@ public abstract class InferenceAlgorithm implements Task {
 	 * @throws NotEvaluableNetworkException NotEvaluableNetworkException
 	 */
 	public InferenceAlgorithm(ProbNet network) throws NotEvaluableNetworkException {
-		this.probNet = network.copy();
+		this(network, true);
+	}
+
+	/**
+	 * @param network      The network used in the inference
+	 * @param copyAndCheck {@code false} when {@code network} has already been
+	 *                     copied and checked, for example by a compiled model
+	 *                     shared by many instances of the algorithm; it is
+	 *                     used without copying it, so it must not be modified
+	 * @throws NotEvaluableNetworkException NotEvaluableNetworkException
+	 */
+	protected InferenceAlgorithm(ProbNet network, boolean copyAndCheck) throws NotEvaluableNetworkException {
+		this.probNet = copyAndCheck ? network.copy() : network;
 		this.preResolutionEvidence = new EvidenceCase();
 		this.conditioningVariables = new ArrayList<>();
-		checkEvaluability();
-		checkConsistency();
+		if (copyAndCheck) {
+			checkEvaluability();
+			checkConsistency();
+		}
 	}
 
 	/**
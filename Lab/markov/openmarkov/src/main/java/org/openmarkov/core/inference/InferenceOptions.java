@@ -31,6 +31,12 @@ public class InferenceOptions {
 
 	private TemporalOptions temporalOptions;
 
+	private ParallelOptions parallelOptions;
+
+	private MessagePassingOptions messagePassingOptions;
+
+	private TableRepresentation tableRepresentation = TableRepresentation.DOUBLE;
+
 	// Constructor
 	public InferenceOptions(ProbNet probNet, Variable simulationIndexVariable) {
 		this.probNet = probNet;
@@ -40,11 +46,20 @@ public class InferenceOptions {
 	public InferenceOptions() {
 		this.multiCriteriaOptions = new MulticriteriaOptions();
 		this.temporalOptions = new TemporalOptions();
+		this.parallelOptions = new ParallelOptions();
+		this.messagePassingOptions = new MessagePassingOptions();
 	}
 
 	public InferenceOptions(InferenceOptions inferenceOptions) {
 		this.multiCriteriaOptions = new MulticriteriaOptions(inferenceOptions.getMultiCriteriaOptions());
 		this.temporalOptions = new TemporalOptions(inferenceOptions.getTemporalOptions());
+		if (inferenceOptions.getParallelOptions() != null) {
+			this.parallelOptions = new ParallelOptions(inferenceOptions.getParallelOptions());
+		}
+		if (inferenceOptions.getMessagePassingOptions() != null) {
+			this.messagePassingOptions = new MessagePassingOptions(inferenceOptions.getMessagePassingOptions());
+		}
+		this.tableRepresentation = inferenceOptions.getTableRepresentation();
 	}
 
 	/**
@@ -81,6 +96,34 @@ public class InferenceOptions {
 		this.temporalOptions = temporalOptions;
 	}
 
+	public ParallelOptions getParallelOptions() {
+		return parallelOptions;
+	}
+
+	public void setParallelOptions(ParallelOptions parallelOptions) {
+		this.parallelOptions = parallelOptions;
+	}
+
+	public MessagePassingOptions getMessagePassingOptions() {
+		return messagePassingOptions;
+	}
+
+	public void setMessagePassingOptions(MessagePassingOptions messagePassingOptions) {
+		this.messagePassingOptions = messagePassingOptions;
+	}
+
+	public TableRepresentation getTableRepresentation() {
+		return tableRepresentation;
+	}
+
+	/**
+	 * @param tableRepresentation representation of the tables of the clusters
+	 *                            in the junction tree algorithms
+	 */
+	public void setTableRepresentation(TableRepresentation tableRepresentation) {
+		this.tableRepresentation = tableRepresentation;
+	}
+
 	/**
 	 * Prints decision criteria, simulation indices and discount rate
 	 */
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.core.inference;
+
+/**
+ * Options of the approximate inference algorithms that pass messages on a
+ * factor graph, such as loopy belief propagation.
+ */
+public class MessagePassingOptions implements Cloneable {
+
+	/**
+	 * Order in which the messages are updated.
+	 */
+	public enum Schedule {
+		/**
+		 * All the messages are updated in each iteration from the messages of
+		 * the previous one, so they can be computed concurrently.
+		 */
+		SYNCHRONOUS,
+		/**
+		 * The message that would change the most is updated first (residual
+		 * belief propagation).
+		 */
+		RESIDUAL
+	}
+
+	public static final double DEFAULT_TOLERANCE = 1e-6;
+
+	public static final int DEFAULT_MAX_ITERATIONS = 100;
+
+	private double tolerance;
+
+	private int maxIterations;
+
+	private double damping;
+
+	private Schedule schedule;
+
+	private boolean parallelUpdates;
+
+	public MessagePassingOptions() {
+		tolerance = DEFAULT_TOLERANCE;
+		maxIterations = DEFAULT_MAX_ITERATIONS;
+		damping = 0;
+		schedule = Schedule.RESIDUAL;
+		parallelUpdates = true;
+	}
+
+	public MessagePassingOptions(MessagePassingOptions messagePassingOptions) {
+		this.tolerance = messagePassingOptions.getTolerance();
+		this.maxIterations = messagePassingOptions.getMaxIterations();
+		this.damping = messagePassingOptions.getDamping();
+		this.schedule = messagePassingOptions.getSchedule();
+		this.parallelUpdates = messagePassingOptions.isParallelUpdates();
+	}
+
+	/**
+	 * @return The propagation stops when no message changes more than this
+	 * value, in any of its probabilities, in an update
+	 */
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	public void setTolerance(double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * @return Maximum number of iterations. In the residual schedule, an
+	 * iteration is as many updates as messages
+	 */
+	public int getMaxIterations() {
+		return maxIterations;
+	}
+
+	public void setMaxIterations(int maxIterations) {
+		this.maxIterations = maxIterations;
+	}
+
+	/**
+	 * @return Weight, between 0 and 1, of the old value of a message in its
+	 * update. Damping helps the propagation converge in networks with many
+	 * loops
+	 */
+	public double getDamping() {
+		return damping;
+	}
+
+	public void setDamping(double damping) {
+		if (damping < 0 || damping >= 1) {
+			throw new IllegalArgumentException("The damping must be in [0, 1).");
+		}
+		this.damping = damping;
+	}
+
+	public Schedule getSchedule() {
+		return schedule;
+	}
+
+	public void setSchedule(Schedule schedule) {
+		this.schedule = schedule;
+	}
+
+	/**
+	 * @return {@code true} if the messages of an iteration of the synchronous
+	 * schedule may be computed concurrently
+	 */
+	public boolean isParallelUpdates() {
+		return parallelUpdates;
+	}
+
+	public void setParallelUpdates(boolean parallelUpdates) {
+		this.parallelUpdates = parallelUpdates;
+	}
+
+	public MessagePassingOptions clone() {
+		return new MessagePassingOptions(this);
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.core.inference;
+
+/**
+ * Options that control when the inference algorithms use the concurrent
+ * versions of the potential operations and when the clusters of a junction
+ * tree are propagated concurrently.
+ *
+ * @see org.openmarkov.core.model.network.potential.operation.PotentialOperationsDispatcher
+ */
+public class ParallelOptions implements Cloneable {
+
+	/**
+	 * Default threshold: number of positions of the iteration space of an
+	 * operation from which the concurrent kernels are faster than the
+	 * sequential ones (measured with the JMH benchmarks of the project).
+	 */
+	public static final int DEFAULT_CONCURRENCY_THRESHOLD = 1 << 15;
+
+	/**
+	 * Default minimum size (sum of the sizes of its clusters) of a subtree
+	 * propagated in its own task.
+	 */
+	public static final int DEFAULT_PROPAGATION_THRESHOLD = 1 << 14;
+
+	private boolean concurrentOperations;
+
+	private int concurrencyThreshold;
+
+	private boolean parallelPropagation;
+
+	private int propagationThreshold;
+
+	public ParallelOptions() {
+		this(true, DEFAULT_CONCURRENCY_THRESHOLD);
+	}
+
+	public ParallelOptions(boolean concurrentOperations, int concurrencyThreshold) {
+		this.concurrentOperations = concurrentOperations;
+		this.concurrencyThreshold = concurrencyThreshold;
+		parallelPropagation = true;
+		propagationThreshold = DEFAULT_PROPAGATION_THRESHOLD;
+	}
+
+	public ParallelOptions(ParallelOptions parallelOptions) {
+		this.concurrentOperations = parallelOptions.isConcurrentOperations();
+		this.concurrencyThreshold = parallelOptions.getConcurrencyThreshold();
+		this.parallelPropagation = parallelOptions.isParallelPropagation();
+		this.propagationThreshold = parallelOptions.getPropagationThreshold();
+	}
+
+	/**
+	 * @return {@code true} if the operations over big tables may be computed
+	 * concurrently
+	 */
+	public boolean isConcurrentOperations() {
+		return concurrentOperations;
+	}
+
+	public void setConcurrentOperations(boolean concurrentOperations) {
+		this.concurrentOperations = concurrentOperations;
+	}
+
+	/**
+	 * @return Number of positions of the iteration space of an operation
+	 * (product of the number of states of all its variables) from which the
+	 * concurrent version is used. Operations smaller than
+	 * {@link org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations#sequentialThreshold}
+	 * are computed in the calling thread anyway
+	 */
+	public int getConcurrencyThreshold() {
+		return concurrencyThreshold;
+	}
+
+	public void setConcurrencyThreshold(int concurrencyThreshold) {
+		this.concurrencyThreshold = concurrencyThreshold;
+	}
+
+	/**
+	 * @return {@code true} if the independent subtrees of a junction tree
+	 * (the children of a cluster and the roots of a forest) may be propagated
+	 * concurrently
+	 */
+	public boolean isParallelPropagation() {
+		return parallelPropagation;
+	}
+
+	public void setParallelPropagation(boolean parallelPropagation) {
+		this.parallelPropagation = parallelPropagation;
+	}
+
+	/**
+	 * @return Minimum size of a subtree (sum of the number of configurations
+	 * of its clusters) for it to be propagated in its own task
+	 */
+	public int getPropagationThreshold() {
+		return propagationThreshold;
+	}
+
+	public void setPropagationThreshold(int propagationThreshold) {
+		this.propagationThreshold = propagationThreshold;
+	}
+
+	public ParallelOptions clone() {
+		return new ParallelOptions(this);
+	}
+
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.core.inference;
+
+/**
+ * Representation of the values of the tables computed by the clusters of a
+ * junction tree (the products of their potentials and the messages). The
+ * posterior probabilities returned by the propagation are always in double
+ * precision.
+ */
+public enum TableRepresentation {
+	/**
+	 * Probabilities in double precision.
+	 */
+	DOUBLE,
+	/**
+	 * Probabilities in single precision, which halves the memory of the
+	 * tables of the clusters and the data read by the operations on them. The
+	 * operations accumulate in double precision and the marginals sent as
+	 * messages, usually much smaller than the clusters, keep double precision.
+	 * The range of the values is smaller, so they underflow with fewer
+	 * findings than in {@link #DOUBLE}.
+	 */
+	FLOAT,
+	/**
+	 * Natural logarithms of the probabilities, in double precision: the
+	 * products become sums and the marginalizations log-sum-exp, so the
+	 * probabilities of long sequences of findings do not underflow.
+	 */
+	LOG
+}
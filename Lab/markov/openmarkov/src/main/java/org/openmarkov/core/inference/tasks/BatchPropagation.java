@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.core.inference.tasks;
+
+import org.openmarkov.core.exception.NodeNotFoundException;
+import org.openmarkov.core.exception.NotEvaluableNetworkException;
+import org.openmarkov.core.io.database.CaseDatabase;
+import org.openmarkov.core.model.network.EvidenceCase;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.TablePotential;
+
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A propagation that answers many evidence cases against the same network in
+ * a single call. The network is prepared once for all the cases; the cases
+ * with the same observed variables are grouped, so that the work that depends
+ * only on the observed variables is shared, and the groups are propagated
+ * concurrently.
+ * <p>
+ * The pre-resolution evidence of the propagation is added to every case.
+ */
+public interface BatchPropagation extends Propagation {
+
+	/**
+	 * @param evidenceCases       post-resolution evidence of each case
+	 * @param variablesOfInterest variables whose posterior values are returned
+	 * @return For each evidence case, in the same order, the posterior value of
+	 * each variable of interest; <code>null</code> for the cases whose evidence
+	 * is incompatible
+	 * @throws NotEvaluableNetworkException NotEvaluableNetworkException
+	 * @throws NodeNotFoundException        when a variable of interest is not
+	 *                                      a variable of the network
+	 */
+	List<HashMap<Variable, TablePotential>> getPosteriorValues(List<EvidenceCase> evidenceCases,
+			List<Variable> variablesOfInterest) throws NotEvaluableNetworkException, NodeNotFoundException;
+
+	/**
+	 * @param database            each case is a row of the database
+	 * @param observed            <code>true</code> for the columns of the
+	 *                            database that are introduced as findings
+	 * @param variablesOfInterest variables whose posterior values are returned
+	 * @return For each case of the database, in the same order, the posterior
+	 * value of each variable of interest; <code>null</code> for the cases whose
+	 * evidence is incompatible
+	 * @throws NotEvaluableNetworkException NotEvaluableNetworkException
+	 * @throws NodeNotFoundException        when an observed column is not a
+	 *                                      variable of the network
+	 */
+	List<HashMap<Variable, TablePotential>> getPosteriorValues(CaseDatabase database, boolean[] observed,
+			List<Variable> variablesOfInterest) throws NotEvaluableNetworkException, NodeNotFoundException;
+
+}
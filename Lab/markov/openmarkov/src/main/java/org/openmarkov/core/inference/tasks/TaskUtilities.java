@@ -13,7 +13,9 @@ import org.openmarkov.core.exception.NodeNotFoundException;
 import org.openmarkov.core.exception.NonProjectablePotentialException;
 import org.openmarkov.core.exception.WrongCriterionException;
 import org.openmarkov.core.inference.BasicOperations;
+import org.openmarkov.core.io.database.CaseDatabase;
 import org.openmarkov.core.model.network.EvidenceCase;
+import org.openmarkov.core.model.network.Finding;
 import org.openmarkov.core.model.network.Node;
 import org.openmarkov.core.model.network.NodeType;
 import org.openmarkov.core.model.network.ProbNet;
@@ -26,7 +28,14 @@ import org.openmarkov.core.model.network.potential.Potential;
 import org.openmarkov.core.model.network.potential.TablePotential;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @author artasom
@@ -317,4 +326,85 @@ public class TaskUtilities {
 		return markovNetworkInference;
 	}
 
+	/**
+	 * @param probNet  network whose variables receive the findings
+	 * @param database database of cases
+	 * @param observed <code>true</code> for the columns of the database that
+	 *                 are introduced as findings
+	 * @return An evidence case for each row of the database, with a finding
+	 * for each observed column
+	 * @throws NodeNotFoundException when an observed column is not a variable
+	 *                               of <code>probNet</code>
+	 */
+	public static List<EvidenceCase> getEvidenceCases(ProbNet probNet, CaseDatabase database, boolean[] observed)
+			throws NodeNotFoundException {
+		List<Variable> databaseVariables = database.getVariables();
+		List<Variable> observedVariables = new ArrayList<>();
+		List<Integer> observedColumns = new ArrayList<>();
+		for (int i = 0; i < databaseVariables.size(); i++) {
+			if (observed[i]) {
+				observedVariables.add(probNet.getVariable(databaseVariables.get(i).getName()));
+				observedColumns.add(i);
+			}
+		}
+		int[][] cases = database.getCases();
+		List<EvidenceCase> evidenceCases = new ArrayList<>(cases.length);
+		for (int[] databaseCase : cases) {
+			HashMap<Variable, Finding> findings = new HashMap<>();
+			for (int i = 0; i < observedVariables.size(); i++) {
+				Variable variable = observedVariables.get(i);
+				findings.put(variable, new Finding(variable, databaseCase[observedColumns.get(i)]));
+			}
+			evidenceCases.add(new EvidenceCase(findings));
+		}
+		return evidenceCases;
+	}
+
+	/**
+	 * Groups the evidence cases that have findings for the same variables. The
+	 * cases of each group are sorted by the states of their findings, so that
+	 * consecutive cases share as many findings as possible, and the groups
+	 * with more than <code>maxGroupSize</code> cases are split.
+	 *
+	 * @param evidenceCases {@code List} of {@code EvidenceCase}s
+	 * @param maxGroupSize  Maximum number of cases of a group
+	 * @return The indexes in <code>evidenceCases</code> of the cases of each
+	 * group
+	 */
+	public static List<List<Integer>> groupByEvidenceVariables(final List<EvidenceCase> evidenceCases,
+			int maxGroupSize) {
+		Map<Set<Variable>, List<Integer>> patterns = new LinkedHashMap<>();
+		for (int i = 0; i < evidenceCases.size(); i++) {
+			Set<Variable> pattern = new HashSet<>(evidenceCases.get(i).getVariables());
+			List<Integer> patternCases = patterns.get(pattern);
+			if (patternCases == null) {
+				patternCases = new ArrayList<>();
+				patterns.put(pattern, patternCases);
+			}
+			patternCases.add(i);
+		}
+		List<List<Integer>> groups = new ArrayList<>();
+		for (List<Integer> patternCases : patterns.values()) {
+			final List<Variable> variables = evidenceCases.get(patternCases.get(0)).getVariables();
+			Collections.sort(patternCases, new Comparator<Integer>() {
+				@Override public int compare(Integer case1, Integer case2) {
+					EvidenceCase evidence1 = evidenceCases.get(case1);
+					EvidenceCase evidence2 = evidenceCases.get(case2);
+					for (Variable variable : variables) {
+						int comparison = Integer.compare(evidence1.getState(variable), evidence2.getState(variable));
+						if (comparison != 0) {
+							return comparison;
+						}
+					}
+					return Integer.compare(case1, case2);
+				}
+			});
+			for (int from = 0; from < patternCases.size(); from += maxGroupSize) {
+				int to = Math.min(from + maxGroupSize, patternCases.size());
+				groups.add(new ArrayList<>(patternCases.subList(from, to)));
+			}
+		}
+		return groups;
+	}
+
 }
@@ -551,6 +551,9 @@ public class ProbNet extends Graph<Node> implements Cloneable {
 		//Copy Inference Options
 		copyNet.getInferenceOptions().setMultiCriteriaOptions(this.getInferenceOptions().getMultiCriteriaOptions());
 		copyNet.getInferenceOptions().setTemporalOptions(this.getInferenceOptions().getTemporalOptions());
+		copyNet.getInferenceOptions().setParallelOptions(this.getInferenceOptions().getParallelOptions());
+		copyNet.getInferenceOptions().setMessagePassingOptions(this.getInferenceOptions().getMessagePassingOptions());
+		copyNet.getInferenceOptions().setTableRepresentation(this.getInferenceOptions().getTableRepresentation());
 		return copyNet;
 	}
 
@@ -632,11 +635,32 @@ public class ProbNet extends Graph<Node> implements Cloneable {
 	 */
 	public List<TablePotential> tableProjectPotentials(EvidenceCase evidenceCase)
 			throws NonProjectablePotentialException, WrongCriterionException {
+		return tableProjectPotentials(evidenceCase, false);
+	}
+
+	/**
+	 * @param evidenceCase Evidence in that the potentials will be projected
+	 * @param shareTables  when {@code true}, the projections of the table
+	 *                     potentials share the tables of this network, as
+	 *                     explained in
+	 *                     {@link TablePotential#tableProjectSharingTable(EvidenceCase)},
+	 *                     instead of copying their values. They are only valid
+	 *                     while the potentials of the network are not modified
+	 * @return The potentials of the network projected on the evidence
+	 * @throws NonProjectablePotentialException NonProjectablePotentialException
+	 * @throws WrongCriterionException WrongCriterionException
+	 */
+	public List<TablePotential> tableProjectPotentials(EvidenceCase evidenceCase, boolean shareTables)
+			throws NonProjectablePotentialException, WrongCriterionException {
 		List<Potential> originalPotentials = getSortedPotentials();
 		List<TablePotential> projectedPotentials = new ArrayList<>();
 		// each original potential may yield several projected potentials;
 		List<TablePotential> potentials;
 		for (Potential potential : originalPotentials) {
+			if (shareTables && potential.getClass() == TablePotential.class) {
+				projectedPotentials.add(((TablePotential) potential).tableProjectSharingTable(evidenceCase));
+				continue;
+			}
 			InferenceOptions inferenceOptions = new InferenceOptions(this, null);
 			potentials = potential.tableProject(evidenceCase, inferenceOptions, projectedPotentials);
 			projectedPotentials.addAll(potentials);
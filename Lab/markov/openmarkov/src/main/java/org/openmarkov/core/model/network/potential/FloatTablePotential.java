@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.core.model.network.potential;
+
+import org.openmarkov.core.model.network.Variable;
+
+import java.util.List;
+
+/**
+ * A table potential whose values are stored in single precision, in
+ * {@link #floatValues}; {@link TablePotential#values} is {@code null}. It is
+ * an intermediate result of the operations of
+ * {@link org.openmarkov.core.model.network.potential.operation.PotentialOperationPlan}
+ * in {@link org.openmarkov.core.inference.TableRepresentation#FLOAT}, which
+ * read it directly, and must be converted with {@link #toTablePotential()}
+ * before being used by other operations.
+ */
+public class FloatTablePotential extends TablePotential {
+
+	// Attributes
+	/**
+	 * Values of the potential, with the layout of a {@code TablePotential}
+	 * with the same variables
+	 */
+	public final float[] floatValues;
+
+	// Constructor
+
+	/**
+	 * @param variables variables of the potential
+	 * @param role      role of the potential
+	 * @param values    values, with the layout of a {@code TablePotential}
+	 *                  with the same variables
+	 */
+	public FloatTablePotential(List<Variable> variables, PotentialRole role, float[] values) {
+		super(variables, role, null, 0, TablePotential.calculateOffsets(TablePotential.calculateDimensions(variables)),
+				TablePotential.calculateDimensions(variables));
+		floatValues = values;
+	}
+
+	// Methods
+
+	/**
+	 * @return A {@code TablePotential} with the same variables and the
+	 * values in double precision
+	 */
+	public TablePotential toTablePotential() {
+		return new TablePotential(getVariables(), getPotentialRole(), getValues());
+	}
+
+	/**
+	 * @return A copy of the values in double precision
+	 */
+	@Override
+	public double[] getValues() {
+		double[] values = new double[floatValues.length];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = floatValues[i];
+		}
+		return values;
+	}
+
+	@Override
+	public Potential copy() {
+		return new FloatTablePotential(getVariables(), getPotentialRole(), floatValues.clone());
+	}
+
+	@Override
+	public String toString() {
+		return toTablePotential().toString();
+	}
+
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.core.model.network.potential;
+
+import org.openmarkov.core.model.network.Variable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A table of a potential stored outside the Java heap, for the tables that
+ * do not fit in a {@code double[]}: either more than 2<sup>31</sup> - 1
+ * configurations or more memory than the heap. The values are kept in direct
+ * buffers or in a scratch file mapped into memory, divided into chunks of
+ * 2<sup>27</sup> values, and the positions are {@code long}. The layout of
+ * the table is that of a {@link TablePotential} with the same variables, so
+ * the first variable changes fastest.
+ * <p>
+ * The memory of the buffers is released when the potential is garbage
+ * collected; {@link #close()} deletes the scratch file of a mapped table. The
+ * multiplication and marginalization of these tables are in
+ * {@link org.openmarkov.core.model.network.potential.operation.DiscretePotentialOperations}.
+ * <p>
+ * This is a table type of its own, not a representation of
+ * {@code TablePotential}: the inference algorithms, including the cliques of
+ * the junction trees, keep their tables in {@code TablePotential}s. It is
+ * meant for the products that do not fit in them; a result that does fit
+ * can be converted back with {@link #toTablePotential()}.
+ */
+public class OffHeapTablePotential implements Closeable {
+
+	// Attributes
+	private static final int CHUNK_BITS = 27;
+
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+	private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final List<Variable> variables;
+
+	private final PotentialRole role;
+
+	private final int[] dimensions;
+
+	private final long[] offsets;
+
+	private final long tableSize;
+
+	private final DoubleBuffer[] chunks;
+
+	/**
+	 * Scratch file of a mapped table; {@code null} when the table is in
+	 * direct buffers
+	 */
+	private File scratchFile;
+
+	// Constructor
+
+	/**
+	 * @param variables   variables of the table
+	 * @param role        role of the potential
+	 * @param scratchFile file whose contents are the values, or {@code null}
+	 *                    to store them in direct buffers
+	 */
+	private OffHeapTablePotential(List<Variable> variables, PotentialRole role, File scratchFile) {
+		this.variables = Collections.unmodifiableList(new ArrayList<>(variables));
+		this.role = role;
+		this.scratchFile = scratchFile;
+		int numVariables = variables.size();
+		dimensions = new int[numVariables];
+		offsets = new long[numVariables];
+		long size = 1;
+		for (int i = 0; i < numVariables; i++) {
+			dimensions[i] = variables.get(i).getNumStates();
+			offsets[i] = size;
+			size = Math.multiplyExact(size, dimensions[i]);
+		}
+		tableSize = size;
+		int numChunks = (int) ((tableSize + CHUNK_SIZE - 1) >>> CHUNK_BITS);
+		chunks = new DoubleBuffer[numChunks];
+		if (scratchFile == null) {
+			for (int i = 0; i < numChunks; i++) {
+				chunks[i] = ByteBuffer.allocateDirect(getChunkLength(i) * Double.BYTES)
+						.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+			}
+		} else {
+			try (RandomAccessFile file = new RandomAccessFile(scratchFile, "rw")) {
+				FileChannel channel = file.getChannel();
+				for (int i = 0; i < numChunks; i++) {
+					long position = ((long) i << CHUNK_BITS) * Double.BYTES;
+					chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, position,
+							(long) getChunkLength(i) * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+				}
+			} catch (IOException e) {
+				scratchFile.delete();
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * @param variables variables of the table
+	 * @param role      role of the potential
+	 * @return A table of zeros in direct buffers
+	 */
+	public static OffHeapTablePotential allocate(List<Variable> variables, PotentialRole role) {
+		return new OffHeapTablePotential(variables, role, null);
+	}
+
+	/**
+	 * @param variables        variables of the table
+	 * @param role             role of the potential
+	 * @param scratchDirectory directory of the scratch file. {@code null} for
+	 *                         the default temporary directory
+	 * @return A table of zeros mapped to a new scratch file, which is deleted
+	 * by {@link #close()} or when the virtual machine exits
+	 */
+	public static OffHeapTablePotential map(List<Variable> variables, PotentialRole role, File scratchDirectory) {
+		File scratchFile;
+		try {
+			scratchFile = File.createTempFile("openmarkov", ".table", scratchDirectory);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		scratchFile.deleteOnExit();
+		return new OffHeapTablePotential(variables, role, scratchFile);
+	}
+
+	/**
+	 * @param potential a table potential
+	 * @return A copy of {@code potential} in direct buffers
+	 */
+	public static OffHeapTablePotential copyOf(TablePotential potential) {
+		OffHeapTablePotential copy = allocate(potential.getVariables(), potential.getPotentialRole());
+		int initialPosition = potential.getInitialPosition();
+		if (initialPosition == 0 && potential.values.length == copy.tableSize) {
+			for (int i = 0; i < copy.chunks.length; i++) {
+				copy.chunks[i].duplicate().put(potential.values, i << CHUNK_BITS, copy.getChunkLength(i));
+			}
+		} else {
+			// a projected potential: its offsets are those of the table it was projected from
+			int[] potentialOffsets = potential.getOffsets();
+			int[] coordinate = new int[copy.dimensions.length];
+			int position = initialPosition;
+			for (long i = 0; i < copy.tableSize; i++) {
+				copy.setValue(i, potential.values[position]);
+				for (int j = 0; j < coordinate.length; j++) {
+					position += potentialOffsets[j];
+					if (++coordinate[j] < copy.dimensions[j]) {
+						break;
+					}
+					position -= potentialOffsets[j] * copy.dimensions[j];
+					coordinate[j] = 0;
+				}
+			}
+		}
+		return copy;
+	}
+
+	// Methods
+
+	/**
+	 * @return A {@code TablePotential} with the same variables and values
+	 * @throws OutOfMemoryError when the table does not fit in an array
+	 */
+	public TablePotential toTablePotential() {
+		if (tableSize > Integer.MAX_VALUE - 8) {
+			throw new OutOfMemoryError("The table has " + tableSize + " values.");
+		}
+		double[] values = new double[(int) tableSize];
+		for (int i = 0; i < chunks.length; i++) {
+			chunks[i].duplicate().get(values, i << CHUNK_BITS, getChunkLength(i));
+		}
+		return new TablePotential(variables, role, values);
+	}
+
+	/**
+	 * @param position position in the table, from 0 to
+	 *                 {@code getTableSize() - 1}
+	 * @return The value at {@code position}
+	 */
+	public double getValue(long position) {
+		return chunks[(int) (position >>> CHUNK_BITS)].get((int) (position & CHUNK_MASK));
+	}
+
+	/**
+	 * @param position position in the table, from 0 to
+	 *                 {@code getTableSize() - 1}
+	 * @param value    new value
+	 */
+	public void setValue(long position, double value) {
+		chunks[(int) (position >>> CHUNK_BITS)].put((int) (position & CHUNK_MASK), value);
+	}
+
+	/**
+	 * @param value value of all the configurations
+	 */
+	public void fill(double value) {
+		for (DoubleBuffer chunk : chunks) {
+			for (int i = 0; i < chunk.capacity(); i++) {
+				chunk.put(i, value);
+			}
+		}
+	}
+
+	/**
+	 * @return The sum of all the values
+	 */
+	public double sum() {
+		double sum = 0.0;
+		for (DoubleBuffer chunk : chunks) {
+			for (int i = 0; i < chunk.capacity(); i++) {
+				sum += chunk.get(i);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * @param chunk index of a chunk
+	 * @return Number of values in the chunk
+	 */
+	private int getChunkLength(int chunk) {
+		return (int) Math.min(CHUNK_SIZE, tableSize - ((long) chunk << CHUNK_BITS));
+	}
+
+	/**
+	 * @return Number of configurations
+	 */
+	public long getTableSize() {
+		return tableSize;
+	}
+
+	public List<Variable> getVariables() {
+		return variables;
+	}
+
+	public int getNumVariables() {
+		return variables.size();
+	}
+
+	public PotentialRole getPotentialRole() {
+		return role;
+	}
+
+	/**
+	 * @return Number of states of each variable
+	 */
+	public int[] getDimensions() {
+		return dimensions.clone();
+	}
+
+	/**
+	 * @return Offset of each variable in the table
+	 */
+	public long[] getOffsets() {
+		return offsets.clone();
+	}
+
+	/**
+	 * @return {@code true} if the table is mapped to a scratch file
+	 */
+	public boolean isMapped() {
+		return scratchFile != null;
+	}
+
+	/**
+	 * Deletes the scratch file of a mapped table. The table must not be used
+	 * afterwards.
+	 */
+	@Override
+	public void close() {
+		if (scratchFile != null) {
+			scratchFile.delete();
+			scratchFile = null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder buffer = new StringBuilder("OffHeapTablePotential(");
+		for (int i = 0; i < variables.size(); i++) {
+			buffer.append(i > 0 ? ", " : "").append(variables.get(i).getName());
+		}
+		return buffer.append("): ").append(tableSize).append(" values").toString();
+	}
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.core.model.network.potential;
+
+import org.openmarkov.core.model.network.Variable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A table of a potential most of whose values are 0, as those of the
+ * deterministic potentials and the potentials of the findings, that only
+ * stores the values different from 0 and their positions, in increasing
+ * order. The positions are those of a {@link TablePotential} with the same
+ * variables, so the first variable changes fastest.
+ * <p>
+ * The multiplication and marginalization of potentials driven by the values
+ * of a sparse table are in
+ * {@link org.openmarkov.core.model.network.potential.operation.DiscretePotentialOperations}.
+ */
+public class SparseTablePotential {
+
+	// Attributes
+	private final List<Variable> variables;
+
+	private final PotentialRole role;
+
+	private final int[] dimensions;
+
+	private final int tableSize;
+
+	/**
+	 * Positions of the values different from 0, in increasing order
+	 */
+	private final int[] positions;
+
+	/**
+	 * Values different from 0, in the order of {@code positions}
+	 */
+	private final double[] values;
+
+	// Constructor
+
+	/**
+	 * @param variables variables of the table
+	 * @param role      role of the potential
+	 * @param positions positions of the values different from 0, in
+	 *                  increasing order
+	 * @param values    values at {@code positions}
+	 */
+	public SparseTablePotential(List<Variable> variables, PotentialRole role, int[] positions, double[] values) {
+		this.variables = Collections.unmodifiableList(new ArrayList<>(variables));
+		this.role = role;
+		this.positions = positions;
+		this.values = values;
+		dimensions = TablePotential.calculateDimensions(variables);
+		tableSize = TablePotential.computeTableSize(variables);
+	}
+
+	/**
+	 * @param potential a table potential
+	 * @return The values of {@code potential} different from 0
+	 */
+	public static SparseTablePotential compress(TablePotential potential) {
+		return compress(potential, 1.0);
+	}
+
+	/**
+	 * @param potential  a table potential
+	 * @param maxDensity greatest proportion of values different from 0
+	 * @return The values of {@code potential} different from 0, or
+	 * {@code null} if their proportion is greater than {@code maxDensity}.
+	 * The table is only read until this is known
+	 */
+	public static SparseTablePotential compress(TablePotential potential, double maxDensity) {
+		int size = potential.getTableSize();
+		int maxNonZeros = (int) Math.min(size, Math.floor(maxDensity * size));
+		int[] positions = new int[Math.min(maxNonZeros, 16)];
+		double[] values = new double[positions.length];
+		int numNonZeros = 0;
+		double[] table = potential.values;
+		int initialPosition = potential.getInitialPosition();
+		if (initialPosition == 0 && table.length == size) {
+			for (int i = 0; i < size; i++) {
+				if (table[i] != 0.0) {
+					if (numNonZeros == maxNonZeros) {
+						return null;
+					}
+					if (numNonZeros == positions.length) {
+						positions = Arrays.copyOf(positions, Math.min(maxNonZeros, 2 * numNonZeros));
+						values = Arrays.copyOf(values, positions.length);
+					}
+					positions[numNonZeros] = i;
+					values[numNonZeros++] = table[i];
+				}
+			}
+		} else {
+			// a projected potential: its offsets are those of the table it was projected from
+			int[] potentialOffsets = potential.getOffsets();
+			int[] potentialDimensions = potential.getDimensions();
+			int[] coordinate = new int[potentialDimensions.length];
+			int position = initialPosition;
+			for (int i = 0; i < size; i++) {
+				if (table[position] != 0.0) {
+					if (numNonZeros == maxNonZeros) {
+						return null;
+					}
+					if (numNonZeros == positions.length) {
+						positions = Arrays.copyOf(positions, Math.min(maxNonZeros, 2 * numNonZeros));
+						values = Arrays.copyOf(values, positions.length);
+					}
+					positions[numNonZeros] = i;
+					values[numNonZeros++] = table[position];
+				}
+				for (int j = 0; j < coordinate.length; j++) {
+					position += potentialOffsets[j];
+					if (++coordinate[j] < potentialDimensions[j]) {
+						break;
+					}
+					position -= potentialOffsets[j] * potentialDimensions[j];
+					coordinate[j] = 0;
+				}
+			}
+		}
+		return new SparseTablePotential(potential.getVariables(), potential.getPotentialRole(),
+				Arrays.copyOf(positions, numNonZeros), Arrays.copyOf(values, numNonZeros));
+	}
+
+	// Methods
+
+	/**
+	 * @return A {@code TablePotential} with the same variables and values
+	 */
+	public TablePotential toTablePotential() {
+		double[] table = new double[tableSize];
+		for (int i = 0; i < positions.length; i++) {
+			table[positions[i]] = values[i];
+		}
+		return new TablePotential(variables, role, table);
+	}
+
+	/**
+	 * @param position position in the table, from 0 to
+	 *                 {@code getTableSize() - 1}
+	 * @return The value at {@code position}
+	 */
+	public double getValue(int position) {
+		int index = Arrays.binarySearch(positions, position);
+		return (index >= 0) ? values[index] : 0.0;
+	}
+
+	/**
+	 * @return Positions of the values different from 0, in increasing order.
+	 * The array must not be modified
+	 */
+	public int[] getPositions() {
+		return positions;
+	}
+
+	/**
+	 * @return Values different from 0, in the order of
+	 * {@link #getPositions()}. The array must not be modified
+	 */
+	public double[] getNonZeroValues() {
+		return values;
+	}
+
+	/**
+	 * @return Number of values different from 0
+	 */
+	public int getNumNonZeros() {
+		return positions.length;
+	}
+
+	/**
+	 * @return Proportion of the configurations whose value is different
+	 * from 0
+	 */
+	public double getDensity() {
+		return (double) positions.length / tableSize;
+	}
+
+	/**
+	 * @return Number of configurations
+	 */
+	public int getTableSize() {
+		return tableSize;
+	}
+
+	public List<Variable> getVariables() {
+		return variables;
+	}
+
+	public int getNumVariables() {
+		return variables.size();
+	}
+
+	public PotentialRole getPotentialRole() {
+		return role;
+	}
+
+	/**
+	 * @return Number of states of each variable
+	 */
+	public int[] getDimensions() {
+		return dimensions.clone();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder buffer = new StringBuilder("SparseTablePotential(");
+		for (int i = 0; i < variables.size(); i++) {
+			buffer.append(i > 0 ? ", " : "").append(variables.get(i).getName());
+		}
+		return buffer.append("): ").append(positions.length).append(" of ").append(tableSize)
+				.append(" values").toString();
+	}
+
+}
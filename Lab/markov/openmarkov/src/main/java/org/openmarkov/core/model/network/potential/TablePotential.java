@@ -119,7 +119,16 @@ import java.util.Random;
 	 * Condition: All variables must be discrete.
 	 */
 	public TablePotential(List<Variable> variables, PotentialRole role, double[] table) {
-		this(variables, role);
+		super(variables, role);
+		// the table is not allocated nor initialized, as it is replaced by table
+		if ((variables != null) && (variables.size() != 0)) {
+			dimensions = TablePotential.calculateDimensions(variables);
+			offsets = TablePotential.calculateOffsets(dimensions);
+			tableSize = computeTableSize(variables);
+		} else {
+			tableSize = 1;
+			offsets = new int[0];
+		}
 		this.values = table;
 	}
 
@@ -133,7 +142,8 @@ import java.util.Random;
 	}
 
 	/**
-	 * Internal constructor used to create a projected potential.
+	 * Internal constructor used to create a projected potential. It does not
+	 * allocate a table, so subclasses can store the values elsewhere.
 	 *
 	 * @param variables       . {@code ArrayList} of {@code Variable}
 	 * @param role            . {@code PotentialRole}
@@ -143,7 +153,7 @@ import java.util.Random;
 	 * @param offsets         of variables. {@code int[]}
 	 * @param dimensions      . Number of states of each variable. {@code int[]}
 	 */
-	private TablePotential(List<Variable> variables, PotentialRole role, double[] table, int initialPosition,
+	protected TablePotential(List<Variable> variables, PotentialRole role, double[] table, int initialPosition,
 			int[] offsets, int[] dimensions) {
 		super(variables, role);
 		// this.originalVariables = this.variables;
@@ -523,6 +533,55 @@ import java.util.Random;
 		return newProjectedPotentials;
 	}
 
+	/**
+	 * Projects this potential on {@code evidenceCase} without copying its
+	 * table: the result shares the table of this potential, starts at the
+	 * position of the observed states and keeps the offsets of the unobserved
+	 * variables in this table. The operations of
+	 * {@link DiscretePotentialOperations} read the values of the projection
+	 * through {@link #getInitialPosition()} and {@link #getOffsets()}, so the
+	 * evidence is applied during the operation. The table of this potential must not be modified while the
+	 * projection is used.
+	 * <p>
+	 * The potentials of the subclasses, those with interventions or uncertain
+	 * values and those whose variables are all observed are projected by
+	 * {@link #tableProject(EvidenceCase, InferenceOptions, List)}, which
+	 * copies the values.
+	 *
+	 * @param evidenceCase {@code EvidenceCase}. May be {@code null}
+	 * @return This potential projected on {@code evidenceCase}, or this
+	 * potential when none of its variables is observed
+	 * @throws WrongCriterionException WrongCriterionException
+	 */
+	public TablePotential tableProjectSharingTable(EvidenceCase evidenceCase) throws WrongCriterionException {
+		List<Variable> unobservedVariables = new ArrayList<>(variables);
+		if (evidenceCase != null) {
+			unobservedVariables.removeAll(evidenceCase.getVariables());
+		}
+		int numUnobservedVariables = unobservedVariables.size();
+		if (numUnobservedVariables == variables.size()) {
+			return this;
+		}
+		if (getClass() != TablePotential.class || strategyTrees != null || uncertainValues != null
+				|| numUnobservedVariables == 0) {
+			return tableProject(evidenceCase, null, null).get(0);
+		}
+		int firstPosition = initialPosition;
+		int[] projectedOffsets = new int[numUnobservedVariables];
+		int[] projectedDimensions = new int[numUnobservedVariables];
+		for (int i = 0, j = 0; i < variables.size(); i++) {
+			Variable variable = variables.get(i);
+			if (evidenceCase.contains(variable)) {
+				firstPosition += evidenceCase.getState(variable) * offsets[i];
+			} else {
+				projectedOffsets[j] = offsets[i];
+				projectedDimensions[j++] = dimensions[i];
+			}
+		}
+		return new TablePotential(unobservedVariables, role, values, firstPosition, projectedOffsets,
+				projectedDimensions);
+	}
+
 	@Override public TablePotential project(EvidenceCase evidenceCase)
 			throws NonProjectablePotentialException, WrongCriterionException {
 		return tableProject(evidenceCase, null).get(0);
@@ -48,7 +48,7 @@ public class AuxiliaryOperations {
 	public static List<TablePotential> getNonConstantPotentials(Collection<TablePotential> potentials) {
 		List<TablePotential> properPotentials = new ArrayList<>();
 		for (TablePotential potential : potentials) {
-			if (potential.values.length > 1) {
+			if (potential.getTableSize() > 1) {
 				properPotentials.add(potential);
 			}
 		}
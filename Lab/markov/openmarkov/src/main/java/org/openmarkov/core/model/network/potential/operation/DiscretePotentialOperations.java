@@ -28,14 +28,17 @@ import org.openmarkov.core.model.network.potential.AugmentedTable;
 import org.openmarkov.core.model.network.potential.AugmentedTablePotential;
 import org.openmarkov.core.model.network.potential.FunctionPotential;
 import org.openmarkov.core.model.network.potential.GTablePotential;
+import org.openmarkov.core.model.network.potential.OffHeapTablePotential;
 import org.openmarkov.core.model.network.potential.Potential;
 import org.openmarkov.core.model.network.potential.PotentialRole;
+import org.openmarkov.core.model.network.potential.SparseTablePotential;
 import org.openmarkov.core.model.network.potential.StrategyTree;
 import org.openmarkov.core.model.network.potential.TablePotential;
 import org.openmarkov.core.model.network.potential.UnivariateDistrPotential;
 
 import net.sourceforge.jeval.EvaluationException;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -67,6 +70,18 @@ public final class DiscretePotentialOperations {
 	 * {@code maxRoundErrorAllowed} they will be considered equals.
 	 */
 	public static double maxRoundErrorAllowed = 1E-8;
+	/**
+	 * Greatest proportion of values different from 0 of a potential for a
+	 * multiplication or marginalization to only visit the configurations in
+	 * which its value is not 0 (see {@link SparseTablePotential}). 0 disables
+	 * the sparse operations.
+	 */
+	public static double maxSparseDensity = 0.1;
+	/**
+	 * Smallest iteration space of an operation for which the density of the
+	 * operands is examined.
+	 */
+	private static final long MIN_SPARSE_ITERATION_SIZE = 1 << 10;
 
 	/**
 	 * @param tablePotentials {@code ArrayList} of extends {@code Potential}.
@@ -131,6 +146,22 @@ public final class DiscretePotentialOperations {
 		// Gets the union
 		List<Variable> resultVariables = AuxiliaryOperations.getUnionVariables(potentials);
 
+		if (findFirstPotentialWithInterventions(tablePotentials) == null) {
+			TablePotential product = multiplyAndMarginalizeSparse(tablePotentials, resultVariables,
+					new ArrayList<Variable>());
+			if (product == null && PotentialOperationPlan.contiguousRuns) {
+				List<TablePotential> operands = new ArrayList<>(tablePotentials);
+				product = PotentialOperationPlan.multiplyAndMarginalize(operands, resultVariables,
+						new ArrayList<Variable>()).executeDense(operands);
+			}
+			if (product != null) {
+				if (criterion != null) {
+					product.setCriterion(criterion);
+				}
+				return product;
+			}
+		}
+
 		int numVariables = resultVariables.size();
 
 		// Gets the tables of each TablePotential
@@ -140,14 +171,14 @@ public final class DiscretePotentialOperations {
 		// Gets dimension
 		int[] resultDimension = TablePotential.calculateDimensions(resultVariables);
 
-		// Gets offset accumulate
-		int[][] offsetAccumulate = DiscretePotentialOperations.getAccumulatedOffsets(potentials, resultVariables);
+		// Gets offset accumulate in the tables, which are shared by the projected potentials
+		int[][] offsetAccumulate = getAccumulatedOffsetsInTables(potentials, resultVariables);
 
 		// Gets coordinate
 		int[] resultCoordinate = initializeCoordinates(numVariables);
 
 		// Position in each table potential
-		int[] potentialsPositions = initializeToZero(numPotentials);
+		int[] potentialsPositions = getInitialPositions(potentials);
 
 		// Multiply
 		int incrementedVariable = 0;
@@ -716,6 +747,18 @@ public final class DiscretePotentialOperations {
 			return resultingPotential;
 		}
 
+		TablePotential sparseResult = multiplyAndMarginalizeSparse(tablePotentials, variablesToKeep,
+				variablesToEliminate);
+		if (sparseResult != null) {
+			return sparseResult;
+		}
+		if (PotentialOperationPlan.contiguousRuns) {
+			// traverses the tables in runs of consecutive positions
+			List<TablePotential> operands = new ArrayList<>(tablePotentials);
+			return PotentialOperationPlan.multiplyAndMarginalize(operands, variablesToKeep, variablesToEliminate)
+					.executeDense(operands);
+		}
+
 		// variables in the resulting potential
 		List<Variable> unionVariables = new ArrayList<>(variablesToEliminate);
 		unionVariables.addAll(variablesToKeep);
@@ -729,14 +772,14 @@ public final class DiscretePotentialOperations {
 		double[][] tables = new double[numNonConstantPotentials][];
 		int[] initialPositions = new int[numNonConstantPotentials];
 		int[] currentPositions = new int[numNonConstantPotentials];
-		int[][] accumulatedOffsets = new int[numNonConstantPotentials][];
+		// in the tables, which are shared by the projected potentials
+		int[][] accumulatedOffsets = getAccumulatedOffsetsInTables(nonConstantPotentials, unionVariables);
 		// ... and initializes them
 		for (int i = 0; i < numNonConstantPotentials; i++) {
 			TablePotential potential = nonConstantPotentials.get(i);
 			tables[i] = potential.values;
 			initialPositions[i] = potential.getInitialPosition();
 			currentPositions[i] = initialPositions[i];
-			accumulatedOffsets[i] = TablePotential.getAccumulatedOffsets(unionVariables, potential.getVariables());
 		}
 
 		// The result size is the product of the dimensions of the
@@ -815,6 +858,290 @@ public final class DiscretePotentialOperations {
 		return new TablePotential(variablesToKeep, getRole(tablePotentials), resultValues);
 	}
 
+	/**
+	 * Multiplies the potentials projected on {@code evidenceCase} and sums out
+	 * some variables without copying the projections of the tables: each
+	 * potential is read from the position of the observed states in its own
+	 * table, as explained in
+	 * {@link TablePotential#tableProjectSharingTable(EvidenceCase)}.
+	 *
+	 * @param tablePotentials      potentials to multiply, not projected on
+	 *                             {@code evidenceCase}
+	 * @param evidenceCase         {@code EvidenceCase}. May be {@code null}
+	 * @param variablesToKeep      The set of variables that will appear in the resulting
+	 *                             potential
+	 * @param variablesToEliminate The set of variables eliminated by marginalization
+	 * @return A {@code TablePotential} result of multiply and marginalize.
+	 * Condition: variablesToKeep and variablesToEliminate are a partition of
+	 * the union of the unobserved variables of the potentials
+	 * @throws WrongCriterionException WrongCriterionException
+	 */
+	public static TablePotential multiplyAndMarginalize(Collection<TablePotential> tablePotentials,
+			EvidenceCase evidenceCase, List<Variable> variablesToKeep, List<Variable> variablesToEliminate)
+			throws WrongCriterionException {
+		List<TablePotential> projectedPotentials = new ArrayList<>(tablePotentials.size());
+		for (TablePotential potential : tablePotentials) {
+			projectedPotentials.add(potential.tableProjectSharingTable(evidenceCase));
+		}
+		return multiplyAndMarginalize(projectedPotentials, variablesToKeep, variablesToEliminate);
+	}
+
+	/**
+	 * @param potentials          potentials to multiply, not projected on
+	 *                            {@code evidenceCase}
+	 * @param evidenceCase        {@code EvidenceCase}. May be {@code null}
+	 * @param variablesOfInterest Set of variables that must be kept (although this set may
+	 *                            contain some variables that are not in any potential)
+	 * @return The product of the potentials projected on
+	 * {@code evidenceCase}, marginalized on {@code variablesOfInterest}
+	 * @throws WrongCriterionException WrongCriterionException
+	 * @see #multiplyAndMarginalize(Collection, EvidenceCase, List, List)
+	 */
+	public static TablePotential multiplyAndMarginalize(List<TablePotential> potentials, EvidenceCase evidenceCase,
+			List<Variable> variablesOfInterest) throws WrongCriterionException {
+		List<TablePotential> projectedPotentials = new ArrayList<>(potentials.size());
+		for (TablePotential potential : potentials) {
+			projectedPotentials.add(potential.tableProjectSharingTable(evidenceCase));
+		}
+		return multiplyAndMarginalize(projectedPotentials, variablesOfInterest);
+	}
+
+	/**
+	 * Multiplies a sparse table by some potentials and sums out some
+	 * variables, visiting only the configurations in which the value of the
+	 * sparse table is not 0. The time is proportional to the density of the
+	 * sparse table.
+	 *
+	 * @param sparsePotential      {@code SparseTablePotential}
+	 * @param potentials           the other potentials to multiply
+	 * @param variablesToKeep      variables of the result
+	 * @param variablesToEliminate variables summed out
+	 * @return A {@code TablePotential} result of multiply and marginalize.
+	 * Condition: variablesToKeep and variablesToEliminate are a partition of
+	 * the union of the variables of the potentials
+	 */
+	public static TablePotential multiplyAndMarginalize(SparseTablePotential sparsePotential,
+			Collection<TablePotential> potentials, List<Variable> variablesToKeep, List<Variable> variablesToEliminate) {
+		PotentialRole role = getRole(potentials);
+		if (role == PotentialRole.CONDITIONAL_PROBABILITY) {
+			role = sparsePotential.getPotentialRole();
+		}
+		return multiplyAndMarginalize(sparsePotential, new ArrayList<>(potentials), variablesToKeep,
+				variablesToEliminate, role, null);
+	}
+
+	/**
+	 * @param potentials           potentials to multiply
+	 * @param variablesToKeep      variables of the result
+	 * @param variablesToEliminate variables summed out
+	 * @return The product of the potentials, marginalized, computed from the
+	 * values different from 0 of the sparsest potential; {@code null} if no
+	 * potential has a density smaller than {@link #maxSparseDensity} or the
+	 * operation is too small to examine them
+	 */
+	static TablePotential multiplyAndMarginalizeSparse(Collection<TablePotential> potentials,
+			List<Variable> variablesToKeep, List<Variable> variablesToEliminate) {
+		return multiplyAndMarginalizeSparse(potentials, variablesToKeep, variablesToEliminate, null);
+	}
+
+	/**
+	 * @param potentials           potentials to multiply
+	 * @param variablesToKeep      variables of the result
+	 * @param variablesToEliminate variables summed out
+	 * @param result               potential with {@code variablesToKeep}
+	 *                             where the result is stored, or
+	 *                             {@code null} to create it
+	 * @return The product of the potentials, marginalized, computed from the
+	 * values different from 0 of the sparsest potential; {@code null}, with
+	 * {@code result} unchanged, if no potential has a density smaller than
+	 * {@link #maxSparseDensity} or the operation is too small to examine them
+	 */
+	static TablePotential multiplyAndMarginalizeSparse(Collection<TablePotential> potentials,
+			List<Variable> variablesToKeep, List<Variable> variablesToEliminate, TablePotential result) {
+		if (maxSparseDensity <= 0.0) {
+			return null;
+		}
+		long iterationSize = 1;
+		for (Variable variable : variablesToKeep) {
+			iterationSize *= variable.getNumStates();
+		}
+		for (Variable variable : variablesToEliminate) {
+			iterationSize *= variable.getNumStates();
+		}
+		if (iterationSize < MIN_SPARSE_ITERATION_SIZE) {
+			return null;
+		}
+		// the time of the operation is proportional to the density of the table that drives it
+		SparseTablePotential sparsestTable = null;
+		TablePotential sparsestPotential = null;
+		for (TablePotential potential : potentials) {
+			if (potential.getNumVariables() > 0 && potential.values != null && potential.strategyTrees == null) {
+				double maxDensity = (sparsestTable != null) ?
+						Math.min(maxSparseDensity, sparsestTable.getDensity()) :
+						maxSparseDensity;
+				SparseTablePotential table = SparseTablePotential.compress(potential, maxDensity);
+				if (table != null) {
+					sparsestTable = table;
+					sparsestPotential = potential;
+				}
+			}
+		}
+		if (sparsestTable == null) {
+			return null;
+		}
+		List<TablePotential> otherPotentials = new ArrayList<>(potentials.size() - 1);
+		for (TablePotential potential : potentials) {
+			if (potential != sparsestPotential) {
+				otherPotentials.add(potential);
+			}
+		}
+		return multiplyAndMarginalize(sparsestTable, otherPotentials, variablesToKeep, variablesToEliminate,
+				getRole(potentials), result);
+	}
+
+	/**
+	 * For each value of {@code sparsePotential} different from 0, iterates
+	 * over the configurations of the variables that are not in it. The
+	 * result is stored in {@code result} unless it is {@code null}.
+	 */
+	private static TablePotential multiplyAndMarginalize(SparseTablePotential sparsePotential,
+			List<TablePotential> potentials, List<Variable> variablesToKeep, List<Variable> variablesToEliminate,
+			PotentialRole role, TablePotential result) {
+		List<Variable> sparseVariables = sparsePotential.getVariables();
+		int numSparseVariables = sparseVariables.size();
+		List<Variable> freeVariables = new ArrayList<>();
+		for (Variable variable : variablesToEliminate) {
+			if (!sparseVariables.contains(variable)) {
+				freeVariables.add(variable);
+			}
+		}
+		for (Variable variable : variablesToKeep) {
+			if (!sparseVariables.contains(variable)) {
+				freeVariables.add(variable);
+			}
+		}
+		int numFreeVariables = freeVariables.size();
+		int[] freeDimensions = TablePotential.calculateDimensions(freeVariables);
+		int freeSize = TablePotential.computeTableSize(freeVariables);
+
+		// the result is the last table: its offsets are 0 for the variables to eliminate
+		int numPotentials = potentials.size();
+		int[] resultOffsets = variablesToKeep.isEmpty() ?
+				new int[0] :
+				TablePotential.calculateOffsets(TablePotential.calculateDimensions(variablesToKeep));
+		double[] resultValues;
+		if (result != null) {
+			resultValues = result.values;
+			Arrays.fill(resultValues, 0.0);
+		} else {
+			resultValues = new double[TablePotential.computeTableSize(variablesToKeep)];
+		}
+		double[][] tables = new double[numPotentials][];
+		int[] initialPositions = new int[numPotentials + 1];
+		int[][] sparseOffsets = new int[numPotentials + 1][numSparseVariables];
+		int[][] freeAccumulatedOffsets = new int[numPotentials + 1][numFreeVariables];
+		for (int i = 0; i <= numPotentials; i++) {
+			List<Variable> variables;
+			int[] offsets;
+			if (i < numPotentials) {
+				TablePotential potential = potentials.get(i);
+				tables[i] = potential.values;
+				initialPositions[i] = potential.getInitialPosition();
+				variables = potential.getVariables();
+				offsets = potential.getOffsets();
+			} else {
+				variables = variablesToKeep;
+				offsets = resultOffsets;
+			}
+			for (int k = 0; k < numSparseVariables; k++) {
+				int index = variables.indexOf(sparseVariables.get(k));
+				sparseOffsets[i][k] = (index != -1) ? offsets[index] : 0;
+			}
+			int covered = 0;
+			for (int j = 0; j < numFreeVariables; j++) {
+				int index = variables.indexOf(freeVariables.get(j));
+				int stride = (index != -1) ? offsets[index] : 0;
+				freeAccumulatedOffsets[i][j] = stride - covered;
+				covered += stride * (freeDimensions[j] - 1);
+			}
+		}
+
+		// A position of the sparse table is lowPosition + lowSize * highPosition, where lowPosition
+		// is the position of the configuration of its first variables; the position of each table
+		// for it is the sum of those for lowPosition and highPosition, tabulated
+		int[] sparseDimensions = sparsePotential.getDimensions();
+		int numLowVariables = 0;
+		int lowSize = 1;
+		while (numLowVariables < numSparseVariables && (long) lowSize * lowSize < sparsePotential.getTableSize()) {
+			lowSize *= sparseDimensions[numLowVariables++];
+		}
+		int[][] lowPositions = tabulatePositions(sparseDimensions, sparseOffsets, 0, numLowVariables, lowSize);
+		int[][] highPositions = tabulatePositions(sparseDimensions, sparseOffsets, numLowVariables,
+				numSparseVariables, sparsePotential.getTableSize() / lowSize);
+
+		int[] sparsePositions = sparsePotential.getPositions();
+		double[] sparseValues = sparsePotential.getNonZeroValues();
+		int[] positions = new int[numPotentials + 1];
+		int[] freeCoordinate = new int[numFreeVariables];
+		for (int n = 0; n < sparsePositions.length; n++) {
+			// positions of the tables in the first configuration of the free variables
+			int lowPosition = sparsePositions[n] % lowSize;
+			int highPosition = sparsePositions[n] / lowSize;
+			for (int i = 0; i <= numPotentials; i++) {
+				positions[i] = initialPositions[i] + lowPositions[i][lowPosition] + highPositions[i][highPosition];
+			}
+			double sparseValue = sparseValues[n];
+			for (int f = 0; f < freeSize; f++) {
+				double product = sparseValue;
+				for (int i = 0; i < numPotentials; i++) {
+					product *= tables[i][positions[i]];
+				}
+				resultValues[positions[numPotentials]] += product;
+				for (int j = 0; j < numFreeVariables; j++) {
+					if (++freeCoordinate[j] < freeDimensions[j]) {
+						for (int i = 0; i <= numPotentials; i++) {
+							positions[i] += freeAccumulatedOffsets[i][j];
+						}
+						break;
+					}
+					freeCoordinate[j] = 0;
+				}
+			}
+		}
+		return (result != null) ? result : new TablePotential(variablesToKeep, role, resultValues);
+	}
+
+	/**
+	 * @param dimensions number of states of the variables of a table
+	 * @param offsets    {@code offsets[i][k]}: offset of the variable
+	 *                   {@code k} of the table in the table {@code i}
+	 * @param first      first variable of the configurations
+	 * @param last       variable after the last one of the configurations
+	 * @param size       number of configurations of the variables from
+	 *                   {@code first} to {@code last - 1}
+	 * @return {@code positions[i][c]}: position in the table {@code i} of
+	 * the configuration {@code c} of the variables, the others being 0
+	 */
+	private static int[][] tabulatePositions(int[] dimensions, int[][] offsets, int first, int last, int size) {
+		int[][] positions = new int[offsets.length][size];
+		int[] coordinate = new int[last - first];
+		for (int c = 1; c < size; c++) {
+			// the variable k is increased and the previous ones go back to 0
+			int k = 0;
+			while (++coordinate[k] == dimensions[first + k]) {
+				coordinate[k++] = 0;
+			}
+			for (int i = 0; i < offsets.length; i++) {
+				int increment = offsets[i][first + k];
+				for (int j = 0; j < k; j++) {
+					increment -= offsets[i][first + j] * (dimensions[first + j] - 1);
+				}
+				positions[i][c] = positions[i][c - 1] + increment;
+			}
+		}
+		return positions;
+	}
+
 	/**
 	 * @param probPotential       probability potential
 	 * @param utilityPotential    utility potential
@@ -962,6 +1289,30 @@ public final class DiscretePotentialOperations {
 		return multiplyAndMarginalize(potentials, variablesToKeep, Arrays.asList(variableToEliminate));
 	}
 
+	/**
+	 * Multiplies the potentials and sums out the variables that are not in
+	 * {@code result}, storing the result in the table of {@code result}
+	 * instead of allocating a new one. The potentials must not have
+	 * interventions.
+	 *
+	 * @param potentials potentials to multiply
+	 * @param result     potential with the variables to keep, whose values
+	 *                   are replaced. It must not be projected nor one of
+	 *                   {@code potentials}
+	 * @return {@code result}
+	 */
+	public static TablePotential multiplyAndMarginalize(List<TablePotential> potentials, TablePotential result) {
+		List<Variable> variablesToKeep = result.getVariables();
+		List<Variable> variablesToEliminate = new ArrayList<>();
+		for (Variable variable : AuxiliaryOperations.getUnionVariables(potentials)) {
+			if (!variablesToKeep.contains(variable)) {
+				variablesToEliminate.add(variable);
+			}
+		}
+		return PotentialOperationPlan.multiplyAndMarginalize(potentials, variablesToKeep, variablesToEliminate)
+				.execute(potentials, result);
+	}
+
 	/**
 	 * @param potential           {@code Potential} to marginalize
 	 * @param variableToEliminate {@code Variable}
@@ -1020,6 +1371,95 @@ public final class DiscretePotentialOperations {
 		return DiscretePotentialOperations.multiplyAndMarginalize(potentials, variablesToKeep, variablesToEliminate);
 	}
 
+	/**
+	 * Multiplies potentials stored outside the heap, keeping all their
+	 * variables.
+	 *
+	 * @param potentials       potentials to multiply
+	 * @param scratchDirectory directory of the scratch file mapped to the
+	 *                         result; {@code null} to store the result in
+	 *                         direct buffers
+	 * @return The product of {@code potentials}
+	 */
+	public static OffHeapTablePotential multiplyOffHeap(List<OffHeapTablePotential> potentials,
+			File scratchDirectory) {
+		List<Variable> unionVariables = new ArrayList<>();
+		for (OffHeapTablePotential potential : potentials) {
+			for (Variable variable : potential.getVariables()) {
+				if (!unionVariables.contains(variable)) {
+					unionVariables.add(variable);
+				}
+			}
+		}
+		return multiplyAndMarginalizeOffHeap(potentials, unionVariables, scratchDirectory);
+	}
+
+	/**
+	 * Multiplies potentials stored outside the heap and sums out the
+	 * variables that are not in {@code variablesToKeep}, with the traversal
+	 * of {@link PotentialOperationPlan#offHeap(List, List)}. The positions
+	 * are {@code long}, so the operands and the result may have more than
+	 * 2<sup>31</sup> - 1 configurations.
+	 *
+	 * @param potentials       potentials to multiply. The small ones can be
+	 *                         copied from {@code TablePotential}s with
+	 *                         {@link OffHeapTablePotential#copyOf(TablePotential)}
+	 * @param variablesToKeep  variables of the result, in its order
+	 * @param scratchDirectory directory of the scratch file mapped to the
+	 *                         result; {@code null} to store the result in
+	 *                         direct buffers
+	 * @return The product of {@code potentials} marginalized onto
+	 * {@code variablesToKeep}
+	 */
+	public static OffHeapTablePotential multiplyAndMarginalizeOffHeap(List<OffHeapTablePotential> potentials,
+			List<Variable> variablesToKeep, File scratchDirectory) {
+		PotentialRole role = PotentialRole.CONDITIONAL_PROBABILITY;
+		for (OffHeapTablePotential potential : potentials) {
+			if (potential.getPotentialRole() == PotentialRole.JOINT_PROBABILITY) {
+				role = PotentialRole.JOINT_PROBABILITY;
+			}
+		}
+		OffHeapTablePotential result = (scratchDirectory != null) ?
+				OffHeapTablePotential.map(variablesToKeep, role, scratchDirectory) :
+				OffHeapTablePotential.allocate(variablesToKeep, role);
+		return PotentialOperationPlan.offHeap(potentials, variablesToKeep).execute(potentials, result);
+	}
+
+	/**
+	 * @param potential {@code TablePotential}
+	 * @return A potential with the same variables whose values are the
+	 * natural logarithms of those of {@code potential}; the logarithm of 0 is
+	 * {@code Double.NEGATIVE_INFINITY}
+	 */
+	public static TablePotential logarithm(TablePotential potential) {
+		TablePotential logarithm = new TablePotential(potential);
+		double[] values = logarithm.values;
+		for (int i = 0; i < values.length; i++) {
+			values[i] = Math.log(values[i]);
+		}
+		return logarithm;
+	}
+
+	/**
+	 * @param logarithm potential whose values are logarithms
+	 * @return A potential with the same variables whose values are the
+	 * exponentials of those of {@code logarithm} divided by the greatest one,
+	 * so that they do not underflow. It is proportional to the potential
+	 * whose logarithm is {@code logarithm}
+	 */
+	public static TablePotential exponential(TablePotential logarithm) {
+		TablePotential exponential = new TablePotential(logarithm);
+		double[] values = exponential.values;
+		double max = Double.NEGATIVE_INFINITY;
+		for (double value : values) {
+			max = Math.max(max, value);
+		}
+		for (int i = 0; i < values.length; i++) {
+			values[i] = (max != Double.NEGATIVE_INFINITY) ? Math.exp(values[i] - max) : 0.0;
+		}
+		return exponential;
+	}
+
 	/**
 	 * @param potentials An array of ordered {@code TablePotential}s
 	 * @return constantFactor: The product of the constant potentials (the first
@@ -1029,8 +1469,8 @@ public final class DiscretePotentialOperations {
 	public static double getConstantFactor(List<TablePotential> potentials) {
 		double constantFactor = 1.0;
 		for (TablePotential potential : potentials) {
-			if (potential.values.length == 1) {
-				constantFactor *= potential.values[0];
+			if (potential.getTableSize() == 1) {
+				constantFactor *= potential.values[potential.getInitialPosition()];
 			}
 		}
 		return constantFactor;
@@ -1078,6 +1518,49 @@ public final class DiscretePotentialOperations {
 		return accumulatedOffsets;
 	}
 
+	/**
+	 * Compute the accumulated offsets of the potentials in their tables with
+	 * the order imposed by {@code variables}. Unlike
+	 * {@link #getAccumulatedOffsets(List, List)}, they are computed from the
+	 * offsets of the potentials, so they are also valid for the projected
+	 * potentials that share the table they were projected from.
+	 *
+	 * @param potentials {@code List} of {@code TablePotential}s.
+	 * @param variables  list of variables
+	 * @return An array of arrays of integers ({@code int[][]}).
+	 */
+	private static int[][] getAccumulatedOffsetsInTables(List<TablePotential> potentials, List<Variable> variables) {
+		int numVariables = variables.size();
+		int[][] accumulatedOffsets = new int[potentials.size()][numVariables];
+		for (int i = 0; i < accumulatedOffsets.length; i++) {
+			TablePotential potential = potentials.get(i);
+			List<Variable> potentialVariables = potential.getVariables();
+			int[] potentialOffsets = potential.getOffsets();
+			// increment of the position when the variable is incremented
+			// and the previous ones go back to their first state
+			int covered = 0;
+			for (int j = 0; j < numVariables; j++) {
+				int index = potentialVariables.indexOf(variables.get(j));
+				int offset = (index == -1) ? 0 : potentialOffsets[index];
+				accumulatedOffsets[i][j] = offset - covered;
+				covered += offset * (variables.get(j).getNumStates() - 1);
+			}
+		}
+		return accumulatedOffsets;
+	}
+
+	/**
+	 * @param potentials {@code List} of {@code TablePotential}s.
+	 * @return The first position of each potential in its table
+	 */
+	private static int[] getInitialPositions(List<TablePotential> potentials) {
+		int[] initialPositions = new int[potentials.size()];
+		for (int i = 0; i < initialPositions.length; i++) {
+			initialPositions[i] = potentials.get(i).getInitialPosition();
+		}
+		return initialPositions;
+	}
+
 	/**
 	 * @param potentials           list of TablePotentials
 	 * @param variablesToEliminate variables to eliminate
@@ -1169,7 +1652,8 @@ public final class DiscretePotentialOperations {
 		denominatorVariables.removeAll(numeratorVariables);
 		numeratorVariables.addAll(denominatorVariables);
 		List<Variable> quotientVariables = numeratorVariables;
-		TablePotential quotient = new TablePotential(quotientVariables, PotentialRole.JOINT_PROBABILITY);
+		TablePotential quotient = new TablePotential(quotientVariables, PotentialRole.JOINT_PROBABILITY,
+				new double[TablePotential.computeTableSize(quotientVariables)]);
 		if ((numNumeratorVariables == 0) || (numDenominatorVariables == 0)) {
 			return divide(tNumerator, tDenominator, quotient, numNumeratorVariables, numDenominatorVariables);
 		}
@@ -1274,6 +1758,110 @@ public final class DiscretePotentialOperations {
 		return quotient;
 	}
 
+	/**
+	 * Multiplies {@code target} by {@code factor} in place: the product is
+	 * stored in the table of {@code target}.
+	 *
+	 * @param target potential whose values are replaced by the product. It
+	 *               must not be projected
+	 * @param factor potential whose variables are included in those of
+	 *               {@code target}
+	 * @return {@code target}
+	 */
+	public static TablePotential multiplyInto(TablePotential target, TablePotential factor) {
+		combineInto(target, factor, false);
+		return target;
+	}
+
+	/**
+	 * Divides {@code target} by {@code denominator} in place: the quotient is
+	 * stored in the table of {@code target}. As in
+	 * {@link #divide(Potential, Potential)}, the quotient of a division by 0
+	 * is 0.
+	 *
+	 * @param target      potential whose values are replaced by the
+	 *                    quotient. It must not be projected
+	 * @param denominator potential whose variables are included in those of
+	 *                    {@code target}
+	 * @return {@code target}
+	 */
+	public static TablePotential divideInto(TablePotential target, TablePotential denominator) {
+		combineInto(target, denominator, true);
+		return target;
+	}
+
+	/**
+	 * Multiplies or divides each value of {@code target} by the value of
+	 * {@code other} for the same configuration of its variables. The runs
+	 * of the first variable of {@code target} are traversed without
+	 * branches.
+	 */
+	private static void combineInto(TablePotential target, TablePotential other, boolean divide) {
+		List<Variable> variables = target.getVariables();
+		List<Variable> otherVariables = other.getVariables();
+		if (!variables.containsAll(otherVariables)) {
+			throw new IllegalArgumentException(
+					"The variables " + otherVariables + " are not included in " + variables + ".");
+		}
+		int numVariables = variables.size();
+		int[] dimensions = TablePotential.calculateDimensions(variables);
+		int[] otherOffsets = other.getOffsets();
+		// the first variable is traversed by the runs; the others by the accumulated offsets
+		int runLength = (numVariables > 0) ? dimensions[0] : 1;
+		int runStride = 0;
+		int[] accumulatedOffsets = new int[numVariables];
+		int covered = 0;
+		for (int j = 0; j < numVariables; j++) {
+			int index = otherVariables.indexOf(variables.get(j));
+			int stride = (index != -1) ? otherOffsets[index] : 0;
+			if (j == 0) {
+				runStride = stride;
+			} else {
+				accumulatedOffsets[j] = stride - covered;
+				covered += stride * (dimensions[j] - 1);
+			}
+		}
+		double[] values = target.values;
+		double[] otherValues = other.values;
+		int otherPosition = other.getInitialPosition();
+		int tableSize = target.getTableSize();
+		int[] coordinate = new int[numVariables];
+		for (int position = 0; position < tableSize; position += runLength) {
+			int end = position + runLength;
+			if (divide) {
+				int p = otherPosition;
+				for (int k = position; k < end; k++) {
+					double denominator = otherValues[p];
+					values[k] = (denominator == 0.0) ? 0.0 : values[k] / denominator;
+					p += runStride;
+				}
+			} else if (runStride == 1) {
+				int shift = otherPosition - position;
+				for (int k = position; k < end; k++) {
+					values[k] *= otherValues[k + shift];
+				}
+			} else if (runStride == 0) {
+				double value = otherValues[otherPosition];
+				for (int k = position; k < end; k++) {
+					values[k] *= value;
+				}
+			} else {
+				int p = otherPosition;
+				for (int k = position; k < end; k++) {
+					values[k] *= otherValues[p];
+					p += runStride;
+				}
+			}
+			for (int j = 1; j < numVariables; j++) {
+				if (++coordinate[j] < dimensions[j]) {
+					otherPosition += accumulatedOffsets[j];
+					break;
+				}
+				coordinate[j] = 0;
+			}
+		}
+	}
+
 	/**
 	 * @param numerator   <tt>Potential</tt>
 	 * @param denominator <tt>Potential</tt>
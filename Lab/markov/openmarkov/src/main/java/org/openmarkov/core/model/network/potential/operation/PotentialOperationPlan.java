@@ -0,0 +1,832 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.core.model.network.potential.operation;
+
+import org.openmarkov.core.inference.TableRepresentation;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.FloatTablePotential;
+import org.openmarkov.core.model.network.potential.OffHeapTablePotential;
+import org.openmarkov.core.model.network.potential.TablePotential;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Precompiled multiplication (and optional marginalization) of a list of
+ * {@code TablePotential}s with fixed variables. The union of the variables,
+ * the dimensions and the accumulated offsets are computed once, when the plan
+ * is created; {@link #execute(List)} only walks the tables. The result can
+ * also be written into a table supplied by the caller or taken from a
+ * {@link TablePotentialPool}, so that repeating the operation allocates no
+ * tables.
+ * <p>
+ * A plan is valid for any list of potentials whose variables (in the same
+ * order) and offsets are those of the potentials used to create it, so it can
+ * be stored in the object that repeats the operation (for example, a clique
+ * or a separator in a junction tree) and reused while the variables do not
+ * change:
+ * <pre>
+ * plan = PotentialOperationPlan.multiplication(potentials, plan);
+ * TablePotential product = plan.execute(potentials);
+ * </pre>
+ * The innermost variable of the iteration space is traversed by a loop
+ * without branches; the next configuration of the other variables is only
+ * searched at the end of each run of the innermost variable. When
+ * {@link #contiguousRuns} is {@code true}, a run spans all the leading
+ * variables in which the positions of every operand advance uniformly, and
+ * the operands whose positions in the run are consecutive or constant are
+ * traversed by loops that the just-in-time compiler vectorizes.
+ * <p>
+ * A plan can also operate on the other {@link TableRepresentation}s: in single
+ * precision the operands may be {@link FloatTablePotential}s, and in
+ * logarithms the operands and the result contain the logarithms of the
+ * values. The positions are computed in {@code long}, so a plan created by
+ * {@link #offHeap(List, List)} traverses {@link OffHeapTablePotential}s
+ * with more than 2<sup>31</sup> - 1 configurations in the same way.
+ */
+public class PotentialOperationPlan {
+
+	// Attributes
+	/**
+	 * Whether the plans compiled from now on merge the leading variables of
+	 * the iteration space into long runs with unit-stride loops. When
+	 * {@code false}, a run is the innermost variable and every operand is
+	 * traversed with its stride.
+	 */
+	public static boolean contiguousRuns = true;
+
+	/**
+	 * Greatest length of a merged run, so that the buffer of the run stays
+	 * in the first level cache
+	 */
+	private static final int MAX_RUN_LENGTH = 1 << 11;
+
+	/**
+	 * Variables of each operand when the plan was compiled
+	 */
+	private final Variable[][] operandsVariables;
+
+	/**
+	 * Offsets of each operand when the plan was compiled
+	 */
+	private final long[][] operandsOffsets;
+
+	/**
+	 * {@code null} in a multiplication
+	 */
+	private final List<Variable> variablesOfInterest;
+
+	private final List<Variable> variablesToKeep;
+
+	private final List<Variable> variablesToEliminate;
+
+	private final int numOperands;
+
+	/**
+	 * Iteration space = variables to eliminate followed by variables to keep
+	 */
+	private final int numUnionVariables;
+
+	private final int[] unionDimensions;
+
+	/**
+	 * Number of variables of the iteration space traversed by a run: the
+	 * innermost one and, with {@link #contiguousRuns}, the next ones in which
+	 * the positions of every operand advance uniformly
+	 */
+	private final int runVariables;
+
+	/**
+	 * Number of configurations of the variables of a run
+	 */
+	private final int runLength;
+
+	/**
+	 * Increment of the position of each operand from one position of a run
+	 * to the next one
+	 */
+	private final long[] runStrides;
+
+	/**
+	 * Whether the run loops are specialized for unit and zero strides
+	 */
+	private final boolean contiguous;
+
+	/**
+	 * {@code accumulatedOffsets[j][i]}: increment of the position of operand
+	 * {@code i} when the variable {@code j >= runVariables} of the iteration
+	 * space is increased and the variables
+	 * {@code runVariables..j-1} go back to 0
+	 */
+	private final long[][] accumulatedOffsets;
+
+	private final long eliminationSize;
+
+	private final long resultSize;
+
+	// Constructor
+
+	/**
+	 * @param potentials           operands
+	 * @param variablesOfInterest  {@code null} in a multiplication
+	 * @param variablesToKeep      variables of the result
+	 * @param variablesToEliminate variables summed out
+	 */
+	private PotentialOperationPlan(List<TablePotential> potentials, List<Variable> variablesOfInterest,
+			List<Variable> variablesToKeep, List<Variable> variablesToEliminate) {
+		this(getOperandsVariables(potentials), getOperandsOffsets(potentials), variablesOfInterest, variablesToKeep,
+				variablesToEliminate);
+	}
+
+	/**
+	 * @param operandsVariables    variables of each operand
+	 * @param operandsOffsets      offsets of each operand
+	 * @param variablesOfInterest  {@code null} in a multiplication
+	 * @param variablesToKeep      variables of the result
+	 * @param variablesToEliminate variables summed out
+	 */
+	private PotentialOperationPlan(Variable[][] operandsVariables, long[][] operandsOffsets,
+			List<Variable> variablesOfInterest, List<Variable> variablesToKeep, List<Variable> variablesToEliminate) {
+		this.variablesOfInterest = (variablesOfInterest != null) ? new ArrayList<>(variablesOfInterest) : null;
+		this.variablesToKeep = variablesToKeep;
+		this.variablesToEliminate = variablesToEliminate;
+		this.operandsVariables = operandsVariables;
+		this.operandsOffsets = operandsOffsets;
+		numOperands = operandsVariables.length;
+
+		List<Variable> unionVariables = new ArrayList<>(variablesToEliminate);
+		unionVariables.addAll(variablesToKeep);
+		numUnionVariables = unionVariables.size();
+		unionDimensions = TablePotential.calculateDimensions(unionVariables);
+
+		// strides[i][j] = offset of the union variable j in the operand i
+		long[][] strides = new long[numOperands][numUnionVariables];
+		for (int i = 0; i < numOperands; i++) {
+			Variable[] variables = operandsVariables[i];
+			for (int k = 0; k < variables.length; k++) {
+				int j = unionVariables.indexOf(variables[k]);
+				if (j != -1) {
+					strides[i][j] = operandsOffsets[i][k];
+				}
+			}
+		}
+		runStrides = new long[numOperands];
+		if (numUnionVariables > 0) {
+			for (int i = 0; i < numOperands; i++) {
+				runStrides[i] = strides[i][0];
+			}
+		}
+
+		eliminationSize = getSize(variablesToEliminate);
+		resultSize = getSize(variablesToKeep);
+
+		// in a marginalization each run must sum into a single cell of the result
+		int mergeableVariables = (eliminationSize > 1) ? variablesToEliminate.size() : numUnionVariables;
+		int numRunVariables = Math.min(1, numUnionVariables);
+		int length = (numUnionVariables > 0) ? unionDimensions[0] : 1;
+		contiguous = contiguousRuns;
+		while (contiguous && numRunVariables < mergeableVariables
+				&& length * unionDimensions[numRunVariables] <= MAX_RUN_LENGTH
+				&& advancesUniformly(strides, numRunVariables, length)) {
+			length *= unionDimensions[numRunVariables++];
+		}
+		runVariables = numRunVariables;
+		runLength = length;
+
+		accumulatedOffsets = new long[numUnionVariables][numOperands];
+		for (int i = 0; i < numOperands; i++) {
+			long covered = 0;
+			for (int j = runVariables; j < numUnionVariables; j++) {
+				accumulatedOffsets[j][i] = strides[i][j] - covered;
+				covered += strides[i][j] * (unionDimensions[j] - 1);
+			}
+		}
+	}
+
+	/**
+	 * @param strides    {@code strides[i][j]}: offset of the variable
+	 *                   {@code j} of the iteration space in the operand
+	 *                   {@code i}
+	 * @param variable   variable of the iteration space that follows those
+	 *                   of the run
+	 * @param runLength  number of configurations of the variables of the run
+	 * @return {@code true} if the positions of every operand advance with its
+	 * run stride when {@code variable} is appended to the run
+	 */
+	private static boolean advancesUniformly(long[][] strides, int variable, int runLength) {
+		for (long[] operandStrides : strides) {
+			if (operandStrides[variable] != operandStrides[0] * runLength) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Variable[][] getOperandsVariables(List<TablePotential> potentials) {
+		Variable[][] operandsVariables = new Variable[potentials.size()][];
+		for (int i = 0; i < operandsVariables.length; i++) {
+			operandsVariables[i] = potentials.get(i).getVariables().toArray(new Variable[0]);
+		}
+		return operandsVariables;
+	}
+
+	private static long[][] getOperandsOffsets(List<TablePotential> potentials) {
+		long[][] operandsOffsets = new long[potentials.size()][];
+		for (int i = 0; i < operandsOffsets.length; i++) {
+			int[] offsets = potentials.get(i).getOffsets();
+			operandsOffsets[i] = new long[offsets.length];
+			for (int k = 0; k < offsets.length; k++) {
+				operandsOffsets[i][k] = offsets[k];
+			}
+		}
+		return operandsOffsets;
+	}
+
+	/**
+	 * @return Number of configurations of {@code variables}
+	 */
+	private static long getSize(List<Variable> variables) {
+		long size = 1;
+		for (Variable variable : variables) {
+			size = Math.multiplyExact(size, variable.getNumStates());
+		}
+		return size;
+	}
+
+	// Methods
+
+	/**
+	 * @param potentials potentials to multiply
+	 * @param plan       plan used in a previous execution of the operation.
+	 *                   May be {@code null}
+	 * @return {@code plan} if it can multiply {@code potentials}; otherwise, a
+	 * new plan
+	 */
+	public static PotentialOperationPlan multiplication(List<TablePotential> potentials,
+			PotentialOperationPlan plan) {
+		if (plan != null && plan.variablesOfInterest == null && plan.matches(potentials)) {
+			return plan;
+		}
+		return new PotentialOperationPlan(potentials, null, AuxiliaryOperations.getUnionVariables(potentials),
+				new ArrayList<Variable>());
+	}
+
+	/**
+	 * @param potentials          potentials to multiply
+	 * @param variablesOfInterest variables that are not summed out
+	 * @param plan                plan used in a previous execution of the
+	 *                            operation. May be {@code null}
+	 * @return {@code plan} if it can multiply {@code potentials} and keep
+	 * {@code variablesOfInterest}; otherwise, a new plan
+	 */
+	public static PotentialOperationPlan marginalization(List<TablePotential> potentials,
+			List<Variable> variablesOfInterest, PotentialOperationPlan plan) {
+		if (plan != null && variablesOfInterest.equals(plan.variablesOfInterest) && plan.matches(potentials)) {
+			return plan;
+		}
+		List<Variable> variablesToKeep = new ArrayList<>();
+		List<Variable> variablesToEliminate = new ArrayList<>();
+		for (Variable variable : AuxiliaryOperations.getUnionVariables(potentials)) {
+			if (variablesOfInterest.contains(variable)) {
+				variablesToKeep.add(variable);
+			} else {
+				variablesToEliminate.add(variable);
+			}
+		}
+		return new PotentialOperationPlan(potentials, variablesOfInterest, variablesToKeep, variablesToEliminate);
+	}
+
+	/**
+	 * @param potentials           potentials to multiply
+	 * @param variablesToKeep      variables of the result, in this order
+	 * @param variablesToEliminate variables summed out. Condition:
+	 *                             variablesToKeep and variablesToEliminate
+	 *                             are a partition of the union of the
+	 *                             variables of the potentials
+	 * @return A plan that multiplies {@code potentials} and sums out
+	 * {@code variablesToEliminate}
+	 */
+	static PotentialOperationPlan multiplyAndMarginalize(List<TablePotential> potentials,
+			List<Variable> variablesToKeep, List<Variable> variablesToEliminate) {
+		return new PotentialOperationPlan(potentials, variablesToKeep, new ArrayList<>(variablesToKeep),
+				new ArrayList<>(variablesToEliminate));
+	}
+
+	/**
+	 * @param potentials      potentials stored outside the heap
+	 * @param variablesToKeep variables of the result, in this order. The
+	 *                        other variables of the potentials are summed
+	 *                        out
+	 * @return A plan that multiplies {@code potentials} and marginalizes the
+	 * product onto {@code variablesToKeep}, executed by
+	 * {@link #execute(List, OffHeapTablePotential)}
+	 */
+	public static PotentialOperationPlan offHeap(List<OffHeapTablePotential> potentials,
+			List<Variable> variablesToKeep) {
+		Variable[][] operandsVariables = new Variable[potentials.size()][];
+		long[][] operandsOffsets = new long[potentials.size()][];
+		List<Variable> variablesToEliminate = new ArrayList<>();
+		for (int i = 0; i < operandsVariables.length; i++) {
+			OffHeapTablePotential potential = potentials.get(i);
+			operandsVariables[i] = potential.getVariables().toArray(new Variable[0]);
+			operandsOffsets[i] = potential.getOffsets();
+			for (Variable variable : operandsVariables[i]) {
+				if (!variablesToKeep.contains(variable) && !variablesToEliminate.contains(variable)) {
+					variablesToEliminate.add(variable);
+				}
+			}
+		}
+		return new PotentialOperationPlan(operandsVariables, operandsOffsets, variablesToKeep,
+				new ArrayList<>(variablesToKeep), variablesToEliminate);
+	}
+
+	/**
+	 * @param potentials {@code List} of {@code TablePotential}s
+	 * @return {@code true} if the potentials have the variables and offsets
+	 * used to compile this plan
+	 */
+	public boolean matches(List<TablePotential> potentials) {
+		if (potentials.size() != numOperands) {
+			return false;
+		}
+		for (int i = 0; i < numOperands; i++) {
+			TablePotential potential = potentials.get(i);
+			Variable[] variables = operandsVariables[i];
+			if (potential.getNumVariables() != variables.length || potential.strategyTrees != null) {
+				return false;
+			}
+			for (int k = 0; k < variables.length; k++) {
+				if (potential.getVariable(k) != variables[k]) {
+					return false;
+				}
+			}
+			int[] offsets = potential.getOffsets();
+			for (int k = 0; k < offsets.length; k++) {
+				if (offsets[k] != operandsOffsets[i][k]) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param potentials potentials with the variables of the plan (see
+	 *                   {@link #matches(List)})
+	 * @return The product of the potentials, marginalized onto the variables
+	 * to keep
+	 */
+	public TablePotential execute(List<TablePotential> potentials) {
+		return execute(potentials, TableRepresentation.DOUBLE);
+	}
+
+	/**
+	 * @param potentials     potentials with the variables of the plan (see
+	 *                       {@link #matches(List)}), in the representation
+	 *                       {@code representation}
+	 * @param representation representation of the values of the operands and
+	 *                       the result. In {@link TableRepresentation#FLOAT},
+	 *                       the operands may be {@code TablePotential}s or
+	 *                       {@code FloatTablePotential}s; the result of a
+	 *                       multiplication is a {@code FloatTablePotential}
+	 *                       and that of a marginalization a
+	 *                       {@code TablePotential}
+	 * @return The product of the potentials, marginalized onto the variables
+	 * to keep
+	 */
+	public TablePotential execute(List<TablePotential> potentials, TableRepresentation representation) {
+		if (representation == TableRepresentation.FLOAT) {
+			return executeInSinglePrecision(potentials);
+		}
+		if (representation == TableRepresentation.LOG) {
+			return executeInLogarithms(potentials);
+		}
+		// an operand with few values different from 0 drives the operation
+		TablePotential result = DiscretePotentialOperations
+				.multiplyAndMarginalizeSparse(potentials, variablesToKeep, variablesToEliminate);
+		if (result == null) {
+			result = executeDense(potentials);
+		}
+		setCriterion(potentials, result);
+		return result;
+	}
+
+	/**
+	 * Stores the result of the operation in a table supplied by the caller,
+	 * in double precision.
+	 *
+	 * @param potentials potentials with the variables of the plan (see
+	 *                   {@link #matches(List)})
+	 * @param result     potential with the variables to keep, in the order
+	 *                   of {@link #getVariablesToKeep()}, whose values are
+	 *                   replaced. It must not be projected nor one of the
+	 *                   operands
+	 * @return {@code result}
+	 */
+	public TablePotential execute(List<TablePotential> potentials, TablePotential result) {
+		if (DiscretePotentialOperations
+				.multiplyAndMarginalizeSparse(potentials, variablesToKeep, variablesToEliminate, result) == null) {
+			executeDense(potentials, result.values);
+		}
+		setCriterion(potentials, result);
+		return result;
+	}
+
+	/**
+	 * @param potentials potentials with the variables of the plan (see
+	 *                   {@link #matches(List)})
+	 * @param pool       pool that supplies the table of the result
+	 * @return The product of the potentials, marginalized onto the variables
+	 * to keep, in double precision. It can be released to {@code pool} when
+	 * it is no longer used
+	 */
+	public TablePotential execute(List<TablePotential> potentials, TablePotentialPool pool) {
+		return execute(potentials, pool.acquire(variablesToKeep, DiscretePotentialOperations.getRole(potentials)));
+	}
+
+	/**
+	 * In a multiplication, gives {@code result} the criterion of the first
+	 * operand that has one.
+	 */
+	private void setCriterion(List<TablePotential> potentials, TablePotential result) {
+		if (variablesOfInterest == null) {
+			for (TablePotential potential : potentials) {
+				if (potential.getCriterion() != null) {
+					result.setCriterion(potential.getCriterion());
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param potentials potentials with the variables of the plan
+	 * @return The product of the potentials, marginalized onto the variables
+	 * to keep, computed in double precision over all the configurations
+	 */
+	TablePotential executeDense(List<TablePotential> potentials) {
+		double[] resultValues = new double[(int) resultSize];
+		executeDense(potentials, resultValues);
+		return new TablePotential(variablesToKeep, DiscretePotentialOperations.getRole(potentials), resultValues);
+	}
+
+	/**
+	 * Stores in {@code resultValues} the product of the potentials,
+	 * marginalized onto the variables to keep, computed over all the
+	 * configurations. The previous values are overwritten.
+	 */
+	private void executeDense(List<TablePotential> potentials, double[] resultValues) {
+		double[][] tables = new double[numOperands][];
+		int[] positions = new int[numOperands];
+		for (int i = 0; i < numOperands; i++) {
+			TablePotential potential = potentials.get(i);
+			tables[i] = potential.values;
+			positions[i] = potential.getInitialPosition();
+		}
+
+		int[] coordinate = new int[numUnionVariables];
+		if (eliminationSize == 1) {
+			// multiplication: each run fills runLength consecutive cells
+			for (int resultPosition = 0; resultPosition < resultSize; resultPosition += runLength) {
+				multiplyRun(tables, positions, resultValues, resultPosition);
+				nextRun(coordinate, positions);
+			}
+		} else {
+			// the variables of the runs are eliminated: runsPerCell runs per cell
+			double[] run = new double[runLength];
+			int runsPerCell = (int) (eliminationSize / runLength);
+			for (int resultPosition = 0; resultPosition < resultSize; resultPosition++) {
+				double accumulator = 0.0;
+				for (int r = 0; r < runsPerCell; r++) {
+					multiplyRun(tables, positions, run, 0);
+					for (int k = 0; k < runLength; k++) {
+						accumulator += run[k];
+					}
+					nextRun(coordinate, positions);
+				}
+				resultValues[resultPosition] = accumulator;
+			}
+		}
+	}
+
+	/**
+	 * Executes the plan on operands in double or single precision, with
+	 * double precision arithmetic.
+	 */
+	private TablePotential executeInSinglePrecision(List<TablePotential> potentials) {
+		double[][] tables = new double[numOperands][];
+		float[][] floatTables = new float[numOperands][];
+		int[] positions = new int[numOperands];
+		for (int i = 0; i < numOperands; i++) {
+			TablePotential potential = potentials.get(i);
+			if (potential instanceof FloatTablePotential) {
+				floatTables[i] = ((FloatTablePotential) potential).floatValues;
+			} else {
+				tables[i] = potential.values;
+			}
+			positions[i] = potential.getInitialPosition();
+		}
+		int[] coordinate = new int[numUnionVariables];
+		double[] run = new double[runLength];
+		if (variablesOfInterest == null) {
+			float[] resultValues = new float[(int) resultSize];
+			for (int resultPosition = 0; resultPosition < resultSize; resultPosition += runLength) {
+				multiplyRun(tables, floatTables, positions, run);
+				for (int k = 0; k < runLength; k++) {
+					resultValues[resultPosition + k] = (float) run[k];
+				}
+				nextRun(coordinate, positions);
+			}
+			return new FloatTablePotential(variablesToKeep, DiscretePotentialOperations.getRole(potentials),
+					resultValues);
+		}
+		double[] resultValues = new double[(int) resultSize];
+		TablePotential result = new TablePotential(variablesToKeep, DiscretePotentialOperations.getRole(potentials),
+				resultValues);
+		if (eliminationSize == 1) {
+			for (int resultPosition = 0; resultPosition < resultSize; resultPosition += runLength) {
+				multiplyRun(tables, floatTables, positions, run);
+				System.arraycopy(run, 0, resultValues, resultPosition, runLength);
+				nextRun(coordinate, positions);
+			}
+			return result;
+		}
+		int runsPerCell = (int) (eliminationSize / runLength);
+		for (int resultPosition = 0; resultPosition < resultSize; resultPosition++) {
+			double accumulator = 0.0;
+			for (int r = 0; r < runsPerCell; r++) {
+				multiplyRun(tables, floatTables, positions, run);
+				for (int k = 0; k < runLength; k++) {
+					accumulator += run[k];
+				}
+				nextRun(coordinate, positions);
+			}
+			resultValues[resultPosition] = accumulator;
+		}
+		return result;
+	}
+
+	/**
+	 * Executes the plan on the logarithms of the values: the logarithms of
+	 * the operands are added and the variables are eliminated by log-sum-exp.
+	 */
+	private TablePotential executeInLogarithms(List<TablePotential> potentials) {
+		double[] resultValues = new double[(int) resultSize];
+		TablePotential result = new TablePotential(variablesToKeep, DiscretePotentialOperations.getRole(potentials),
+				resultValues);
+		double[][] tables = new double[numOperands][];
+		int[] positions = new int[numOperands];
+		for (int i = 0; i < numOperands; i++) {
+			TablePotential potential = potentials.get(i);
+			tables[i] = potential.values;
+			positions[i] = potential.getInitialPosition();
+		}
+		int[] coordinate = new int[numUnionVariables];
+		double[] run = new double[runLength];
+		if (eliminationSize == 1) {
+			for (int resultPosition = 0; resultPosition < resultSize; resultPosition += runLength) {
+				addLogarithmsRun(tables, positions, run);
+				System.arraycopy(run, 0, resultValues, resultPosition, runLength);
+				nextRun(coordinate, positions);
+			}
+		} else {
+			int runsPerCell = (int) (eliminationSize / runLength);
+			for (int resultPosition = 0; resultPosition < resultSize; resultPosition++) {
+				// the sum of the exponentials of the values of the cell is sum * exp(max)
+				double max = Double.NEGATIVE_INFINITY;
+				double sum = 0.0;
+				for (int r = 0; r < runsPerCell; r++) {
+					addLogarithmsRun(tables, positions, run);
+					double runMax = Double.NEGATIVE_INFINITY;
+					for (int k = 0; k < runLength; k++) {
+						runMax = Math.max(runMax, run[k]);
+					}
+					if (runMax > max) {
+						sum *= Math.exp(max - runMax);
+						max = runMax;
+					}
+					if (max != Double.NEGATIVE_INFINITY) {
+						for (int k = 0; k < runLength; k++) {
+							sum += Math.exp(run[k] - max);
+						}
+					}
+					nextRun(coordinate, positions);
+				}
+				resultValues[resultPosition] = (sum > 0.0) ? max + Math.log(sum) : Double.NEGATIVE_INFINITY;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the logarithms of the operands along a run.
+	 */
+	private void addLogarithmsRun(double[][] tables, int[] positions, double[] run) {
+		Arrays.fill(run, 0.0);
+		for (int i = 0; i < numOperands; i++) {
+			double[] table = tables[i];
+			int position = positions[i];
+			int stride = (int) runStrides[i];
+			if (contiguous && stride == 1) {
+				for (int k = 0; k < runLength; k++) {
+					run[k] += table[position + k];
+				}
+			} else if (contiguous && stride == 0) {
+				double value = table[position];
+				for (int k = 0; k < runLength; k++) {
+					run[k] += value;
+				}
+			} else {
+				for (int k = 0; k < runLength; k++) {
+					run[k] += table[position];
+					position += stride;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Multiplies along a run the operands in double
+	 * precision, in {@code tables}, and those in single precision, in
+	 * {@code floatTables}.
+	 */
+	private void multiplyRun(double[][] tables, float[][] floatTables, int[] positions, double[] run) {
+		for (int k = 0; k < runLength; k++) {
+			run[k] = 1.0;
+		}
+		for (int i = 0; i < numOperands; i++) {
+			int position = positions[i];
+			int stride = (int) runStrides[i];
+			if (floatTables[i] != null) {
+				float[] table = floatTables[i];
+				for (int k = 0; k < runLength; k++) {
+					run[k] *= table[position];
+					position += stride;
+				}
+			} else {
+				double[] table = tables[i];
+				for (int k = 0; k < runLength; k++) {
+					run[k] *= table[position];
+					position += stride;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Multiplies the operands along a run and stores the products in
+	 * {@code run}, from {@code start}. The loops over operands with
+	 * consecutive or constant positions have no dependences between
+	 * iterations and are vectorized by the just-in-time compiler.
+	 */
+	private void multiplyRun(double[][] tables, int[] positions, double[] run, int start) {
+		int end = start + runLength;
+		Arrays.fill(run, start, end, 1.0);
+		for (int i = 0; i < numOperands; i++) {
+			double[] table = tables[i];
+			int position = positions[i];
+			int stride = (int) runStrides[i];
+			if (contiguous && stride == 1) {
+				int shift = position - start;
+				for (int k = start; k < end; k++) {
+					run[k] *= table[k + shift];
+				}
+			} else if (contiguous && stride == 0) {
+				double value = table[position];
+				for (int k = start; k < end; k++) {
+					run[k] *= value;
+				}
+			} else {
+				for (int k = start; k < end; k++) {
+					run[k] *= table[position];
+					position += stride;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Moves the operands to the beginning of the next run.
+	 */
+	private void nextRun(int[] coordinate, int[] positions) {
+		for (int j = runVariables; j < numUnionVariables; j++) {
+			if (++coordinate[j] < unionDimensions[j]) {
+				long[] offsets = accumulatedOffsets[j];
+				for (int i = 0; i < numOperands; i++) {
+					positions[i] += offsets[i];
+				}
+				return;
+			}
+			coordinate[j] = 0;
+		}
+	}
+
+	/**
+	 * Stores in {@code result} the product of potentials stored outside the
+	 * heap, marginalized onto the variables to keep. The previous values are
+	 * overwritten.
+	 *
+	 * @param potentials potentials with the variables and offsets of those
+	 *                   used to create the plan with
+	 *                   {@link #offHeap(List, List)}
+	 * @param result     table with the variables to keep, in their order
+	 * @return {@code result}
+	 */
+	public OffHeapTablePotential execute(List<OffHeapTablePotential> potentials, OffHeapTablePotential result) {
+		OffHeapTablePotential[] tables = potentials.toArray(new OffHeapTablePotential[0]);
+		long[] positions = new long[numOperands];
+		int[] coordinate = new int[numUnionVariables];
+		double[] run = new double[runLength];
+		if (eliminationSize == 1) {
+			for (long resultPosition = 0; resultPosition < resultSize; resultPosition += runLength) {
+				multiplyRun(tables, positions, run);
+				for (int k = 0; k < runLength; k++) {
+					result.setValue(resultPosition + k, run[k]);
+				}
+				nextRun(coordinate, positions);
+			}
+		} else {
+			long runsPerCell = eliminationSize / runLength;
+			for (long resultPosition = 0; resultPosition < resultSize; resultPosition++) {
+				double accumulator = 0.0;
+				for (long r = 0; r < runsPerCell; r++) {
+					multiplyRun(tables, positions, run);
+					for (int k = 0; k < runLength; k++) {
+						accumulator += run[k];
+					}
+					nextRun(coordinate, positions);
+				}
+				result.setValue(resultPosition, accumulator);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Multiplies along a run operands stored outside the heap.
+	 */
+	private void multiplyRun(OffHeapTablePotential[] tables, long[] positions, double[] run) {
+		Arrays.fill(run, 1.0);
+		for (int i = 0; i < numOperands; i++) {
+			OffHeapTablePotential table = tables[i];
+			long position = positions[i];
+			long stride = runStrides[i];
+			if (contiguous && stride == 0) {
+				double value = table.getValue(position);
+				for (int k = 0; k < runLength; k++) {
+					run[k] *= value;
+				}
+			} else {
+				for (int k = 0; k < runLength; k++) {
+					run[k] *= table.getValue(position);
+					position += stride;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Moves the operands stored outside the heap to the beginning of the
+	 * next run.
+	 */
+	private void nextRun(int[] coordinate, long[] positions) {
+		for (int j = runVariables; j < numUnionVariables; j++) {
+			if (++coordinate[j] < unionDimensions[j]) {
+				long[] offsets = accumulatedOffsets[j];
+				for (int i = 0; i < numOperands; i++) {
+					positions[i] += offsets[i];
+				}
+				return;
+			}
+			coordinate[j] = 0;
+		}
+	}
+
+	/**
+	 * @return Number of positions of the iteration space
+	 */
+	public long getIterationSize() {
+		return resultSize * eliminationSize;
+	}
+
+	/**
+	 * @return Variables of the result, in their order
+	 */
+	public List<Variable> getVariablesToKeep() {
+		return variablesToKeep;
+	}
+
+	/**
+	 * @return Variables summed out
+	 */
+	public List<Variable> getVariablesToEliminate() {
+		return variablesToEliminate;
+	}
+
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.core.model.network.potential.operation;
+
+import org.openmarkov.core.inference.ParallelOptions;
+import org.openmarkov.core.inference.TableRepresentation;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.Potential;
+import org.openmarkov.core.model.network.potential.TablePotential;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Chooses, for each operation, between the sequential version in
+ * {@link DiscretePotentialOperations} and the concurrent version in
+ * {@link org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations}.
+ * The concurrent version is used when the {@link ParallelOptions} allow it,
+ * the iteration space of the operation reaches the concurrency threshold and
+ * the pool of the concurrent operations has more than one worker. When the
+ * options are {@code null} the sequential version is always used. An
+ * operation with a sparse operand is computed sequentially from its values
+ * different from 0, which takes less time than the concurrent version.
+ */
+public class PotentialOperationsDispatcher {
+
+	// Constructor
+
+	/**
+	 * Don't let anyone instantiate this class.
+	 */
+	private PotentialOperationsDispatcher() {
+	}
+
+	// Methods
+
+	/**
+	 * @param potentials {@code List} of {@code TablePotential}s
+	 * @param options    {@code ParallelOptions}
+	 * @return The product of the potentials
+	 */
+	public static TablePotential multiply(List<TablePotential> potentials, ParallelOptions options) {
+		if (potentials.size() > 1 && useConcurrentVersion(options,
+				iterationSize(AuxiliaryOperations.getUnionVariables(potentials)))) {
+			return org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations
+					.multiply(potentials);
+		}
+		return DiscretePotentialOperations.multiply(potentials);
+	}
+
+	/**
+	 * @param potentials           potentials to multiply
+	 * @param variablesToKeep      The set of variables that will appear in the resulting
+	 *                             potential
+	 * @param variablesToEliminate The set of variables eliminated by summing out
+	 * @param options              {@code ParallelOptions}
+	 * @return A {@code TablePotential} result of multiply and marginalize.
+	 * Condition: variablesToKeep and variablesToEliminate are a partition of
+	 * the union of the variables of the potential
+	 */
+	public static TablePotential multiplyAndMarginalize(Collection<TablePotential> potentials,
+			List<Variable> variablesToKeep, List<Variable> variablesToEliminate, ParallelOptions options) {
+		// interventions are only propagated by the sequential version
+		if (!hasInterventions(potentials) && useConcurrentVersion(options,
+				iterationSize(variablesToKeep) * iterationSize(variablesToEliminate))) {
+			TablePotential sparseResult = DiscretePotentialOperations
+					.multiplyAndMarginalizeSparse(potentials, variablesToKeep, variablesToEliminate);
+			if (sparseResult != null) {
+				return sparseResult;
+			}
+			return org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations
+					.multiplyAndMarginalize(potentials, variablesToKeep, variablesToEliminate);
+		}
+		return DiscretePotentialOperations.multiplyAndMarginalize(potentials, variablesToKeep, variablesToEliminate);
+	}
+
+	/**
+	 * @param potentials          potentials to multiply
+	 * @param variablesOfInterest Set of variables that must be kept (although this set may
+	 *                            contain some variables that are not in any potential)
+	 * @param options             {@code ParallelOptions}
+	 * @return The multiplied potentials
+	 */
+	public static TablePotential multiplyAndMarginalize(List<TablePotential> potentials,
+			List<Variable> variablesOfInterest, ParallelOptions options) {
+		List<Variable> variablesToKeep = new ArrayList<>();
+		List<Variable> variablesToEliminate = new ArrayList<>();
+		for (Variable variable : AuxiliaryOperations.getUnionVariables(potentials)) {
+			if (variablesOfInterest.contains(variable)) {
+				variablesToKeep.add(variable);
+			} else {
+				variablesToEliminate.add(variable);
+			}
+		}
+		return multiplyAndMarginalize(potentials, variablesToKeep, variablesToEliminate, options);
+	}
+
+	/**
+	 * @param potentials          potentials to multiply
+	 * @param variableToEliminate {@code Variable}
+	 * @param options             {@code ParallelOptions}
+	 * @return result {@code Potential} multiplied without
+	 * {@code variableToEliminate}
+	 */
+	public static TablePotential multiplyAndMarginalize(List<TablePotential> potentials,
+			Variable variableToEliminate, ParallelOptions options) {
+		List<Variable> variablesToKeep = AuxiliaryOperations.getUnionVariables(potentials);
+		variablesToKeep.remove(variableToEliminate);
+		return multiplyAndMarginalize(potentials, variablesToKeep, Arrays.asList(variableToEliminate), options);
+	}
+
+	/**
+	 * @param potential           potential to marginalize
+	 * @param variablesOfInterest variables of the result
+	 * @param options             {@code ParallelOptions}
+	 * @return Marginalized potential
+	 */
+	public static TablePotential marginalize(TablePotential potential, List<Variable> variablesOfInterest,
+			ParallelOptions options) {
+		List<Variable> variablesToKeep = new ArrayList<>();
+		List<Variable> variablesToEliminate = new ArrayList<>();
+		for (Variable variable : potential.getVariables()) {
+			if (variablesOfInterest.contains(variable)) {
+				variablesToKeep.add(variable);
+			} else {
+				variablesToEliminate.add(variable);
+			}
+		}
+		List<TablePotential> potentials = new ArrayList<>(1);
+		potentials.add(potential);
+		return multiplyAndMarginalize(potentials, variablesToKeep, variablesToEliminate, options);
+	}
+
+	/**
+	 * @param potential           potential to marginalize
+	 * @param variableToEliminate {@code Variable}
+	 * @param options             {@code ParallelOptions}
+	 * @return Marginalized potential
+	 */
+	public static TablePotential marginalize(TablePotential potential, Variable variableToEliminate,
+			ParallelOptions options) {
+		List<Variable> variablesToKeep = new ArrayList<>(potential.getVariables());
+		variablesToKeep.remove(variableToEliminate);
+		List<TablePotential> potentials = new ArrayList<>(1);
+		potentials.add(potential);
+		return multiplyAndMarginalize(potentials, variablesToKeep, Arrays.asList(variableToEliminate), options);
+	}
+
+	/**
+	 * @param numerator   {@code Potential}
+	 * @param denominator {@code Potential}
+	 * @param options     {@code ParallelOptions}
+	 * @return The quotient: A {@code TablePotential} with the union of the
+	 * variables of numerator and denominator.
+	 */
+	public static TablePotential divide(Potential numerator, Potential denominator, ParallelOptions options) {
+		if (numerator.getNumVariables() > 0 && denominator.getNumVariables() > 0) {
+			List<Variable> quotientVariables = new ArrayList<>(numerator.getVariables());
+			for (Variable variable : denominator.getVariables()) {
+				if (!quotientVariables.contains(variable)) {
+					quotientVariables.add(variable);
+				}
+			}
+			if (useConcurrentVersion(options, iterationSize(quotientVariables))) {
+				return org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations
+						.divide(numerator, denominator);
+			}
+		}
+		return DiscretePotentialOperations.divide(numerator, denominator);
+	}
+
+	/**
+	 * Executes a precompiled operation, or its concurrent version when the
+	 * iteration space is big enough.
+	 *
+	 * @param plan       plan compiled for {@code potentials}
+	 * @param potentials operands
+	 * @param options    {@code ParallelOptions}
+	 * @return The result of the operation of the plan
+	 */
+	public static TablePotential execute(PotentialOperationPlan plan, List<TablePotential> potentials,
+			ParallelOptions options) {
+		if (useConcurrentVersion(options, plan.getIterationSize())) {
+			TablePotential sparseResult = DiscretePotentialOperations
+					.multiplyAndMarginalizeSparse(potentials, plan.getVariablesToKeep(), plan.getVariablesToEliminate());
+			if (sparseResult != null) {
+				return sparseResult;
+			}
+			return org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations
+					.multiplyAndMarginalize(potentials, plan.getVariablesToKeep(), plan.getVariablesToEliminate());
+		}
+		return plan.execute(potentials);
+	}
+
+	/**
+	 * Executes a precompiled operation storing the result in a table taken
+	 * from {@code pool}. The concurrent version, used when the iteration
+	 * space is big enough, allocates the table of the result.
+	 *
+	 * @param plan       plan compiled for {@code potentials}
+	 * @param potentials operands
+	 * @param options    {@code ParallelOptions}
+	 * @param pool       {@code TablePotentialPool}. May be {@code null}
+	 * @return The result of the operation of the plan, in double precision.
+	 * It can be released to {@code pool} when it is no longer used
+	 */
+	public static TablePotential execute(PotentialOperationPlan plan, List<TablePotential> potentials,
+			ParallelOptions options, TablePotentialPool pool) {
+		if (pool == null || useConcurrentVersion(options, plan.getIterationSize())) {
+			return execute(plan, potentials, options);
+		}
+		return plan.execute(potentials, pool);
+	}
+
+	/**
+	 * Executes a precompiled operation on tables in the representation
+	 * {@code representation}. The concurrent version only operates on
+	 * probabilities in double precision, so the plan is executed sequentially
+	 * in the other representations.
+	 *
+	 * @param plan           plan compiled for {@code potentials}
+	 * @param potentials     operands
+	 * @param options        {@code ParallelOptions}
+	 * @param representation representation of the operands and the result
+	 * @return The result of the operation of the plan
+	 */
+	public static TablePotential execute(PotentialOperationPlan plan, List<TablePotential> potentials,
+			ParallelOptions options, TableRepresentation representation) {
+		if (representation != TableRepresentation.DOUBLE) {
+			return plan.execute(potentials, representation);
+		}
+		return execute(plan, potentials, options);
+	}
+
+	/**
+	 * @param options       {@code ParallelOptions}. May be {@code null}
+	 * @param iterationSize Number of positions of the iteration space
+	 * @return {@code true} when the concurrent version should be used
+	 */
+	public static boolean useConcurrentVersion(ParallelOptions options, long iterationSize) {
+		return options != null && options.isConcurrentOperations()
+				&& iterationSize >= options.getConcurrencyThreshold()
+				&& org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations
+				.getPool().getParallelism() > 1;
+	}
+
+	/**
+	 * @param potentials {@code Collection} of {@code TablePotential}s
+	 * @return {@code true} if some potential has interventions
+	 */
+	private static boolean hasInterventions(Collection<TablePotential> potentials) {
+		for (TablePotential potential : potentials) {
+			if (potential.strategyTrees != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param variables {@code List} of {@code Variable}s
+	 * @return Product of the number of states of the variables
+	 */
+	private static long iterationSize(List<Variable> variables) {
+		long size = 1;
+		for (Variable variable : variables) {
+			size *= variable.getNumStates();
+		}
+		return size;
+	}
+
+}
@@ -7,6 +7,7 @@
 
 package org.openmarkov.core.model.network.potential.operation;
 
+import org.openmarkov.core.inference.ParallelOptions;
 import org.openmarkov.core.model.network.Variable;
 import org.openmarkov.core.model.network.potential.PotentialRole;
 import org.openmarkov.core.model.network.potential.StrategyTree;
@@ -27,24 +28,38 @@ public class SumOutVariable extends Marginalization {
 	 * marginal probability and new utility in this order.
 	 */
 	public SumOutVariable(Variable variable, Collection<TablePotential> potentials) {
+		this(variable, potentials, null);
+	}
+
+	/**
+	 * Same as {@link #SumOutVariable(Variable, Collection)}, computing the
+	 * probability operations concurrently when {@code parallelOptions} allow it.
+	 *
+	 * @param variable        {@code Variable}
+	 * @param potentials      {@code List} of {@code TablePotential}
+	 * @param parallelOptions {@code ParallelOptions}. May be {@code null}
+	 */
+	public SumOutVariable(Variable variable, Collection<TablePotential> potentials, ParallelOptions parallelOptions) {
 		// Get probability and utility potentials
 		List<TablePotential> probPotentials = new ArrayList<>();
 		List<TablePotential> additivePotentials = new ArrayList<>();
 		classifyProbAndUtilityPotentials(potentials, probPotentials, additivePotentials);
 		int numAdditivePotentials = additivePotentials.size();
 		List<TablePotential> intermediateAdditivePotentials = new ArrayList<>(numAdditivePotentials);
-		TablePotential marginalProb = DiscretePotentialOperations.multiplyAndMarginalize(probPotentials, variable);
+		TablePotential marginalProb = PotentialOperationsDispatcher
+				.multiplyAndMarginalize(probPotentials, variable, parallelOptions);
 		// Do not return the probability potential if it depends on no variables
 		// and its value is 1
 
 		boolean thereAreAdditivePotentials = numAdditivePotentials > 0;
 		if (thereAreAdditivePotentials) {
 			// build the marginal and conditional probabilities
-			TablePotential joinProb = DiscretePotentialOperations.multiply(probPotentials);
+			TablePotential joinProb = PotentialOperationsDispatcher.multiply(probPotentials, parallelOptions);
 			if (joinProb == null) {
 				joinProb = new TablePotential(new ArrayList<Variable>(), PotentialRole.CONDITIONAL_PROBABILITY);
 			}
-			TablePotential conditionalProb = DiscretePotentialOperations.divide(joinProb, marginalProb);
+			TablePotential conditionalProb = PotentialOperationsDispatcher
+					.divide(joinProb, marginalProb, parallelOptions);
 
 			for (TablePotential additivePotential : additivePotentials) {
 				List<Variable> additiveVariables = additivePotential.getVariables();
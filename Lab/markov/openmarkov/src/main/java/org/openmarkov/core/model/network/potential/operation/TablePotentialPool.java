@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.core.model.network.potential.operation;
+
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.PotentialRole;
+import org.openmarkov.core.model.network.potential.TablePotential;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tables released by the potentials that are no longer used, kept to store
+ * the results of later operations of the same size. An algorithm that
+ * repeats the same operations for each evidence case (for example, the
+ * propagation of a junction tree) allocates the tables of the results only
+ * in the first case:
+ * <pre>
+ * TablePotential product = plan.execute(potentials, pool);
+ * ...
+ * pool.release(product);
+ * </pre>
+ * The values of an acquired table are undefined until they are written. A
+ * potential must not be used after it is released, nor released twice.
+ * <p>
+ * The methods are synchronized, so a pool can be shared by several threads.
+ */
+public class TablePotentialPool {
+
+	// Attributes
+	/**
+	 * Released tables, by length
+	 */
+	private final Map<Integer, ArrayDeque<double[]>> tables = new HashMap<>();
+
+	/**
+	 * Greatest number of values kept by the pool
+	 */
+	private final long maxRetainedValues;
+
+	private long retainedValues = 0;
+
+	// Constructors
+
+	/**
+	 * Creates a pool that keeps all the tables released.
+	 */
+	public TablePotentialPool() {
+		this(Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param maxRetainedValues greatest number of values kept by the pool.
+	 *                          The tables released when it is reached are
+	 *                          left to the garbage collector
+	 */
+	public TablePotentialPool(long maxRetainedValues) {
+		this.maxRetainedValues = maxRetainedValues;
+	}
+
+	// Methods
+
+	/**
+	 * @param size number of values
+	 * @return A released table of {@code size} values, or a new table if
+	 * there is none. The values of a released table are those it had
+	 */
+	public synchronized double[] acquireTable(int size) {
+		ArrayDeque<double[]> released = tables.get(size);
+		if (released == null || released.isEmpty()) {
+			return new double[size];
+		}
+		retainedValues -= size;
+		return released.pop();
+	}
+
+	/**
+	 * @param variables variables of the potential
+	 * @param role      role of the potential
+	 * @return A {@code TablePotential} whose table is a released one of the
+	 * same size, if any. Its values are undefined
+	 */
+	public TablePotential acquire(List<Variable> variables, PotentialRole role) {
+		return new TablePotential(variables, role, acquireTable(TablePotential.computeTableSize(variables)));
+	}
+
+	/**
+	 * Keeps the table of {@code potential} to store the result of a later
+	 * operation. Projected potentials and those of the subclasses of
+	 * {@code TablePotential}, whose tables may be shared or have another
+	 * layout, are ignored.
+	 *
+	 * @param potential potential that is no longer used. May be {@code null}
+	 */
+	public synchronized void release(TablePotential potential) {
+		if (potential == null || potential.getClass() != TablePotential.class || potential.values == null
+				|| potential.getInitialPosition() != 0 || potential.values.length != potential.getTableSize()) {
+			return;
+		}
+		double[] table = potential.values;
+		if (retainedValues + table.length > maxRetainedValues) {
+			return;
+		}
+		ArrayDeque<double[]> released = tables.get(table.length);
+		if (released == null) {
+			released = new ArrayDeque<>();
+			tables.put(table.length, released);
+		}
+		released.push(table);
+		retainedValues += table.length;
+		// a use after the release fails instead of reading the values of another potential
+		potential.values = null;
+	}
+
+	/**
+	 * @return Number of values of the tables kept by the pool
+	 */
+	public synchronized long getRetainedValues() {
+		return retainedValues;
+	}
+
+	/**
+	 * Discards the tables kept by the pool.
+	 */
+	public synchronized void clear() {
+		tables.clear();
+		retainedValues = 0;
+	}
+
+}
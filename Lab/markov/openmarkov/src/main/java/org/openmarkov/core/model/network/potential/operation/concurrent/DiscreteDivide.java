@@ -7,67 +7,59 @@
 
 package org.openmarkov.core.model.network.potential.operation.concurrent;
 
-import org.openmarkov.core.model.network.potential.TablePotential;
+/**
+ * Computes the positions {@code [from, to)} of the quotient of two
+ * potentials. As in the sequential division, 0 / 0 and x / 0 are 0.
+ */
+public class DiscreteDivide extends DiscreteMultiply {
 
-public class DiscreteDivide implements Runnable {
+	private static final long serialVersionUID = 1L;
 
-	int[] dimension;
-	int[] potentialsPositions;
-	private TablePotential quotient;
-	private int numVariables;
-	private int[] quotientCoordinate;
-	private int[] quotientDimension;
-	private TablePotential numerator;
-	private TablePotential denominator;
-	private int[] offset;
-	private int[][] offsetsAccumulate;
+	public DiscreteDivide(SharedDataDivide sdd, int from, int to) {
+		super(sdd, from, to);
+	}
 
-	public DiscreteDivide(SharedDataDivide sdd, int logicalProcessor) {
-		this.numerator = sdd.numerator;
-		this.denominator = sdd.denominator;
-		this.quotientCoordinate = sdd.quotientCoordinate;
-		this.quotientDimension = sdd.quotientDimension;
-		this.offsetsAccumulate = sdd.offsetAccumulate;
-		this.quotient = sdd.result;
+	@Override protected DiscreteMultiply split(int from, int to) {
+		return new DiscreteDivide((SharedDataDivide) sdm, from, to);
 	}
 
-	public void run() {
-		int tamTable = 1; // If numVariables == 0 the potential is a constant
-		if (numVariables > 0) {
-			tamTable = dimension[numVariables - 1] * offset[numVariables - 1];
-		}
+	@Override protected void run(int from, int to) {
+		double[] numerator = sdm.tables[0];
+		double[] denominator = sdm.tables[1];
+		int[] offAccNumerator = sdm.offAccPotentials[0];
+		int[] offAccDenominator = sdm.offAccPotentials[1];
+		int[] quotientDimension = sdm.resultDimensions;
+		double[] quotient = sdm.resultTable;
+		int numVariables = sdm.numResultVariables;
+
+		int[] quotientCoordinate = new int[numVariables];
+		int[] potentialsPositions = new int[2];
+		sdm.startPositions(from, quotientCoordinate, potentialsPositions);
+		int numeratorPosition = potentialsPositions[0];
+		int denominatorPosition = potentialsPositions[1];
 
 		int incrementedVariable = 0;
-		for (int quotientPosition = 0; quotientPosition < tamTable; quotientPosition++) {
-			/* increment the result coordinate and
+		for (int quotientPosition = from; quotientPosition < to; quotientPosition++) {
+			// divide
+			double denominatorValue = denominator[denominatorPosition];
+			quotient[quotientPosition] =
+					(denominatorValue == 0.0) ? 0.0 : numerator[numeratorPosition] / denominatorValue;
+
+			/* increment the quotient coordinate and
 			   find out which variable is to be incremented */
-			for (int iVariable = 0; iVariable < quotientCoordinate.length; iVariable++) {
-				// try by incrementing the current variable (given by iVariable)
+			for (int iVariable = 0; iVariable < numVariables; iVariable++) {
 				quotientCoordinate[iVariable]++;
 				if (quotientCoordinate[iVariable] != quotientDimension[iVariable]) {
-					// we have incremented the right variable
 					incrementedVariable = iVariable;
-					// do not increment other variables;
 					break;
 				}
-				/* this variable could not be incremented;
-				   we set it to 0 in resultCoordinate
-				   (the next iteration of the for-loop will increment
-				   the next variable) */
 				quotientCoordinate[iVariable] = 0;
 			}
-
-			// divide
-			if (denominator.values[potentialsPositions[1]] == 0.0) {
-				quotient.values[quotientPosition] = 0.0;
-			} else {
-				quotient.values[quotientPosition] = numerator.values[potentialsPositions[0]]
-						/ denominator.values[potentialsPositions[1]];
-			}
-			for (int iPotential = 0; iPotential < 2; iPotential++) {
-				// update the current position in each potential table
-				potentialsPositions[iPotential] += offsetsAccumulate[iPotential][incrementedVariable];
+			if (numVariables > 0) {
+				numeratorPosition += offAccNumerator[incrementedVariable];
+				denominatorPosition += offAccDenominator[incrementedVariable];
 			}
 		}
 	}
+
 }
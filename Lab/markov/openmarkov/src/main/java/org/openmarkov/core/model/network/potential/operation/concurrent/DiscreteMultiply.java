@@ -7,64 +7,80 @@
 
 package org.openmarkov.core.model.network.potential.operation.concurrent;
 
-public class DiscreteMultiply implements Runnable {
-
-	volatile protected SharedDataMultiply sdm;
-
-	protected int logicalProcessor;
-
-	protected int[] resultDimension;
-
-	protected int[] resultCoordinate;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the positions {@code [from, to)} of the product of several
+ * potentials. The interval is split in halves until it has no more than
+ * {@code chunkSize} positions; each leaf starts the accumulated offsets
+ * algorithm at its own coordinate, so the only shared state are the read-only
+ * arguments and disjoint intervals of the result table.
+ */
+public class DiscreteMultiply extends RecursiveAction {
 
-	protected double[] resultTable;
+	private static final long serialVersionUID = 1L;
 
-	protected int[] potentialsPositions;
+	protected final SharedDataMultiply sdm;
 
-	protected double[][] tables;
+	protected final int from;
 
-	protected int[][] offAccPotentials;
+	protected final int to;
 
-	protected int numPotentials;
+	public DiscreteMultiply(SharedDataMultiply sdm, int from, int to) {
+		this.sdm = sdm;
+		this.from = from;
+		this.to = to;
+	}
 
-	protected double constantFactor;
+	@Override protected void compute() {
+		if (to - from > sdm.chunkSize) {
+			int middle = (from + to) >>> 1;
+			invokeAll(split(from, middle), split(middle, to));
+		} else {
+			run(from, to);
+		}
+	}
 
-	public DiscreteMultiply(SharedDataMultiply sdm, int logicalProcessor) {
-		this.sdm = sdm;
-		this.logicalProcessor = logicalProcessor;
-		potentialsPositions = sdm.potentialsPositions[logicalProcessor];
-		resultDimension = sdm.result.getDimensions();
-		resultCoordinate = sdm.resultIntervals[logicalProcessor];
-		tables = sdm.tables;
-		offAccPotentials = sdm.offAccPotentials;
-		resultTable = sdm.result.values;
-		numPotentials = sdm.numPotentials;
-		constantFactor = sdm.constantFactor;
+	/**
+	 * @param from First position of the subtask
+	 * @param to   Last position (exclusive) of the subtask
+	 * @return A task of the same operation over {@code [from, to)}
+	 */
+	protected DiscreteMultiply split(int from, int to) {
+		return new DiscreteMultiply(sdm, from, to);
 	}
 
-	public void run() {
-		// Multiply
+	/**
+	 * Computes the positions {@code [from, to)} in the current thread
+	 *
+	 * @param from First position
+	 * @param to   Last position (exclusive)
+	 */
+	protected void run(int from, int to) {
+		int numPotentials = sdm.numPotentials;
+		double[][] tables = sdm.tables;
+		int[][] offAccPotentials = sdm.offAccPotentials;
+		int[] resultDimension = sdm.resultDimensions;
+		double[] resultTable = sdm.resultTable;
+		double constantFactor = sdm.constantFactor;
+		int numVariables = sdm.numResultVariables;
+
+		int[] resultCoordinate = new int[numVariables];
+		int[] potentialsPositions = new int[numPotentials];
+		sdm.startPositions(from, resultCoordinate, potentialsPositions);
+
 		int incrementedVariable = 0;
-		double mulResult;
-
-		int initialPosition = sdm.resultPositionIntervals[logicalProcessor];
-		int finalPosition = initialPosition + sdm.lengthResultIntervals[logicalProcessor];
-		
-		/*
-		System.out.println("Logical processor: " + logicalProcessor + 
-			", Initial position: " + initialPosition + ", Final position: " +
-			finalPosition + ". Total iterations: " 
-			+ (finalPosition - initialPosition) + "\n" 
-			+ "First resultCoordinate: " 
-			+ openmarkov.UtilTestMethods.printArrayOfIntegers(resultCoordinate));
-		*/
-
-		for (int resultPosition = initialPosition; resultPosition < finalPosition; resultPosition++) {
-			mulResult = constantFactor;
-
-          /* increment the result coordinate and
+		for (int resultPosition = from; resultPosition < to; resultPosition++) {
+			// multiply
+			double mulResult = constantFactor;
+			for (int iPotential = 0; iPotential < numPotentials; iPotential++) {
+				mulResult *= tables[iPotential][potentialsPositions[iPotential]];
+			}
+			resultTable[resultPosition] = mulResult;
+
+			/* increment the result coordinate and
 			   find out which variable is to be incremented */
-			for (int iVariable = 0; iVariable < resultCoordinate.length; iVariable++) {
+			for (int iVariable = 0; iVariable < numVariables; iVariable++) {
 				// try by incrementing the current variable (given by iVariable)
 				resultCoordinate[iVariable]++;
 				if (resultCoordinate[iVariable] != resultDimension[iVariable]) {
@@ -80,31 +96,11 @@ public class DiscreteMultiply implements Runnable {
 				resultCoordinate[iVariable] = 0;
 			}
 
-			// multiply
+			// update the current position in each potential table
 			for (int iPotential = 0; iPotential < numPotentials; iPotential++) {
-				// multiply the numbers
-				try {
-					mulResult = mulResult * tables[iPotential][potentialsPositions[iPotential]];
-				} catch (Exception e) {
-					System.err.println(getErrorMsg(e, iPotential));
-				}
-				// update the current position in each potential table
 				potentialsPositions[iPotential] += offAccPotentials[iPotential][incrementedVariable];
-
 			}
-			resultTable[resultPosition] = mulResult;
 		}
 	}
 
-	private String getErrorMsg(Exception e, int iPotential) {
-		String error = new String();
-		error = error + e.getMessage();
-		error = error + "Logical processor: " + logicalProcessor + "\n";
-		error = error + "iPotential: " + iPotential + "\n";
-		error = error + "potentialsPositions.length: " + potentialsPositions.length + "\n";
-		error = error + "tables[iPotential].length: " + sdm.tables[iPotential].length + "\n";
-		error = error + "potentialsPositions[iPotential]: " + potentialsPositions[iPotential] + "\n";
-
-		return error;
-	}
 }
@@ -7,89 +7,59 @@
 
 package org.openmarkov.core.model.network.potential.operation.concurrent;
 
-public class DiscreteMultiplyAndMarginalize extends DiscreteMultiply implements Runnable {
-
-	private SharedDataMultiplyAndMarginalize sdm;
-
-	private int resultSize;
-
-	private int[] currentPositions;
-
-	private int eliminationSize;
+/**
+ * Computes the positions {@code [from, to)} of the result of multiplying
+ * several potentials and summing out some variables. Result position
+ * {@code r} accumulates the positions
+ * {@code [r * eliminationSize, (r + 1) * eliminationSize)} of the product.
+ */
+public class DiscreteMultiplyAndMarginalize extends DiscreteMultiply {
 
-	private int[] unionCoordinate;
+	private static final long serialVersionUID = 1L;
 
-	private int[] unionDimensions;
+	public DiscreteMultiplyAndMarginalize(SharedDataMultiplyAndMarginalize sdm, int from, int to) {
+		super(sdm, from, to);
+	}
 
-	public DiscreteMultiplyAndMarginalize(SharedDataMultiplyAndMarginalize sdm, int logicalProcessor) {
-		super(sdm, logicalProcessor);
-		resultSize = sdm.result.values.length;
-		eliminationSize = sdm.eliminationSize;
-		unionCoordinate = sdm.unionCoordinate;
-		unionDimensions = sdm.unionDimensions;
+	@Override protected DiscreteMultiply split(int from, int to) {
+		return new DiscreteMultiplyAndMarginalize((SharedDataMultiplyAndMarginalize) sdm, from, to);
 	}
 
-	public void run() {
+	@Override protected void run(int from, int to) {
+		int numPotentials = sdm.numPotentials;
+		double[][] tables = sdm.tables;
+		int[][] offAccPotentials = sdm.offAccPotentials;
+		int[] unionDimensions = sdm.resultDimensions;
+		double[] resultTable = sdm.resultTable;
+		double constantFactor = sdm.constantFactor;
+		int numUnionVariables = sdm.numResultVariables;
+		int eliminationSize = ((SharedDataMultiplyAndMarginalize) sdm).eliminationSize;
+
+		int[] unionCoordinate = new int[numUnionVariables];
+		int[] currentPositions = new int[numPotentials];
+		// the iteration space may have more positions than an int can index
+		sdm.startPositions((long) from * eliminationSize, unionCoordinate, currentPositions);
+
 		// Auxiliary variables for the nested loops
 		double multiplicationResult; // product of the table values
 		double accumulator; // in general, the sum or the maximum
 		int increasedVariable = 0; // when computing the next configuration
 
 		// outer iterations correspond to the variables to keep
-		int initialPosition = sdm.resultPositionIntervals[logicalProcessor];
-		int finalPosition = initialPosition + sdm.lengthResultIntervals[logicalProcessor];
-		for (int outerIteration = initialPosition; outerIteration < finalPosition; outerIteration++) {
-			// Inner iterations correspond to the variables to eliminate
-			// accumulator summarizes the result of all inner iterations
-
-			// first inner iteration
-			multiplicationResult = constantFactor;
-			for (int i = 0; i < numPotentials; i++) {
-				// multiply the numbers
-				multiplicationResult *= tables[i][currentPositions[i]];
-			}
-			accumulator = multiplicationResult;
-
-			// next inner iterations
-			for (int innerIteration = 1; innerIteration < eliminationSize; innerIteration++) {
-
-				// find the next configuration and the index of	 the
-				// increased
-				// variable
-				for (int j = 0; j < unionCoordinate.length; j++) {
-					unionCoordinate[j]++;
-					if (unionCoordinate[j] < unionDimensions[j]) {
-						increasedVariable = j;
-						break;
-					}
-					unionCoordinate[j] = 0;
-				}
-
-				// update the positions of the potentials we are multiplying
-				for (int i = 0; i < numPotentials; i++) {
-					currentPositions[i] += offAccPotentials[i][increasedVariable];
-				}
-
+		for (int outerIteration = from; outerIteration < to; outerIteration++) {
+			accumulator = 0.0;
+			// inner iterations correspond to the variables to eliminate
+			for (int innerIteration = 0; innerIteration < eliminationSize; innerIteration++) {
 				// multiply the table values of the potentials
 				multiplicationResult = constantFactor;
 				for (int i = 0; i < numPotentials; i++) {
-					multiplicationResult = multiplicationResult * tables[i][currentPositions[i]];
+					multiplicationResult *= tables[i][currentPositions[i]];
 				}
-
 				// update the accumulator (for this inner iteration)
 				accumulator += multiplicationResult;
-				// accumulator =
-				// operator.combine(accumlator,multiplicationResult);
 
-			} // end of inner iteration
-
-			// when eliminationSize == 0 there is a multiplication without
-			// marginalization but we must find the next configuration
-			if (outerIteration < resultSize - 1) {
-				// find the next configuration and the index of the
-				// increased
-				// variable
-				for (int j = 0; j < unionCoordinate.length; j++) {
+				// find the next configuration and the index of the increased variable
+				for (int j = 0; j < numUnionVariables; j++) {
 					unionCoordinate[j]++;
 					if (unionCoordinate[j] < unionDimensions[j]) {
 						increasedVariable = j;
@@ -97,16 +67,13 @@ public class DiscreteMultiplyAndMarginalize extends DiscreteMultiply implements
 					}
 					unionCoordinate[j] = 0;
 				}
-
 				// update the positions of the potentials we are multiplying
 				for (int i = 0; i < numPotentials; i++) {
 					currentPositions[i] += offAccPotentials[i][increasedVariable];
 				}
-			}
-
-			resultTable[outerIteration] = accumulator / eliminationSize;
-
+			} // end of inner iteration
+			resultTable[outerIteration] = accumulator;
 		} // end of outer iteration
-
 	}
+
 }
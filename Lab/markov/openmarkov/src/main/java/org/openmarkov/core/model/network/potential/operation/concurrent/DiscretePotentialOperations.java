@@ -7,202 +7,304 @@
 
 package org.openmarkov.core.model.network.potential.operation.concurrent;
 
+import org.openmarkov.core.model.network.Criterion;
 import org.openmarkov.core.model.network.Variable;
 import org.openmarkov.core.model.network.potential.Potential;
+import org.openmarkov.core.model.network.potential.PotentialRole;
 import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.core.model.network.potential.operation.AuxiliaryOperations;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
+/**
+ * Concurrent versions of the main operations of
+ * {@link org.openmarkov.core.model.network.potential.operation.DiscretePotentialOperations}.
+ * The result table is split in intervals that are computed by
+ * {@link java.util.concurrent.RecursiveAction}s in a shared
+ * {@code ForkJoinPool}. Operations whose iteration space is smaller than
+ * {@link #sequentialThreshold} are computed in the calling thread, because
+ * for them the cost of the tasks is bigger than the gain.
+ */
 public class DiscretePotentialOperations {
 
 	// Attributes
 	/**
-	 * Number of logical processors, bear in mind that logical processors are
-	 * not always the physical ones. If the processors have a n
-	 * hyper threading then logical processors = n * physical processors.
+	 * Number of positions of the iteration space (product of the dimensions of
+	 * all the variables involved) under which the operation is not split.
 	 */
-	public static int numLogicalProcessors = java.lang.Runtime.getRuntime().availableProcessors();
+	public static int sequentialThreshold = 1 << 15;
+
+	/**
+	 * Minimum number of positions of the iteration space computed by a task.
+	 */
+	public static int minChunkSize = 1 << 12;
+
+	/**
+	 * Number of tasks per worker thread in which an operation is split, so
+	 * that the work stealing can balance the load.
+	 */
+	public static int tasksPerThread = 4;
+
+	private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+
+	// Shared data objects of finished operations, ready to be reused
+	private static final Queue<SharedDataMultiply> multiplyData = new ConcurrentLinkedQueue<>();
 
-	// Constructor. Don't let anyone instantiate this class because in contains 
+	private static final Queue<SharedDataMultiplyAndMarginalize> multiplyAndMarginalizeData =
+			new ConcurrentLinkedQueue<>();
+
+	private static final Queue<SharedDataDivide> divideData = new ConcurrentLinkedQueue<>();
+
+	// Constructor. Don't let anyone instantiate this class because in contains
 	// only static methods.
 	private DiscretePotentialOperations() {
 	}
 
 	// Methods
+
+	/**
+	 * @return The pool where the operations are computed. By default, the
+	 * common pool.
+	 */
+	public static ForkJoinPool getPool() {
+		return pool;
+	}
+
 	/**
+	 * @param pool The pool where the operations will be computed
+	 */
+	public static void setPool(ForkJoinPool pool) {
+		DiscretePotentialOperations.pool = (pool != null) ? pool : ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * @param size Number of positions of the iteration space
+	 * @return {@code true} when it is worth to split the operation
+	 */
+	public static boolean isWorthSplitting(long size) {
+		return size >= sequentialThreshold && pool.getParallelism() > 1;
+	}
+
+	/**
+	 * Runs the tasks concurrently in the pool of the operations and waits for
+	 * all of them. The tasks can use the concurrent operations in turn.
 	 *
-	 * @param potentials ArrayList of Potentials
-	 * @return The multiplied potentials
-	 * @throws Exception Exception
+	 * @param tasks {@code List} of {@code ForkJoinTask}s
 	 */
-	public static TablePotential multiply(List<TablePotential> potentials) throws Exception {
-		// Sequential part
-		SharedDataMultiply sdm = new SharedDataMultiply(potentials);
-		sdm.initialize();
+	public static void invokeAll(final List<? extends ForkJoinTask<?>> tasks) {
+		if (ForkJoinTask.getPool() == pool) {
+			ForkJoinTask.invokeAll(tasks);
+		} else {
+			pool.invoke(new RecursiveAction() {
+				@Override protected void compute() {
+					ForkJoinTask.invokeAll(tasks);
+				}
+			});
+		}
+	}
 
-		// Concurrent part
-		// Starts concurrency
-		Thread[] multipliers = new Thread[numLogicalProcessors];
-		DiscreteMultiply[] cdm = new DiscreteMultiply[numLogicalProcessors];
-		for (int i = 0; i < numLogicalProcessors; i++) {
-			cdm[i] = new DiscreteMultiply(sdm, i);
-			multipliers[i] = new Thread(cdm[i]);
-			multipliers[i].start();
-			//cdm[i].run();
+	/**
+	 * @param potentials {@code List} of {@code TablePotential}s
+	 * @return The product of the potentials
+	 */
+	public static TablePotential multiply(List<TablePotential> potentials) {
+		int numPotentials = potentials.size();
+		if (numPotentials < 2) {
+			return (numPotentials == 1) ? potentials.get(0) : null;
+		}
+		for (TablePotential potential : potentials) {
+			if (potential.strategyTrees != null) {
+				// Interventions are only propagated by the sequential version
+				return org.openmarkov.core.model.network.potential.operation.DiscretePotentialOperations
+						.multiply(potentials);
+			}
 		}
 
-		// Synchronization. The current thread waits until all 
-		// concurrent operations finish
-		for (int i = 0; i < numLogicalProcessors; i++) {
-			try {
-				multipliers[i].join();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+		// Sequential part
+		List<TablePotential> sortedPotentials = new ArrayList<>(potentials);
+		Collections.sort(sortedPotentials);
+		double constantFactor = 1.0;
+		List<TablePotential> nonConstantPotentials = new ArrayList<>();
+		for (TablePotential potential : sortedPotentials) {
+			// as in the sequential version, one-cell tables are constants
+			if (potential.getNumVariables() != 0 && potential.getTableSize() > 1) {
+				nonConstantPotentials.add(potential);
+			} else {
+				constantFactor *= potential.values[potential.getInitialPosition()];
 			}
 		}
+		PotentialRole role = getRole(potentials);
+		TablePotential result;
+		if (nonConstantPotentials.isEmpty()) {
+			result = new TablePotential(null, role);
+			result.values[0] = constantFactor;
+		} else {
+			result = new TablePotential(AuxiliaryOperations.getUnionVariables(nonConstantPotentials), role);
+			SharedDataMultiply sdm = acquire(multiplyData);
+			if (sdm == null) {
+				sdm = new SharedDataMultiply();
+			}
+			sdm.initialize(nonConstantPotentials, result.getVariables(), constantFactor, result.values);
+			int resultSize = result.values.length;
+			sdm.chunkSize = getChunkSize(resultSize, resultSize, 1);
 
-		return sdm.result;
+			// Concurrent part
+			compute(new DiscreteMultiply(sdm, 0, resultSize), resultSize);
+			release(multiplyData, sdm);
+		}
+		Criterion criterion = findFirstNonNullCriterion(potentials);
+		if (criterion != null) {
+			result.setCriterion(criterion);
+		}
+		return result;
 	}
 
-	public static TablePotential multiplyAndMarginalize(List<TablePotential> tablePotentials,
-			List<Variable> fSVariablesToKeep, List<Variable> fSVariablesToEliminate) throws Exception {
+	/**
+	 * @param tablePotentials      Potentials to multiply
+	 * @param variablesToKeep      The set of variables that will appear in the resulting
+	 *                             potential
+	 * @param variablesToEliminate The set of variables eliminated by summing out
+	 * @return A {@code TablePotential} result of multiply and marginalize.
+	 * Condition: variablesToKeep and variablesToEliminate are a partition of
+	 * the union of the variables of the potential
+	 */
+	public static TablePotential multiplyAndMarginalize(Collection<TablePotential> tablePotentials,
+			List<Variable> variablesToKeep, List<Variable> variablesToEliminate) {
 
 		// Sequential part
-		SharedDataMultiplyAndMarginalize sdm = new SharedDataMultiplyAndMarginalize(tablePotentials, fSVariablesToKeep,
-				fSVariablesToEliminate);
-		sdm.initializeMultiplyAndMarginalize();
-
-		// Concurrent part
-		// Starts concurrency
-		Thread[] multipliers = new Thread[numLogicalProcessors];
-		DiscreteMultiplyAndMarginalize[] cdm = new DiscreteMultiplyAndMarginalize[numLogicalProcessors];
-		for (int i = 0; i < numLogicalProcessors; i++) {
-			cdm[i] = new DiscreteMultiplyAndMarginalize(sdm, i);
-			multipliers[i] = new Thread(cdm[i]);
-			multipliers[i].start();
-		}
-
-		// Synchronization. The current thread waits until all 
-		// concurrent operations finish
-		for (int i = 0; i < numLogicalProcessors; i++) {
-			try {
-				multipliers[i].join();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+		double constantFactor = 1.0;
+		List<TablePotential> nonConstantPotentials = new ArrayList<>();
+		for (TablePotential potential : tablePotentials) {
+			// as in multiply, one-cell tables are constants
+			if (potential.getNumVariables() != 0 && potential.getTableSize() > 1) {
+				nonConstantPotentials.add(potential);
+			} else {
+				constantFactor *= potential.values[potential.getInitialPosition()];
 			}
 		}
+		TablePotential result = new TablePotential(variablesToKeep, getRole(tablePotentials));
+		if (nonConstantPotentials.isEmpty()) {
+			result.values[0] = constantFactor;
+			return result;
+		}
+		SharedDataMultiplyAndMarginalize sdm = acquire(multiplyAndMarginalizeData);
+		if (sdm == null) {
+			sdm = new SharedDataMultiplyAndMarginalize();
+		}
+		sdm.initialize(nonConstantPotentials, variablesToKeep, variablesToEliminate, constantFactor,
+				result.values);
+		int resultSize = result.values.length;
+		long unionSize = (long) resultSize * sdm.eliminationSize;
+		sdm.chunkSize = getChunkSize(resultSize, unionSize, sdm.eliminationSize);
 
-		return sdm.result;
+		// Concurrent part
+		compute(new DiscreteMultiplyAndMarginalize(sdm, 0, resultSize), unionSize);
+		release(multiplyAndMarginalizeData, sdm);
+		return result;
 	}
 
 	/**
 	 * @param numeratorPotential   {@code Potential}
 	 * @param denominatorPotential {@code Potential}
 	 * @return numeratorPotential / denominatorPotential {@code TablePotential}
+	 * with the union of the variables of numerator and denominator.
 	 */
 	public static TablePotential divide(Potential numeratorPotential, Potential denominatorPotential) {
 		// Sequential part
-		SharedDataDivide sdd = new SharedDataDivide(numeratorPotential, denominatorPotential);
-		sdd.initialize();
-
-		// Concurrent part
-		// Starts concurrency
-		Thread[] multipliers = new Thread[numLogicalProcessors];
-		DiscreteDivide[] cdd = new DiscreteDivide[numLogicalProcessors];
-		for (int i = 0; i < numLogicalProcessors; i++) {
-			cdd[i] = new DiscreteDivide(sdd, i);
-			multipliers[i] = new Thread(cdd[i]);
-			multipliers[i].start();
-		}
-
-		// Synchronization. The current thread waits until all 
-		// concurrent operations finish
-		for (int i = 0; i < numLogicalProcessors; i++) {
-			try {
-				multipliers[i].join();
-			} catch (InterruptedException e) {
-				e.printStackTrace();
+		TablePotential numerator = (TablePotential) numeratorPotential;
+		TablePotential denominator = (TablePotential) denominatorPotential;
+		List<Variable> quotientVariables = new ArrayList<>(numerator.getVariables());
+		for (Variable variable : denominator.getVariables()) {
+			if (!quotientVariables.contains(variable)) {
+				quotientVariables.add(variable);
 			}
 		}
+		TablePotential quotient = new TablePotential(quotientVariables, PotentialRole.JOINT_PROBABILITY);
+		SharedDataDivide sdd = acquire(divideData);
+		if (sdd == null) {
+			sdd = new SharedDataDivide();
+		}
+		sdd.initialize(numerator, denominator, quotientVariables, quotient.values);
+		int quotientSize = quotient.values.length;
+		sdd.chunkSize = getChunkSize(quotientSize, quotientSize, 1);
 
-		return sdd.result;
+		// Concurrent part
+		compute(new DiscreteDivide(sdd, 0, quotientSize), quotientSize);
+		release(divideData, sdd);
+		return quotient;
 	}
 
 	/**
-	 * Calculates potentialPositions for each interval
+	 * Runs the task in the current thread when the operation is small and in
+	 * the pool otherwise. A task of the pool (for example, the propagation of
+	 * a subtree of a junction tree) invokes the operation directly, so that it
+	 * is split among the workers of the pool.
+	 *
+	 * @param task The task that covers the whole result
+	 * @param size Number of positions of the iteration space
 	 */
-	static void splitOperatorsPotentials(List<TablePotential> potentials, TablePotential result,
-			int[][] resultIntervals, int[][] potentialsPositions) {
-
-		List<Variable> resultVariables = result.getVariables();
-
-		int aux;
-		int numIntervals = org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations.numLogicalProcessors;
-
-		for (int i = 0; i < numIntervals; i++) {
-			for (int j = 0; j < potentials.size(); j++) {
-				TablePotential potential = potentials.get(j);
-				int[] offsetsPotential = potential.getOffsets();
-				List<Variable> potentialVariables = potential.getVariables();
-				aux = 0;
-
-				// This is different for each operation (marginalization, etc)
-				for (int k = 0; k < potentialVariables.size(); k++) {
-					Variable variable = potentialVariables.get(k);
-					// gets the variable coordinate value in the 
-					// potentialPosition
-					int indexResult = resultVariables.indexOf(variable);
-					int valueResult = resultIntervals[i][indexResult];
-					aux += offsetsPotential[k] * valueResult;
-				}
-				potentialsPositions[i][j] = aux;
+	private static void compute(DiscreteMultiply task, long size) {
+		if (isWorthSplitting(size)) {
+			if (ForkJoinTask.getPool() == pool) {
+				task.invoke();
+			} else {
+				pool.invoke(task);
 			}
+		} else {
+			task.run(task.from, task.to);
 		}
 	}
 
 	/**
-	 * Divides an operation in {@code numLogicalProcessors} parts by
-	 * computing the following arrays {@code resultIntervals},
-	 * {@code lengthResultIntervals} and
-	 * {@code variableToIncrement}.
+	 * @param resultSize       Number of positions of the result
+	 * @param iterationSize    Number of positions of the iteration space
+	 * @param positionsPerCell Positions of the iteration space per result position
+	 * @return Number of result positions of each task: enough tasks for the
+	 * work stealing to balance the load but not smaller than
+	 * {@link #minChunkSize} positions of the iteration space.
 	 */
-	static void splitResultPotential(TablePotential result, int[][] resultIntervals, int[] lengthResultIntervals,
-			int[] resultPositionIntervals) {
-		int[] offsetsResult = result.getOffsets();
-		int[] dimensions = result.getDimensions();
-		int numIntervals = org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations.numLogicalProcessors;
-		int numResultVariables = offsetsResult.length;
-		int lastVariable = numResultVariables - 1;
-		int resultSize = offsetsResult[lastVariable] * dimensions[lastVariable];
-
-		int intervalLength = resultSize / numIntervals;
-
-		int remainderConfigurations = resultSize % numIntervals;
-
-		// Calculate length of each interval
-		resultPositionIntervals[0] = 0;
-		for (int i = 0; i < numIntervals; i++) {
-			lengthResultIntervals[i] = intervalLength;
-			if (i < remainderConfigurations) {
-				lengthResultIntervals[i]++;
-			}
-			if (i > 0) {
-				resultPositionIntervals[i] = resultPositionIntervals[i - 1] + lengthResultIntervals[i];
-			}
+	private static int getChunkSize(int resultSize, long iterationSize, int positionsPerCell) {
+		if (!isWorthSplitting(iterationSize)) {
+			return resultSize;
 		}
+		int numTasks = pool.getParallelism() * tasksPerThread;
+		int chunkSize = (resultSize + numTasks - 1) / numTasks;
+		int minCells = (minChunkSize + positionsPerCell - 1) / positionsPerCell;
+		return Math.max(Math.max(chunkSize, minCells), 1);
+	}
 
-		int actualPosition = 0;
-		// Calculate intervals
-		// First configuration starts with (0,0,...,0).  
-		int i;
-		for (i = 1; i < numIntervals; i++) {
-			actualPosition += lengthResultIntervals[i - 1];
-			int remainder = actualPosition;
-			for (int j = lastVariable; j >= 0; j--) {
-				resultIntervals[i][j] = remainder / offsetsResult[j];
-				remainder = remainder % offsetsResult[j];
-			}
+	private static <T extends SharedDataMultiply> T acquire(Queue<T> sharedData) {
+		return sharedData.poll();
+	}
+
+	private static <T extends SharedDataMultiply> void release(Queue<T> sharedData, T data) {
+		data.clear();
+		sharedData.offer(data);
+	}
+
+	/**
+	 * @param potentials Collection of potentials
+	 * @return The potential role, as in the sequential operations
+	 */
+	private static PotentialRole getRole(Collection<? extends Potential> potentials) {
+		return org.openmarkov.core.model.network.potential.operation.DiscretePotentialOperations
+				.getRole(potentials);
+	}
+
+	private static Criterion findFirstNonNullCriterion(List<TablePotential> tablePotentials) {
+		Criterion criterion = null;
+		for (int i = 0; i < tablePotentials.size() && criterion == null; i++) {
+			criterion = tablePotentials.get(i).getCriterion();
 		}
+		return criterion;
 	}
 
 }
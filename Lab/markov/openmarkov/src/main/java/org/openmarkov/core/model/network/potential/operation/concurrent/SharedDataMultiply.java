@@ -7,117 +7,172 @@
 
 package org.openmarkov.core.model.network.potential.operation.concurrent;
 
-import org.openmarkov.core.model.network.potential.PotentialRole;
+import org.openmarkov.core.model.network.Variable;
 import org.openmarkov.core.model.network.potential.TablePotential;
-import org.openmarkov.core.model.network.potential.operation.AuxiliaryOperations;
-import org.openmarkov.core.model.network.potential.operation.DiscretePotentialOperations;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 /**
- * Contains shared data used concurrently by a set of threads computing an
- * operation. This class is not synchronized because the set of threads
- * accomplish the three conditions of Bernstein
+ * Contains shared data used concurrently by a set of tasks computing an
+ * operation. This class is not synchronized because the tasks only read the
+ * arguments and each one writes a disjoint interval of the result table
+ * (Bernstein conditions).
  * All data have package access because they will be used outside this class,
  * only in this package and the access must be efficient (there is not getX or
- * setX)
+ * setX).
+ * Instances are recycled between operations (see
+ * {@link DiscretePotentialOperations}), so the arrays are only reallocated
+ * when a bigger operation needs them.
  */
 public class SharedDataMultiply {
 
 	// Attributes related to the arguments
-	volatile List<TablePotential> potentials;
-
-	volatile int numPotentials;
-
-	volatile int[][] offAccPotentials;
+	int numPotentials;
 
 	/**
 	 * Probability tables of potentials
 	 */
-	volatile double[][] tables;
+	double[][] tables;
 
-	// Attributes related to result
-	volatile TablePotential result;
+	/**
+	 * First position of each table (not 0 in projected potentials)
+	 */
+	int[] initialPositions;
 
-	volatile int numResultVariables;
+	/**
+	 * {@code strides[i][j]} = offset in the potential {@code i} of the result
+	 * variable {@code j} (0 if the potential does not contain it)
+	 */
+	int[][] strides;
 
-	volatile int[] resultDimensions;
+	int[][] offAccPotentials;
 
-	volatile int[] offsetsResult;
+	// Attributes related to the iteration space
+	int numResultVariables;
 
-	// Product of constant potentials (1 if none)
-	volatile double constantFactor;
+	int[] resultDimensions;
 
-	// Attributes related to splitted potentials. 
-	// First coordinate = numLogicalProcessors
-	volatile int[] resultPositionIntervals;
+	long[] resultOffsets;
 
-	volatile int[][] resultIntervals;
+	// Product of constant potentials (1 if none)
+	double constantFactor;
 
-	volatile int[] lengthResultIntervals;
+	// Attributes related to result
+	double[] resultTable;
 
-	volatile int[][] potentialsPositions;
+	/**
+	 * Number of result positions under which a task is not split again
+	 */
+	int chunkSize;
 
 	// Constructor
-	public SharedDataMultiply(List<TablePotential> potentials) {
-		this.potentials = new ArrayList<>(potentials);
+	public SharedDataMultiply() {
+		tables = new double[0][];
+		initialPositions = new int[0];
+		strides = new int[0][];
+		offAccPotentials = new int[0][];
+		resultDimensions = new int[0];
+		resultOffsets = new long[0];
 	}
 
 	// Methods
 
 	/**
-	 * Initialize the attributes using the potentials and the number of logical
-	 * processors
+	 * Initializes the attributes reusing the arrays of a previous operation
+	 * when they are big enough.
 	 *
-	 * @throws Exception Exception
+	 * @param potentials      Non constant potentials
+	 * @param resultVariables Variables that define the iteration space
+	 * @param constantFactor  Product of the constant potentials
+	 * @param resultTable     Table where the result is written
 	 */
-	public void initialize() throws Exception {
-		// Sort the potentials according to the table size
-		Collections.sort(potentials);
-
-		// Gets constant factor: The product of constant potentials
-		constantFactor = org.openmarkov.core.model.network.potential.operation.DiscretePotentialOperations
-				.getConstantFactor(potentials);
-
-		//nonConstantPotentials may be redundant, but since potentials may be modified by other threads,
-		// separating declaration and assignment avoids that other threads mess with "potentials" while this
-		// thread is updating it.
-		List<TablePotential> nonConstantPotentials = AuxiliaryOperations.getNonConstantPotentials(potentials);
-		potentials = nonConstantPotentials;
-
+	void initialize(List<TablePotential> potentials, List<Variable> resultVariables, double constantFactor,
+			double[] resultTable) {
+		this.constantFactor = constantFactor;
+		this.resultTable = resultTable;
 		numPotentials = potentials.size();
+		numResultVariables = resultVariables.size();
 
-		// Gets the union
-		result = new TablePotential(AuxiliaryOperations.getUnionVariables(potentials), PotentialRole.JOINT_PROBABILITY);
-
-		numResultVariables = result.getVariables().size();
+		if (resultDimensions.length < numResultVariables) {
+			resultDimensions = new int[numResultVariables];
+			resultOffsets = new long[numResultVariables];
+		}
+		long offset = 1;
+		for (int j = 0; j < numResultVariables; j++) {
+			resultDimensions[j] = resultVariables.get(j).getNumStates();
+			resultOffsets[j] = offset;
+			offset *= resultDimensions[j];
+		}
 
-		// Gets the tables of each TablePotential
-		tables = new double[numPotentials][];
+		if (tables.length < numPotentials) {
+			tables = new double[numPotentials][];
+			initialPositions = new int[numPotentials];
+			strides = new int[numPotentials][];
+			offAccPotentials = new int[numPotentials][];
+		}
 		for (int i = 0; i < numPotentials; i++) {
-			tables[i] = potentials.get(i).values;
+			TablePotential potential = potentials.get(i);
+			tables[i] = potential.values;
+			initialPositions[i] = potential.getInitialPosition();
+			if (strides[i] == null || strides[i].length < numResultVariables) {
+				strides[i] = new int[numResultVariables];
+				offAccPotentials[i] = new int[numResultVariables];
+			}
+			int[] potentialStrides = strides[i];
+			for (int j = 0; j < numResultVariables; j++) {
+				potentialStrides[j] = 0;
+			}
+			List<Variable> potentialVariables = potential.getVariables();
+			int[] potentialOffsets = potential.getOffsets();
+			for (int k = 0; k < potentialVariables.size(); k++) {
+				int j = resultVariables.indexOf(potentialVariables.get(k));
+				if (j != -1) {
+					potentialStrides[j] = potentialOffsets[k];
+				}
+			}
+			// accumulated offset = stride minus the positions covered while
+			// the previous variables went from 0 to their last state
+			int[] accumulatedOffsets = offAccPotentials[i];
+			int covered = 0;
+			for (int j = 0; j < numResultVariables; j++) {
+				accumulatedOffsets[j] = potentialStrides[j] - covered;
+				covered += potentialStrides[j] * (resultDimensions[j] - 1);
+			}
 		}
+	}
 
-		// Gets offset accumulate
-		offAccPotentials = DiscretePotentialOperations.getAccumulatedOffsets(potentials, result);
-
-		// Position in each table potential
-		potentialsPositions = new int[org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations.numLogicalProcessors][numPotentials];
-
-		// splits potentials
-		offsetsResult = result.getOffsets();
-		int numIntervals = org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations.numLogicalProcessors;
-		int numResultVariables = offsetsResult.length;
-		resultIntervals = new int[numIntervals][numResultVariables];
-		lengthResultIntervals = new int[numIntervals];
-		resultPositionIntervals = new int[numIntervals];
+	/**
+	 * Computes the coordinate of {@code position} in the iteration space and
+	 * the corresponding position in each table.
+	 *
+	 * @param position    Position in the iteration space
+	 * @param coordinate  Output: coordinate of {@code position}
+	 * @param positions   Output: position in each table
+	 */
+	void startPositions(long position, int[] coordinate, int[] positions) {
+		for (int i = 0; i < numPotentials; i++) {
+			positions[i] = initialPositions[i];
+		}
+		for (int j = 0; j < numResultVariables; j++) {
+			int value = (int) ((position / resultOffsets[j]) % resultDimensions[j]);
+			coordinate[j] = value;
+			if (value != 0) {
+				for (int i = 0; i < numPotentials; i++) {
+					positions[i] += value * strides[i][j];
+				}
+			}
+		}
+	}
 
-		org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations
-				.splitResultPotential(result, resultIntervals, lengthResultIntervals, resultPositionIntervals);
-		org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations
-				.splitOperatorsPotentials(potentials, result, resultIntervals, potentialsPositions);
+	/**
+	 * Releases the references to the tables of the last operation so that a
+	 * recycled object does not keep them alive.
+	 */
+	void clear() {
+		for (int i = 0; i < numPotentials; i++) {
+			tables[i] = null;
+		}
+		resultTable = null;
 	}
 
 }
@@ -13,71 +13,38 @@ import org.openmarkov.core.model.network.potential.TablePotential;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Shared data of a multiply and marginalize operation. The iteration space is
+ * the union of the variables to eliminate followed by the variables to keep,
+ * so each position of the result corresponds to {@code eliminationSize}
+ * consecutive positions of the iteration space.
+ */
 public class SharedDataMultiplyAndMarginalize extends SharedDataMultiply {
 
-	List<Variable> variablesToKeep;
-
-	List<Variable> variablesToEliminate;
-
-	// Attributes related to the product potential that will be marginalized
-	List<Variable> unionVariables;
-
-	int[] unionCoordinate;
-
-	int[] unionDimensions;
-
+	/**
+	 * Product of the dimensions of the variables to eliminate
+	 */
 	int eliminationSize;
 
-	@SuppressWarnings("unchecked") public SharedDataMultiplyAndMarginalize(List<TablePotential> potentials,
-			List<Variable> fSVariablesToKeep, List<Variable> fSVariablesToEliminate) {
-
-		super(potentials);
-
-		this.variablesToKeep = fSVariablesToKeep;
-
-		this.variablesToEliminate = (ArrayList<Variable>) ((Object) fSVariablesToEliminate);
-	}
+	// Methods
 
 	/**
-	 * Does some previous not parallel operations
-	 *
-	 * @throws Exception Exception
+	 * @param potentials           Non constant potentials
+	 * @param variablesToKeep      Variables of the result
+	 * @param variablesToEliminate Variables summed out
+	 * @param constantFactor       Product of the constant potentials
+	 * @param resultTable          Table where the result is written
 	 */
-	public void initializeMultiplyAndMarginalize() throws Exception {
-		super.initialize();
-		// variables in the resulting potential
+	void initialize(List<TablePotential> potentials, List<Variable> variablesToKeep,
+			List<Variable> variablesToEliminate, double constantFactor, double[] resultTable) {
 		List<Variable> unionVariables = new ArrayList<>(variablesToEliminate);
 		unionVariables.addAll(variablesToKeep);
-		int numUnionVariables = unionVariables.size();
+		super.initialize(potentials, unionVariables, constantFactor, resultTable);
 
-		// current coordinate in the resulting potential
-		unionCoordinate = new int[numUnionVariables];
-		unionDimensions = TablePotential.calculateDimensions(unionVariables);
-
-		// Defines some arrays for the proper potentials...
-		double[][] tables = new double[numPotentials][];
-		int[] initialPositions = new int[numPotentials];
-		int[] currentPositions = new int[numPotentials];
-		int[][] accumulatedOffsets = new int[numPotentials][];
-		// ... and initializes them
-		TablePotential unionPotential = new TablePotential(unionVariables, null);
-		for (int i = 0; i < numPotentials; i++) {
-			TablePotential potential = (TablePotential) potentials.get(i);
-			tables[i] = potential.values;
-			initialPositions[i] = potential.getInitialPosition();
-			currentPositions[i] = initialPositions[i];
-			accumulatedOffsets[i] = unionPotential
-					//.getAccumulatedOffsets(potential.getOriginalVariables());
-					.getAccumulatedOffsets(potential.getVariables());
-		}
-
-		// The elimination size is the product of the dimensions of the
-		// variables to eliminate
 		eliminationSize = 1;
 		for (Variable variable : variablesToEliminate) {
-			eliminationSize *= variable.getNumStates();
+			eliminationSize = Math.multiplyExact(eliminationSize, variable.getNumStates());
 		}
-
 	}
 
 }
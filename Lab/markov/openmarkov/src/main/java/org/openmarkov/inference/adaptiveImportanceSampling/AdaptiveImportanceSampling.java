@@ -7,23 +7,288 @@
 package org.openmarkov.inference.adaptiveImportanceSampling;
 
 import org.openmarkov.core.exception.NotEvaluableNetworkException;
-import org.openmarkov.core.inference.InferenceAlgorithm;
+import org.openmarkov.core.inference.annotation.InferenceAnnotation;
+import org.openmarkov.core.inference.tasks.Propagation;
 import org.openmarkov.core.model.network.ProbNet;
-import org.openmarkov.core.model.network.constraint.PNConstraint;
-import org.openmarkov.core.model.network.type.NetworkType;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.inference.likelihoodWeighting.SamplingPlan;
+import org.openmarkov.inference.likelihoodWeighting.StochasticPropagation;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.Random;
+
+/**
+ * Adaptive importance sampling for bayesian networks (AIS-BN, Cheng and
+ * Druzdzel, 2000). The samples are drawn from an importance function that has
+ * the structure of the network and approximates the posterior probability of
+ * each variable given its parents and the evidence. The function is learned in
+ * stages before the samples of the propagation are drawn: each stage draws
+ * samples from the current function and moves it towards the distribution
+ * estimated with their weights, with a learning rate that decreases from stage
+ * to stage. Only the ancestors of the findings are learned; the importance
+ * function of the other variables is their conditional probability.
+ * <p>
+ * The function starts from the conditional probabilities of the network with
+ * two heuristics intended for unlikely evidence: the parents of the findings
+ * start with uniform distributions and the probabilities smaller than 0.04 (for
+ * variables with two states; 0.08 divided by the number of states in general)
+ * are raised to that threshold before normalizing, so that the states that make
+ * the evidence likely are not missed in the first stages.
+ */
+@InferenceAnnotation(name = "AdaptiveImportanceSampling")
+public class AdaptiveImportanceSampling extends StochasticPropagation implements Propagation {
+
+	public static final int DEFAULT_NUM_LEARNING_STAGES = 10;
+
+	public static final int DEFAULT_SAMPLES_PER_STAGE = 2500;
+
+	// the learning rate of the stage k is INITIAL_LEARNING_RATE * (FINAL_LEARNING_RATE / INITIAL_LEARNING_RATE)^(k / numLearningStages)
+	private static final double INITIAL_LEARNING_RATE = 0.4;
+
+	private static final double FINAL_LEARNING_RATE = 0.14;
+
+	// smallest probability of the importance function of a variable with two states after the heuristic initialization
+	private static final double SMALL_PROBABILITY_THRESHOLD = 0.04;
+
+	private int numLearningStages;
+
+	private int samplesPerStage;
+
+	private boolean heuristicInitialization;
+
+	// importance function, with the structure of samplingPlan
+	private SamplingPlan importancePlan;
+
+	// for each variable of samplingPlan, true if it is an ancestor of a finding and not observed, i.e., if its
+	// importance function is learned
+	private boolean[] learned;
 
-public class AdaptiveImportanceSampling extends InferenceAlgorithm {
 	public AdaptiveImportanceSampling(ProbNet probNet) throws NotEvaluableNetworkException {
 		super(probNet);
+		numLearningStages = DEFAULT_NUM_LEARNING_STAGES;
+		samplesPerStage = DEFAULT_SAMPLES_PER_STAGE;
+		heuristicInitialization = true;
+	}
+
+	/**
+	 * Learns the importance function.
+	 *
+	 * @param randomGenerator random generator for the samples of the learning stages
+	 */
+	@Override protected void prepareSampling(Random randomGenerator) {
+		int numVariables = samplingPlan.getNumVariables();
+		learned = getAncestorsOfFindings();
+		boolean anyLearned = false;
+		double[][] importanceTables = new double[numVariables][];
+		for (int variable = 0; variable < numVariables; variable++) {
+			importanceTables[variable] = samplingPlan.getTable(variable);
+			anyLearned |= learned[variable];
+		}
+		if (heuristicInitialization) {
+			initializeHeuristically(importanceTables);
+		}
+
+		int[] configuration = new int[numVariables];
+		for (int stage = 0; anyLearned && stage < numLearningStages; stage++) {
+			importancePlan = samplingPlan.withTables(importanceTables);
+			// weight of the samples of the stage for each configuration of each learned variable and its parents
+			double[][] accumulatedWeights = new double[numVariables][];
+			for (int variable = 0; variable < numVariables; variable++) {
+				if (learned[variable]) {
+					accumulatedWeights[variable] = new double[importanceTables[variable].length];
+				}
+			}
+			for (int sampleIndex = 0; sampleIndex < samplesPerStage; sampleIndex++) {
+				double weight = sample(configuration, randomGenerator);
+				if (weight > 0) {
+					for (int variable = 0; variable < numVariables; variable++) {
+						if (learned[variable]) {
+							accumulatedWeights[variable][samplingPlan.getColumn(variable, configuration)
+									+ configuration[variable]] += weight;
+						}
+					}
+				}
+			}
+			double learningRate = INITIAL_LEARNING_RATE * Math
+					.pow(FINAL_LEARNING_RATE / INITIAL_LEARNING_RATE, stage / (double) numLearningStages);
+			for (int variable = 0; variable < numVariables; variable++) {
+				if (learned[variable]) {
+					learn(importanceTables[variable], accumulatedWeights[variable],
+							samplingPlan.getNumStates(variable), learningRate);
+				}
+			}
+		}
+		importancePlan = samplingPlan.withTables(importanceTables);
+	}
+
+	/**
+	 * @return For each variable of the sampling plan, <code>true</code> if it
+	 * is not observed and it is an ancestor of a finding
+	 */
+	private boolean[] getAncestorsOfFindings() {
+		int numVariables = samplingPlan.getNumVariables();
+		boolean[] ancestors = new boolean[numVariables];
+		boolean[] visited = new boolean[numVariables];
+		Deque<Integer> pending = new ArrayDeque<>();
+		for (int finding : evidenceIndexes) {
+			visited[finding] = true;
+			pending.push(finding);
+		}
+		while (!pending.isEmpty()) {
+			for (int parent : samplingPlan.getParents(pending.pop())) {
+				if (!visited[parent]) {
+					visited[parent] = true;
+					ancestors[parent] = evidenceStates[parent] == -1;
+					pending.push(parent);
+				}
+			}
+		}
+		return ancestors;
+	}
+
+	/**
+	 * Sets uniform distributions for the parents of the findings and raises the
+	 * small probabilities of the learned variables.
+	 *
+	 * @param importanceTables importance function of each variable
+	 */
+	private void initializeHeuristically(double[][] importanceTables) {
+		for (int finding : evidenceIndexes) {
+			for (int parent : samplingPlan.getParents(finding)) {
+				if (evidenceStates[parent] == -1) {
+					Arrays.fill(importanceTables[parent], 1.0 / samplingPlan.getNumStates(parent));
+				}
+			}
+		}
+		for (int variable = 0; variable < importanceTables.length; variable++) {
+			if (learned[variable]) {
+				raiseSmallProbabilities(importanceTables[variable], samplingPlan.getNumStates(variable));
+			}
+		}
+	}
+
+	/**
+	 * Raises to a threshold the probabilities that are positive but smaller
+	 * than it and normalizes the column. The thresholds of a column add up to
+	 * 0.08, so the raised probabilities stay close to the threshold, whereas
+	 * subtracting the increase from the largest probability would make it
+	 * negative when most of the states are unlikely.
+	 *
+	 * @param table     table with the conditioned variable first
+	 * @param numStates number of states of the conditioned variable
+	 */
+	static void raiseSmallProbabilities(double[] table, int numStates) {
+		double threshold = SMALL_PROBABILITY_THRESHOLD * 2 / numStates;
+		for (int column = 0; column < table.length; column += numStates) {
+			double sum = 0;
+			for (int position = column; position < column + numStates; position++) {
+				if (table[position] > 0 && table[position] < threshold) {
+					table[position] = threshold;
+				}
+				sum += table[position];
+			}
+			if (sum > 0) {
+				for (int position = column; position < column + numStates; position++) {
+					table[position] /= sum;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Moves each column of the importance function towards the distribution
+	 * estimated with the weights of a stage. The columns without weight, i.e.,
+	 * the configurations of the parents not sampled, are not modified.
+	 *
+	 * @param table        importance function of a variable
+	 * @param weights      weights of the samples for each position of the table
+	 * @param numStates    number of states of the variable
+	 * @param learningRate learning rate of the stage
+	 */
+	private static void learn(double[] table, double[] weights, int numStates, double learningRate) {
+		for (int column = 0; column < table.length; column += numStates) {
+			double sum = 0;
+			for (int position = column; position < column + numStates; position++) {
+				sum += weights[position];
+			}
+			if (sum > 0) {
+				for (int position = column; position < column + numStates; position++) {
+					table[position] += learningRate * (weights[position] / sum - table[position]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Samples the variables from the importance function and sets the
+	 * findings. The weight is the probability of the configuration divided by
+	 * the probability of sampling it.
+	 */
+	@Override protected double sample(int[] configuration, Random randomGenerator) {
+		double weight = 1.0;
+		for (int variable = 0; variable < configuration.length; variable++) {
+			if (evidenceStates[variable] != -1) {
+				configuration[variable] = evidenceStates[variable];
+				weight *= samplingPlan.getProbability(variable, configuration);
+			} else if (learned[variable]) {
+				configuration[variable] = importancePlan
+						.sample(variable, configuration, randomGenerator.nextDouble());
+				weight *= samplingPlan.getProbability(variable, configuration) / importancePlan
+						.getProbability(variable, configuration);
+			} else {
+				configuration[variable] = samplingPlan.sample(variable, configuration, randomGenerator.nextDouble());
+			}
+		}
+		return weight;
+	}
+
+	@Override public List<Variable> getVariablesToSample() {
+		List<Variable> variablesToSample = new ArrayList<>(sortedVariables);
+		variablesToSample.removeAll(fusedEvidence.getVariables());
+		return variablesToSample;
 	}
 
-	@Override protected List<NetworkType> getPossibleNetworkTypes() {
-		return null;
+	/**
+	 * @param numLearningStages number of stages that learn the importance
+	 *                          function before sampling
+	 */
+	public void setNumLearningStages(int numLearningStages) {
+		this.numLearningStages = numLearningStages;
 	}
 
-	@Override protected List<PNConstraint> getAdditionalConstraints() {
-		return null;
+	public int getNumLearningStages() {
+		return numLearningStages;
 	}
+
+	/**
+	 * @param samplesPerStage number of samples drawn in each learning stage.
+	 *                        They are not used to estimate the posterior
+	 *                        probabilities
+	 */
+	public void setSamplesPerStage(int samplesPerStage) {
+		this.samplesPerStage = samplesPerStage;
+	}
+
+	public int getSamplesPerStage() {
+		return samplesPerStage;
+	}
+
+	/**
+	 * @param heuristicInitialization whether the importance function starts
+	 *                                with uniform distributions for the
+	 *                                parents of the findings and without
+	 *                                small probabilities
+	 */
+	public void setHeuristicInitialization(boolean heuristicInitialization) {
+		this.heuristicInitialization = heuristicInitialization;
+	}
+
+	public boolean isHeuristicInitialization() {
+		return heuristicInitialization;
+	}
+
 }
@@ -0,0 +1,476 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+package org.openmarkov.inference.evidencePrePropagation;
+
+import org.openmarkov.core.exception.IncompatibleEvidenceException;
+import org.openmarkov.core.exception.InvalidStateException;
+import org.openmarkov.core.exception.NotEvaluableNetworkException;
+import org.openmarkov.core.inference.annotation.InferenceAnnotation;
+import org.openmarkov.core.inference.tasks.Propagation;
+import org.openmarkov.core.model.network.EvidenceCase;
+import org.openmarkov.core.model.network.ProbNet;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.core.model.network.potential.operation.DiscretePotentialOperations;
+import org.openmarkov.inference.huginPropagation.ClusterOfVariables;
+import org.openmarkov.inference.huginPropagation.CompiledJunctionTree;
+import org.openmarkov.inference.huginPropagation.HuginPropagation;
+import org.openmarkov.inference.likelihoodWeighting.StochasticPropagation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Importance sampling whose proposal is computed by exact inference. Before
+ * sampling, the findings are propagated with Hugin in the subnetwork formed by
+ * them and their ancestors, which is the only part of the network that
+ * depends on them. Each sample draws the variables of that subnetwork from
+ * their exact posterior distribution, clique by clique in the calibrated
+ * junction tree, and the rest of the variables from their conditional
+ * probabilities, as in likelihood weighting; the weight of a sample is then
+ * the likelihood of the findings not propagated. When all the findings are
+ * propagated, the posterior probabilities of the variables of the subnetwork
+ * are those of the exact propagation, so only the other variables are
+ * estimated by sampling.
+ * <p>
+ * The findings propagated are chosen so that the junction tree of the
+ * subnetwork, estimated by eliminating its variables with the minimum-weight
+ * heuristic, has at most {@link #getMaxJunctionTreeSize()} configurations in
+ * its cliques: they are added in increasing order of the size of their
+ * ancestral sets, together with the findings of their ancestors, while the
+ * estimate does not exceed the limit.
+ */
+@InferenceAnnotation(name = "EvidencePrePropagation")
+public class EvidencePrePropagationSampling extends StochasticPropagation implements Propagation {
+
+	public static final long DEFAULT_MAX_JUNCTION_TREE_SIZE = 1 << 20;
+
+	private long maxJunctionTreeSize;
+
+	// for each variable of samplingPlan, true if it is in the subnetwork propagated
+	private boolean[] inSubnetwork;
+
+	// findings propagated in the last propagation
+	private EvidenceCase propagatedEvidence;
+
+	// posterior probabilities of the variables of the subnetwork when all the findings are propagated, or null
+	private HashMap<Variable, TablePotential> exactPosteriorValues;
+
+	// the cliques of the junction tree of the subnetwork in pre-order. For each clique, the variables of
+	// samplingPlan sampled in it, the variables of its separator and their offsets in the table of the clique
+
+	private int[][] cliqueVariables;
+
+	private int[][] separatorVariables;
+
+	private int[][] separatorOffsets;
+
+	// for each clique, the number of configurations of the variables sampled in it and the probability of each one
+	// given each configuration of the separator, accumulated in each column
+	private int[] numConfigurations;
+
+	private double[][] cliqueTables;
+
+	public EvidencePrePropagationSampling(ProbNet probNet) throws NotEvaluableNetworkException {
+		super(probNet);
+		maxJunctionTreeSize = DEFAULT_MAX_JUNCTION_TREE_SIZE;
+	}
+
+	/**
+	 * Chooses the findings propagated, propagates them in their subnetwork
+	 * and compiles the cliques of its junction tree for sampling.
+	 *
+	 * @param randomGenerator not used
+	 * @throws IncompatibleEvidenceException when the probability of the
+	 * findings propagated is zero
+	 */
+	@Override protected void prepareSampling(Random randomGenerator) throws IncompatibleEvidenceException {
+		int numVariables = samplingPlan.getNumVariables();
+		inSubnetwork = chooseSubnetwork();
+		propagatedEvidence = new EvidenceCase();
+		List<Variable> unobservedVariables = new ArrayList<>();
+		for (int variable = 0; variable < numVariables; variable++) {
+			if (inSubnetwork[variable]) {
+				Variable networkVariable = samplingPlan.getVariable(variable);
+				if (evidenceStates[variable] != -1) {
+					try {
+						propagatedEvidence.addFinding(fusedEvidence.getFinding(networkVariable));
+					} catch (InvalidStateException e) {
+						throw new IncompatibleEvidenceException(e.getMessage());
+					}
+				} else {
+					unobservedVariables.add(networkVariable);
+				}
+			}
+		}
+
+		cliqueVariables = new int[0][];
+		exactPosteriorValues = null;
+		if (propagatedEvidence.isEmpty() || unobservedVariables.isEmpty()) {
+			return;
+		}
+		HuginPropagation propagation;
+		HashMap<Variable, TablePotential> posteriorValues;
+		try {
+			ProbNet subnetwork = probNet.copy();
+			for (int variable = 0; variable < numVariables; variable++) {
+				if (!inSubnetwork[variable]) {
+					subnetwork.removeNode(subnetwork.getNode(samplingPlan.getVariable(variable)));
+				}
+			}
+			propagation = new CompiledJunctionTree(subnetwork, propagatedEvidence, null).createPropagation();
+			propagation.setIncrementalPropagation(false);
+			posteriorValues = propagation.getPosteriorValues(unobservedVariables);
+		} catch (NotEvaluableNetworkException e) {
+			logger.warn("The findings can not be propagated exactly: " + e.getMessage());
+			inSubnetwork = new boolean[numVariables];
+			propagatedEvidence = new EvidenceCase();
+			return;
+		}
+		compileCliques(propagation);
+		if (propagatedEvidence.getFindings().size() == fusedEvidence.getFindings().size()) {
+			exactPosteriorValues = posteriorValues;
+		}
+	}
+
+	/**
+	 * @return For each variable of the sampling plan, <code>true</code> if it
+	 * is a finding propagated or an ancestor of one
+	 */
+	private boolean[] chooseSubnetwork() {
+		int numVariables = samplingPlan.getNumVariables();
+		// the ancestral set of each finding, including the finding
+		List<boolean[]> ancestralSets = new ArrayList<>();
+		List<Integer> sizes = new ArrayList<>();
+		for (int finding : evidenceIndexes) {
+			boolean[] ancestors = getAncestors(new boolean[numVariables], finding);
+			int size = 0;
+			for (boolean ancestor : ancestors) {
+				size += ancestor ? 1 : 0;
+			}
+			int position = 0;
+			while (position < sizes.size() && sizes.get(position) <= size) {
+				position++;
+			}
+			ancestralSets.add(position, ancestors);
+			sizes.add(position, size);
+		}
+
+		boolean[] subnetwork = new boolean[numVariables];
+		for (boolean[] ancestralSet : ancestralSets) {
+			boolean[] candidate = subnetwork.clone();
+			for (int variable = 0; variable < numVariables; variable++) {
+				candidate[variable] |= ancestralSet[variable];
+			}
+			// the findings among the ancestors are propagated too, and so are their ancestors
+			boolean added = true;
+			while (added) {
+				added = false;
+				for (int finding : evidenceIndexes) {
+					if (candidate[finding]) {
+						boolean[] ancestors = getAncestors(candidate.clone(), finding);
+						for (int variable = 0; variable < numVariables; variable++) {
+							added |= ancestors[variable] && !candidate[variable];
+							candidate[variable] |= ancestors[variable];
+						}
+					}
+				}
+			}
+			if (estimateJunctionTreeSize(candidate) <= maxJunctionTreeSize) {
+				subnetwork = candidate;
+			}
+		}
+		return subnetwork;
+	}
+
+	/**
+	 * @param ancestors marks the variables already visited, whose ancestors
+	 *                  are not visited again
+	 * @param variable  index of a variable
+	 * @return <code>ancestors</code> with the variable and its ancestors
+	 * marked
+	 */
+	private boolean[] getAncestors(boolean[] ancestors, int variable) {
+		Deque<Integer> pending = new ArrayDeque<>();
+		ancestors[variable] = true;
+		pending.push(variable);
+		while (!pending.isEmpty()) {
+			for (int parent : samplingPlan.getParents(pending.pop())) {
+				if (!ancestors[parent]) {
+					ancestors[parent] = true;
+					pending.push(parent);
+				}
+			}
+		}
+		return ancestors;
+	}
+
+	/**
+	 * Eliminates the unobserved variables of a subnetwork from its moral
+	 * graph, choosing each time the variable whose clique has fewer
+	 * configurations.
+	 *
+	 * @param subnetwork for each variable, whether it is in the subnetwork
+	 * @return The sum of the number of configurations of the cliques, or a
+	 * number greater than {@link #getMaxJunctionTreeSize()} as soon as the
+	 * sum exceeds it
+	 */
+	private double estimateJunctionTreeSize(boolean[] subnetwork) {
+		int numVariables = samplingPlan.getNumVariables();
+		BitSet[] neighbors = new BitSet[numVariables];
+		BitSet remaining = new BitSet(numVariables);
+		for (int variable = 0; variable < numVariables; variable++) {
+			if (subnetwork[variable] && evidenceStates[variable] == -1) {
+				neighbors[variable] = new BitSet(numVariables);
+				remaining.set(variable);
+			}
+		}
+		// the observed variables are projected out of the potentials, which still link the other variables
+		for (int variable = remaining.nextSetBit(0); variable >= 0; variable = remaining.nextSetBit(variable + 1)) {
+			BitSet family = new BitSet(numVariables);
+			family.set(variable);
+			for (int parent : samplingPlan.getParents(variable)) {
+				family.set(parent);
+			}
+			family.and(remaining);
+			connect(neighbors, family);
+		}
+		for (int variable = 0; variable < numVariables; variable++) {
+			if (subnetwork[variable] && evidenceStates[variable] != -1) {
+				BitSet family = new BitSet(numVariables);
+				for (int parent : samplingPlan.getParents(variable)) {
+					family.set(parent);
+				}
+				family.and(remaining);
+				connect(neighbors, family);
+			}
+		}
+
+		double size = 0;
+		while (!remaining.isEmpty() && size <= maxJunctionTreeSize) {
+			int eliminated = -1;
+			double minCliqueSize = Double.POSITIVE_INFINITY;
+			for (int variable = remaining.nextSetBit(0); variable >= 0; variable = remaining
+					.nextSetBit(variable + 1)) {
+				double cliqueSize = samplingPlan.getNumStates(variable);
+				BitSet variableNeighbors = neighbors[variable];
+				for (int neighbor = variableNeighbors.nextSetBit(0); neighbor >= 0; neighbor = variableNeighbors
+						.nextSetBit(neighbor + 1)) {
+					cliqueSize *= samplingPlan.getNumStates(neighbor);
+				}
+				if (cliqueSize < minCliqueSize) {
+					minCliqueSize = cliqueSize;
+					eliminated = variable;
+				}
+			}
+			size += minCliqueSize;
+			BitSet eliminatedNeighbors = neighbors[eliminated];
+			connect(neighbors, eliminatedNeighbors);
+			for (int neighbor = eliminatedNeighbors.nextSetBit(0); neighbor >= 0; neighbor = eliminatedNeighbors
+					.nextSetBit(neighbor + 1)) {
+				neighbors[neighbor].clear(eliminated);
+			}
+			remaining.clear(eliminated);
+		}
+		return size;
+	}
+
+	/**
+	 * @param neighbors neighbors of each variable
+	 * @param variables variables that become neighbors of each other
+	 */
+	private static void connect(BitSet[] neighbors, BitSet variables) {
+		for (int variable = variables.nextSetBit(0); variable >= 0; variable = variables.nextSetBit(variable + 1)) {
+			neighbors[variable].or(variables);
+			neighbors[variable].clear(variable);
+		}
+	}
+
+	/**
+	 * Computes, for each clique of the propagated junction tree, the
+	 * distribution of the variables that are not in its separator given each
+	 * configuration of the separator.
+	 *
+	 * @param propagation propagation of the subnetwork, with the evidence
+	 *                    distributed to all the cliques
+	 */
+	private void compileCliques(HuginPropagation propagation) {
+		List<int[]> variablesOfCliques = new ArrayList<>();
+		List<int[]> separatorsOfCliques = new ArrayList<>();
+		List<int[]> offsetsOfCliques = new ArrayList<>();
+		List<Integer> sizesOfCliques = new ArrayList<>();
+		List<double[]> tablesOfCliques = new ArrayList<>();
+		Deque<ClusterOfVariables> pending = new ArrayDeque<>();
+		List<ClusterOfVariables> rootClusters = propagation.getClusterForest().getRootClusters();
+		for (int i = rootClusters.size() - 1; i >= 0; i--) {
+			pending.push(rootClusters.get(i));
+		}
+		while (!pending.isEmpty()) {
+			ClusterOfVariables cluster = pending.pop();
+			List<ClusterOfVariables> children = cluster.getChildren();
+			for (int i = children.size() - 1; i >= 0; i--) {
+				pending.push(children.get(i));
+			}
+			List<Variable> separator = cluster.getSeparatorVariables();
+			if (separator == null) {
+				separator = new ArrayList<>();
+			}
+			List<Variable> sampled = new ArrayList<>(cluster.getVariables());
+			sampled.removeAll(separator);
+			if (sampled.isEmpty()) {
+				continue;
+			}
+			List<Variable> order = new ArrayList<>(sampled);
+			order.addAll(separator);
+			TablePotential posterior = DiscretePotentialOperations
+					.reorder(cluster.getPosteriorPotential(propagation.getStorageLevel()), order);
+			int size = 1;
+			for (Variable variable : sampled) {
+				size *= variable.getNumStates();
+			}
+			int[] offsets = new int[separator.size()];
+			for (int j = 0; j < offsets.length; j++) {
+				offsets[j] = posterior.getOffsets()[sampled.size() + j];
+			}
+			variablesOfCliques.add(samplingPlan.indexesOf(sampled));
+			separatorsOfCliques.add(samplingPlan.indexesOf(separator));
+			offsetsOfCliques.add(offsets);
+			sizesOfCliques.add(size);
+			tablesOfCliques.add(accumulateColumns(posterior.values, size));
+		}
+		int numCliques = variablesOfCliques.size();
+		cliqueVariables = variablesOfCliques.toArray(new int[numCliques][]);
+		separatorVariables = separatorsOfCliques.toArray(new int[numCliques][]);
+		separatorOffsets = offsetsOfCliques.toArray(new int[numCliques][]);
+		cliqueTables = tablesOfCliques.toArray(new double[numCliques][]);
+		numConfigurations = new int[numCliques];
+		for (int clique = 0; clique < numCliques; clique++) {
+			numConfigurations[clique] = sizesOfCliques.get(clique);
+		}
+	}
+
+	/**
+	 * @param values    joint probabilities, with the variables of the columns
+	 *                  last
+	 * @param numValues number of values of each column
+	 * @return The columns normalized and accumulated. The columns that add up
+	 * to zero are zero
+	 */
+	private static double[] accumulateColumns(double[] values, int numValues) {
+		double[] accumulated = new double[values.length];
+		for (int column = 0; column < values.length; column += numValues) {
+			double sum = 0;
+			for (int position = column; position < column + numValues; position++) {
+				sum += values[position];
+			}
+			if (sum > 0) {
+				double accumulatedProbability = 0;
+				for (int position = column; position < column + numValues; position++) {
+					accumulatedProbability += values[position] / sum;
+					accumulated[position] = accumulatedProbability;
+				}
+			}
+		}
+		return accumulated;
+	}
+
+	/**
+	 * Draws the subnetwork from the junction tree and the other variables
+	 * from their conditional probabilities. The weight is the probability of
+	 * the findings not propagated.
+	 */
+	@Override protected double sample(int[] configuration, Random randomGenerator) {
+		for (int clique = 0; clique < cliqueVariables.length; clique++) {
+			int[] separator = separatorVariables[clique];
+			int[] offsets = separatorOffsets[clique];
+			int first = 0;
+			for (int j = 0; j < separator.length; j++) {
+				first += configuration[separator[j]] * offsets[j];
+			}
+			double[] accumulated = cliqueTables[clique];
+			double random = randomGenerator.nextDouble();
+			int low = first;
+			int high = first + numConfigurations[clique] - 1;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (random > accumulated[middle]) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			int sampledConfiguration = low - first;
+			for (int variable : cliqueVariables[clique]) {
+				int numStates = samplingPlan.getNumStates(variable);
+				configuration[variable] = sampledConfiguration % numStates;
+				sampledConfiguration /= numStates;
+			}
+		}
+		double weight = 1.0;
+		for (int variable = 0; variable < configuration.length; variable++) {
+			if (evidenceStates[variable] != -1) {
+				configuration[variable] = evidenceStates[variable];
+				if (!inSubnetwork[variable]) {
+					weight *= samplingPlan.getProbability(variable, configuration);
+				}
+			} else if (!inSubnetwork[variable]) {
+				configuration[variable] = samplingPlan.sample(variable, configuration, randomGenerator.nextDouble());
+			}
+		}
+		return weight;
+	}
+
+	/**
+	 * Estimates the posterior probabilities by sampling and, when all the
+	 * findings have been propagated, replaces those of the variables of the
+	 * subnetwork by their exact values.
+	 */
+	@Override public HashMap<Variable, TablePotential> getPosteriorValues() throws IncompatibleEvidenceException {
+		HashMap<Variable, TablePotential> posteriorValues = super.getPosteriorValues();
+		if (exactPosteriorValues != null) {
+			for (Variable variable : posteriorValues.keySet()) {
+				TablePotential exactPosteriorValue = exactPosteriorValues.get(variable);
+				if (exactPosteriorValue != null) {
+					posteriorValues.put(variable, exactPosteriorValue);
+				}
+			}
+		}
+		return posteriorValues;
+	}
+
+	@Override public List<Variable> getVariablesToSample() {
+		List<Variable> variablesToSample = new ArrayList<>(sortedVariables);
+		variablesToSample.removeAll(fusedEvidence.getVariables());
+		return variablesToSample;
+	}
+
+	/**
+	 * @param maxJunctionTreeSize maximum number of configurations of the
+	 *                            cliques of the junction tree of the findings
+	 *                            propagated
+	 */
+	public void setMaxJunctionTreeSize(long maxJunctionTreeSize) {
+		this.maxJunctionTreeSize = maxJunctionTreeSize;
+	}
+
+	public long getMaxJunctionTreeSize() {
+		return maxJunctionTreeSize;
+	}
+
+	/**
+	 * @return The findings propagated exactly in the last propagation
+	 */
+	public EvidenceCase getPropagatedEvidence() {
+		return propagatedEvidence;
+	}
+
+}
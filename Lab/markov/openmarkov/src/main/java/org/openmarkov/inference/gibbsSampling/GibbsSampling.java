@@ -0,0 +1,895 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+package org.openmarkov.inference.gibbsSampling;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openmarkov.core.exception.IncompatibleEvidenceException;
+import org.openmarkov.core.exception.NotEvaluableNetworkException;
+import org.openmarkov.core.inference.InferenceAlgorithm;
+import org.openmarkov.core.inference.annotation.InferenceAnnotation;
+import org.openmarkov.core.inference.tasks.Propagation;
+import org.openmarkov.core.model.network.EvidenceCase;
+import org.openmarkov.core.model.network.ProbNet;
+import org.openmarkov.core.model.network.ProbNetOperations;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.constraint.PNConstraint;
+import org.openmarkov.core.model.network.modelUncertainty.XORShiftRandom;
+import org.openmarkov.core.model.network.potential.PotentialRole;
+import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations;
+import org.openmarkov.core.model.network.type.BayesianNetworkType;
+import org.openmarkov.core.model.network.type.NetworkType;
+import org.openmarkov.inference.likelihoodWeighting.SamplingPlan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Gibbs sampling for bayesian networks. Each chain starts from a configuration
+ * compatible with the evidence and, in each sweep, samples every unobserved
+ * variable from its distribution given its Markov blanket, which is
+ * proportional to the product of its conditional probability and the
+ * conditional probabilities of its children. The chains are independent and
+ * run concurrently in the pool of
+ * {@link DiscretePotentialOperations#getPool()}.
+ * <p>
+ * The Markov blanket of each variable is computed when the algorithm is
+ * created. When the number of configurations of the variable and its blanket
+ * is not greater than {@link #MAX_BLANKET_TABLE_SIZE}, the product of the
+ * tables is also computed then, normalized and accumulated, so that a step of
+ * the chain is a bisection in a column of that table; otherwise the product is
+ * computed in each step. The posterior probabilities are estimated by
+ * averaging the distributions of the variables given their blankets
+ * (Rao-Blackwellization) in the retained sweeps.
+ * <p>
+ * A variable whose children are deterministic, i.e., whose conditional
+ * probabilities are 0 or 1, can not change its state without changing theirs,
+ * so the chain would not leave the region where it starts; the same happens
+ * with the children that are deterministic only for some configurations of
+ * their parents. Therefore each unobserved variable is sampled jointly with
+ * its unobserved descendants through children whose tables contain zeros, as
+ * long as the configurations of the block, not counting the deterministic
+ * variables, are not more than {@link #MAX_BLOCK_SIZE}. The configurations of
+ * the block with a positive probability are enumerated in each step, in
+ * ancestral order, and one of them is drawn with a probability proportional
+ * to the product of the tables of the block and of the other children of the
+ * block. The chains start from configurations drawn forward with the findings
+ * fixed, discarding those whose probability is zero, so the evidence may also
+ * be deterministic.
+ * <p>
+ * The convergence of the chains is diagnosed with the potential scale
+ * reduction factor of Gelman and Rubin ({@link #getRHat()}). Deterministic
+ * relations that are not broken by the blocks may still prevent a chain from
+ * leaving a region of configurations; since the chains start from different
+ * configurations, that makes the factor grow.
+ */
+@InferenceAnnotation(name = "GibbsSampling")
+public class GibbsSampling extends InferenceAlgorithm implements Propagation {
+
+	public static final int DEFAULT_SAMPLE_SIZE = 10000;
+
+	public static final int DEFAULT_NUM_CHAINS = 4;
+
+	public static final int DEFAULT_BURN_IN = 500;
+
+	public static final int DEFAULT_THINNING = 1;
+
+	/**
+	 * Largest number of values of the precomputed distribution of a variable
+	 * given its Markov blanket.
+	 */
+	public static final int MAX_BLANKET_TABLE_SIZE = 1 << 16;
+
+	/**
+	 * Largest number of configurations of the variables of a block that are
+	 * not deterministic.
+	 */
+	public static final int MAX_BLOCK_SIZE = 1 << 4;
+
+	// chains whose largest scale reduction factor exceeds it are reported as not converged
+	private static final double R_HAT_THRESHOLD = 1.1;
+
+	// number of forward samples tried to find the initial configuration of a chain
+	private static final int MAX_INITIALIZATION_ATTEMPTS = 100000;
+
+	private final Logger logger;
+
+	private final SamplingPlan samplingPlan;
+
+	// for each variable, the variables of its Markov blanket
+	private final int[][] blankets;
+
+	// for each variable, the offset of each variable of its blanket in its conditional table, or null if it is not
+	// precomputed
+	private final int[][] blanketOffsets;
+
+	// for each variable, its distribution given its Markov blanket, accumulated in each column, or null
+	private final double[][] conditionalTables;
+
+	// for each variable, the variables whose table contains it: itself and its children
+	private final int[][] factors;
+
+	// for each variable, its offset in the table of each factor
+	private final int[][] factorOffsets;
+
+	// the table of each variable, with the layout of samplingPlan
+	private final double[][] tables;
+
+	// for each variable, true if it has parents and its table contains zeros
+	private final boolean[] constrained;
+
+	// for each variable, true if it has parents and its table only contains zeros and ones
+	private final boolean[] deterministic;
+
+	// for each unobserved variable in the last propagation, the variable and its unobserved descendants through
+	// constrained children in ancestral order, or null if it has no constrained unobserved children
+	private int[][] blocks;
+
+	// for each variable with a block, the children of the block that are not in it
+	private int[][] blockFactors;
+
+	private int sampleSize;
+
+	private int numChains;
+
+	private int burnIn;
+
+	private int thinning;
+
+	private Long seed;
+
+	private EvidenceCase postResolutionEvidence;
+
+	private List<Variable> variablesOfInterest;
+
+	// variables of interest not observed in the last propagation
+	private List<Variable> estimatedVariables;
+
+	private GibbsChain[] chains;
+
+	private double algorithmExecutionTime;
+
+	public GibbsSampling(ProbNet probNet) throws NotEvaluableNetworkException {
+		super(probNet);
+		logger = LogManager.getLogger(GibbsSampling.class.getName());
+		List<Variable> sortedVariables = ProbNetOperations.sortTopologically(probNet, probNet.getVariables());
+		samplingPlan = new SamplingPlan(probNet, sortedVariables);
+		int numVariables = samplingPlan.getNumVariables();
+		tables = new double[numVariables][];
+		constrained = new boolean[numVariables];
+		deterministic = new boolean[numVariables];
+		for (int variable = 0; variable < numVariables; variable++) {
+			tables[variable] = samplingPlan.getTable(variable);
+			if (!samplingPlan.isRoot(variable)) {
+				constrained[variable] = contains(tables[variable], 0);
+				deterministic[variable] = constrained[variable] && isDeterministic(tables[variable]);
+			}
+		}
+		factors = new int[numVariables][];
+		factorOffsets = new int[numVariables][];
+		blankets = new int[numVariables][];
+		blanketOffsets = new int[numVariables][];
+		conditionalTables = new double[numVariables][];
+		compileMarkovBlankets();
+		variablesOfInterest = new ArrayList<>(sortedVariables);
+		postResolutionEvidence = new EvidenceCase();
+		sampleSize = DEFAULT_SAMPLE_SIZE;
+		numChains = DEFAULT_NUM_CHAINS;
+		burnIn = DEFAULT_BURN_IN;
+		thinning = DEFAULT_THINNING;
+	}
+
+	@Override protected List<NetworkType> getPossibleNetworkTypes() {
+		List<NetworkType> possibleNetworkTypes = new ArrayList<>();
+		possibleNetworkTypes.add(BayesianNetworkType.getUniqueInstance());
+		return possibleNetworkTypes;
+	}
+
+	@Override protected List<PNConstraint> getAdditionalConstraints() {
+		return new ArrayList<>();
+	}
+
+	/**
+	 * @param table table of probabilities
+	 * @param value a probability
+	 * @return <code>true</code> if <code>value</code> is in the table
+	 */
+	private static boolean contains(double[] table, double value) {
+		for (double tableValue : table) {
+			if (tableValue == value) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param table table of probabilities
+	 * @return <code>true</code> if all its values are 0 or 1
+	 */
+	private static boolean isDeterministic(double[] table) {
+		for (double value : table) {
+			if (value != 0 && value != 1) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Computes the factors and the Markov blanket of each variable and, when
+	 * it is small enough, its distribution given the blanket.
+	 */
+	private void compileMarkovBlankets() {
+		int numVariables = samplingPlan.getNumVariables();
+		List<List<Integer>> children = new ArrayList<>(numVariables);
+		List<List<Integer>> childOffsets = new ArrayList<>(numVariables);
+		for (int variable = 0; variable < numVariables; variable++) {
+			children.add(new ArrayList<Integer>());
+			childOffsets.add(new ArrayList<Integer>());
+		}
+		for (int child = 0; child < numVariables; child++) {
+			int[] parents = samplingPlan.getParents(child);
+			int[] offsets = samplingPlan.getParentOffsets(child);
+			for (int j = 0; j < parents.length; j++) {
+				children.get(parents[j]).add(child);
+				childOffsets.get(parents[j]).add(offsets[j]);
+			}
+		}
+
+		boolean[] inBlanket = new boolean[numVariables];
+		for (int variable = 0; variable < numVariables; variable++) {
+			int numFactors = children.get(variable).size() + 1;
+			factors[variable] = new int[numFactors];
+			factorOffsets[variable] = new int[numFactors];
+			factors[variable][0] = variable;
+			// the variable is the first one of its own table
+			factorOffsets[variable][0] = 1;
+			for (int k = 1; k < numFactors; k++) {
+				factors[variable][k] = children.get(variable).get(k - 1);
+				factorOffsets[variable][k] = childOffsets.get(variable).get(k - 1);
+			}
+
+			// the blanket: the other variables of the tables of the factors
+			List<Integer> blanket = new ArrayList<>();
+			for (int factor : factors[variable]) {
+				if (factor != variable && !inBlanket[factor]) {
+					inBlanket[factor] = true;
+					blanket.add(factor);
+				}
+				for (int parent : samplingPlan.getParents(factor)) {
+					if (parent != variable && !inBlanket[parent]) {
+						inBlanket[parent] = true;
+						blanket.add(parent);
+					}
+				}
+			}
+			blankets[variable] = new int[blanket.size()];
+			for (int j = 0; j < blanket.size(); j++) {
+				blankets[variable][j] = blanket.get(j);
+				inBlanket[blanket.get(j)] = false;
+			}
+
+			long tableSize = samplingPlan.getNumStates(variable);
+			for (int j = 0; j < blankets[variable].length && tableSize <= MAX_BLANKET_TABLE_SIZE; j++) {
+				tableSize *= samplingPlan.getNumStates(blankets[variable][j]);
+			}
+			if (tableSize <= MAX_BLANKET_TABLE_SIZE) {
+				compileConditionalTable(variable, (int) tableSize);
+			}
+		}
+	}
+
+	/**
+	 * Computes the distribution of <code>variable</code> given each
+	 * configuration of its Markov blanket, with the variable first, and
+	 * accumulates each column. The columns of the configurations incompatible
+	 * with the network are zero.
+	 *
+	 * @param variable  index of the variable
+	 * @param tableSize number of configurations of the variable and its blanket
+	 */
+	private void compileConditionalTable(int variable, int tableSize) {
+		int numStates = samplingPlan.getNumStates(variable);
+		int[] blanket = blankets[variable];
+		int[] offsets = new int[blanket.length];
+		int offset = numStates;
+		for (int j = 0; j < blanket.length; j++) {
+			offsets[j] = offset;
+			offset *= samplingPlan.getNumStates(blanket[j]);
+		}
+		double[] table = new double[tableSize];
+		int[] configuration = new int[samplingPlan.getNumVariables()];
+		double[] column = new double[numStates];
+		for (int first = 0; first < tableSize; first += numStates) {
+			double sum = fillConditionalProbabilities(variable, configuration, column);
+			if (sum > 0) {
+				double accumulated = 0;
+				for (int state = 0; state < numStates; state++) {
+					accumulated += column[state] / sum;
+					table[first + state] = accumulated;
+				}
+			}
+			// next configuration of the blanket
+			for (int j = 0; j < blanket.length; j++) {
+				if (++configuration[blanket[j]] < samplingPlan.getNumStates(blanket[j])) {
+					break;
+				}
+				configuration[blanket[j]] = 0;
+			}
+		}
+		blanketOffsets[variable] = offsets;
+		conditionalTables[variable] = table;
+	}
+
+	/**
+	 * @param variable          index of the variable
+	 * @param configuration     states of the variables of its Markov blanket
+	 * @param probabilities     receives, for each state of the variable, the
+	 *                          product of the tables of its factors
+	 * @return The sum of <code>probabilities</code>
+	 */
+	private double fillConditionalProbabilities(int variable, int[] configuration, double[] probabilities) {
+		int numStates = samplingPlan.getNumStates(variable);
+		Arrays.fill(probabilities, 0, numStates, 1.0);
+		int state = configuration[variable];
+		int[] variableFactors = factors[variable];
+		int[] offsets = factorOffsets[variable];
+		for (int k = 0; k < variableFactors.length; k++) {
+			int factor = variableFactors[k];
+			double[] table = tables[factor];
+			int offset = offsets[k];
+			// position in the table of the factor with the variable in its state 0
+			int base = samplingPlan.getColumn(factor, configuration) + configuration[factor] - state * offset;
+			for (int s = 0; s < numStates; s++) {
+				probabilities[s] *= table[base + s * offset];
+			}
+		}
+		double sum = 0;
+		for (int s = 0; s < numStates; s++) {
+			sum += probabilities[s];
+		}
+		return sum;
+	}
+
+	/**
+	 * Runs the chains and estimates the posterior probabilities of the
+	 * unobserved variables of interest.
+	 *
+	 * @return The posterior probability of each unobserved variable of interest
+	 * @throws IncompatibleEvidenceException when the post-resolution evidence
+	 * contradicts the pre-resolution evidence or no configuration compatible
+	 * with the evidence is found to start a chain
+	 */
+	@Override public HashMap<Variable, TablePotential> getPosteriorValues() throws IncompatibleEvidenceException {
+		long startTime = System.nanoTime();
+
+		EvidenceCase fusedEvidence = new EvidenceCase(postResolutionEvidence);
+		fusedEvidence.fuse(getPreResolutionEvidence(), true);
+
+		int numVariables = samplingPlan.getNumVariables();
+		int[] evidenceStates = new int[numVariables];
+		Arrays.fill(evidenceStates, -1);
+		for (Variable variable : fusedEvidence.getVariables()) {
+			int indexInPlan = samplingPlan.indexOf(variable);
+			if (indexInPlan != -1) {
+				evidenceStates[indexInPlan] = fusedEvidence.getFinding(variable).getStateIndex();
+			}
+		}
+		int numUnobserved = 0;
+		int[] unobserved = new int[numVariables];
+		for (int variable = 0; variable < numVariables; variable++) {
+			if (evidenceStates[variable] == -1) {
+				unobserved[numUnobserved++] = variable;
+			}
+		}
+		unobserved = Arrays.copyOf(unobserved, numUnobserved);
+		estimatedVariables = new ArrayList<>(variablesOfInterest);
+		estimatedVariables.removeAll(fusedEvidence.getVariables());
+		int[] indexesOfVariablesOfInterest = samplingPlan.indexesOf(estimatedVariables);
+		compileBlocks(evidenceStates);
+
+		// Each chain has its own random generator, whose seed is taken from an independent stream split from the
+		// seed of the propagation, so the result does not depend on the number of threads.
+		SplittableRandom streams = (seed != null) ? new SplittableRandom(seed) : new SplittableRandom();
+		int samplesPerChain = (sampleSize + numChains - 1) / numChains;
+		List<GibbsChain> chainList = new ArrayList<>(numChains);
+		for (int chain = 0; chain < numChains; chain++) {
+			Random chainGenerator = new XORShiftRandom();
+			// a xorshift generator with seed 0 only returns 0
+			chainGenerator.setSeed(streams.split().nextLong() | 1L);
+			int[] configuration = initializeChain(evidenceStates, chainGenerator);
+			chainList.add(new GibbsChain(configuration, unobserved, indexesOfVariablesOfInterest, samplesPerChain,
+					chainGenerator));
+		}
+		DiscretePotentialOperations.invokeAll(chainList);
+		chains = chainList.toArray(new GibbsChain[numChains]);
+
+		HashMap<Variable, TablePotential> posteriorValues = new HashMap<>();
+		for (int i = 0; i < estimatedVariables.size(); i++) {
+			Variable variable = estimatedVariables.get(i);
+			double[] values = new double[variable.getNumStates()];
+			for (GibbsChain chain : chains) {
+				for (int state = 0; state < values.length; state++) {
+					values[state] += chain.accumulatedProbabilities[i][state];
+				}
+			}
+			double sum = 0;
+			for (double value : values) {
+				sum += value;
+			}
+			for (int state = 0; state < values.length; state++) {
+				values[state] /= sum;
+			}
+			TablePotential posteriorProbability = new TablePotential(PotentialRole.JOINT_PROBABILITY, variable);
+			posteriorProbability.values = values;
+			posteriorValues.put(variable, posteriorProbability);
+		}
+
+		double maxRHat = getMaxRHat();
+		if (maxRHat > R_HAT_THRESHOLD) {
+			logger.warn("The Gibbs sampling chains have not converged: the largest scale reduction factor is "
+					+ maxRHat);
+		}
+
+		algorithmExecutionTime = (System.nanoTime() - startTime) / 1000000.0;
+		return posteriorValues;
+	}
+
+	/**
+	 * Computes the block of each unobserved variable: the variable, its
+	 * unobserved constrained children, their unobserved constrained children
+	 * and so on, while the size of the block does not exceed
+	 * {@link #MAX_BLOCK_SIZE}, and the factors of the variables that have a
+	 * block.
+	 *
+	 * @param evidenceStates state of the finding of each variable, or -1
+	 */
+	private void compileBlocks(int[] evidenceStates) {
+		int numVariables = samplingPlan.getNumVariables();
+		blocks = new int[numVariables][];
+		blockFactors = new int[numVariables][];
+		boolean[] inBlock = new boolean[numVariables];
+		boolean[] isFactor = new boolean[numVariables];
+		for (int variable = 0; variable < numVariables; variable++) {
+			if (evidenceStates[variable] != -1) {
+				continue;
+			}
+			inBlock[variable] = true;
+			int blockSize = 1;
+			int[] block = new int[numVariables];
+			block[0] = variable;
+			long numConfigurations = samplingPlan.getNumStates(variable);
+			// the children of a variable follow it in ancestral order, so the block is built in one pass
+			for (int member = variable; member < numVariables; member++) {
+				if (!inBlock[member]) {
+					continue;
+				}
+				for (int k = 1; k < factors[member].length; k++) {
+					int child = factors[member][k];
+					if (constrained[child] && evidenceStates[child] == -1 && !inBlock[child]) {
+						long childConfigurations = deterministic[child] ? 1 : samplingPlan.getNumStates(child);
+						if (numConfigurations * childConfigurations <= MAX_BLOCK_SIZE) {
+							numConfigurations *= childConfigurations;
+							inBlock[child] = true;
+							block[blockSize++] = child;
+						}
+					}
+				}
+			}
+			if (blockSize > 1) {
+				Arrays.sort(block, 0, blockSize);
+				blocks[variable] = Arrays.copyOf(block, blockSize);
+				List<Integer> variableBlockFactors = new ArrayList<>();
+				for (int j = 0; j < blockSize; j++) {
+					for (int k = 1; k < factors[block[j]].length; k++) {
+						int child = factors[block[j]][k];
+						if (!inBlock[child] && !isFactor[child]) {
+							isFactor[child] = true;
+							variableBlockFactors.add(child);
+						}
+					}
+				}
+				blockFactors[variable] = new int[variableBlockFactors.size()];
+				for (int k = 0; k < variableBlockFactors.size(); k++) {
+					blockFactors[variable][k] = variableBlockFactors.get(k);
+					isFactor[variableBlockFactors.get(k)] = false;
+				}
+			}
+			for (int j = 0; j < blockSize; j++) {
+				inBlock[block[j]] = false;
+			}
+		}
+	}
+
+	/**
+	 * Draws configurations forward, with the observed variables in the states
+	 * of their findings, until one has a positive probability.
+	 *
+	 * @param evidenceStates  state of the finding of each variable, or -1
+	 * @param randomGenerator random generator of the chain
+	 * @return A configuration compatible with the evidence
+	 * @throws IncompatibleEvidenceException when no configuration is found in
+	 * {@link #MAX_INITIALIZATION_ATTEMPTS} attempts
+	 */
+	private int[] initializeChain(int[] evidenceStates, Random randomGenerator)
+			throws IncompatibleEvidenceException {
+		int numVariables = samplingPlan.getNumVariables();
+		int[] configuration = new int[numVariables];
+		for (int attempt = 0; attempt < MAX_INITIALIZATION_ATTEMPTS; attempt++) {
+			boolean compatible = true;
+			for (int variable = 0; compatible && variable < numVariables; variable++) {
+				if (evidenceStates[variable] == -1) {
+					configuration[variable] = samplingPlan.sample(variable, configuration, randomGenerator.nextDouble());
+				} else {
+					configuration[variable] = evidenceStates[variable];
+					compatible = samplingPlan.getProbability(variable, configuration) > 0;
+				}
+			}
+			if (compatible) {
+				return configuration;
+			}
+		}
+		throw new IncompatibleEvidenceException(
+				"No configuration compatible with the evidence found to start a Gibbs sampling chain.");
+	}
+
+	/**
+	 * The potential scale reduction factor of Gelman and Rubin compares the
+	 * variance of the estimates of the chains with the variance within each
+	 * chain. Values close to 1 indicate that the chains have converged.
+	 *
+	 * @return For each unobserved variable of interest in the last
+	 * propagation, the factor of the probability of each state. It is 1 for
+	 * the states whose probability is constant in all the chains and NaN when
+	 * there are fewer than two chains or two samples per chain
+	 */
+	public HashMap<Variable, double[]> getRHat() {
+		HashMap<Variable, double[]> rHats = new HashMap<>();
+		for (int i = 0; i < estimatedVariables.size(); i++) {
+			double[] rHat = new double[estimatedVariables.get(i).getNumStates()];
+			for (int state = 0; state < rHat.length; state++) {
+				rHat[state] = getRHat(i, state);
+			}
+			rHats.put(estimatedVariables.get(i), rHat);
+		}
+		return rHats;
+	}
+
+	/**
+	 * @return The largest potential scale reduction factor of the last
+	 * propagation ({@link #getRHat()})
+	 */
+	public double getMaxRHat() {
+		double maxRHat = 1;
+		for (int i = 0; i < estimatedVariables.size(); i++) {
+			for (int state = 0; state < estimatedVariables.get(i).getNumStates(); state++) {
+				double rHat = getRHat(i, state);
+				if (Double.isNaN(rHat)) {
+					return rHat;
+				}
+				maxRHat = Math.max(maxRHat, rHat);
+			}
+		}
+		return maxRHat;
+	}
+
+	/**
+	 * @param indexOfVariable index of the variable in the estimated variables
+	 * @param state           index of the state
+	 * @return The potential scale reduction factor of the probability of the
+	 * state
+	 */
+	private double getRHat(int indexOfVariable, int state) {
+		int numSamples = chains[0].numSamples;
+		if (chains.length < 2 || numSamples < 2) {
+			return Double.NaN;
+		}
+		double[] means = new double[chains.length];
+		double grandMean = 0;
+		double withinVariance = 0;
+		for (int chain = 0; chain < chains.length; chain++) {
+			double sum = chains[chain].accumulatedProbabilities[indexOfVariable][state];
+			double sumOfSquares = chains[chain].accumulatedSquaredProbabilities[indexOfVariable][state];
+			means[chain] = sum / numSamples;
+			grandMean += means[chain] / chains.length;
+			withinVariance += Math.max(0, sumOfSquares - sum * means[chain]) / (numSamples - 1) / chains.length;
+		}
+		double betweenVariance = 0;
+		for (double mean : means) {
+			betweenVariance += (mean - grandMean) * (mean - grandMean) * numSamples / (chains.length - 1);
+		}
+		if (withinVariance == 0) {
+			return betweenVariance == 0 ? 1 : Double.POSITIVE_INFINITY;
+		}
+		double pooledVariance = (numSamples - 1) * withinVariance / numSamples + betweenVariance / numSamples;
+		return Math.sqrt(pooledVariance / withinVariance);
+	}
+
+	@Override public void setPostResolutionEvidence(EvidenceCase postResolutionEvidence) {
+		this.postResolutionEvidence = postResolutionEvidence;
+	}
+
+	@Override public void setVariablesOfInterest(List<Variable> variablesOfInterest) {
+		this.variablesOfInterest = variablesOfInterest;
+	}
+
+	/**
+	 * @param sampleSize number of samples retained from all the chains
+	 */
+	public void setSampleSize(int sampleSize) {
+		this.sampleSize = sampleSize;
+	}
+
+	public int getSampleSize() {
+		return sampleSize;
+	}
+
+	/**
+	 * @param numChains number of independent chains. At least two are needed
+	 *                  to compute the scale reduction factor
+	 */
+	public void setNumChains(int numChains) {
+		if (numChains < 1) {
+			throw new IllegalArgumentException("The number of chains must be positive.");
+		}
+		this.numChains = numChains;
+	}
+
+	public int getNumChains() {
+		return numChains;
+	}
+
+	/**
+	 * @param burnIn number of sweeps of each chain discarded before the first
+	 *               retained sample
+	 */
+	public void setBurnIn(int burnIn) {
+		this.burnIn = burnIn;
+	}
+
+	public int getBurnIn() {
+		return burnIn;
+	}
+
+	/**
+	 * @param thinning number of sweeps per retained sample
+	 */
+	public void setThinning(int thinning) {
+		if (thinning < 1) {
+			throw new IllegalArgumentException("The thinning must be positive.");
+		}
+		this.thinning = thinning;
+	}
+
+	public int getThinning() {
+		return thinning;
+	}
+
+	/**
+	 * @param seed seed of the random generators of the chains, or
+	 *             <code>null</code> for a different result in each propagation
+	 */
+	public void setSeed(Long seed) {
+		this.seed = seed;
+	}
+
+	public double getAlgorithmExecutionTime() {
+		return algorithmExecutionTime;
+	}
+
+	/**
+	 * A chain of Gibbs sampling. It sweeps the unobserved variables in
+	 * ancestral order and accumulates, in each retained sweep, the
+	 * distribution of each variable of interest given its Markov blanket.
+	 */
+	private class GibbsChain extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int[] configuration;
+
+		private final int[] unobserved;
+
+		private final int[] indexesOfVariablesOfInterest;
+
+		private final int numSamples;
+
+		private final Random randomGenerator;
+
+		private final double[][] accumulatedProbabilities;
+
+		private final double[][] accumulatedSquaredProbabilities;
+
+		// for each variable, its distribution given its blanket in the current configuration
+		private final double[][] probabilities;
+
+		// buffers for the enumeration of the configurations of a block
+		private final double[] partialWeights;
+
+		private final int[] blockConfigurations;
+
+		private final double[] blockWeights;
+
+		GibbsChain(int[] configuration, int[] unobserved, int[] indexesOfVariablesOfInterest, int numSamples,
+				Random randomGenerator) {
+			this.configuration = configuration;
+			this.unobserved = unobserved;
+			this.indexesOfVariablesOfInterest = indexesOfVariablesOfInterest;
+			this.numSamples = numSamples;
+			this.randomGenerator = randomGenerator;
+			accumulatedProbabilities = new double[indexesOfVariablesOfInterest.length][];
+			accumulatedSquaredProbabilities = new double[indexesOfVariablesOfInterest.length][];
+			for (int i = 0; i < indexesOfVariablesOfInterest.length; i++) {
+				accumulatedProbabilities[i] = new double[samplingPlan.getNumStates(indexesOfVariablesOfInterest[i])];
+				accumulatedSquaredProbabilities[i] = new double[accumulatedProbabilities[i].length];
+			}
+			probabilities = new double[samplingPlan.getNumVariables()][];
+			int maxBlockSize = 0;
+			for (int variable : unobserved) {
+				probabilities[variable] = new double[samplingPlan.getNumStates(variable)];
+				if (blocks[variable] != null) {
+					maxBlockSize = Math.max(maxBlockSize, blocks[variable].length);
+				}
+			}
+			partialWeights = new double[maxBlockSize];
+			blockConfigurations = new int[MAX_BLOCK_SIZE * maxBlockSize];
+			blockWeights = new double[MAX_BLOCK_SIZE];
+		}
+
+		@Override protected void compute() {
+			long numSweeps = burnIn + (long) numSamples * thinning;
+			for (long sweep = 1; sweep <= numSweeps; sweep++) {
+				for (int variable : unobserved) {
+					configuration[variable] = sampleVariable(variable);
+				}
+				if (sweep > burnIn && (sweep - burnIn) % thinning == 0) {
+					for (int i = 0; i < indexesOfVariablesOfInterest.length; i++) {
+						double[] variableProbabilities = probabilities[indexesOfVariablesOfInterest[i]];
+						for (int state = 0; state < variableProbabilities.length; state++) {
+							double probability = variableProbabilities[state];
+							accumulatedProbabilities[i][state] += probability;
+							accumulatedSquaredProbabilities[i][state] += probability * probability;
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * Samples a variable given the current states of its Markov blanket
+		 * and keeps its distribution in <code>probabilities</code>. When the
+		 * variable has a block, its states are also updated.
+		 *
+		 * @param variable index of the variable
+		 * @return The index of the state sampled
+		 */
+		private int sampleVariable(int variable) {
+			double[] variableProbabilities = probabilities[variable];
+			int numStates = variableProbabilities.length;
+			double random = randomGenerator.nextDouble();
+			if (blocks[variable] != null) {
+				return sampleBlock(variable, random);
+			}
+			double[] table = conditionalTables[variable];
+			if (table != null) {
+				int[] blanket = blankets[variable];
+				int[] offsets = blanketOffsets[variable];
+				int first = 0;
+				for (int j = 0; j < blanket.length; j++) {
+					first += configuration[blanket[j]] * offsets[j];
+				}
+				double previous = 0;
+				for (int state = 0; state < numStates; state++) {
+					variableProbabilities[state] = table[first + state] - previous;
+					previous = table[first + state];
+				}
+				int low = first;
+				int high = first + numStates - 1;
+				while (low < high) {
+					int middle = (low + high) >>> 1;
+					if (random > table[middle]) {
+						low = middle + 1;
+					} else {
+						high = middle;
+					}
+				}
+				return low - first;
+			}
+			double sum = fillConditionalProbabilities(variable, configuration, variableProbabilities);
+			double threshold = random * sum;
+			double accumulated = 0;
+			int sampledState = -1;
+			for (int state = 0; state < numStates; state++) {
+				accumulated += variableProbabilities[state];
+				if (sampledState == -1 && threshold < accumulated) {
+					sampledState = state;
+				}
+				variableProbabilities[state] /= sum;
+			}
+			// the surplus of rounding goes to the last state
+			return sampledState != -1 ? sampledState : numStates - 1;
+		}
+
+		/**
+		 * Samples a variable together with its block. The configurations of
+		 * the block with a positive probability are enumerated depth first,
+		 * in ancestral order; the weight of each one is the product of the
+		 * tables of the block and of its factors.
+		 *
+		 * @param variable index of the variable
+		 * @param random   random number in [0, 1)
+		 * @return The index of the state sampled
+		 */
+		private int sampleBlock(int variable, double random) {
+			int[] block = blocks[variable];
+			int blockSize = block.length;
+			double[] variableProbabilities = probabilities[variable];
+			Arrays.fill(variableProbabilities, 0);
+			// partialWeights[j] is the product of the tables of the members before j
+			partialWeights[0] = 1;
+			int numConfigurations = 0;
+			double sum = 0;
+			int level = 0;
+			configuration[block[0]] = -1;
+			while (level >= 0) {
+				int member = block[level];
+				// next state of the member with a positive probability
+				double probability = 0;
+				while (probability == 0 && ++configuration[member] < samplingPlan.getNumStates(member)) {
+					probability = samplingPlan.getProbability(member, configuration);
+				}
+				if (probability == 0) {
+					level--;
+					continue;
+				}
+				double weight = partialWeights[level] * probability;
+				if (level < blockSize - 1) {
+					partialWeights[++level] = weight;
+					configuration[block[level]] = -1;
+					continue;
+				}
+				for (int factor : blockFactors[variable]) {
+					weight *= samplingPlan.getProbability(factor, configuration);
+				}
+				if (weight > 0) {
+					for (int j = 0; j < blockSize; j++) {
+						blockConfigurations[numConfigurations * blockSize + j] = configuration[block[j]];
+					}
+					blockWeights[numConfigurations++] = weight;
+					variableProbabilities[configuration[variable]] += weight;
+					sum += weight;
+				}
+			}
+			for (int state = 0; state < variableProbabilities.length; state++) {
+				variableProbabilities[state] /= sum;
+			}
+			double threshold = random * sum;
+			double accumulated = 0;
+			int sampled = numConfigurations - 1;
+			for (int i = 0; i < numConfigurations; i++) {
+				accumulated += blockWeights[i];
+				if (threshold < accumulated) {
+					sampled = i;
+					break;
+				}
+			}
+			for (int j = 0; j < blockSize; j++) {
+				configuration[block[j]] = blockConfigurations[sampled * blockSize + j];
+			}
+			return configuration[variable];
+		}
+
+	}
+
+}
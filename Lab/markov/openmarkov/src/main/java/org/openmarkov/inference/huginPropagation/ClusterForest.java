@@ -7,15 +7,23 @@
 
 package org.openmarkov.inference.huginPropagation;
 
+import org.openmarkov.core.inference.ParallelOptions;
+import org.openmarkov.core.inference.TableRepresentation;
 import org.openmarkov.core.model.graph.Graph;
 import org.openmarkov.core.model.graph.Link;
 import org.openmarkov.core.model.network.Variable;
 import org.openmarkov.core.model.network.potential.Potential;
+import org.openmarkov.core.model.network.potential.operation.TablePotentialPool;
+import org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations;
+import org.openmarkov.inference.huginPropagation.ClusterPropagation.PropagationScheme;
+import org.openmarkov.inference.huginPropagation.ClusterPropagation.StorageLevel;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Represent a tree of <code>ClustersOfVariable</code>.
@@ -34,6 +42,33 @@ public abstract class ClusterForest extends Graph<ClusterOfVariables> {
 	 * variable.
 	 */
 	protected Map<Variable, ClusterOfVariables> variables2Clusters;
+	/**
+	 * Decides when the clusters use the concurrent potential operations.
+	 */
+	protected ParallelOptions parallelOptions;
+	/**
+	 * Way in which the clusters compute the messages of the distribute
+	 * evidence phase.
+	 */
+	protected PropagationScheme propagationScheme = PropagationScheme.HUGIN;
+	/**
+	 * Numbers in which the clusters store their tables and messages.
+	 */
+	protected TableRepresentation tableRepresentation = TableRepresentation.DOUBLE;
+	/**
+	 * Pool of the tables of the clusters, or <code>null</code> if each
+	 * result has a new table.
+	 */
+	protected TablePotentialPool tablePool = null;
+	/**
+	 * Number of upgoing messages computed by the clusters of this forest.
+	 */
+	private final LongAdder collectEvidenceInvocations = new LongAdder();
+	/**
+	 * Number of invocations of distributeEvidence in the clusters of this
+	 * forest.
+	 */
+	private final LongAdder distributeEvidenceInvocations = new LongAdder();
 
 	// Constructors
 
@@ -55,6 +90,184 @@ public abstract class ClusterForest extends Graph<ClusterOfVariables> {
 
 	// Methods
 
+	/**
+	 * @return A forest with new clusters that share the variables, separators
+	 * and prior potentials of the clusters of this forest, without evidence
+	 * nor messages. The new forest can propagate evidence independently of
+	 * this forest and of the other copies, even in other threads, as long as
+	 * this forest is not propagated
+	 */
+	public abstract ClusterForest copyStructure();
+
+	/**
+	 * Adds to this empty forest a copy of each cluster of <code>forest</code>,
+	 * with the same links, roots and clusters of the variables.
+	 *
+	 * @param forest <code>ClusterForest</code>
+	 * @return The copy of each cluster of <code>forest</code>
+	 */
+	protected Map<ClusterOfVariables, ClusterOfVariables> copyClusters(ClusterForest forest) {
+		Map<ClusterOfVariables, ClusterOfVariables> copies = new HashMap<>();
+		List<ClusterOfVariables> clusters = forest.getNodes();
+		for (ClusterOfVariables cluster : clusters) {
+			ClusterOfVariables copy = copyCluster(cluster);
+			copies.put(cluster, copy);
+			addNode(copy);
+		}
+		for (ClusterOfVariables cluster : clusters) {
+			for (ClusterOfVariables child : forest.getChildren(cluster)) {
+				addLink(copies.get(cluster), copies.get(child), true);
+			}
+		}
+		for (ClusterOfVariables rootCluster : forest.getRootClusters()) {
+			rootClusters.add(copies.get(rootCluster));
+		}
+		for (Map.Entry<Variable, ClusterOfVariables> entry : forest.variables2Clusters.entrySet()) {
+			variables2Clusters.put(entry.getKey(), copies.get(entry.getValue()));
+		}
+		parallelOptions = forest.getParallelOptions();
+		propagationScheme = forest.getPropagationScheme();
+		tableRepresentation = forest.getTableRepresentation();
+		// the copies may propagate in other threads, so they do not share the pool
+		tablePool = (forest.getTablePool() != null) ? new TablePotentialPool() : null;
+		return copies;
+	}
+
+	/**
+	 * @param cluster <code>ClusterOfVariables</code> of another forest
+	 * @return A cluster of this forest with the variables, separator and
+	 * prior potentials of <code>cluster</code>
+	 */
+	protected abstract ClusterOfVariables copyCluster(ClusterOfVariables cluster);
+
+	/**
+	 * @return <code>ParallelOptions</code> used by the clusters. May be
+	 * <code>null</code> (all the operations are sequential)
+	 */
+	public ParallelOptions getParallelOptions() {
+		return parallelOptions;
+	}
+
+	/**
+	 * @param parallelOptions <code>ParallelOptions</code>
+	 */
+	public void setParallelOptions(ParallelOptions parallelOptions) {
+		this.parallelOptions = parallelOptions;
+	}
+
+	/**
+	 * @return <code>PropagationScheme</code> used by the clusters
+	 */
+	public PropagationScheme getPropagationScheme() {
+		return propagationScheme;
+	}
+
+	/**
+	 * @param propagationScheme <code>PropagationScheme</code>
+	 */
+	public void setPropagationScheme(PropagationScheme propagationScheme) {
+		this.propagationScheme = propagationScheme;
+	}
+
+	/**
+	 * @return <code>TableRepresentation</code> of the tables of the clusters
+	 */
+	public TableRepresentation getTableRepresentation() {
+		return tableRepresentation;
+	}
+
+	/**
+	 * @param tableRepresentation <code>TableRepresentation</code>. The
+	 *                            clusters must not have been propagated
+	 */
+	public void setTableRepresentation(TableRepresentation tableRepresentation) {
+		this.tableRepresentation = tableRepresentation;
+	}
+
+	/**
+	 * @return <code>TablePotentialPool</code> of the tables of the clusters.
+	 * May be <code>null</code>
+	 */
+	public TablePotentialPool getTablePool() {
+		return tablePool;
+	}
+
+	/**
+	 * @param tablePool <code>TablePotentialPool</code> from which the
+	 *                  clusters take the tables of their collected and
+	 *                  posterior potentials, in double precision, and to
+	 *                  which they return them when they are discarded.
+	 *                  <code>null</code> to create a new table for each
+	 *                  result
+	 */
+	public void setTablePool(TablePotentialPool tablePool) {
+		this.tablePool = tablePool;
+	}
+
+	/**
+	 * @return Number of upgoing messages computed since the creation of the
+	 * forest or the last call to <code>resetInvocationCounters</code>
+	 */
+	public long getCollectEvidenceInvocations() {
+		return collectEvidenceInvocations.sum();
+	}
+
+	/**
+	 * @return Number of invocations of <code>distributeEvidence</code> since
+	 * the creation of the forest or the last call to
+	 * <code>resetInvocationCounters</code>
+	 */
+	public long getDistributeEvidenceInvocations() {
+		return distributeEvidenceInvocations.sum();
+	}
+
+	public void resetInvocationCounters() {
+		collectEvidenceInvocations.reset();
+		distributeEvidenceInvocations.reset();
+	}
+
+	void countCollectEvidence() {
+		collectEvidenceInvocations.increment();
+	}
+
+	void countDistributeEvidence() {
+		distributeEvidenceInvocations.increment();
+	}
+
+	/**
+	 * @param clusters     Clusters whose subtrees are independent: the
+	 *                     children of a cluster or the roots of the forest
+	 * @param storageLevel <code>StorageLevel</code>
+	 * @return <code>true</code> if at least two of the subtrees are big
+	 * enough to be propagated in their own tasks. Without storage the
+	 * upgoing messages are recomputed when they are read, so the subtrees
+	 * are not independent and are always propagated sequentially
+	 */
+	public boolean isWorthPropagatingConcurrently(List<ClusterOfVariables> clusters, StorageLevel storageLevel) {
+		if (clusters.size() < 2 || storageLevel == StorageLevel.NO_STORAGE || parallelOptions == null
+				|| !parallelOptions.isParallelPropagation()
+				|| DiscretePotentialOperations.getPool().getParallelism() < 2) {
+			return false;
+		}
+		int bigSubtrees = 0;
+		for (ClusterOfVariables cluster : clusters) {
+			if (cluster.subtreeSize() >= parallelOptions.getPropagationThreshold() && ++bigSubtrees == 2) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Runs the tasks concurrently in the pool of the concurrent potential
+	 * operations and waits for all of them.
+	 *
+	 * @param tasks <code>List</code> of <code>ForkJoinTask</code>s
+	 */
+	static void invokeAll(List<? extends ForkJoinTask<?>> tasks) {
+		DiscretePotentialOperations.invokeAll(tasks);
+	}
+
 	/**
 	 * @return <code>ArrayList</code> of <code>ClusterOfVariables</code>
 	 */
@@ -7,16 +7,24 @@
 
 package org.openmarkov.inference.huginPropagation;
 
+import org.openmarkov.core.inference.ParallelOptions;
+import org.openmarkov.core.inference.TableRepresentation;
 import org.openmarkov.core.model.network.Variable;
 import org.openmarkov.core.model.network.VariableType;
 import org.openmarkov.core.model.network.potential.Potential;
+import org.openmarkov.core.model.network.potential.FloatTablePotential;
 import org.openmarkov.core.model.network.potential.TablePotential;
 import org.openmarkov.core.model.network.potential.operation.DiscretePotentialOperations;
-import org.openmarkov.core.model.network.potential.operation.PotentialOperations;
+import org.openmarkov.core.model.network.potential.operation.PotentialOperationPlan;
+import org.openmarkov.core.model.network.potential.operation.PotentialOperationsDispatcher;
+import org.openmarkov.core.model.network.potential.operation.TablePotentialPool;
+import org.openmarkov.inference.huginPropagation.ClusterPropagation.PropagationScheme;
 import org.openmarkov.inference.huginPropagation.ClusterPropagation.StorageLevel;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A <code>ClusterOfVariables</code> is a node in a <code>ClusterForest</code>.
@@ -28,10 +36,6 @@ import java.util.List;
  * @author fjdiez
  */
 public abstract class ClusterOfVariables {
-	// Attributes for performance test
-	public static int collectEvidenceInvocations = 0;
-	public static int distributeEvidenceInvocations = 0;
-
 	/**
 	 * Used to form the cluster's name.
 	 */
@@ -53,11 +57,28 @@ public abstract class ClusterOfVariables {
 	 * probability of 1.0 one and only one state and 0.0 in the others.
 	 */
 	protected List<TablePotential> evidencePotentials;
+	/**
+	 * Logarithms of the prior potentials, used when the tables are stored in
+	 * {@link TableRepresentation#LOG}. Computed when they are first needed.
+	 */
+	private List<TablePotential> logPriorPotentials = null;
 	/**
 	 * Resulting potential of multiplying prior and evidence potentials by the
 	 * messages received from all its neighbors.
 	 */
 	protected TablePotential posteriorPotential = null;
+	/**
+	 * Product of prior potentials, evidence potentials and the upgoing
+	 * messages of the children, stored in the collect evidence phase.
+	 */
+	protected TablePotential collectedPotential = null;
+	/**
+	 * Whether the tables of <code>posteriorPotential</code> and
+	 * <code>collectedPotential</code> were taken from the pool of the forest,
+	 * to which they are returned when the potentials are discarded
+	 */
+	private boolean pooledPosteriorPotential = false;
+	private boolean pooledCollectedPotential = false;
 	/**
 	 * Variables in this cluster
 	 */
@@ -73,6 +94,29 @@ public abstract class ClusterOfVariables {
 	 */
 	protected TablePotential downgoingMessage = null;
 	protected int clusterSize = 0;
+	/**
+	 * Sum of the sizes of the clusters of the subtree of this cluster
+	 */
+	private long subtreeSize = 0;
+	/**
+	 * Compiled product of prior potentials, evidence potentials and
+	 * upgoing messages of the children. Reused while their variables do not
+	 * change.
+	 */
+	protected PotentialOperationPlan productPlan = null;
+	/**
+	 * Compiled marginalization of the posterior potential onto the separator.
+	 */
+	protected PotentialOperationPlan upgoingPlan = null;
+	/**
+	 * Compiled operation used to compute the downgoing message.
+	 */
+	protected PotentialOperationPlan downgoingPlan = null;
+	/**
+	 * Compiled product used to update the posterior potential with the
+	 * downgoing message.
+	 */
+	protected PotentialOperationPlan absorptionPlan = null;
 	private ClusterForest clusterForest = null;
 
 	// Constructor
@@ -92,8 +136,57 @@ public abstract class ClusterOfVariables {
 		separatorVariables = new ArrayList<Variable>();
 	}
 
+	/**
+	 * Creates a cluster of <code>clusterForest</code> that shares the
+	 * variables, separator variables and prior potentials of
+	 * <code>cluster</code>, without evidence nor messages. The prior
+	 * potentials must have been compiled and are only read.
+	 *
+	 * @param clusterForest <code>ClusterForest</code>.
+	 * @param cluster       <code>ClusterOfVariables</code> of another forest.
+	 */
+	protected ClusterOfVariables(ClusterForest clusterForest, ClusterOfVariables cluster) {
+		this(clusterForest, cluster.variables);
+		name = cluster.name;
+		separatorVariables = cluster.separatorVariables;
+		priorPotentials.addAll(cluster.priorPotentials);
+		logPriorPotentials = cluster.logPriorPotentials;
+		clusterSize = cluster.clusterSize;
+	}
+
 	// Methods
 
+	/**
+	 * @return The options that decide when the operations of this cluster
+	 * are computed concurrently
+	 */
+	protected ParallelOptions getParallelOptions() {
+		return clusterForest.getParallelOptions();
+	}
+
+	/**
+	 * @return The way in which this cluster distributes the evidence
+	 */
+	protected PropagationScheme getPropagationScheme() {
+		return clusterForest.getPropagationScheme();
+	}
+
+	/**
+	 * @return The numbers in which this cluster stores its tables and
+	 * messages
+	 */
+	protected TableRepresentation getTableRepresentation() {
+		return clusterForest.getTableRepresentation();
+	}
+
+	/**
+	 * @return The pool of the tables of the forest, or <code>null</code> if
+	 * it has none or the tables are not in double precision
+	 */
+	protected TablePotentialPool getTablePool() {
+		return (getTableRepresentation() == TableRepresentation.DOUBLE) ? clusterForest.getTablePool() : null;
+	}
+
 	/**
 	 * @return <code>ArrayList</code> of <code>ClusterOfVariables</code>
 	 */
@@ -121,6 +214,7 @@ public abstract class ClusterOfVariables {
 	 */
 	public void addPriorPotential(TablePotential potential) {
 		priorPotentials.add(potential);
+		logPriorPotentials = null;
 	}
 
 	/**
@@ -131,152 +225,298 @@ public abstract class ClusterOfVariables {
 		return priorPotentials;
 	}
 
+	/**
+	 * @return The prior potentials and the evidence potentials, in the
+	 * representation of the tables of this cluster
+	 */
+	protected List<TablePotential> getLocalPotentials() {
+		if (getTableRepresentation() != TableRepresentation.LOG) {
+			List<TablePotential> potentials = new ArrayList<>(priorPotentials);
+			potentials.addAll(evidencePotentials);
+			return potentials;
+		}
+		List<TablePotential> logPotentials = logPriorPotentials;
+		if (logPotentials == null) {
+			logPotentials = new ArrayList<>(priorPotentials.size());
+			for (TablePotential priorPotential : priorPotentials) {
+				logPotentials.add(DiscretePotentialOperations.logarithm(priorPotential));
+			}
+			logPriorPotentials = logPotentials;
+		}
+		List<TablePotential> potentials = new ArrayList<>(logPotentials);
+		for (TablePotential evidencePotential : evidencePotentials) {
+			potentials.add(DiscretePotentialOperations.logarithm(evidencePotential));
+		}
+		return potentials;
+	}
+
 	/**
 	 * Calculates the marginalized multiplication of: <code>priorPotentials,
 	 * evidencePotentials</code> and the recursively collected evidence from
 	 * the children of this <code>ClusterOfVariables</code>.
 	 *
-	 * @param storageLevel If its value is 2 the collected evidence is stored in
-	 *                     the <code>posteriorPotential</code> without being marginalized
-	 *                     <code>int</code>
+	 * @param storageLevel Indicates whether the upgoing message and the
+	 *                     product before the marginalization are stored
 	 * @return The marginalized multiplication (<code>Potential</code>).
 	 */
 	public TablePotential collectEvidence(StorageLevel storageLevel) {
 		if (upgoingMessage != null) { // It has been calculated before
 			return upgoingMessage;
 		}
-		collectEvidenceInvocations++;
-		// adds the prior potentials and evidence potentials
-		List<TablePotential> potentials = new ArrayList<>(priorPotentials);
-		for (Potential pot : evidencePotentials) {
-			potentials.add((TablePotential) pot);
+		clusterForest.countCollectEvidence();
+		TablePotential product = getCollectedPotential(storageLevel);
+		boolean isRootClique = separatorVariables.size() == 0;
+		if (isRootClique) {
+			upgoingMessage = product;
+		} else {
+			List<TablePotential> collected = Collections.singletonList(product);
+			upgoingPlan = PotentialOperationPlan.marginalization(collected, separatorVariables, upgoingPlan);
+			upgoingMessage = PotentialOperationsDispatcher.execute(upgoingPlan, collected, getParallelOptions(),
+					getTableRepresentation());
 		}
-		// recursively invokes collectEvidence on its children
-		// and add the collected potentials
-		for (ClusterOfVariables child : getChildren()) {
-			potentials.add(child.collectEvidence(storageLevel));
+		if (!isRootClique && product != collectedPotential) {
+			// the product is not stored: only the upgoing message is kept
+			TablePotentialPool pool = getTablePool();
+			if (pool != null) {
+				pool.release(product);
+			}
 		}
-		boolean isRootClique = separatorVariables.size() == 0;
-		TablePotential collectedEvidence = null;
-		posteriorPotential = DiscretePotentialOperations.multiply(potentials);
-		upgoingMessage = (isRootClique) ?
-				posteriorPotential :
-				DiscretePotentialOperations.marginalize(posteriorPotential, separatorVariables);
-		collectedEvidence = upgoingMessage;
-		switch (storageLevel) {
-		case NO_STORAGE: {
+		TablePotential collectedEvidence = upgoingMessage;
+		if (storageLevel == StorageLevel.NO_STORAGE) {
 			// Delete upgoing message
 			upgoingMessage = null;
-			break;
 		}
-		case MEDIUM: {
-			// Delete posterior potential
-			posteriorPotential = null;
-			break;
+		return collectedEvidence;
+	}
+
+	/**
+	 * @param storageLevel <code>StorageLevel</code>.
+	 * @return The product of the prior potentials, the evidence potentials
+	 * and the upgoing messages of the children. It is stored with full
+	 * storage and, in the Hugin scheme, also with medium storage
+	 */
+	protected TablePotential getCollectedPotential(StorageLevel storageLevel) {
+		if (collectedPotential != null) {
+			return collectedPotential;
 		}
-		case FULL: {
-			// Do nothing
-			break;
+		// adds the prior potentials and evidence potentials
+		List<TablePotential> potentials = getLocalPotentials();
+		// recursively invokes collectEvidence on its children
+		// and add the collected potentials
+		List<ClusterOfVariables> children = getChildren();
+		if (clusterForest.isWorthPropagatingConcurrently(children, storageLevel)) {
+			List<CollectEvidenceTask> tasks = new ArrayList<>(children.size());
+			for (ClusterOfVariables child : children) {
+				tasks.add(new CollectEvidenceTask(child, storageLevel));
+			}
+			ClusterForest.invokeAll(tasks);
+			for (CollectEvidenceTask task : tasks) {
+				potentials.add(task.join());
+			}
+		} else {
+			for (ClusterOfVariables child : children) {
+				potentials.add(child.collectEvidence(storageLevel));
+			}
 		}
+		productPlan = PotentialOperationPlan.multiplication(potentials, productPlan);
+		// the product of a root cluster is its upgoing message and posterior potential, so it is not pooled
+		TablePotentialPool pool = (separatorVariables.size() > 0) ? getTablePool() : null;
+		TablePotential product = (pool != null) ?
+				PotentialOperationsDispatcher.execute(productPlan, potentials, getParallelOptions(), pool) :
+				PotentialOperationsDispatcher.execute(productPlan, potentials, getParallelOptions(),
+						getTableRepresentation());
+		if (storageLevel == StorageLevel.FULL || (storageLevel == StorageLevel.MEDIUM
+				&& getPropagationScheme() == PropagationScheme.HUGIN)) {
+			collectedPotential = product;
+			pooledCollectedPotential = (pool != null);
 		}
-		return collectedEvidence;
+		return product;
 	}
 
 	/**
-	 * Sends a message to each child. The message is the multiplication of:
-	 * <code>priorPotentials, evidencePotentials</code> and the upgoing messages
-	 * from its other children
+	 * Distributes the evidence to the subtree of this cluster: each child
+	 * absorbs the evidence from this cluster and distributes it to its own
+	 * children. The subtrees of the children are independent, so they may be
+	 * processed concurrently.
 	 *
 	 * @param storageLevel the amount of intermediate operation that are stored.
 	 */
 	public void distributeEvidence(StorageLevel storageLevel) {
-		// stores the product of priorPotentials, evidencePotentials, and
-		// the downgoingMessage
-		TablePotential intermediateProduct = getIntermediateProduct();
-		// sends a downgoingMessage to each child;
-		// this message is the product of the intermediateProduct multiplied
-		// by the upgoing messages from its other children
+		clusterForest.countDistributeEvidence();
 		List<ClusterOfVariables> children = getChildren();
-		List<ClusterOfVariables> otherChildren = null;
-		for (ClusterOfVariables child : children) {
-			List<TablePotential> potentials = new ArrayList<TablePotential>();
-			potentials.add(intermediateProduct);
-			otherChildren = new ArrayList<ClusterOfVariables>();
-			otherChildren.addAll(children);
-			otherChildren.remove(child);
-			for (ClusterOfVariables otherChild : otherChildren) {
-				potentials.add(otherChild.getUpgoingMessage(storageLevel));
+		if (clusterForest.isWorthPropagatingConcurrently(children, storageLevel)) {
+			List<DistributeEvidenceTask> tasks = new ArrayList<>(children.size());
+			for (ClusterOfVariables child : children) {
+				tasks.add(new DistributeEvidenceTask(child, this, storageLevel));
+			}
+			ClusterForest.invokeAll(tasks);
+		} else {
+			for (ClusterOfVariables child : children) {
+				child.absorbEvidence(this, storageLevel);
+				child.distributeEvidence(storageLevel);
 			}
-			child.setDowngoingPotential(
-					DiscretePotentialOperations.multiplyAndMarginalize(potentials, child.getSeparatorVariables()));
-			child.setPosteriorPotential(child.getPosteriorPotential(storageLevel));
 		}
 	}
 
 	/**
-	 * @return The product of prior potentials, evidence potentials and the
-	 * downgoing message if it exists (does not exist in root clusters).
+	 * Distributes the evidence only to the clusters of the subtree of this
+	 * cluster that are in <code>clusters</code>. Each of them absorbs the
+	 * evidence from its parent if it has not received it yet. The subtrees of
+	 * the children are processed concurrently, as in
+	 * {@link #distributeEvidence(StorageLevel)}.
+	 *
+	 * @param storageLevel the amount of intermediate operation that are stored.
+	 * @param clusters     clusters that must receive the evidence, with
+	 *                     their ancestors up to this cluster
 	 */
-	private TablePotential getIntermediateProduct() {
-		// adds the prior potentials and evidence potentials
-		List<TablePotential> potentials = new ArrayList<TablePotential>();
-		potentials.addAll(priorPotentials);
-		potentials.addAll(evidencePotentials);
-		// downgoingMessage is null for root clusters
-		if (downgoingMessage != null) {
-			potentials.add(downgoingMessage);
+	public void distributeEvidence(StorageLevel storageLevel, Set<ClusterOfVariables> clusters) {
+		clusterForest.countDistributeEvidence();
+		List<ClusterOfVariables> children = new ArrayList<>();
+		for (ClusterOfVariables child : getChildren()) {
+			if (clusters.contains(child)) {
+				children.add(child);
+			}
 		}
-		// stores the product of priorPotentials, evidencePotentials, and
-		// the downgoingMessage
-		if (potentials.size() == 0) {
-			return null;
+		if (clusterForest.isWorthPropagatingConcurrently(children, storageLevel)) {
+			List<DistributeEvidenceTask> tasks = new ArrayList<>(children.size());
+			for (ClusterOfVariables child : children) {
+				tasks.add(new DistributeEvidenceTask(child, this, storageLevel, clusters));
+			}
+			ClusterForest.invokeAll(tasks);
+		} else {
+			for (ClusterOfVariables child : children) {
+				if (!child.isEvidenceDistributed()) {
+					child.absorbEvidence(this, storageLevel);
+				}
+				child.distributeEvidence(storageLevel, clusters);
+			}
 		}
-		return DiscretePotentialOperations.multiply(potentials);
+	}
+
+	/**
+	 * Receives the downgoing message from <code>parent</code>, the
+	 * marginalized product of the potentials of the parent and the upgoing
+	 * messages of the other children of the parent, and multiplies it by the
+	 * prior potentials, evidence potentials and the upgoing messages of the
+	 * children of this cluster (Shafer-Shenoy scheme).
+	 *
+	 * @param parent       <code>ClusterOfVariables</code> whose posterior
+	 *                     potential has received the evidence of the whole tree
+	 * @param storageLevel <code>StorageLevel</code>.
+	 */
+	protected void absorbEvidence(ClusterOfVariables parent, StorageLevel storageLevel) {
+		setDowngoingPotential(parent.getDowngoingPotential(this, storageLevel));
+		List<TablePotential> potentials = getLocalPotentials();
+		potentials.add(downgoingMessage);
+		for (ClusterOfVariables child : getChildren()) {
+			potentials.add(child.getUpgoingMessage(storageLevel));
+		}
+		absorptionPlan = PotentialOperationPlan.multiplication(potentials, absorptionPlan);
+		setAbsorbedPosteriorPotential(absorptionPlan, potentials);
+	}
+
+	/**
+	 * Stores as posterior potential the result of <code>absorptionPlan</code>,
+	 * in a table of the pool of the forest if it has one.
+	 *
+	 * @param absorptionPlan plan compiled for <code>potentials</code>
+	 * @param potentials     operands
+	 */
+	protected void setAbsorbedPosteriorPotential(PotentialOperationPlan absorptionPlan,
+			List<TablePotential> potentials) {
+		TablePotentialPool pool = getTablePool();
+		TablePotential posterior = (pool != null) ?
+				PotentialOperationsDispatcher.execute(absorptionPlan, potentials, getParallelOptions(), pool) :
+				PotentialOperationsDispatcher.execute(absorptionPlan, potentials, getParallelOptions(),
+						getTableRepresentation());
+		discardPosteriorPotential();
+		posteriorPotential = posterior;
+		pooledPosteriorPotential = (pool != null);
 	}
 
 	/**
 	 * @param child        <code>ClusterOfVariables</code>.
 	 * @param storageLevel <code>int</code>.
-	 * @return The <code>Potential</code> sended to <code>child</code>.
+	 * @return The <code>Potential</code> sended to <code>child</code>: the
+	 * product of the prior potentials, evidence potentials, the downgoing
+	 * message of this cluster and the upgoing messages of its other children,
+	 * marginalized onto the separator of <code>child</code>.
 	 */
-	protected Potential getDowngoingPotential(ClusterOfVariables child, StorageLevel storageLevel) throws Exception {
-		TablePotential intermediateProduct = getIntermediateProduct();
-		// sends a downgoingMessage to each child;
-		// this message is the product of the intermediateProduct multiplied
-		// by the upgoing messages from its other children
-		List<ClusterOfVariables> children = getChildren();
-		List<ClusterOfVariables> otherChildren = null;
-		List<TablePotential> potentials = new ArrayList<TablePotential>();
-		if (intermediateProduct != null) {
-			potentials.add(intermediateProduct);
+	protected TablePotential getDowngoingPotential(ClusterOfVariables child, StorageLevel storageLevel) {
+		List<TablePotential> potentials = getLocalPotentials();
+		// downgoingMessage is null for root clusters
+		if (downgoingMessage != null) {
+			potentials.add(downgoingMessage);
 		}
-		otherChildren = new ArrayList<ClusterOfVariables>();
-		otherChildren.addAll(children);
-		otherChildren.remove(child);
-		for (ClusterOfVariables otherChild : otherChildren) {
-			potentials.add(otherChild.getUpgoingMessage(storageLevel));
+		for (ClusterOfVariables otherChild : getChildren()) {
+			if (otherChild != child) {
+				potentials.add(otherChild.getUpgoingMessage(storageLevel));
+			}
 		}
-		return PotentialOperations.multiplyAndMarginalize(potentials, child.getSeparatorVariables());
+		child.downgoingPlan = PotentialOperationPlan
+				.marginalization(potentials, child.getSeparatorVariables(), child.downgoingPlan);
+		return PotentialOperationsDispatcher.execute(child.downgoingPlan, potentials, getParallelOptions(),
+				getTableRepresentation());
 	}
 
 	/**
 	 * @param storageLevel <code>int</code>.
-	 * @return posteriorPotential <code>Potential</code>.
+	 * @return posteriorPotential <code>Potential</code> if the evidence has
+	 * been distributed to this cluster; otherwise, the product of its
+	 * potentials and the evidence collected from its children. In
+	 * {@link TableRepresentation#LOG} it is proportional to the posterior
+	 * potential, scaled so that its greatest value is 1.
 	 */
 	public TablePotential getPosteriorPotential(StorageLevel storageLevel) {
+		return toProbabilities(getStoredPosteriorPotential(storageLevel));
+	}
+
+	/**
+	 * @param variablesOfInterest variables of the result
+	 * @param storageLevel        <code>StorageLevel</code>.
+	 * @return The posterior potential of this cluster (see
+	 * {@link #getPosteriorPotential(StorageLevel)}) marginalized onto
+	 * <code>variablesOfInterest</code>. The variables are summed out in the
+	 * representation of the tables of this cluster, before converting the
+	 * result into probabilities.
+	 */
+	public TablePotential getPosteriorMarginal(List<Variable> variablesOfInterest, StorageLevel storageLevel) {
+		TablePotential posterior = getStoredPosteriorPotential(storageLevel);
+		TableRepresentation representation = getTableRepresentation();
+		if (representation == TableRepresentation.DOUBLE) {
+			return PotentialOperationsDispatcher.marginalize(posterior, variablesOfInterest, getParallelOptions());
+		}
+		List<TablePotential> potentials = Collections.singletonList(posterior);
+		PotentialOperationPlan plan = PotentialOperationPlan.marginalization(potentials, variablesOfInterest, null);
+		return toProbabilities(plan.execute(potentials, representation));
+	}
+
+	/**
+	 * @param storageLevel <code>StorageLevel</code>.
+	 * @return The posterior potential, or the collected potential, in the
+	 * representation of the tables of this cluster
+	 */
+	private TablePotential getStoredPosteriorPotential(StorageLevel storageLevel) {
 		if (posteriorPotential != null) {
 			return posteriorPotential;
 		}
-		// adds the prior potentials and evidence potentials
-		List<TablePotential> potentials = new ArrayList<TablePotential>(priorPotentials);
-		potentials.addAll(evidencePotentials);
-		// recursively invokes collectEvidence on its children
-		// and add the collected potentials
-		List<ClusterOfVariables> children = getChildren();
-		for (ClusterOfVariables child : children) {
-			potentials.add(child.collectEvidence(storageLevel));
+		return getCollectedPotential(storageLevel);
+	}
+
+	/**
+	 * @param potential table of this cluster or marginal of one of them
+	 * @return <code>potential</code> in double precision and, in
+	 * {@link TableRepresentation#LOG}, converted from logarithms into values
+	 * proportional to the probabilities
+	 */
+	private TablePotential toProbabilities(TablePotential potential) {
+		if (potential instanceof FloatTablePotential) {
+			return ((FloatTablePotential) potential).toTablePotential();
+		}
+		if (getTableRepresentation() == TableRepresentation.LOG) {
+			return DiscretePotentialOperations.exponential(potential);
 		}
-		return DiscretePotentialOperations.multiply(potentials);
+		return potential;
 	}
 
 	/**
@@ -284,6 +524,41 @@ public abstract class ClusterOfVariables {
 	 */
 	public void setPosteriorPotential(TablePotential posteriorPotential) {
 		this.posteriorPotential = posteriorPotential;
+		pooledPosteriorPotential = false;
+	}
+
+	/**
+	 * Removes the posterior potential, returning its table to the pool of
+	 * the forest if it was taken from it.
+	 */
+	private void discardPosteriorPotential() {
+		TablePotentialPool pool = clusterForest.getTablePool();
+		if (pooledPosteriorPotential && pool != null) {
+			pool.release(posteriorPotential);
+		}
+		posteriorPotential = null;
+		pooledPosteriorPotential = false;
+	}
+
+	/**
+	 * Removes the collected potential, returning its table to the pool of
+	 * the forest if it was taken from it.
+	 */
+	private void discardCollectedPotential() {
+		TablePotentialPool pool = clusterForest.getTablePool();
+		if (pooledCollectedPotential && pool != null) {
+			pool.release(collectedPotential);
+		}
+		collectedPotential = null;
+		pooledCollectedPotential = false;
+	}
+
+	/**
+	 * @return <code>true</code> if the posterior potential of this cluster
+	 * has received the evidence of the whole tree
+	 */
+	public boolean isEvidenceDistributed() {
+		return posteriorPotential != null;
 	}
 
 	/**
@@ -293,6 +568,59 @@ public abstract class ClusterOfVariables {
 		evidencePotentials.add(potential);
 	}
 
+	/**
+	 * @param variable <code>Variable</code>.
+	 * @return <code>true</code> if this cluster had an evidence potential of
+	 * <code>variable</code>, that has been removed
+	 */
+	public boolean removeEvidencePotential(Variable variable) {
+		for (int i = 0; i < evidencePotentials.size(); i++) {
+			if (evidencePotentials.get(i).getVariable(0) == variable) {
+				evidencePotentials.remove(i);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Removes the evidence potentials and the messages and posterior
+	 * potential computed with them.
+	 */
+	public void clearEvidence() {
+		evidencePotentials.clear();
+		upgoingMessage = null;
+		downgoingMessage = null;
+		discardPosteriorPotential();
+		discardCollectedPotential();
+	}
+
+	/**
+	 * Discards the results of the collect evidence phase that depend on the
+	 * evidence of this cluster: its upgoing message, collected potential and
+	 * posterior potential, and those of its ancestors.
+	 */
+	public void invalidateCollectedEvidence() {
+		upgoingMessage = null;
+		discardCollectedPotential();
+		discardPosteriorPotential();
+		for (ClusterOfVariables parent : getParents()) {
+			parent.invalidateCollectedEvidence();
+		}
+	}
+
+	/**
+	 * Discards the results of the distribute evidence phase in this cluster
+	 * and its descendants. The upgoing messages are kept.
+	 */
+	public void invalidateDistributedEvidence() {
+		discardPosteriorPotential();
+		downgoingMessage = null;
+		for (ClusterOfVariables child : getChildren()) {
+			child.invalidateDistributedEvidence();
+		}
+	}
+
 	/**
 	 * @return separatorVariables <code>ArrayList</code> of <code>Variable</code>
 	 * s.
@@ -333,15 +661,25 @@ public abstract class ClusterOfVariables {
 	 *
 	 */
 	public void compilePriorPotentials() {
+		logPriorPotentials = null;
 		if (separatorVariables.size() == 0) { // root clique, without separator
 			if (priorPotentials.size() > 1) {
-				TablePotential priorPotential = DiscretePotentialOperations.multiply(priorPotentials);
+				TablePotential priorPotential = PotentialOperationsDispatcher.multiply(priorPotentials, getParallelOptions());
+				priorPotentials.clear();
+				priorPotentials.add(priorPotential);
+			} else if (priorPotentials.size() == 1 && isProjected(priorPotentials.get(0))) {
+				// the projection reads the table of the network, which may be
+				// modified after the compilation
+				TablePotential projectedPotential = priorPotentials.get(0);
+				TablePotential priorPotential = DiscretePotentialOperations
+						.marginalize(projectedPotential, projectedPotential.getVariables());
+				priorPotential.setPotentialRole(projectedPotential.getPotentialRole());
 				priorPotentials.clear();
 				priorPotentials.add(priorPotential);
 			}
 		} else { // no root clique, with separator
-			TablePotential priorPotential = DiscretePotentialOperations
-					.multiplyAndMarginalize(priorPotentials, getVariables());
+			TablePotential priorPotential = PotentialOperationsDispatcher
+					.multiplyAndMarginalize(priorPotentials, getVariables(), getParallelOptions());
 			priorPotentials.clear();
 			priorPotentials.add(priorPotential);
 		}
@@ -352,6 +690,15 @@ public abstract class ClusterOfVariables {
 		}
 	}
 
+	/**
+	 * @param potential <code>TablePotential</code>
+	 * @return <code>true</code> if <code>potential</code> is a projection
+	 * that shares the table of another potential
+	 */
+	private static boolean isProjected(TablePotential potential) {
+		return potential.getInitialPosition() != 0 || potential.values.length != potential.getTableSize();
+	}
+
 	/**
 	 * Overrides <code>toString</code> method. Mainly for test purposes.
 	 */
@@ -423,6 +770,20 @@ public abstract class ClusterOfVariables {
 		downgoingMessage = potential;
 	}
 
+	/**
+	 * @return Sum of the sizes of the clusters of the subtree of this cluster
+	 */
+	public long subtreeSize() {
+		if (subtreeSize == 0) {
+			long size = size();
+			for (ClusterOfVariables child : getChildren()) {
+				size += child.subtreeSize();
+			}
+			subtreeSize = size;
+		}
+		return subtreeSize;
+	}
+
 	/**
 	 * @return Clique size = product of number of states of variable (all of
 	 * them discrete) <code>int</code>
@@ -11,6 +11,7 @@ import org.openmarkov.core.action.PNESupport;
 import org.openmarkov.core.exception.*;
 import org.openmarkov.core.inference.InferenceAlgorithm;
 import org.openmarkov.core.inference.heuristic.EliminationHeuristic;
+import org.openmarkov.core.inference.heuristic.HeuristicFactory;
 import org.openmarkov.core.inference.tasks.Propagation;
 import org.openmarkov.core.model.network.EvidenceCase;
 import org.openmarkov.core.model.network.Finding;
@@ -22,12 +23,15 @@ import org.openmarkov.core.model.network.potential.Potential;
 import org.openmarkov.core.model.network.potential.PotentialRole;
 import org.openmarkov.core.model.network.potential.TablePotential;
 import org.openmarkov.core.model.network.potential.operation.DiscretePotentialOperations;
+import org.openmarkov.core.model.network.potential.operation.TablePotentialPool;
 import org.openmarkov.core.model.network.type.BayesianNetworkType;
 import org.openmarkov.inference.heuristic.minimalFillIn.MinimalFillIn;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * This abstract class defines the basic operations to create a
@@ -46,6 +50,14 @@ public abstract class ClusterPropagation extends InferenceAlgorithm implements P
 	 * Indicates next node to eliminate when compiling the net.
 	 */
 	protected EliminationHeuristic heuristic;
+	/**
+	 * Creates the heuristic used to compile the network
+	 */
+	private HeuristicFactory heuristicFactory = new HeuristicFactory() {
+		@Override public EliminationHeuristic getHeuristic(ProbNet probNet, List<List<Variable>> variables) {
+			return new MinimalFillIn(probNet, variables);
+		}
+	};
 	protected boolean netCompiled;
 	protected boolean isEvidencePropagated;
 	protected EvidenceCase evidence = new EvidenceCase();
@@ -54,7 +66,28 @@ public abstract class ClusterPropagation extends InferenceAlgorithm implements P
 	 * algorithm
 	 */
 	protected StorageLevel storageLevel = StorageLevel.MEDIUM;
+	/**
+	 * When <code>true</code>, a change of evidence only discards the messages
+	 * of the clusters of the changed findings and of their ancestors, and the
+	 * evidence is distributed only to the clusters of the queried variables.
+	 * Otherwise, every change of evidence propagates the whole forest again.
+	 */
+	protected boolean incrementalPropagation = true;
+	/**
+	 * Way in which the clusters compute the messages of the distribute
+	 * evidence phase
+	 */
+	protected PropagationScheme propagationScheme = PropagationScheme.HUGIN;
+	/**
+	 * Pool of the tables of the clusters. <code>null</code> when each result
+	 * has a new table
+	 */
+	protected TablePotentialPool tablePool = null;
 	private EvidenceCase postResolutionEvidence = new EvidenceCase();
+	/**
+	 * Evidence whose potentials are in the clusters of <code>clusterForest</code>
+	 */
+	private EvidenceCase introducedEvidence = new EvidenceCase();
 	/**
 	 * @param probNet <code>ProbNet</code>.
 	 * @throws NotEvaluableNetworkException notEvaluableNetworkException
@@ -71,11 +104,35 @@ public abstract class ClusterPropagation extends InferenceAlgorithm implements P
 		isEvidencePropagated = false;
 	}
 
+	/**
+	 * Creates a propagation that shares the network, the structure and the
+	 * prior potentials of <code>junctionTree</code>, without copying nor
+	 * compiling the network. Only the evidence and the messages belong to
+	 * this instance.
+	 *
+	 * @param junctionTree <code>CompiledJunctionTree</code>.
+	 * @throws NotEvaluableNetworkException notEvaluableNetworkException
+	 */
+	protected ClusterPropagation(CompiledJunctionTree junctionTree) throws NotEvaluableNetworkException {
+		super(junctionTree.getProbNet(), false);
+		PNESupport pNESupport = probNet.getPNESupport();
+		if (pNESupport == null) {
+			pNESupport = new PNESupport(false);
+		}
+		this.pNESupport = pNESupport;
+		clusterForest = junctionTree.getClusterForest().copyStructure();
+		propagationScheme = clusterForest.getPropagationScheme();
+		tablePool = clusterForest.getTablePool();
+		netCompiled = true;
+		isEvidencePropagated = false;
+	}
+
 	/**
 	 * @param network network
 	 * @param evidence evidence
 	 * @return markovNetworkInference
-	 * @throws IncompatibleEvidenceException incompatibleEvidenceException
+	 * @throws IncompatibleEvidenceException incompatibleEvidenceException,
+	 * also when a probability potential projected on all its variables is 0
 	 */
 	public static ProbNet projectTablesAndBuildMarkovDecisionNetwork(ProbNet network, EvidenceCase evidence)
 			throws IncompatibleEvidenceException {
@@ -83,7 +140,9 @@ public abstract class ClusterPropagation extends InferenceAlgorithm implements P
 		List<TablePotential> returnedProjectedPotentials;
 
 		try {
-			returnedProjectedPotentials = network.tableProjectPotentials(evidence);
+			// the projections are read from the tables of the network when the
+			// prior potentials of the clusters are compiled, instead of copied
+			returnedProjectedPotentials = network.tableProjectPotentials(evidence, true);
 		} catch (NonProjectablePotentialException | WrongCriterionException e1) {
 			throw new IncompatibleEvidenceException("Unexpected inference exception :" + e1.getMessage());
 		}
@@ -100,6 +159,9 @@ public abstract class ClusterPropagation extends InferenceAlgorithm implements P
 				}
 			} else {
 				// It is a probability potential
+				if (potential.values[0] == 0) {
+					throw new IncompatibleEvidenceException("Incompatible evidence");
+				}
 				if (potential.values[0] != 1) {
 					projectedPotentials.add(potential);
 				}
@@ -129,6 +191,18 @@ public abstract class ClusterPropagation extends InferenceAlgorithm implements P
         }
 	}
 
+	/**
+	 * Like {@link #setPostResolutionEvidence(EvidenceCase)}, but the
+	 * incompatibility of the evidence is reported to the caller.
+	 *
+	 * @param postResolutionEvidence <code>EvidenceCase</code>
+	 * @throws IncompatibleEvidenceException IncompatibleEvidenceException
+	 */
+	void updatePostResolutionEvidence(EvidenceCase postResolutionEvidence) throws IncompatibleEvidenceException {
+		this.postResolutionEvidence = postResolutionEvidence;
+		updateEvidence();
+	}
+
 
 
 	/**
@@ -188,10 +262,17 @@ public abstract class ClusterPropagation extends InferenceAlgorithm implements P
 		if (!netCompiled) {
 			compilePriorPotentials();
 		}
-		if (!isEvidencePropagated) {
+		if (!isEvidencePropagated && !incrementalPropagation) {
 			// propagates evidence
 			propagateProbabilities();
 		}
+		if (incrementalPropagation) {
+			List<ClusterOfVariables> queryClusters = new ArrayList<>(variablesOfInterest.size());
+			for (Variable variable : variablesOfInterest) {
+				queryClusters.add(clusterForest.getCluster(variable));
+			}
+			distributeEvidenceTo(queryClusters);
+		}
 		// gets the posterior probability of each variable
 		List<Variable> variablesNoEvidence = new ArrayList<Variable>(variablesOfInterest);
 		variablesNoEvidence.removeAll(evidence.getVariables());
@@ -199,8 +280,7 @@ public abstract class ClusterPropagation extends InferenceAlgorithm implements P
 			ClusterOfVariables cluster = clusterForest.getCluster(variable);
 			List<Variable> variablesToKeep = new ArrayList<Variable>(1);
 			variablesToKeep.add(variable);
-			individualProbabilities.put(variable, (TablePotential) DiscretePotentialOperations
-					.marginalize(cluster.getPosteriorPotential(storageLevel), variablesToKeep));
+			individualProbabilities.put(variable, getPosteriorMarginal(cluster, variablesToKeep));
 		}
 		// Normalize potentials in individualProbabilities
 		for (Variable variable : variablesNoEvidence) {
@@ -233,12 +313,11 @@ public abstract class ClusterPropagation extends InferenceAlgorithm implements P
 		if (!netCompiled) {
 			compilePriorPotentials();
 		}
-		if (!isEvidencePropagated) {
+		if (!isEvidencePropagated && !incrementalPropagation) {
 			propagateProbabilities();
 		}
 		ClusterOfVariables queryCluster = getQueryCluster(clusterForest, variables);
-		TablePotential jointProbability = (TablePotential) DiscretePotentialOperations
-				.marginalize(queryCluster.getPosteriorPotential(storageLevel), variables);
+		TablePotential jointProbability = getPosteriorMarginal(queryCluster, variables);
 		// TODO Investigate why at this point the potential's role is CONDITIONAL PROBABILITY
 		jointProbability.setPotentialRole(PotentialRole.JOINT_PROBABILITY);
 		try {
@@ -274,17 +353,180 @@ public abstract class ClusterPropagation extends InferenceAlgorithm implements P
 		if (!netCompiled) {
 			compilePriorPotentials();
 		}
-		introduceEvidence(evidence);
+		if (incrementalPropagation) {
+			introduceEvidenceChanges(evidence);
+		} else {
+			for (ClusterOfVariables cluster : clusterForest.getNodes()) {
+				cluster.clearEvidence();
+			}
+			introduceEvidence(evidence);
+		}
+		introducedEvidence = evidence;
 		isEvidencePropagated = false;
 	}
 
+	/**
+	 * Replaces the evidence potentials of the findings that differ between
+	 * <code>evidenceCase</code> and the evidence previously introduced, and
+	 * discards the messages that depend on them: the upgoing messages from
+	 * the cluster of each changed finding to its root and the posterior
+	 * potentials of its tree. The upgoing messages of the other clusters are
+	 * reused by the next propagation.
+	 *
+	 * @param evidenceCase <code>EvidenceCase</code>.
+	 */
+	private void introduceEvidenceChanges(EvidenceCase evidenceCase) {
+		Set<Variable> changedVariables = new LinkedHashSet<>();
+		for (Finding finding : evidenceCase.getFindings()) {
+			Finding previousFinding = introducedEvidence.getFinding(finding.getVariable());
+			if (previousFinding == null || previousFinding.getStateIndex() != finding.getStateIndex()) {
+				changedVariables.add(finding.getVariable());
+			}
+		}
+		for (Finding previousFinding : introducedEvidence.getFindings()) {
+			if (!evidenceCase.contains(previousFinding.getVariable())) {
+				changedVariables.add(previousFinding.getVariable());
+			}
+		}
+		Set<ClusterOfVariables> changedRoots = new LinkedHashSet<>();
+		for (Variable variable : changedVariables) {
+			ClusterOfVariables cluster = clusterForest.getCluster(variable);
+			cluster.removeEvidencePotential(variable);
+			Finding finding = evidenceCase.getFinding(variable);
+			if (finding != null) {
+				try {
+					cluster.addEvidencePotential(variable.deltaTablePotential(finding.getState()));
+				} catch (InvalidStateException e) {
+					// Can not happen
+				}
+			}
+			cluster.invalidateCollectedEvidence();
+			while (!cluster.getParents().isEmpty()) {
+				cluster = cluster.getParents().get(0);
+			}
+			changedRoots.add(cluster);
+		}
+		for (ClusterOfVariables root : changedRoots) {
+			root.invalidateDistributedEvidence();
+		}
+	}
+
+	/**
+	 * In incremental propagation, distributes the evidence from the root of
+	 * the tree of <code>cluster</code> only along the path to
+	 * <code>cluster</code>.
+	 *
+	 * @param cluster <code>ClusterOfVariables</code>.
+	 */
+	private void distributeEvidenceTo(ClusterOfVariables cluster) {
+		if (incrementalPropagation && !cluster.isEvidenceDistributed()) {
+			List<ClusterOfVariables> parents = cluster.getParents();
+			if (parents.isEmpty()) {
+				cluster.setPosteriorPotential(cluster.collectEvidence(storageLevel));
+			} else {
+				ClusterOfVariables parent = parents.get(0);
+				distributeEvidenceTo(parent);
+				cluster.absorbEvidence(parent, storageLevel);
+			}
+		}
+	}
+
+	/**
+	 * In incremental propagation, distributes the evidence to
+	 * <code>clusters</code> along the paths from the roots of their trees.
+	 * The roots are collected and the independent subtrees are distributed
+	 * concurrently when the forest is worth propagating concurrently, as in a
+	 * full propagation.
+	 *
+	 * @param clusters <code>ClusterOfVariables</code> whose posterior
+	 *                 potentials will be read
+	 */
+	private void distributeEvidenceTo(List<ClusterOfVariables> clusters) {
+		// the clusters that must absorb the evidence and their ancestors
+		Set<ClusterOfVariables> pendingClusters = new LinkedHashSet<>();
+		// the clusters from which the evidence is distributed: the roots
+		// without posterior potential and the nearest ancestors with it
+		Set<ClusterOfVariables> sources = new LinkedHashSet<>();
+		List<ClusterOfVariables> pendingRoots = new ArrayList<>();
+		for (ClusterOfVariables queryCluster : clusters) {
+			ClusterOfVariables cluster = queryCluster;
+			while (cluster != null && !cluster.isEvidenceDistributed() && pendingClusters.add(cluster)) {
+				List<ClusterOfVariables> parents = cluster.getParents();
+				ClusterOfVariables parent = parents.isEmpty() ? null : parents.get(0);
+				if (parent == null) {
+					pendingRoots.add(cluster);
+					sources.add(cluster);
+				} else if (parent.isEvidenceDistributed()) {
+					sources.add(parent);
+				}
+				cluster = parent;
+			}
+		}
+		if (pendingClusters.isEmpty()) {
+			return;
+		}
+		List<ClusterOfVariables> sourceList = new ArrayList<>(sources);
+		if (clusterForest.isWorthPropagatingConcurrently(pendingRoots, storageLevel)) {
+			List<CollectEvidenceTask> collectTasks = new ArrayList<>(pendingRoots.size());
+			for (ClusterOfVariables root : pendingRoots) {
+				collectTasks.add(new CollectEvidenceTask(root, storageLevel));
+			}
+			ClusterForest.invokeAll(collectTasks);
+			for (int i = 0; i < pendingRoots.size(); i++) {
+				pendingRoots.get(i).setPosteriorPotential(collectTasks.get(i).join());
+			}
+		} else {
+			for (ClusterOfVariables root : pendingRoots) {
+				root.setPosteriorPotential(root.collectEvidence(storageLevel));
+			}
+		}
+		if (clusterForest.isWorthPropagatingConcurrently(sourceList, storageLevel)) {
+			List<DistributeEvidenceTask> distributeTasks = new ArrayList<>(sourceList.size());
+			for (ClusterOfVariables source : sourceList) {
+				distributeTasks.add(new DistributeEvidenceTask(source, null, storageLevel, pendingClusters));
+			}
+			ClusterForest.invokeAll(distributeTasks);
+		} else {
+			for (ClusterOfVariables source : sourceList) {
+				source.distributeEvidence(storageLevel, pendingClusters);
+			}
+		}
+	}
+
+	/**
+	 * @param cluster   <code>ClusterOfVariables</code>.
+	 * @param variables variables of <code>cluster</code>
+	 * @return The posterior potential of <code>cluster</code> marginalized
+	 * onto <code>variables</code>, not normalized
+	 */
+	private TablePotential getPosteriorMarginal(ClusterOfVariables cluster, List<Variable> variables) {
+		distributeEvidenceTo(cluster);
+		return cluster.getPosteriorMarginal(variables, storageLevel);
+	}
+
 	private void propagateProbabilities() {
-		for (ClusterOfVariables cluster : clusterForest.getRootClusters()) {
-			// collects the evidence and assigns the resulting potential
-			// as the posterior potential of this root cluster
-			TablePotential collectedEvidence = cluster.collectEvidence(storageLevel);
-			cluster.setPosteriorPotential(collectedEvidence);
-			cluster.distributeEvidence(storageLevel);
+		List<ClusterOfVariables> rootClusters = clusterForest.getRootClusters();
+		if (clusterForest.isWorthPropagatingConcurrently(rootClusters, storageLevel)) {
+			// the trees of the forest are independent
+			List<CollectEvidenceTask> collectTasks = new ArrayList<>(rootClusters.size());
+			for (ClusterOfVariables cluster : rootClusters) {
+				collectTasks.add(new CollectEvidenceTask(cluster, storageLevel));
+			}
+			ClusterForest.invokeAll(collectTasks);
+			List<DistributeEvidenceTask> distributeTasks = new ArrayList<>(rootClusters.size());
+			for (int i = 0; i < rootClusters.size(); i++) {
+				rootClusters.get(i).setPosteriorPotential(collectTasks.get(i).join());
+				distributeTasks.add(new DistributeEvidenceTask(rootClusters.get(i), null, storageLevel));
+			}
+			ClusterForest.invokeAll(distributeTasks);
+		} else {
+			for (ClusterOfVariables cluster : rootClusters) {
+				// collects the evidence and assigns the resulting potential
+				// as the posterior potential of this root cluster
+				TablePotential collectedEvidence = cluster.collectEvidence(storageLevel);
+				cluster.setPosteriorPotential(collectedEvidence);
+				cluster.distributeEvidence(storageLevel);
+			}
 		}
 		isEvidencePropagated = true;
 	}
@@ -334,6 +576,98 @@ public abstract class ClusterPropagation extends InferenceAlgorithm implements P
 		}
 	}
 
+	/**
+	 * @return The copy of the network used by this propagation
+	 */
+	ProbNet getProbNet() {
+		return probNet;
+	}
+
+	/**
+	 * @return The <code>ClusterForest</code>, that keeps the counters of the
+	 * propagation. <code>null</code> until the network is compiled
+	 */
+	public ClusterForest getClusterForest() {
+		return clusterForest;
+	}
+
+	/**
+	 * @return <code>true</code> if the changes of evidence are propagated
+	 * incrementally
+	 */
+	public boolean isIncrementalPropagation() {
+		return incrementalPropagation;
+	}
+
+	/**
+	 * @param incrementalPropagation <code>true</code> to propagate only the
+	 * messages affected by the changes of evidence; <code>false</code> to
+	 * propagate the whole forest after each change
+	 */
+	public void setIncrementalPropagation(boolean incrementalPropagation) {
+		this.incrementalPropagation = incrementalPropagation;
+		resetPropagation();
+	}
+
+	/**
+	 * @return <code>PropagationScheme</code>.
+	 */
+	public PropagationScheme getPropagationScheme() {
+		return propagationScheme;
+	}
+
+	/**
+	 * @param propagationScheme <code>PropagationScheme</code>.
+	 */
+	public void setPropagationScheme(PropagationScheme propagationScheme) {
+		this.propagationScheme = propagationScheme;
+		if (netCompiled) {
+			clusterForest.setPropagationScheme(propagationScheme);
+		}
+		resetPropagation();
+	}
+
+	/**
+	 * @return <code>TablePotentialPool</code> of the tables of the clusters.
+	 * May be <code>null</code>
+	 */
+	public TablePotentialPool getTablePool() {
+		return tablePool;
+	}
+
+	/**
+	 * With a pool, the clusters take the tables of their collected and
+	 * posterior potentials from it and return them when the evidence
+	 * changes, so that after the first evidence case the propagation of
+	 * probabilities in double precision hardly allocates tables of the size
+	 * of a clique. The potentials returned by
+	 * {@link ClusterOfVariables#getPosteriorPotential(StorageLevel)} are
+	 * then only valid until the evidence changes.
+	 *
+	 * @param tablePool <code>TablePotentialPool</code>. <code>null</code>
+	 *                  (the default) to create a new table for each result
+	 */
+	public void setTablePool(TablePotentialPool tablePool) {
+		this.tablePool = tablePool;
+		if (netCompiled) {
+			clusterForest.setTablePool(tablePool);
+		}
+	}
+
+	/**
+	 * Discards the messages and posterior potentials of the compiled forest,
+	 * keeping the evidence introduced.
+	 */
+	private void resetPropagation() {
+		if (netCompiled) {
+			for (ClusterOfVariables cluster : clusterForest.getNodes()) {
+				cluster.clearEvidence();
+			}
+			introduceEvidence(introducedEvidence);
+			isEvidencePropagated = false;
+		}
+	}
+
 	/**
 	 * @return storageLevel <code>StorageLevel</code>.
 	 */
@@ -353,12 +687,34 @@ public abstract class ClusterPropagation extends InferenceAlgorithm implements P
 	 * <code>probNet</code>
 	 */
 	public void compilePriorPotentials() {
+		try {
+			compilePriorPotentials(null);
+		} catch (IncompatibleEvidenceException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Creates a <code>ClusterForest</code> given the potentials stored in the
+	 * <code>probNet</code> projected on <code>projectedEvidence</code>. The
+	 * observed variables do not appear in the forest.
+	 *
+	 * @param projectedEvidence <code>EvidenceCase</code>. May be
+	 *                          <code>null</code>
+	 * @throws IncompatibleEvidenceException IncompatibleEvidenceException
+	 */
+	void compilePriorPotentials(EvidenceCase projectedEvidence) throws IncompatibleEvidenceException {
 		try {
 			//            ProbNet markovNet = probNet.getMarkovDecisionNetwork();
 			// TODO -FIX!!!
-			ProbNet markovNet = projectTablesAndBuildMarkovDecisionNetwork(probNet, null);
+			ProbNet markovNet = projectTablesAndBuildMarkovDecisionNetwork(probNet, projectedEvidence);
 			heuristic = heuristicFactory(markovNet);
 			clusterForest = createForest(markovNet, heuristic);
+			clusterForest.setParallelOptions(probNet.getInferenceOptions().getParallelOptions());
+			clusterForest.setPropagationScheme(propagationScheme);
+			clusterForest.setTableRepresentation(probNet.getInferenceOptions().getTableRepresentation());
+			clusterForest.setTablePool(tablePool);
+			introducedEvidence = new EvidenceCase();
 			// Multiply prior potentials in each clique to form one prior potential
 			for (ClusterOfVariables rootCluster : clusterForest.getRootClusters()) {
 				rootCluster.compilePriorPotentials();
@@ -366,8 +722,6 @@ public abstract class ClusterPropagation extends InferenceAlgorithm implements P
 			netCompiled = true;
 		} catch (DoEditException | NonProjectablePotentialException | WrongCriterionException e) {
 			e.printStackTrace();
-		} catch (IncompatibleEvidenceException e) {
-			e.printStackTrace();
 		}
 	}
 
@@ -381,9 +735,15 @@ public abstract class ClusterPropagation extends InferenceAlgorithm implements P
 		List<List<Variable>> variables;
 		variables = new ArrayList<>();
 		variables.add(markovNetwork.getChanceAndDecisionVariables());
-		EliminationHeuristic heuristic = null;
-		heuristic = new MinimalFillIn(markovNetwork, variables);
-		return heuristic;
+		return heuristicFactory.getHeuristic(markovNetwork, variables);
+	}
+
+	/**
+	 * @param heuristicFactory Creates the heuristic used to compile the
+	 *                         network. By default, <code>MinimalFillIn</code>
+	 */
+	public void setHeuristicFactory(HeuristicFactory heuristicFactory) {
+		this.heuristicFactory = heuristicFactory;
 	}
 
 	public String toString() {
@@ -423,4 +783,24 @@ public abstract class ClusterPropagation extends InferenceAlgorithm implements P
 		MEDIUM, // Medium storage = up going messages
 		FULL // Maximum storage = up going messages and posterior potentials.
 	}
+
+	/**
+	 * Way in which the evidence is distributed from a cluster to its children
+	 */
+	public enum PropagationScheme {
+		/**
+		 * Each clique keeps the potential obtained in the collect evidence
+		 * phase and its separator keeps the upgoing message. The posterior
+		 * potential of a child is its stored potential multiplied by the
+		 * marginal of the parent posterior divided by the stored separator:
+		 * one product per child.
+		 */
+		HUGIN,
+		/**
+		 * The message sent to each child is the product of the potentials of
+		 * the parent and the upgoing messages of the other children, without
+		 * divisions. A cluster with k children computes O(k^2) products.
+		 */
+		SHAFER_SHENOY
+	}
 }
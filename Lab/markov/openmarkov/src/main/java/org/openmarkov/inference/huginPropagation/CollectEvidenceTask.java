@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.inference.huginPropagation;
+
+import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.inference.huginPropagation.ClusterPropagation.StorageLevel;
+
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Collects the evidence of the subtree of a cluster, concurrently with the
+ * subtrees of its siblings.
+ */
+class CollectEvidenceTask extends RecursiveTask<TablePotential> {
+
+	private static final long serialVersionUID = 1L;
+
+	private final ClusterOfVariables cluster;
+
+	private final StorageLevel storageLevel;
+
+	/**
+	 * @param cluster      <code>ClusterOfVariables</code>
+	 * @param storageLevel <code>StorageLevel</code>
+	 */
+	CollectEvidenceTask(ClusterOfVariables cluster, StorageLevel storageLevel) {
+		this.cluster = cluster;
+		this.storageLevel = storageLevel;
+	}
+
+	@Override protected TablePotential compute() {
+		return cluster.collectEvidence(storageLevel);
+	}
+
+}
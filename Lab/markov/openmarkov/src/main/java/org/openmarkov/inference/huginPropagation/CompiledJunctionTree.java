@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.inference.huginPropagation;
+
+import org.openmarkov.core.exception.IncompatibleEvidenceException;
+import org.openmarkov.core.exception.NotEvaluableNetworkException;
+import org.openmarkov.core.inference.heuristic.HeuristicFactory;
+import org.openmarkov.core.model.network.EvidenceCase;
+import org.openmarkov.core.model.network.ProbNet;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.Potential;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A network compiled once into a <code>HuginForest</code>: triangulation,
+ * construction of the cliques and assignment and multiplication of the prior
+ * potentials. It is never propagated; each query creates a
+ * <code>HuginPropagation</code> with {@link #createPropagation()}, which
+ * copies only the structure of the forest and keeps its own evidence and
+ * messages. The network and the prior potentials are shared read-only, so
+ * the propagations can run concurrently in different threads.
+ * <pre>
+ * CompiledJunctionTree junctionTree = new CompiledJunctionTree(probNet);
+ * // for each request
+ * HuginPropagation propagation = junctionTree.createPropagation();
+ * propagation.setPostResolutionEvidence(evidence);
+ * propagation.getPosteriorValues();
+ * </pre>
+ */
+public class CompiledJunctionTree {
+
+	// Attributes
+	/**
+	 * Copy of the network received, shared by the propagations
+	 */
+	private final ProbNet probNet;
+
+	/**
+	 * Compiled forest. Its clusters are copied, never propagated
+	 */
+	private final ClusterForest clusterForest;
+
+	// Constructors
+
+	/**
+	 * Compiles <code>probNet</code> with the heuristic of
+	 * <code>HuginPropagation</code>
+	 *
+	 * @param probNet <code>ProbNet</code>
+	 * @throws NotEvaluableNetworkException NotEvaluableNetworkException
+	 */
+	public CompiledJunctionTree(ProbNet probNet) throws NotEvaluableNetworkException {
+		this(probNet, (HeuristicFactory) null);
+	}
+
+	/**
+	 * @param probNet          <code>ProbNet</code>
+	 * @param heuristicFactory Creates the elimination heuristic used to build
+	 *                         the junction tree. May be <code>null</code>
+	 * @throws NotEvaluableNetworkException NotEvaluableNetworkException
+	 */
+	public CompiledJunctionTree(ProbNet probNet, HeuristicFactory heuristicFactory)
+			throws NotEvaluableNetworkException {
+		HuginPropagation compiler = new HuginPropagation(probNet);
+		if (heuristicFactory != null) {
+			compiler.setHeuristicFactory(heuristicFactory);
+		}
+		compiler.compilePriorPotentials();
+		if (compiler.getClusterForest() == null) {
+			throw new NotEvaluableNetworkException("The network " + probNet.getName() + " can not be compiled.");
+		}
+		this.probNet = compiler.getProbNet();
+		this.clusterForest = compiler.getClusterForest();
+	}
+
+	/**
+	 * Compiles <code>probNet</code> with the findings of <code>evidence</code>
+	 * projected into its potentials. The observed variables do not appear in
+	 * the junction tree, whose cliques are usually much smaller than those of
+	 * the network without evidence, but all the propagations created by this
+	 * junction tree have that evidence and can not receive findings for those
+	 * variables.
+	 *
+	 * @param probNet          <code>ProbNet</code>
+	 * @param evidence         <code>EvidenceCase</code>. May be
+	 *                         <code>null</code>
+	 * @param heuristicFactory Creates the elimination heuristic used to build
+	 *                         the junction tree. May be <code>null</code>
+	 * @throws NotEvaluableNetworkException  NotEvaluableNetworkException
+	 * @throws IncompatibleEvidenceException when a potential projected on all
+	 *                                       its variables is 0
+	 */
+	public CompiledJunctionTree(ProbNet probNet, EvidenceCase evidence, HeuristicFactory heuristicFactory)
+			throws NotEvaluableNetworkException, IncompatibleEvidenceException {
+		HuginPropagation compiler = new HuginPropagation(probNet);
+		if (heuristicFactory != null) {
+			compiler.setHeuristicFactory(heuristicFactory);
+		}
+		compiler.compilePriorPotentials(evidence);
+		if (compiler.getClusterForest() == null) {
+			throw new NotEvaluableNetworkException("The network " + probNet.getName() + " can not be compiled.");
+		}
+		this.probNet = compiler.getProbNet();
+		this.clusterForest = compiler.getClusterForest();
+	}
+
+	/**
+	 * Shares a forest already compiled by a propagation. The forest must not
+	 * be propagated while this junction tree is used.
+	 *
+	 * @param probNet       Network compiled in <code>clusterForest</code>
+	 * @param clusterForest <code>ClusterForest</code> with the prior potentials
+	 *                      compiled
+	 */
+	CompiledJunctionTree(ProbNet probNet, ClusterForest clusterForest) {
+		this.probNet = probNet;
+		this.clusterForest = clusterForest;
+	}
+
+	// Methods
+
+	/**
+	 * @return A new propagation, without evidence, over this junction tree
+	 * @throws NotEvaluableNetworkException NotEvaluableNetworkException
+	 */
+	public HuginPropagation createPropagation() throws NotEvaluableNetworkException {
+		return new HuginPropagation(this);
+	}
+
+	/**
+	 * @return The copy of the network compiled. It must not be modified
+	 */
+	public ProbNet getProbNet() {
+		return probNet;
+	}
+
+	/**
+	 * @return The compiled forest. It must not be propagated
+	 */
+	ClusterForest getClusterForest() {
+		return clusterForest;
+	}
+
+	/**
+	 * @return Sum of the sizes of the clusters, which is proportional to the
+	 * cost of a propagation
+	 */
+	public long getSize() {
+		long size = 0;
+		for (ClusterOfVariables rootCluster : clusterForest.getRootClusters()) {
+			size += rootCluster.subtreeSize();
+		}
+		return size;
+	}
+
+	/**
+	 * Estimates the size of the junction tree compiled with the findings of
+	 * the observed variables projected, without projecting the potentials:
+	 * the variables not observed are eliminated from the moral graph of the
+	 * network by the minimal fill-in criterion of the compilation.
+	 *
+	 * @param observedVariables variables whose findings would be projected
+	 * @return Sum of the sizes of the cliques created by the elimination that
+	 * are not contained in a previous one
+	 */
+	public long getProjectedSize(Collection<Variable> observedVariables) {
+		Map<Variable, Set<Variable>> neighbours = new LinkedHashMap<>();
+		for (Potential potential : probNet.getPotentials()) {
+			List<Variable> variables = new ArrayList<>(potential.getVariables());
+			variables.removeAll(observedVariables);
+			for (Variable variable : variables) {
+				Set<Variable> variableNeighbours = neighbours.get(variable);
+				if (variableNeighbours == null) {
+					variableNeighbours = new HashSet<>();
+					neighbours.put(variable, variableNeighbours);
+				}
+				variableNeighbours.addAll(variables);
+				variableNeighbours.remove(variable);
+			}
+		}
+		List<Set<Variable>> cliques = new ArrayList<>();
+		double size = 0;
+		while (!neighbours.isEmpty()) {
+			Variable variableToDelete = null;
+			int minimalFillIn = Integer.MAX_VALUE;
+			for (Map.Entry<Variable, Set<Variable>> entry : neighbours.entrySet()) {
+				int fillIn = getFillIn(entry.getValue(), neighbours);
+				if (fillIn < minimalFillIn) {
+					variableToDelete = entry.getKey();
+					minimalFillIn = fillIn;
+				}
+			}
+			Set<Variable> cliqueNeighbours = neighbours.remove(variableToDelete);
+			Set<Variable> clique = new HashSet<>(cliqueNeighbours);
+			clique.add(variableToDelete);
+			boolean contained = false;
+			for (Set<Variable> previousClique : cliques) {
+				contained |= previousClique.containsAll(clique);
+			}
+			if (!contained) {
+				cliques.add(clique);
+				double cliqueSize = 1;
+				for (Variable variable : clique) {
+					cliqueSize *= variable.getNumStates();
+				}
+				size += cliqueSize;
+			}
+			for (Variable neighbour : cliqueNeighbours) {
+				Set<Variable> variableNeighbours = neighbours.get(neighbour);
+				variableNeighbours.remove(variableToDelete);
+				variableNeighbours.addAll(cliqueNeighbours);
+				variableNeighbours.remove(neighbour);
+			}
+		}
+		return (long) Math.min(size, Long.MAX_VALUE);
+	}
+
+	/**
+	 * @return Number of links added between <code>variableNeighbours</code>
+	 * when their variable is eliminated
+	 */
+	private static int getFillIn(Set<Variable> variableNeighbours, Map<Variable, Set<Variable>> neighbours) {
+		int fillIn = 0;
+		for (Variable neighbour : variableNeighbours) {
+			for (Variable otherNeighbour : variableNeighbours) {
+				if (neighbour != otherNeighbour && !neighbours.get(neighbour).contains(otherNeighbour)) {
+					fillIn++;
+				}
+			}
+		}
+		return fillIn / 2;
+	}
+
+}
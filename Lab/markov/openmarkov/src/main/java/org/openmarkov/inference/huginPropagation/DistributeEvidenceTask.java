@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.inference.huginPropagation;
+
+import org.openmarkov.inference.huginPropagation.ClusterPropagation.StorageLevel;
+
+import java.util.Set;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Absorbs the evidence of the parent of a cluster and distributes it to the
+ * subtree of the cluster, concurrently with the subtrees of its siblings.
+ */
+class DistributeEvidenceTask extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	private final ClusterOfVariables cluster;
+
+	/**
+	 * <code>null</code> when <code>cluster</code> is a root, whose posterior
+	 * potential is already set
+	 */
+	private final ClusterOfVariables parent;
+
+	private final StorageLevel storageLevel;
+
+	/**
+	 * Clusters of the subtree that must receive the evidence, with their
+	 * ancestors; <code>null</code> for all of them
+	 */
+	private final Set<ClusterOfVariables> clusters;
+
+	/**
+	 * @param cluster      <code>ClusterOfVariables</code>
+	 * @param parent       <code>ClusterOfVariables</code>. May be
+	 *                     <code>null</code>
+	 * @param storageLevel <code>StorageLevel</code>
+	 */
+	DistributeEvidenceTask(ClusterOfVariables cluster, ClusterOfVariables parent, StorageLevel storageLevel) {
+		this(cluster, parent, storageLevel, null);
+	}
+
+	/**
+	 * @param cluster      <code>ClusterOfVariables</code>
+	 * @param parent       <code>ClusterOfVariables</code>. May be
+	 *                     <code>null</code>
+	 * @param storageLevel <code>StorageLevel</code>
+	 * @param clusters     clusters that must receive the evidence, with
+	 *                     their ancestors. The clusters that have already
+	 *                     received it do not absorb it again. May be
+	 *                     <code>null</code> to distribute it to the whole
+	 *                     subtree
+	 */
+	DistributeEvidenceTask(ClusterOfVariables cluster, ClusterOfVariables parent, StorageLevel storageLevel,
+			Set<ClusterOfVariables> clusters) {
+		this.cluster = cluster;
+		this.parent = parent;
+		this.storageLevel = storageLevel;
+		this.clusters = clusters;
+	}
+
+	@Override protected void compute() {
+		if (clusters == null) {
+			if (parent != null) {
+				cluster.absorbEvidence(parent, storageLevel);
+			}
+			cluster.distributeEvidence(storageLevel);
+		} else {
+			if (parent != null && !cluster.isEvidenceDistributed()) {
+				cluster.absorbEvidence(parent, storageLevel);
+			}
+			cluster.distributeEvidence(storageLevel, clusters);
+		}
+	}
+
+}
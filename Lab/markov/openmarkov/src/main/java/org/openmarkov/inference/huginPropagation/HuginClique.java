@@ -7,19 +7,28 @@
 
 package org.openmarkov.inference.huginPropagation;
 
+import org.openmarkov.core.inference.TableRepresentation;
 import org.openmarkov.core.model.network.Variable;
 import org.openmarkov.core.model.network.potential.Potential;
+import org.openmarkov.core.model.network.potential.PotentialRole;
 import org.openmarkov.core.model.network.potential.TablePotential;
 import org.openmarkov.core.model.network.potential.operation.DiscretePotentialOperations;
+import org.openmarkov.core.model.network.potential.operation.PotentialOperationPlan;
+import org.openmarkov.core.model.network.potential.operation.PotentialOperationsDispatcher;
+import org.openmarkov.core.model.network.potential.operation.TablePotentialPool;
+import org.openmarkov.inference.huginPropagation.ClusterPropagation.PropagationScheme;
 import org.openmarkov.inference.huginPropagation.ClusterPropagation.StorageLevel;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Contains a set of variables. The main difference with
  * openmarkov.inference.ClusterOfVariables is in method
- * openmarkov.inference.ClusterOfVariables#distributeEvidence
+ * openmarkov.inference.ClusterOfVariables#absorbEvidence, that uses a
+ * division by the separator potential instead of the upgoing messages of the
+ * other children of the parent, unless the Shafer-Shenoy scheme is selected
  *
  * @author marias
  * @author fjdiez
@@ -40,23 +49,83 @@ public class HuginClique extends ClusterOfVariables {
 		this.separatorVariables = separatorVariables;
 	}
 
+	/**
+	 * @param huginForest <code>HuginForest</code>
+	 * @param huginClique <code>HuginClique</code> of another forest, whose
+	 *                    variables, separator and prior potentials are shared
+	 */
+	public HuginClique(HuginForest huginForest, HuginClique huginClique) {
+		super(huginForest, huginClique);
+	}
+
 	// Methods
 
 	/**
-	 * @param storageLevel <code>int</code>
+	 * Multiplies the potential of this clique stored in the collect evidence
+	 * phase by the marginal of the parent posterior potential onto the
+	 * separator divided by the upgoing message, which is the potential stored
+	 * in the separator. The marginal of the parent posterior is stored as the
+	 * new separator potential in <code>downgoingMessage</code>. In
+	 * {@link TableRepresentation#LOG} the division is the addition of the
+	 * opposite of the logarithms of the separator potential. When the forest
+	 * has a pool of tables, the quotient and the posterior potential are
+	 * stored in tables of the pool.
+	 *
+	 * @param parent       <code>ClusterOfVariables</code>
+	 * @param storageLevel <code>StorageLevel</code>
+	 */
+	protected void absorbEvidence(ClusterOfVariables parent, StorageLevel storageLevel) {
+		if (getPropagationScheme() == PropagationScheme.SHAFER_SHENOY) {
+			super.absorbEvidence(parent, storageLevel);
+			return;
+		}
+		Potential separatorPotential = getUpgoingMessage(storageLevel);
+		List<TablePotential> parentPosterior = Collections.singletonList(parent.posteriorPotential);
+		downgoingPlan = PotentialOperationPlan.marginalization(parentPosterior, separatorVariables, downgoingPlan);
+		TableRepresentation representation = getTableRepresentation();
+		setDowngoingPotential(PotentialOperationsDispatcher
+				.execute(downgoingPlan, parentPosterior, getParallelOptions(), representation));
+		List<TablePotential> potentials = new ArrayList<TablePotential>();
+		TablePotentialPool pool = getTablePool();
+		TablePotential quotient = null;
+		if (representation == TableRepresentation.LOG) {
+			potentials.add(downgoingMessage);
+			potentials.add(getOppositeLogarithms((TablePotential) separatorPotential));
+		} else if (pool != null) {
+			quotient = pool.acquire(downgoingMessage.getVariables(), PotentialRole.JOINT_PROBABILITY);
+			System.arraycopy(downgoingMessage.values, 0, quotient.values, 0, quotient.values.length);
+			potentials.add(DiscretePotentialOperations.divideInto(quotient, (TablePotential) separatorPotential));
+		} else {
+			potentials.add(PotentialOperationsDispatcher
+					.divide(downgoingMessage, separatorPotential, getParallelOptions()));
+		}
+		TablePotential collected = getCollectedPotential(storageLevel);
+		potentials.add(collected);
+		absorptionPlan = PotentialOperationPlan.multiplication(potentials, absorptionPlan);
+		setAbsorbedPosteriorPotential(absorptionPlan, potentials);
+		if (pool != null) {
+			pool.release(quotient);
+			if (collected != collectedPotential) {
+				// the collected potential is not stored
+				pool.release(collected);
+			}
+		}
+	}
+
+	/**
+	 * @param logarithms potential whose values are logarithms
+	 * @return The logarithms of the inverses of the values. The logarithm of
+	 * 0 is kept, because the quotient of a division by 0 is 0
 	 */
-	public void distributeEvidence(StorageLevel storageLevel) {
-		for (ClusterOfVariables childClique : getChildren()) {
-			Potential upgoingChildMessage = childClique.getUpgoingMessage(storageLevel);
-			Potential posteriorMarginalized = DiscretePotentialOperations
-					.marginalize(posteriorPotential, childClique.getSeparatorVariables());
-			TablePotential division = DiscretePotentialOperations.divide(posteriorMarginalized, upgoingChildMessage);
-			List<TablePotential> potentials = new ArrayList<TablePotential>();
-			potentials.add(division);
-			potentials.add(childClique.getPosteriorPotential(storageLevel));
-			childClique.setPosteriorPotential(DiscretePotentialOperations.multiply(potentials));
-			childClique.distributeEvidence(storageLevel);
+	private static TablePotential getOppositeLogarithms(TablePotential logarithms) {
+		TablePotential opposite = new TablePotential(logarithms);
+		double[] values = opposite.values;
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] != Double.NEGATIVE_INFINITY) {
+				values[i] = -values[i];
+			}
 		}
+		return opposite;
 	}
 
 	/**
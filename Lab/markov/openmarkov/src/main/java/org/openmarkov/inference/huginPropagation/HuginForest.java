@@ -125,8 +125,35 @@ public class HuginForest extends ClusterForest {
 		this.markovNet.getPNESupport().removeUndoableEditListener(heuristic);
 	}
 
+	/**
+	 * Creates a <code>HuginForest</code> with the structure and the prior
+	 * potentials of <code>huginForest</code>, without evidence nor messages.
+	 *
+	 * @param huginForest <code>HuginForest</code>.
+	 */
+	protected HuginForest(HuginForest huginForest) {
+		super();
+		orphanCliques = new HashMap<Variable, List<HuginClique>>();
+		Map<ClusterOfVariables, ClusterOfVariables> copies = copyClusters(huginForest);
+		for (Map.Entry<Variable, List<HuginClique>> entry : huginForest.orphanCliques.entrySet()) {
+			List<HuginClique> cliqueList = new ArrayList<HuginClique>();
+			for (HuginClique orphanClique : entry.getValue()) {
+				cliqueList.add((HuginClique) copies.get(orphanClique));
+			}
+			orphanCliques.put(entry.getKey(), cliqueList);
+		}
+	}
+
 	// Methods
 
+	@Override public ClusterForest copyStructure() {
+		return new HuginForest(this);
+	}
+
+	@Override protected ClusterOfVariables copyCluster(ClusterOfVariables cluster) {
+		return new HuginClique(this, (HuginClique) cluster);
+	}
+
 	/**
 	 * @return The set of cliques = rootCliques + its children (recursively) +
 	 * orphan cliques (<code>ArrayList</code> of <code>Node</code>s).
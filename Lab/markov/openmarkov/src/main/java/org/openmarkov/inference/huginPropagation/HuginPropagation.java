@@ -10,25 +10,34 @@ package org.openmarkov.inference.huginPropagation;
 import org.openmarkov.core.exception.ConstraintViolationException;
 import org.openmarkov.core.exception.DoEditException;
 import org.openmarkov.core.exception.IncompatibleEvidenceException;
+import org.openmarkov.core.exception.NodeNotFoundException;
 import org.openmarkov.core.exception.NonProjectablePotentialException;
 import org.openmarkov.core.exception.NotEvaluableNetworkException;
 import org.openmarkov.core.exception.UnexpectedInferenceException;
 import org.openmarkov.core.exception.WrongCriterionException;
+import org.openmarkov.core.inference.ParallelOptions;
 import org.openmarkov.core.inference.annotation.InferenceAnnotation;
 import org.openmarkov.core.inference.heuristic.EliminationHeuristic;
+import org.openmarkov.core.inference.tasks.BatchPropagation;
 import org.openmarkov.core.inference.tasks.Propagation;
+import org.openmarkov.core.inference.tasks.TaskUtilities;
+import org.openmarkov.core.io.database.CaseDatabase;
+import org.openmarkov.core.model.network.EvidenceCase;
 import org.openmarkov.core.model.network.Node;
 import org.openmarkov.core.model.network.ProbNet;
 import org.openmarkov.core.model.network.Variable;
 import org.openmarkov.core.model.network.constraint.PNConstraint;
 import org.openmarkov.core.model.network.potential.StrategyTree;
 import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations;
 import org.openmarkov.core.model.network.type.BayesianNetworkType;
 import org.openmarkov.core.model.network.type.NetworkType;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Create objects for Hugin algorithm inference. This class is nearly empty
@@ -40,7 +49,7 @@ import java.util.List;
  * @version 1.0
  * @since OpenMarkov 1.0
  */
-@InferenceAnnotation(name = "HuginPropagation") public class HuginPropagation extends ClusterPropagation implements Propagation {
+@InferenceAnnotation(name = "HuginPropagation") public class HuginPropagation extends ClusterPropagation implements Propagation, BatchPropagation {
 	// Constructor
 
 	/**
@@ -51,6 +60,18 @@ import java.util.List;
 		super(probNet);
 	}
 
+	/**
+	 * Creates a propagation over a network compiled before. Many instances,
+	 * even in different threads, can share the same
+	 * <code>CompiledJunctionTree</code>.
+	 *
+	 * @param junctionTree <code>CompiledJunctionTree</code>
+	 * @throws NotEvaluableNetworkException NotEvaluableNetworkException
+	 */
+	public HuginPropagation(CompiledJunctionTree junctionTree) throws NotEvaluableNetworkException {
+		super(junctionTree);
+	}
+
 	/// Is it deprecated?
 	public static void checkEvaluability(ProbNet probNet) throws NotEvaluableNetworkException {
 		if (!probNet.getNetworkType().equals(BayesianNetworkType.getUniqueInstance()))
@@ -130,4 +151,85 @@ import java.util.List;
 	public void setVariablesOfInterest(List<Variable> variablesOfInterest) {
 
 	}
+
+	/**
+	 * Compiles the network once and propagates each group of cases with the
+	 * same observed variables in its own copy of the forest. The cases of a
+	 * group are sorted by the states of the findings and the propagation is
+	 * incremental, so each case only recomputes the messages affected by the
+	 * findings that differ from the previous case. The groups are split so
+	 * that every worker of the pool of the concurrent operations has some of
+	 * them.
+	 */
+	@Override public List<HashMap<Variable, TablePotential>> getPosteriorValues(
+			final List<EvidenceCase> evidenceCases, final List<Variable> variablesOfInterest)
+			throws NotEvaluableNetworkException {
+		if (!netCompiled) {
+			compilePriorPotentials();
+		}
+		CompiledJunctionTree junctionTree = new CompiledJunctionTree(probNet, clusterForest);
+		final List<HashMap<Variable, TablePotential>> posteriorValues = new ArrayList<>(
+				Collections.<HashMap<Variable, TablePotential>>nCopies(evidenceCases.size(), null));
+
+		ParallelOptions parallelOptions = clusterForest.getParallelOptions();
+		int parallelism = DiscretePotentialOperations.getPool().getParallelism();
+		boolean concurrent = parallelOptions != null && parallelOptions.isParallelPropagation() && parallelism > 1;
+		int maxGroupSize = Math.max(1, evidenceCases.size());
+		if (concurrent) {
+			int numTasks = parallelism * DiscretePotentialOperations.tasksPerThread;
+			maxGroupSize = Math.max(1, (evidenceCases.size() + numTasks - 1) / numTasks);
+		}
+
+		List<RecursiveAction> tasks = new ArrayList<>();
+		for (final List<Integer> group : TaskUtilities.groupByEvidenceVariables(evidenceCases, maxGroupSize)) {
+			final HuginPropagation propagation = junctionTree.createPropagation();
+			propagation.setStorageLevel(storageLevel);
+			try {
+				propagation.setPreResolutionEvidence(getPreResolutionEvidence());
+			} catch (IncompatibleEvidenceException e) {
+				// Can not happen: this propagation has accepted the same evidence
+			}
+			tasks.add(new RecursiveAction() {
+				@Override protected void compute() {
+					propagation.propagateGroup(evidenceCases, group, variablesOfInterest, posteriorValues);
+				}
+			});
+		}
+		if (concurrent && tasks.size() > 1) {
+			DiscretePotentialOperations.invokeAll(tasks);
+		} else {
+			for (RecursiveAction task : tasks) {
+				task.invoke();
+			}
+		}
+		return posteriorValues;
+	}
+
+	@Override public List<HashMap<Variable, TablePotential>> getPosteriorValues(CaseDatabase database,
+			boolean[] observed, List<Variable> variablesOfInterest)
+			throws NotEvaluableNetworkException, NodeNotFoundException {
+		return getPosteriorValues(TaskUtilities.getEvidenceCases(probNet, database, observed), variablesOfInterest);
+	}
+
+	/**
+	 * Propagates, one after another, the cases of a group.
+	 *
+	 * @param evidenceCases       all the cases of the batch
+	 * @param group               indexes of the cases propagated
+	 * @param variablesOfInterest <code>List</code> of <code>Variable</code>
+	 * @param posteriorValues     receives the posterior values of each case
+	 *                            of the group, or <code>null</code> if its
+	 *                            evidence is incompatible
+	 */
+	private void propagateGroup(List<EvidenceCase> evidenceCases, List<Integer> group,
+			List<Variable> variablesOfInterest, List<HashMap<Variable, TablePotential>> posteriorValues) {
+		for (int caseIndex : group) {
+			try {
+				updatePostResolutionEvidence(evidenceCases.get(caseIndex));
+				posteriorValues.set(caseIndex, getPosteriorValues(variablesOfInterest));
+			} catch (IncompatibleEvidenceException e) {
+				posteriorValues.set(caseIndex, null);
+			}
+		}
+	}
 }
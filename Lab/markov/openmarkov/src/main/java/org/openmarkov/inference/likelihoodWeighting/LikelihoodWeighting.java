@@ -12,7 +12,6 @@ import org.openmarkov.core.inference.tasks.Propagation;
 import org.openmarkov.core.model.network.ProbNet;
 import org.openmarkov.core.model.network.Variable;
 import org.openmarkov.core.model.network.modelUncertainty.XORShiftRandom;
-import org.openmarkov.core.model.network.potential.Potential;
 
 import java.util.*;
 
@@ -34,63 +33,34 @@ public class LikelihoodWeighting extends StochasticPropagation implements Propag
     }
 
 	@Override
-	protected double[] getValuesSampledAndWeight() {
-
-        // The configuration of the net, the states of all the variables
-        HashMap<Variable, Integer> configuration = new HashMap<>();
-        // The states of only the sampled variables
-        double[] valuesSampledAndWeight = new double[variablesToSample.size() + 1];
-
-        int indexOfVariableToSample = 0;
-        for (Variable variable : sortedVariables) {
+	protected double sample(int[] configuration, Random randomGenerator) {
 
+        for (int indexOfVariable = 0; indexOfVariable < configuration.length; indexOfVariable++) {
             // Set in the configuration the findings
-            if (fusedEvidence.contains(variable)) {
-                int finding = fusedEvidence.getFinding(variable).getStateIndex();
-                configuration.put(variable, finding);
+            if (evidenceStates[indexOfVariable] != -1) {
+                configuration[indexOfVariable] = evidenceStates[indexOfVariable];
 
             // Set in the configuration the sampled states
             } else {
-                // Extract potential
-                Potential potential = probNet.getNode(variable).getPotentials().get(0);
-
-                // Sample
-                int stateSampled = potential.sampleConditionedVariable(randomGenerator, configuration);
-                configuration.put(variable, stateSampled);
-                valuesSampledAndWeight[indexOfVariableToSample] = stateSampled;
-                indexOfVariableToSample++;
+                configuration[indexOfVariable] = samplingPlan.sample(indexOfVariable, configuration,
+                        randomGenerator.nextDouble());
             }
         }
 
-		/// Extract potentials to compute weight
-		List<Potential> potentialsOfEvidence = new ArrayList<>();
-        List<Variable> variablesOfEvidence = fusedEvidence.getVariables();
-
-		for (Variable variable : variablesOfEvidence) {
-			try {
-				potentialsOfEvidence.add(probNet.getNode(variable).getPotentials().get(0));
-			} catch (NullPointerException e) {
-			    logger.error("Variable " + variable.getName() + " has no Potential");
-			    // Send the name of the variable without potential to GUI
-				throw new NullPointerException(variable.getName());
-			}
-		}
-
 		// Weight by conditional probabilities of evidence findings
 		double weight = 1.0;
-		for (Potential potential : potentialsOfEvidence) {
+		for (int indexOfVariable : evidenceIndexes) {
 			// [Iñigo] Ignore potentials that belong to parentless nodes as they are constant across samples
 
 			// [Iago] It means: don't enter if parentless evidence node with P(sample) != 0. It is rebasing
             // the maximum weight to 1 in the case of a common factor reducing every sample
             // (parentless evidence node case).
-			if (potential.getVariables().size() > 1 || potential.getProbability(configuration) == 0) {
-				weight *= potential.getProbability(configuration);
+			double probability = samplingPlan.getProbability(indexOfVariable, configuration);
+			if (!samplingPlan.isRoot(indexOfVariable) || probability == 0) {
+				weight *= probability;
 			}
 		}
-        valuesSampledAndWeight[variablesToSample.size()] = weight;
-
-		return valuesSampledAndWeight;
+		return weight;
 	}
 
 	@Override
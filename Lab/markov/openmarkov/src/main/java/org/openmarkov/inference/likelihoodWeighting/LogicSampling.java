@@ -12,7 +12,6 @@ import org.openmarkov.core.inference.tasks.Propagation;
 import org.openmarkov.core.model.network.ProbNet;
 import org.openmarkov.core.model.network.Variable;
 import org.openmarkov.core.model.network.modelUncertainty.XORShiftRandom;
-import org.openmarkov.core.model.network.potential.Potential;
 
 import java.util.*;
 
@@ -36,47 +35,28 @@ public class LogicSampling extends StochasticPropagation implements Propagation
     /**
      * Creates a random state of the net sampling every node. Then weights this state against the evidence case
      * stored in {@code evidence} (In Logic Sampling, matching sampled evidence variable with the findings.)
-     * Last, stores in an array the net state (ordered by variable ancestrally) and the weight and returns it.
      *
-     *
-     * @return a double array that includes first the samples of every sampled variable, ordered ancestrally
-     * and last the weight of the state of the net resulting from that sample configuration.
+     * @param configuration overwritten with the state sampled for every variable, ordered ancestrally.
+     * @param randomGenerator the random numbers for the sample.
+     * @return the weight of the state of the net resulting from that sample configuration.
      */
     @Override
-    protected double[] getValuesSampledAndWeight() {
-
-        HashMap<Variable, Integer> netState = new HashMap<>();
-
-        double[] valuesAndWeight = new double[variablesToSample.size() + 1];
-
-        for (int indexOfVariable = 0; indexOfVariable < variablesToSample.size(); indexOfVariable++) {
-
-            // Extract potential
-            Potential potential = probNet.getNode(variablesToSample.get(indexOfVariable)).getPotentials().get(0);
+    protected double sample(int[] configuration, Random randomGenerator) {
 
-            // Sample
-            int stateSampled = potential.sampleConditionedVariable(randomGenerator, netState);
-            netState.put(potential.getVariable(0), stateSampled);
-            valuesAndWeight[indexOfVariable] = stateSampled;
+        for (int indexOfVariable = 0; indexOfVariable < configuration.length; indexOfVariable++) {
+            configuration[indexOfVariable] = samplingPlan.sample(indexOfVariable, configuration,
+                    randomGenerator.nextDouble());
         }
 
-        // List of findings
-
         // Weight matching sampled evidence variable with the findings
-        List<Variable> variablesOfEvidence = fusedEvidence.getVariables();
         double weight = 1.0;
-        for (Variable variable : variablesOfEvidence) {
-
-            Integer finding = fusedEvidence.getFinding(variable).getStateIndex();
-            if (!netState.get(variable).equals(finding)) {
+        for (int indexOfVariable : evidenceIndexes) {
+            if (configuration[indexOfVariable] != evidenceStates[indexOfVariable]) {
                 weight = 0;
                 break;
             }
-
         }
-        valuesAndWeight[variablesToSample.size()] = weight;
-
-        return valuesAndWeight;
+        return weight;
     }
 
     @Override
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+package org.openmarkov.inference.likelihoodWeighting;
+
+import org.apache.commons.math3.random.SobolSequenceGenerator;
+
+import java.util.Random;
+
+/**
+ * The uniform numbers of a {@link UniformSource} for a sequence of samples.
+ * Before drawing a sample, {@link #startSample(int)} positions the generator
+ * at the point of the sequence that corresponds to the sample; then
+ * {@link #nextDouble()} returns its coordinates, one per call. Each number
+ * only depends on the seed, the index of the sample and its dimension, so the
+ * blocks of samples of a parallel propagation can be drawn by different
+ * generators with the same seed and the result is the same as that of a
+ * single generator.
+ * <p>
+ * A generator is used by one thread.
+ */
+@SuppressWarnings("serial") public class QuasiRandomGenerator extends Random {
+
+    /**
+     * Number of dimensions of the Sobol sequence.
+     */
+    public static final int MAX_SOBOL_DIMENSION = 1000;
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    private static final double SOBOL_SCALE = 0x1.0p52;
+
+    private final UniformSource source;
+
+    // number of samples of the Latin hypercube
+    private final int sampleSize;
+
+    private final long seed;
+
+    private final SobolSequenceGenerator sobolSequence;
+
+    // digital shift of each dimension of the Sobol sequence
+    private final long[] shifts;
+
+    // index of the point that sobolSequence returns next
+    private int nextSobolIndex;
+
+    private double[] sobolPoint;
+
+    private int sampleIndex;
+
+    private int dimension;
+
+    /**
+     * @param source     {@link UniformSource#SOBOL} or
+     *                   {@link UniformSource#LATIN_HYPERCUBE}
+     * @param dimension  number of numbers per sample; the Sobol sequence has
+     *                   at most {@value #MAX_SOBOL_DIMENSION}
+     * @param sampleSize number of samples
+     * @param seed       seed of the scrambling of the sequence
+     */
+    public QuasiRandomGenerator(UniformSource source, int dimension, int sampleSize, long seed) {
+        this.source = source;
+        this.sampleSize = sampleSize;
+        this.seed = seed;
+        int sobolDimension = Math.min(dimension, MAX_SOBOL_DIMENSION);
+        if (source == UniformSource.SOBOL && sobolDimension > 0) {
+            sobolSequence = new SobolSequenceGenerator(sobolDimension);
+            shifts = new long[sobolDimension];
+            for (int i = 0; i < sobolDimension; i++) {
+                shifts[i] = mix64(seed + (i + 1) * GOLDEN_GAMMA) >>> 12;
+            }
+        } else {
+            sobolSequence = null;
+            shifts = new long[0];
+        }
+        nextSobolIndex = 0;
+    }
+
+    /**
+     * Positions the generator at the first number of a sample.
+     *
+     * @param sampleIndex index of the sample
+     */
+    public void startSample(int sampleIndex) {
+        this.sampleIndex = sampleIndex;
+        dimension = 0;
+        if (sobolSequence != null) {
+            sobolPoint = (sampleIndex == nextSobolIndex) ?
+                    sobolSequence.nextVector() :
+                    sobolSequence.skipTo(sampleIndex);
+            nextSobolIndex = sampleIndex + 1;
+        }
+    }
+
+    /**
+     * @return The number of the current sample in the next dimension
+     */
+    @Override
+    public double nextDouble() {
+        int currentDimension = dimension++;
+        if (currentDimension < shifts.length) {
+            long bits = (long) (sobolPoint[currentDimension] * SOBOL_SCALE);
+            return (bits ^ shifts[currentDimension]) / SOBOL_SCALE;
+        }
+        long dimensionSeed = mix64(seed + (currentDimension + 1) * GOLDEN_GAMMA);
+        double random = (mix64(dimensionSeed + sampleIndex) >>> 11) * DOUBLE_UNIT;
+        if (source == UniformSource.LATIN_HYPERCUBE && sampleIndex < sampleSize) {
+            int stratum = permute(sampleIndex, sampleSize, (int) (dimensionSeed >>> 32));
+            return Math.min((stratum + random) / sampleSize, Math.nextDown(1.0));
+        }
+        return random;
+    }
+
+    @Override
+    protected int next(int bits) {
+        return (int) ((long) (nextDouble() * 0x1.0p32) >>> (32 - bits));
+    }
+
+    /**
+     * @param z a number
+     * @return A number whose bits depend on all those of <code>z</code>, as
+     * in <code>java.util.SplittableRandom</code>
+     */
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Computes a pseudo-random permutation of the numbers from 0 to
+     * <code>length - 1</code> without storing it: the hash of Kensler
+     * (Correlated Multi-Jittered Sampling, 2013) permutes the numbers below
+     * the next power of two and is applied again to the images not smaller
+     * than <code>length</code>.
+     *
+     * @param index  number permuted
+     * @param length number of elements of the permutation
+     * @param seed   chooses the permutation
+     * @return The image of <code>index</code>
+     */
+    private static int permute(int index, int length, int seed) {
+        int mask = length - 1;
+        mask |= mask >>> 1;
+        mask |= mask >>> 2;
+        mask |= mask >>> 4;
+        mask |= mask >>> 8;
+        mask |= mask >>> 16;
+        int i = index;
+        do {
+            i ^= seed;
+            i *= 0xe170893d;
+            i ^= seed >>> 16;
+            i ^= (i & mask) >>> 4;
+            i ^= seed >>> 8;
+            i *= 0x0929eb3f;
+            i ^= seed >>> 23;
+            i ^= (i & mask) >>> 1;
+            i *= 1 | seed >>> 27;
+            i *= 0x6935fa69;
+            i ^= (i & mask) >>> 11;
+            i *= 0x74dcb303;
+            i ^= (i & mask) >>> 2;
+            i *= 0x9e501cc3;
+            i ^= (i & mask) >>> 2;
+            i *= 0xc860a3df;
+            i &= mask;
+            i ^= i >>> 5;
+        } while (i >= length);
+        return (int) ((i + (seed & 0xffffffffL)) % length);
+    }
+
+}
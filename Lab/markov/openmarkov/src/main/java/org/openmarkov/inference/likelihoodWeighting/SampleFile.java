@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+package org.openmarkov.inference.likelihoodWeighting;
+
+import org.openmarkov.core.exception.NodeNotFoundException;
+import org.openmarkov.core.model.network.ProbNet;
+import org.openmarkov.core.model.network.Variable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the samples of a stochastic propagation to a file as they are drawn,
+ * so the memory used does not depend on the number of samples. The file
+ * contains a header, with the names of the sampled variables, the number of
+ * samples and the bytes used by each state, followed by the chunks of samples
+ * in the order they were drawn; each chunk starts with the index of its first
+ * sample and its number of samples. The number of samples in the header is
+ * updated when the propagation ends, and the chunks discarded by the
+ * propagation are skipped by {@link #read}, which gives the samples of a file
+ * to another {@link SampleSink}.
+ * <p>
+ * The errors writing the file are thrown as {@link UncheckedIOException}.
+ */
+public class SampleFile implements SampleSink {
+
+    private static final int MAGIC_NUMBER = 0x4F4D5346;
+
+    private final File file;
+    private DataOutputStream output;
+    private int numVariables;
+    private int bytesPerState;
+    // position of the number of samples in the file
+    private long sampleSizePosition;
+
+    /**
+     * @param file file where the samples are written. It is overwritten each
+     *             time the propagation runs
+     */
+    public SampleFile(File file) {
+        this.file = file;
+    }
+
+    @Override
+    public void open(List<Variable> sampledVariables, int sampleSize) {
+        numVariables = sampledVariables.size();
+        bytesPerState = SampleMatrix.getBytesPerState(sampledVariables);
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            output.writeInt(MAGIC_NUMBER);
+            output.writeInt(numVariables);
+            for (Variable variable : sampledVariables) {
+                output.writeUTF(variable.getName());
+            }
+            sampleSizePosition = output.size();
+            output.writeInt(sampleSize);
+            output.writeByte(bytesPerState);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void write(int firstSample, int numSamples, int[] states, double[] weights) {
+        try {
+            output.writeInt(firstSample);
+            output.writeInt(numSamples);
+            int numStates = numSamples * numVariables;
+            for (int i = 0; i < numStates; i++) {
+                switch (bytesPerState) {
+                case 1:
+                    output.writeByte(states[i]);
+                    break;
+                case 2:
+                    output.writeShort(states[i]);
+                    break;
+                default:
+                    output.writeInt(states[i]);
+                }
+            }
+            for (int i = 0; i < numSamples; i++) {
+                output.writeDouble(weights[i]);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close(int numSamples) {
+        if (output != null) {
+            try {
+                output.close();
+                try (RandomAccessFile header = new RandomAccessFile(file, "rw")) {
+                    header.seek(sampleSizePosition);
+                    header.writeInt(numSamples);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                output = null;
+            }
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Reads a file written by a <code>SampleFile</code> and gives its chunks of
+     * samples to <code>sink</code>, in the order of the file.
+     *
+     * @param file    file of samples
+     * @param probNet network that contains the sampled variables
+     * @param sink    receives the samples
+     * @throws IOException           when the file can not be read or it is not
+     *                               a file of samples
+     * @throws NodeNotFoundException when a sampled variable is not in
+     *                               <code>probNet</code>
+     */
+    public static void read(File file, ProbNet probNet, SampleSink sink) throws IOException, NodeNotFoundException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readInt() != MAGIC_NUMBER) {
+                throw new IOException(file.getName() + " is not a file of samples.");
+            }
+            int numVariables = input.readInt();
+            List<Variable> sampledVariables = new ArrayList<>(numVariables);
+            for (int j = 0; j < numVariables; j++) {
+                sampledVariables.add(probNet.getVariable(input.readUTF()));
+            }
+            int sampleSize = input.readInt();
+            int bytesPerState = input.readByte();
+
+            sink.open(sampledVariables, sampleSize);
+            try {
+                int[] states = new int[0];
+                double[] weights = new double[0];
+                while (true) {
+                    int firstSample;
+                    try {
+                        firstSample = input.readInt();
+                    } catch (EOFException e) {
+                        // the last chunk has been read
+                        break;
+                    }
+                    int numSamples = input.readInt();
+                    if (weights.length < numSamples) {
+                        states = new int[numSamples * numVariables];
+                        weights = new double[numSamples];
+                    }
+                    for (int i = 0; i < numSamples * numVariables; i++) {
+                        switch (bytesPerState) {
+                        case 1:
+                            states[i] = input.readUnsignedByte();
+                            break;
+                        case 2:
+                            states[i] = input.readUnsignedShort();
+                            break;
+                        default:
+                            states[i] = input.readInt();
+                        }
+                    }
+                    for (int i = 0; i < numSamples; i++) {
+                        weights[i] = input.readDouble();
+                    }
+                    if (firstSample < sampleSize) {
+                        sink.write(firstSample, numSamples, states, weights);
+                    }
+                }
+            } finally {
+                sink.close(sampleSize);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+package org.openmarkov.inference.likelihoodWeighting;
+
+import org.openmarkov.core.model.network.Variable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps in memory the samples of a stochastic propagation. Each state takes
+ * one byte when all the sampled variables have at most 256 states, two bytes
+ * when they have at most 65536 and four bytes otherwise, instead of the eight
+ * of a <code>double</code>. The samples are stored in chunks, so that the
+ * number of samples is not limited by the size of an array. A chunk is
+ * allocated when the first of its samples is written, because in anytime
+ * sampling the sample size is only an upper bound of the number of samples.
+ */
+public class SampleMatrix implements SampleSink {
+
+    // number of samples of each chunk (a power of 2)
+    private static final int SAMPLES_PER_CHUNK = 1 << 12;
+
+    private List<Variable> sampledVariables;
+    private int sampleSize;
+    private int numSamples;
+    private int bytesPerState;
+    // chunks of states and of weights; null until their first sample is written
+    private byte[][] stateChunks;
+    private double[][] weightChunks;
+
+    @Override
+    public void open(List<Variable> sampledVariables, int sampleSize) {
+        this.sampledVariables = new ArrayList<>(sampledVariables);
+        this.sampleSize = sampleSize;
+        this.numSamples = sampleSize;
+        this.bytesPerState = getBytesPerState(sampledVariables);
+        stateChunks = new byte[0][];
+        weightChunks = new double[0][];
+    }
+
+    @Override
+    public void write(int firstSample, int numSamples, int[] states, double[] weights) {
+        int numVariables = sampledVariables.size();
+        for (int i = 0; i < numSamples; i++) {
+            int sample = firstSample + i;
+            int chunkIndex = sample / SAMPLES_PER_CHUNK;
+            if (chunkIndex >= stateChunks.length || stateChunks[chunkIndex] == null) {
+                allocateChunk(chunkIndex);
+            }
+            byte[] chunk = stateChunks[chunkIndex];
+            int position = (sample % SAMPLES_PER_CHUNK) * numVariables * bytesPerState;
+            for (int j = 0; j < numVariables; j++) {
+                int state = states[i * numVariables + j];
+                for (int k = 0; k < bytesPerState; k++) {
+                    chunk[position++] = (byte) (state >>> (8 * k));
+                }
+            }
+            weightChunks[chunkIndex][sample % SAMPLES_PER_CHUNK] = weights[i];
+        }
+    }
+
+    /**
+     * Allocates the chunk of the samples from <code>chunk *
+     * SAMPLES_PER_CHUNK</code>. The arrays of chunks grow by doubling, because
+     * in parallel sampling the chunks may arrive in any order.
+     */
+    private void allocateChunk(int chunk) {
+        if (chunk >= stateChunks.length) {
+            int maxNumChunks = getNumChunks(sampleSize);
+            int numChunks = Math.min(maxNumChunks, Math.max(chunk + 1, 2 * stateChunks.length));
+            stateChunks = Arrays.copyOf(stateChunks, numChunks);
+            weightChunks = Arrays.copyOf(weightChunks, numChunks);
+        }
+        int samplesInChunk = Math.min(SAMPLES_PER_CHUNK, sampleSize - chunk * SAMPLES_PER_CHUNK);
+        stateChunks[chunk] = new byte[samplesInChunk * sampledVariables.size() * bytesPerState];
+        weightChunks[chunk] = new double[samplesInChunk];
+    }
+
+    @Override
+    public void close(int numSamples) {
+        this.numSamples = numSamples;
+        // the chunks that only contain samples discarded by an anytime propagation are released
+        for (int chunk = getNumChunks(numSamples); chunk < stateChunks.length; chunk++) {
+            stateChunks[chunk] = null;
+            weightChunks[chunk] = null;
+        }
+    }
+
+    /**
+     * @param numSamples number of samples, up to <code>Integer.MAX_VALUE</code>
+     * @return The number of chunks that contain the samples
+     */
+    private static int getNumChunks(int numSamples) {
+        return (int) (((long) numSamples + SAMPLES_PER_CHUNK - 1) / SAMPLES_PER_CHUNK);
+    }
+
+    /**
+     * @param sampledVariables variables
+     * @return The number of bytes needed to store a state of any of the
+     * variables: 1, 2 or 4
+     */
+    static int getBytesPerState(List<Variable> sampledVariables) {
+        int maxNumStates = 0;
+        for (Variable variable : sampledVariables) {
+            maxNumStates = Math.max(maxNumStates, variable.getNumStates());
+        }
+        if (maxNumStates <= 1 << 8) {
+            return 1;
+        } else if (maxNumStates <= 1 << 16) {
+            return 2;
+        } else {
+            return 4;
+        }
+    }
+
+    /**
+     * @param sample   index of the sample
+     * @param variable index of the variable in {@link #getSampledVariables()}
+     * @return The index of the state of the variable in the sample
+     */
+    public int getState(int sample, int variable) {
+        byte[] chunk = stateChunks[sample / SAMPLES_PER_CHUNK];
+        int position = ((sample % SAMPLES_PER_CHUNK) * sampledVariables.size() + variable) * bytesPerState;
+        int state = 0;
+        for (int k = 0; k < bytesPerState; k++) {
+            state |= (chunk[position + k] & 0xFF) << (8 * k);
+        }
+        return state;
+    }
+
+    public double getWeight(int sample) {
+        return weightChunks[sample / SAMPLES_PER_CHUNK][sample % SAMPLES_PER_CHUNK];
+    }
+
+    public int getNumSamples() {
+        return numSamples;
+    }
+
+    public List<Variable> getSampledVariables() {
+        return sampledVariables;
+    }
+
+    /**
+     * @return The samples as a matrix with a row for each sample that contains
+     * the state of each sampled variable and, at the end, the weight of the
+     * sample
+     */
+    public double[][] toArray() {
+        int numVariables = sampledVariables.size();
+        double[][] samples = new double[numSamples][numVariables + 1];
+        for (int sample = 0; sample < numSamples; sample++) {
+            for (int variable = 0; variable < numVariables; variable++) {
+                samples[sample][variable] = getState(sample, variable);
+            }
+            samples[sample][numVariables] = getWeight(sample);
+        }
+        return samples;
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+package org.openmarkov.inference.likelihoodWeighting;
+
+import org.openmarkov.core.model.network.Variable;
+
+import java.util.List;
+
+/**
+ * Receives the samples of a stochastic propagation as they are drawn, so that
+ * they can be kept, written or analysed without storing all of them in memory.
+ * <p>
+ * The propagation calls {@link #open} before the first sample and
+ * {@link #close} after the last one. The samples arrive in chunks of
+ * consecutive samples; in parallel sampling the chunks may arrive in any
+ * order, but {@link #write} is never called concurrently. In anytime sampling
+ * the propagation may stop before drawing <code>sampleSize</code> samples and,
+ * in parallel sampling, discard samples already written, which are those
+ * whose index is not smaller than the number of samples given to
+ * {@link #close}.
+ */
+public interface SampleSink {
+
+    /**
+     * @param sampledVariables variables sampled, in the order of the states of
+     *                         each sample
+     * @param sampleSize       maximum number of samples that will be written
+     */
+    void open(List<Variable> sampledVariables, int sampleSize);
+
+    /**
+     * @param firstSample index of the first sample of the chunk
+     * @param numSamples  number of samples of the chunk
+     * @param states      the state of each sampled variable in each sample:
+     *                    the state of variable <code>j</code> in the sample
+     *                    <code>firstSample + i</code> is at
+     *                    <code>i * sampledVariables.size() + j</code>. The
+     *                    array is reused after the call
+     * @param weights     the weight of each sample. The array is reused after
+     *                    the call
+     */
+    void write(int firstSample, int numSamples, int[] states, double[] weights);
+
+    /**
+     * Called after the last chunk, also when the propagation fails.
+     *
+     * @param numSamples number of samples used by the propagation: those from
+     *                   0 to <code>numSamples - 1</code>
+     */
+    void close(int numSamples);
+
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+package org.openmarkov.inference.likelihoodWeighting;
+
+/**
+ * Receives the intermediate results of a stochastic propagation in anytime
+ * mode. It is called in the thread that runs the propagation, after each
+ * block of samples, and the propagation does not continue until it returns.
+ *
+ * @see StochasticPropagation#addSamplingListener(SamplingListener)
+ */
+public interface SamplingListener {
+
+    /**
+     * @param progress estimates computed with the samples drawn so far
+     */
+    void samplesDrawn(SamplingProgress progress);
+
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+package org.openmarkov.inference.likelihoodWeighting;
+
+import org.openmarkov.core.exception.NonProjectablePotentialException;
+import org.openmarkov.core.exception.NotEvaluableNetworkException;
+import org.openmarkov.core.exception.WrongCriterionException;
+import org.openmarkov.core.model.network.Node;
+import org.openmarkov.core.model.network.ProbNet;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.Potential;
+import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.core.model.network.potential.operation.DiscretePotentialOperations;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The conditional probability tables of a bayesian network compiled for
+ * forward sampling. The variables are numbered in ancestral order and a
+ * configuration of the network is an <code>int[]</code> with the index of the
+ * state of each variable, so that sampling a variable or computing the
+ * probability of a configuration needs neither maps nor allocations.
+ * <p>
+ * The table of each variable is stored with the variable first, so the
+ * probabilities of its states given a configuration of its parents are
+ * contiguous. Each column is also stored accumulated and the state sampled is
+ * found by bisection; for a given random number it is the same state that
+ * <code>TablePotential.sampleConditionedVariable</code> returns.
+ * <p>
+ * A plan is not modified after its construction and can be shared by several
+ * threads, each one with its own configuration.
+ */
+public class SamplingPlan {
+
+    private final Variable[] variables;
+
+    // index of each variable in variables
+    private final HashMap<Variable, Integer> indexes;
+
+    private final int[] numStates;
+
+    // for each variable, its conditional probability table, with the variable first
+    private final double[][] tables;
+
+    // for each variable, the columns of its table accumulated
+    private final double[][] accumulatedTables;
+
+    // for each variable, the indexes of the other variables of its table
+    private final int[][] parents;
+
+    // for each variable, the offsets of the other variables of its table
+    private final int[][] parentOffsets;
+
+    /**
+     * @param probNet          bayesian network
+     * @param sortedVariables  variables of <code>probNet</code> in ancestral order
+     * @throws NotEvaluableNetworkException when the potential of a variable can
+     * not be converted into a table or contains variables that do not precede it
+     */
+    public SamplingPlan(ProbNet probNet, List<Variable> sortedVariables) throws NotEvaluableNetworkException {
+        int numVariables = sortedVariables.size();
+        variables = sortedVariables.toArray(new Variable[numVariables]);
+        indexes = new HashMap<>();
+        numStates = new int[numVariables];
+        tables = new double[numVariables][];
+        accumulatedTables = new double[numVariables][];
+        parents = new int[numVariables][];
+        parentOffsets = new int[numVariables][];
+
+        for (int i = 0; i < numVariables; i++) {
+            Variable variable = variables[i];
+            TablePotential table = getConditionalProbabilityTable(probNet.getNode(variable));
+            List<Variable> tableVariables = table.getVariables();
+            int[] offsets = table.getOffsets();
+            int numParents = tableVariables.size() - 1;
+            parents[i] = new int[numParents];
+            parentOffsets[i] = new int[numParents];
+            for (int j = 0; j < numParents; j++) {
+                Integer parentIndex = indexes.get(tableVariables.get(j + 1));
+                if (parentIndex == null) {
+                    throw new NotEvaluableNetworkException("The potential of " + variable.getName()
+                            + " depends on " + tableVariables.get(j + 1).getName()
+                            + ", which is not sampled before it.");
+                }
+                parents[i][j] = parentIndex;
+                parentOffsets[i][j] = offsets[j + 1];
+            }
+            numStates[i] = variable.getNumStates();
+            tables[i] = table.values.clone();
+            accumulatedTables[i] = accumulateColumns(table.values, numStates[i]);
+            indexes.put(variable, i);
+        }
+    }
+
+    /**
+     * Creates a plan with the variables and the parents of <code>plan</code>
+     * but other tables, for example an importance function.
+     *
+     * @param plan   plan whose structure is shared
+     * @param tables a table for each variable, with the layout of the tables
+     *               of <code>plan</code>
+     */
+    private SamplingPlan(SamplingPlan plan, double[][] tables) {
+        variables = plan.variables;
+        indexes = plan.indexes;
+        numStates = plan.numStates;
+        parents = plan.parents;
+        parentOffsets = plan.parentOffsets;
+        this.tables = new double[tables.length][];
+        accumulatedTables = new double[tables.length][];
+        for (int i = 0; i < tables.length; i++) {
+            this.tables[i] = tables[i].clone();
+            accumulatedTables[i] = accumulateColumns(tables[i], numStates[i]);
+        }
+    }
+
+    /**
+     * @param newTables a table for each variable, with the layout of the
+     *                  tables of this plan ({@link #getTable(int)})
+     * @return A plan with the same variables and parents as this one that
+     * samples from <code>newTables</code>
+     */
+    public SamplingPlan withTables(double[][] newTables) {
+        return new SamplingPlan(this, newTables);
+    }
+
+    /**
+     * @param node node of the network
+     * @return The conditional probability table of the variable of
+     * <code>node</code>, with that variable first
+     * @throws NotEvaluableNetworkException when the potential can not be
+     * converted into a table
+     */
+    private static TablePotential getConditionalProbabilityTable(Node node) throws NotEvaluableNetworkException {
+        Variable variable = node.getVariable();
+        Potential potential = node.getPotentials().get(0);
+        TablePotential table;
+        if (potential instanceof TablePotential) {
+            table = (TablePotential) potential;
+        } else {
+            try {
+                table = potential.getCPT();
+            } catch (NonProjectablePotentialException | WrongCriterionException e) {
+                throw new NotEvaluableNetworkException("The potential of " + variable.getName()
+                        + " can not be converted into a table.");
+            }
+        }
+        List<Variable> tableVariables = table.getVariables();
+        if (tableVariables.get(0) != variable) {
+            List<Variable> variableFirst = new ArrayList<>(tableVariables.size());
+            variableFirst.add(variable);
+            for (Variable tableVariable : tableVariables) {
+                if (tableVariable != variable) {
+                    variableFirst.add(tableVariable);
+                }
+            }
+            table = DiscretePotentialOperations.reorder(table, variableFirst);
+        }
+        return table;
+    }
+
+    /**
+     * @param values    table with the conditioned variable first
+     * @param numStates number of states of the conditioned variable
+     * @return A table in which each value is the sum of the values of the
+     * same column up to it
+     */
+    private static double[] accumulateColumns(double[] values, int numStates) {
+        double[] accumulated = new double[values.length];
+        for (int column = 0; column < values.length; column += numStates) {
+            double accumulatedProbability = values[column];
+            accumulated[column] = accumulatedProbability;
+            for (int state = 1; state < numStates; state++) {
+                accumulatedProbability += values[column + state];
+                accumulated[column + state] = accumulatedProbability;
+            }
+        }
+        return accumulated;
+    }
+
+    /**
+     * @param variable variable
+     * @param configuration states of the variables that precede it
+     * @return The position of the column of the table of <code>variable</code>
+     * that corresponds to the configuration of its parents
+     */
+    public int getColumn(int variable, int[] configuration) {
+        int[] variableParents = parents[variable];
+        int[] offsets = parentOffsets[variable];
+        int column = 0;
+        for (int j = 0; j < variableParents.length; j++) {
+            column += configuration[variableParents[j]] * offsets[j];
+        }
+        return column;
+    }
+
+    /**
+     * @param variable      index of the variable sampled
+     * @param configuration states of the variables that precede it
+     * @param random        random number in [0, 1)
+     * @return The index of the state sampled for <code>variable</code>. If the
+     * column does not add up to 1, the surplus goes to the last state
+     */
+    public int sample(int variable, int[] configuration, double random) {
+        double[] accumulated = accumulatedTables[variable];
+        int first = getColumn(variable, configuration);
+        int low = first;
+        int high = first + numStates[variable] - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (random > accumulated[middle]) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low - first;
+    }
+
+    /**
+     * @param variable      index of the variable
+     * @param configuration states of the variable and the variables that
+     *                      precede it
+     * @return The probability of the state of <code>variable</code> given the
+     * states of its parents
+     */
+    public double getProbability(int variable, int[] configuration) {
+        return tables[variable][getColumn(variable, configuration) + configuration[variable]];
+    }
+
+    /**
+     * @param variable index of the variable
+     * @return <code>true</code> if the table of the variable does not depend on
+     * other variables
+     */
+    public boolean isRoot(int variable) {
+        return parents[variable].length == 0;
+    }
+
+    /**
+     * @param variable variable
+     * @return Its index in the plan or -1 if it is not in the plan
+     */
+    public int indexOf(Variable variable) {
+        Integer index = indexes.get(variable);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * @param variables variables
+     * @return The index of each variable in the plan, -1 for those not in the
+     * plan
+     */
+    public int[] indexesOf(List<Variable> variables) {
+        int[] variableIndexes = new int[variables.size()];
+        for (int i = 0; i < variableIndexes.length; i++) {
+            variableIndexes[i] = indexOf(variables.get(i));
+        }
+        return variableIndexes;
+    }
+
+    /**
+     * @param variable index of the variable
+     * @return A copy of the table of the variable. The probability of the
+     * state <code>s</code> given a configuration of the parents is at
+     * <code>getColumn(variable, configuration) + s</code>
+     */
+    public double[] getTable(int variable) {
+        return tables[variable].clone();
+    }
+
+    /**
+     * @param variable index of the variable
+     * @return The indexes of the other variables of its table
+     */
+    public int[] getParents(int variable) {
+        return parents[variable].clone();
+    }
+
+    /**
+     * @param variable index of the variable
+     * @return The offset in its table of each variable of
+     * {@link #getParents(int)}
+     */
+    public int[] getParentOffsets(int variable) {
+        return parentOffsets[variable].clone();
+    }
+
+    public Variable getVariable(int variable) {
+        return variables[variable];
+    }
+
+    public int getNumStates(int variable) {
+        return numStates[variable];
+    }
+
+    public int getNumVariables() {
+        return variables.length;
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+package org.openmarkov.inference.likelihoodWeighting;
+
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.TablePotential;
+
+import java.util.HashMap;
+
+/**
+ * The estimates of a stochastic propagation after a number of samples.
+ */
+public class SamplingProgress {
+
+    private final int numSamples;
+    private final double effectiveSampleSize;
+    private final double maxHalfWidth;
+    private final double elapsedTime;
+    private final HashMap<Variable, TablePotential> posteriorValues;
+    private final HashMap<Variable, double[]> halfWidths;
+
+    /**
+     * @param numSamples          number of samples drawn
+     * @param effectiveSampleSize effective sample size of the weights
+     * @param maxHalfWidth        maximum half-width of the confidence intervals
+     * @param elapsedTime         milliseconds since the propagation started
+     * @param posteriorValues     estimate of the posterior probability of
+     *                            each variable of interest
+     * @param halfWidths          half-width of the confidence interval of
+     *                            each posterior probability
+     */
+    public SamplingProgress(int numSamples, double effectiveSampleSize, double maxHalfWidth, double elapsedTime,
+            HashMap<Variable, TablePotential> posteriorValues, HashMap<Variable, double[]> halfWidths) {
+        this.numSamples = numSamples;
+        this.effectiveSampleSize = effectiveSampleSize;
+        this.maxHalfWidth = maxHalfWidth;
+        this.elapsedTime = elapsedTime;
+        this.posteriorValues = posteriorValues;
+        this.halfWidths = halfWidths;
+    }
+
+    public int getNumSamples() {
+        return numSamples;
+    }
+
+    /**
+     * @return (sum of the weights)^2 / (sum of the squared weights): the
+     * number of samples of the posterior distribution that would give the same
+     * precision
+     */
+    public double getEffectiveSampleSize() {
+        return effectiveSampleSize;
+    }
+
+    /**
+     * @return The maximum half-width of the confidence intervals of all the
+     * posterior probabilities
+     */
+    public double getMaxHalfWidth() {
+        return maxHalfWidth;
+    }
+
+    /**
+     * @return Milliseconds since the propagation started
+     */
+    public double getElapsedTime() {
+        return elapsedTime;
+    }
+
+    public HashMap<Variable, TablePotential> getPosteriorValues() {
+        return posteriorValues;
+    }
+
+    /**
+     * @return For each variable of interest, the half-width of the confidence
+     * interval of the probability of each state
+     */
+    public HashMap<Variable, double[]> getHalfWidths() {
+        return halfWidths;
+    }
+
+}
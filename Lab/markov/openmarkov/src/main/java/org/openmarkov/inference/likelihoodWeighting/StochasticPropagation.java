@@ -6,6 +6,7 @@
  */
 package org.openmarkov.inference.likelihoodWeighting;
 
+import org.apache.commons.math3.distribution.NormalDistribution;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.openmarkov.core.exception.*;
@@ -19,10 +20,12 @@ import org.openmarkov.core.model.network.constraint.PNConstraint;
 import org.openmarkov.core.model.network.modelUncertainty.XORShiftRandom;
 import org.openmarkov.core.model.network.potential.PotentialRole;
 import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations;
 import org.openmarkov.core.model.network.type.BayesianNetworkType;
 import org.openmarkov.core.model.network.type.NetworkType;
 
 import java.util.*;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Father of likelihood wieghting and logic sampling for bayesian networks. It reunites its many similarities.
@@ -40,25 +43,72 @@ public abstract class StochasticPropagation extends InferenceAlgorithm implement
     private static final int DEFAULT_SAMPLE_SIZE = 10000; // Default sample size
     private int sampleSize;
 
-    Random randomGenerator;
+    // Number of consecutive samples drawn by each task in parallel sampling. The result of a parallel
+    // propagation depends on it, so it is not configurable.
+    private static final int SAMPLES_PER_TASK = 1 << 14;
+
     Long seed;
 
+    // whether the samples are drawn concurrently
+    private boolean parallelSampling;
+
+    private UniformSource uniformSource;
+
     private EvidenceCase postResolutionEvidence;
     // Post- and pre-resolution evidence combined
-    EvidenceCase fusedEvidence;
-    List<Variable> sortedVariables;
+    protected EvidenceCase fusedEvidence;
+    protected List<Variable> sortedVariables;
     private List<Variable> variablesOfInterest;
     List<Variable> variablesToSample;
 
+    // Tables of the network compiled for sampling, with the variables in the order of sortedVariables
+    protected SamplingPlan samplingPlan;
+    // index in samplingPlan of each variable of fusedEvidence
+    protected int[] evidenceIndexes;
+    // for each variable of samplingPlan, the state of its finding, or -1 if it is not observed
+    protected int[] evidenceStates;
+    // position in samplingPlan of each variable of interest and of each variable to sample
+    private int[] indexesOfVariablesOfInterest;
+    private int[] indexesOfVariablesToSample;
+
+    // Number of samples given to the sinks at a time
+    private static final int SAMPLES_PER_WRITE = 1 << 10;
+
     // whether the algorithm stores the samples
     private boolean storingSamples;
     // samples (if they are stored)
-    private double[][] samples;
-
+    private SampleMatrix storedSamples;
+    // receives the samples as they are drawn. May be null
+    private SampleSink sampleSink;
+    // sinks of the current propagation: storedSamples and sampleSink
+    private List<SampleSink> sinks;
+
+    // Anytime sampling: the propagation stops, even if it has not drawn sampleSize samples, when the confidence
+    // intervals of all the posterior probabilities are narrower than targetPrecision or when timeBudget expires
+    private double targetPrecision;
+    private double confidenceLevel;
+    private long timeBudget;
+    private List<SamplingListener> listeners;
+    // Number of samples drawn between two checks of the stopping criteria in sequential anytime sampling
+    private static final int SAMPLES_PER_CHECK = 1 << 10;
+    // Minimum effective sample size for the confidence intervals to be used as stopping criterion
+    private static final double MIN_EFFECTIVE_SAMPLE_SIZE = 100;
+    // quantile of the normal distribution for confidenceLevel
+    private double zValue;
+
+    // for each variable of interest and each state, sum of the weights (and of the squared weights) of the
+    // samples in which the variable takes the state
+    private double[][] accumulatedProbabilities;
+    private double[][] accumulatedSquaredProbabilities;
     // sum of the weights of the samples
     private double accumulatedWeight;
+    // sum of the squared weights of the samples
+    private double accumulatedSquaredWeight;
     // number of samples with a non-null weight
     private int numPositiveSamples;
+    // number of samples drawn
+    private int numSamples;
+    private double effectiveSampleSize;
 
     private double algorithmExecutionTime;
     // Last output of getPosteriorValues(). Saves running the propagation every time needed. Created to avoid running
@@ -66,16 +116,23 @@ public abstract class StochasticPropagation extends InferenceAlgorithm implement
     private HashMap<Variable,TablePotential> lastPosteriorValues;
 
 
-    StochasticPropagation(ProbNet probNet) throws NotEvaluableNetworkException {
+    protected StochasticPropagation(ProbNet probNet) throws NotEvaluableNetworkException {
         super(probNet);
         this.logger = LogManager.getLogger(StochasticPropagation.class.getName());
         // Order the variables ancestrally
         this.sortedVariables = ProbNetOperations.sortTopologically(probNet, probNet.getVariables());
+        this.samplingPlan = new SamplingPlan(probNet, sortedVariables);
         this.variablesOfInterest = new ArrayList<>(sortedVariables);
         this.sampleSize = DEFAULT_SAMPLE_SIZE;
         this.postResolutionEvidence = new EvidenceCase();
         this.storingSamples = false;
         this.seed = null;
+        this.parallelSampling = false;
+        this.uniformSource = UniformSource.PSEUDO_RANDOM;
+        this.targetPrecision = 0;
+        this.confidenceLevel = 0.95;
+        this.timeBudget = 0;
+        this.listeners = new ArrayList<>();
     }
 
     @Override
@@ -99,14 +156,29 @@ public abstract class StochasticPropagation extends InferenceAlgorithm implement
     /**
      * Computes a sample, i.e., a configuration with a value for each variable to sample,
      * and the weight of the sample.
-     * @return an array containing an integer (the index of the state) for each variable to sample, plus the weight.
+     * It is called concurrently in parallel sampling, so it must not modify the propagation.
+     * @param configuration the index of the state of each variable of {@code samplingPlan}. It is overwritten
+     * with the sample; the states of the variables that are not sampled are those of their findings.
+     * @param randomGenerator the random numbers for the sample.
+     * @return the weight of the sample.
      */
-    protected abstract double[] getValuesSampledAndWeight();
+    protected abstract double sample(int[] configuration, Random randomGenerator);
+
+    /**
+     * Called once the evidence is known and before drawing the samples, for example to learn an importance
+     * function. By default it does nothing.
+     * @param randomGenerator random generator for the preparation, derived from the seed of the propagation but
+     * independent of the generators of the samples.
+     * @throws IncompatibleEvidenceException when the preparation finds that the evidence is impossible.
+     */
+    protected void prepareSampling(Random randomGenerator) throws IncompatibleEvidenceException {
+    }
 
     /**
      * Propagates the evidence through the net using a stochastic propagation algorithm.
      * It returns the posterior values and, if <code>storingSamples</code> is true,
-     * stores the samples in the variable <code>samples</code> .
+     * stores the samples in the variable <code>storedSamples</code>. The samples are also given to
+     * <code>sampleSink</code>, if any, as they are drawn.
      *
      * @return the approximate posterior value(s) for each variable of interest.
      * @throws IncompatibleEvidenceException When postResolutionEvidence contradicts preResolutionEvidence, or
@@ -123,79 +195,186 @@ public abstract class StochasticPropagation extends InferenceAlgorithm implement
 
         variablesOfInterest.removeAll(fusedEvidence.getVariables());
 
-        int numOfVariablesOfInterest = variablesOfInterest.size();
-
         /// Create a table of accumulated probabilities. Initialize it.
-        double[][] accumulatedProbabilities = new double[numOfVariablesOfInterest][];
-        for (int indexOfVariable = 0; indexOfVariable < numOfVariablesOfInterest; indexOfVariable++) {
-            double[] accumulatedProbability = new double[variablesOfInterest.get(indexOfVariable).getNumStates()];
-            accumulatedProbabilities[indexOfVariable] = accumulatedProbability;
-        }
+        accumulatedProbabilities = createAccumulatedProbabilities();
+        accumulatedSquaredProbabilities = createAccumulatedProbabilities();
 
 
         variablesToSample = getVariablesToSample();
-        int numOfVariablesToSample = variablesToSample.size();
-
-        // each sample contains one integer for the state of each variable plus one double for the weight
-        samples = new double[getSampleSize()][numOfVariablesToSample + 1];
 
-        accumulatedWeight = 0;
-        numPositiveSamples = 0;
+        List<Variable> variablesOfEvidence = fusedEvidence.getVariables();
+        evidenceIndexes = new int[variablesOfEvidence.size()];
+        evidenceStates = new int[samplingPlan.getNumVariables()];
+        Arrays.fill(evidenceStates, -1);
+        int numOfFindings = 0;
+        for (Variable variable : variablesOfEvidence) {
+            int indexInPlan = samplingPlan.indexOf(variable);
+            if (indexInPlan != -1) {
+                evidenceIndexes[numOfFindings++] = indexInPlan;
+                evidenceStates[indexInPlan] = fusedEvidence.getFinding(variable).getStateIndex();
+            }
+        }
+        evidenceIndexes = Arrays.copyOf(evidenceIndexes, numOfFindings);
 
-        // auxiliary variables for the "for" loop:
-        // values sampled for the variables of interest, plus the weight of the sample
-        double[] valuesSampledAndWeight;
-        // weight of the sample
-        double weight;
+        indexesOfVariablesToSample = samplingPlan.indexesOf(variablesToSample);
+        indexesOfVariablesOfInterest = samplingPlan.indexesOf(variablesOfInterest);
 
-        randomGenerator = new XORShiftRandom();
-        // If a seed was set, use it
+        Random preparationGenerator = new XORShiftRandom();
         if (seed != null) {
-            randomGenerator.setSeed(seed);
+            // a xorshift generator with seed 0 only returns 0
+            preparationGenerator.setSeed(new SplittableRandom(~seed).nextLong() | 1L);
         }
+        prepareSampling(preparationGenerator);
 
-        // sample and store the results
-        // for each sample...
-        for (int sampleIndex = 0; sampleIndex < sampleSize; sampleIndex++) {
-            valuesSampledAndWeight = getValuesSampledAndWeight();
-
-            weight = valuesSampledAndWeight[valuesSampledAndWeight.length - 1];
-            accumulatedWeight += weight;
-            if (weight > 0) {
-                numPositiveSamples++;
-            }
-            if (storingSamples) {
-                samples[sampleIndex][variablesToSample.size()] = weight;
-            }
+        // the samples are given to the sinks in chunks as they are drawn
+        storedSamples = storingSamples ? new SampleMatrix() : null;
+        sinks = new ArrayList<>();
+        if (storedSamples != null) {
+            sinks.add(storedSamples);
+        }
+        if (sampleSink != null) {
+            sinks.add(sampleSink);
+        }
+        for (SampleSink sink : sinks) {
+            sink.open(variablesToSample, sampleSize);
+        }
 
-            int stateSampled;
-            int indexOfVariableOfInterest = 0;
-            for (int indexOfVariable = 0; indexOfVariable < numOfVariablesToSample; indexOfVariable++) {
-                // for each variable...
-                stateSampled = (int) valuesSampledAndWeight[indexOfVariable];
-                indexOfVariableOfInterest = variablesOfInterest.indexOf(variablesToSample.get(indexOfVariable));
-//                if (variablesOfInterest.contains(variablesToSample.get(indexOfVariable))) {
-                	//wrong index
-                if(indexOfVariableOfInterest!=-1) {
-                    accumulatedProbabilities[indexOfVariableOfInterest][stateSampled] += weight;
-                    indexOfVariableOfInterest++;
+        accumulatedWeight = 0;
+        accumulatedSquaredWeight = 0;
+        numPositiveSamples = 0;
+        numSamples = 0;
+        zValue = new NormalDistribution().inverseCumulativeProbability(0.5 + confidenceLevel / 2);
+        boolean anytime = isAnytime();
+        // the quasi-random numbers of a sample only depend on this seed and the index of the sample
+        long quasiRandomSeed = (seed != null) ? seed : new SplittableRandom().nextLong();
+
+        try {
+            if (parallelSampling) {
+                // Each block of samples has its own random generator, whose seed is taken from an independent stream
+                // split from the seed of the propagation. The blocks do not depend on the number of threads, so neither
+                // does the result.
+                SplittableRandom streams = (seed != null) ? new SplittableRandom(seed) : new SplittableRandom();
+                // in anytime sampling the blocks are drawn in waves, one task per thread, to check the stopping
+                // criteria; otherwise, all the blocks are drawn at once
+                int blocksPerWave = anytime ?
+                        DiscretePotentialOperations.getPool().getParallelism() * DiscretePotentialOperations.tasksPerThread :
+                        Integer.MAX_VALUE;
+                boolean stop = false;
+                int firstSample = 0;
+                while (!stop && firstSample < sampleSize) {
+                    List<SamplingTask> wave = new ArrayList<>();
+                    while (wave.size() < blocksPerWave && firstSample < sampleSize) {
+                        Random blockGenerator;
+                        if (uniformSource == UniformSource.PSEUDO_RANDOM) {
+                            blockGenerator = new XORShiftRandom();
+                            // a xorshift generator with seed 0 only returns 0
+                            blockGenerator.setSeed(streams.split().nextLong() | 1L);
+                        } else {
+                            blockGenerator = new QuasiRandomGenerator(uniformSource, samplingPlan.getNumVariables(),
+                                    sampleSize, quasiRandomSeed);
+                        }
+                        wave.add(new SamplingTask(firstSample, Math.min(sampleSize, firstSample + SAMPLES_PER_TASK),
+                                blockGenerator));
+                        firstSample += SAMPLES_PER_TASK;
+                    }
+                    DiscretePotentialOperations.invokeAll(wave);
+                    // merge the results of the blocks, always in the same order. The blocks that follow the one after
+                    // which the propagation stops are discarded, so the result does not depend on the size of the wave
+                    for (SamplingTask task : wave) {
+                        merge(task);
+                        if (anytime && checkProgress(startTime)) {
+                            stop = true;
+                            break;
+                        }
+                    }
                 }
-                if (storingSamples) {
-                    samples[sampleIndex][indexOfVariable] = stateSampled;
+            } else {
+                Random randomGenerator;
+                if (uniformSource == UniformSource.PSEUDO_RANDOM) {
+                    randomGenerator = new XORShiftRandom();
+                    // If a seed was set, use it
+                    if (seed != null) {
+                        randomGenerator.setSeed(seed);
+                    }
+                } else {
+                    randomGenerator = new QuasiRandomGenerator(uniformSource, samplingPlan.getNumVariables(),
+                            sampleSize, quasiRandomSeed);
                 }
+                int samplesPerTask = anytime ? SAMPLES_PER_CHECK : sampleSize;
+                for (int firstSample = 0; firstSample < sampleSize; firstSample += samplesPerTask) {
+                    SamplingTask task = new SamplingTask(firstSample, Math.min(sampleSize, firstSample + samplesPerTask),
+                            randomGenerator);
+                    task.invoke();
+                    merge(task);
+                    if (anytime && checkProgress(startTime)) {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            for (SampleSink sink : sinks) {
+                sink.close(numSamples);
             }
         }
+        effectiveSampleSize = getEffectiveSampleSize(accumulatedWeight, accumulatedSquaredWeight);
 
         if (accumulatedWeight == 0) {
             logger.warn("All stochastic propagation samples have been weighed as 0");
             throw new IncompatibleEvidenceException("All samples have been weighted as 0.");
         }
 
+        HashMap<Variable, TablePotential> posteriorValues = normalizePosteriorValues();
+
+        long endTime = System.nanoTime();
+        algorithmExecutionTime = ((double) (endTime - startTime))/1000000; // Turn to milliseconds
+
+        setLastPosteriorValues(posteriorValues);
+        return posteriorValues;
+
+    } // End of getPosteriorValues
+
+
+    /**
+     * @return a table of zeros for each variable of interest
+     */
+    private double[][] createAccumulatedProbabilities() {
+        double[][] accumulated = new double[variablesOfInterest.size()][];
+        for (int indexOfVariable = 0; indexOfVariable < accumulated.length; indexOfVariable++) {
+            accumulated[indexOfVariable] = new double[variablesOfInterest.get(indexOfVariable).getNumStates()];
+        }
+        return accumulated;
+    }
+
+    /**
+     * Adds the weights of a block of samples to those of the propagation.
+     * @param task block of samples already drawn
+     */
+    private void merge(SamplingTask task) {
+        accumulatedWeight += task.accumulatedWeight;
+        accumulatedSquaredWeight += task.accumulatedSquaredWeight;
+        numPositiveSamples += task.numPositiveSamples;
+        numSamples += task.lastSample - task.firstSample;
+        for (int indexOfVariable = 0; indexOfVariable < accumulatedProbabilities.length; indexOfVariable++) {
+            double[] accumulatedProbability = accumulatedProbabilities[indexOfVariable];
+            double[] accumulatedSquaredProbability = accumulatedSquaredProbabilities[indexOfVariable];
+            double[] blockProbability = task.accumulatedProbabilities[indexOfVariable];
+            double[] blockSquaredProbability = task.accumulatedSquaredProbabilities[indexOfVariable];
+            for (int state = 0; state < accumulatedProbability.length; state++) {
+                accumulatedProbability[state] += blockProbability[state];
+                accumulatedSquaredProbability[state] += blockSquaredProbability[state];
+            }
+        }
+    }
+
+    /**
+     * @return the accumulated weights of each variable of interest normalized.
+     */
+    private HashMap<Variable, TablePotential> normalizePosteriorValues() {
         HashMap<Variable, TablePotential> posteriorValues = new HashMap<>();
 
         // normalize the posterior probabilities
-        for (int i = 0; i < numOfVariablesOfInterest; i++) {
-            double[] accumulatedValues = accumulatedProbabilities[i];
+        for (int i = 0; i < accumulatedProbabilities.length; i++) {
+            double[] accumulatedValues = accumulatedProbabilities[i].clone();
                 // normalize
                 double sum = 0;
                 for (int j = 0; j < accumulatedValues.length; j++) {
@@ -214,16 +393,85 @@ public abstract class StochasticPropagation extends InferenceAlgorithm implement
             posteriorProbability.values = accumulatedValues;
             posteriorValues.put(variablesOfInterest.get(i), posteriorProbability);
         }
+        return posteriorValues;
+    }
 
-        long endTime = System.nanoTime();
-        algorithmExecutionTime = ((double) (endTime - startTime))/1000000; // Turn to milliseconds
+    /**
+     * The variance of the estimate p = sum(w_i * x_i) / sum(w_i) of a probability, where x_i is 1 if the variable
+     * takes the state in the sample i and 0 otherwise, is approximated by sum(w_i^2 * (x_i - p)^2) / sum(w_i)^2.
+     * @param indexOfVariable index of the variable of interest
+     * @return the half-width of the confidence interval of the probability of each state of the variable.
+     */
+    private double[] getHalfWidths(int indexOfVariable) {
+        double[] accumulatedProbability = accumulatedProbabilities[indexOfVariable];
+        double[] accumulatedSquaredProbability = accumulatedSquaredProbabilities[indexOfVariable];
+        double[] halfWidths = new double[accumulatedProbability.length];
+        for (int state = 0; state < halfWidths.length; state++) {
+            if (accumulatedWeight == 0) {
+                halfWidths[state] = Double.POSITIVE_INFINITY;
+            } else {
+                double probability = accumulatedProbability[state] / accumulatedWeight;
+                double squaredDeviations = accumulatedSquaredProbability[state] * (1 - 2 * probability)
+                        + probability * probability * accumulatedSquaredWeight;
+                halfWidths[state] = zValue * Math.sqrt(Math.max(0, squaredDeviations)) / accumulatedWeight;
+            }
+        }
+        return halfWidths;
+    }
 
-        setLastPosteriorValues(posteriorValues);
-        return posteriorValues;
+    /**
+     * @return the maximum half-width of the confidence intervals of the posterior probabilities.
+     */
+    private double getMaxHalfWidth() {
+        double maxHalfWidth = 0;
+        for (int indexOfVariable = 0; indexOfVariable < accumulatedProbabilities.length; indexOfVariable++) {
+            for (double halfWidth : getHalfWidths(indexOfVariable)) {
+                maxHalfWidth = Math.max(maxHalfWidth, halfWidth);
+            }
+        }
+        return maxHalfWidth;
+    }
 
-    } // End of getPosteriorValues
+    private static double getEffectiveSampleSize(double accumulatedWeight, double accumulatedSquaredWeight) {
+        return accumulatedSquaredWeight > 0 ? accumulatedWeight * accumulatedWeight / accumulatedSquaredWeight : 0;
+    }
+
+    /**
+     * Notifies the listeners of the estimates obtained with the samples merged so far and checks the stopping
+     * criteria of anytime sampling.
+     * @param startTime value of {@code System.nanoTime()} when the propagation started.
+     * @return {@code true} if the propagation must stop.
+     */
+    private boolean checkProgress(long startTime) {
+        double elapsedTime = ((double) (System.nanoTime() - startTime)) / 1000000;
+        double currentEffectiveSampleSize = getEffectiveSampleSize(accumulatedWeight, accumulatedSquaredWeight);
+        double maxHalfWidth = (targetPrecision > 0 || !listeners.isEmpty()) ?
+                getMaxHalfWidth() : Double.POSITIVE_INFINITY;
+        if (!listeners.isEmpty()) {
+            HashMap<Variable, double[]> halfWidths = new HashMap<>();
+            for (int indexOfVariable = 0; indexOfVariable < accumulatedProbabilities.length; indexOfVariable++) {
+                halfWidths.put(variablesOfInterest.get(indexOfVariable), getHalfWidths(indexOfVariable));
+            }
+            SamplingProgress progress = new SamplingProgress(numSamples, currentEffectiveSampleSize, maxHalfWidth,
+                    elapsedTime, normalizePosteriorValues(), halfWidths);
+            for (SamplingListener listener : listeners) {
+                listener.samplesDrawn(progress);
+            }
+        }
+        return (targetPrecision > 0 && currentEffectiveSampleSize >= MIN_EFFECTIVE_SAMPLE_SIZE
+                && maxHalfWidth <= targetPrecision) || (timeBudget > 0 && elapsedTime >= timeBudget);
+    }
 
+    /**
+     * @return {@code true} if the propagation checks the stopping criteria or notifies listeners while sampling.
+     */
+    private boolean isAnytime() {
+        return targetPrecision > 0 || timeBudget > 0 || !listeners.isEmpty();
+    }
 
+    /**
+     * @param sampleSize number of samples; in anytime sampling, the maximum number of samples.
+     */
     public void setSampleSize(int sampleSize) {
         this.sampleSize = sampleSize;
     }
@@ -236,6 +484,83 @@ public abstract class StochasticPropagation extends InferenceAlgorithm implement
         this.seed = seed;
     }
 
+    /**
+     * @param parallelSampling if {@code true}, the samples are divided into blocks drawn concurrently in the
+     * pool of the concurrent potential operations. Each block uses its own random generator, derived from the seed,
+     * so the results for a seed are the same whatever the number of threads, but differ from those of the
+     * sequential propagation.
+     */
+    public void setParallelSampling(boolean parallelSampling) {
+        this.parallelSampling = parallelSampling;
+    }
+
+    public boolean isParallelSampling() {
+        return parallelSampling;
+    }
+
+    /**
+     * @param uniformSource source of the uniform numbers of the samples. With a quasi-random source, the numbers of
+     * each sample only depend on the seed and the index of the sample, so parallel and sequential propagations draw
+     * the same samples. The preparation of the sampling, if any, always uses pseudo-random numbers.
+     */
+    public void setUniformSource(UniformSource uniformSource) {
+        this.uniformSource = uniformSource;
+    }
+
+    public UniformSource getUniformSource() {
+        return uniformSource;
+    }
+
+    /**
+     * Anytime sampling: the propagation stops when the confidence intervals of the probabilities of all the states
+     * of the variables of interest have a half-width not greater than {@code targetPrecision}, provided the
+     * effective sample size is at least 100. The criterion is checked every 1024 samples in sequential sampling
+     * and after each block in parallel sampling.
+     * @param targetPrecision maximum half-width of the confidence intervals; 0 disables this criterion.
+     */
+    public void setTargetPrecision(double targetPrecision) {
+        this.targetPrecision = targetPrecision;
+    }
+
+    public double getTargetPrecision() {
+        return targetPrecision;
+    }
+
+    /**
+     * @param confidenceLevel confidence level of the intervals used by {@link #setTargetPrecision}. By default 0.95.
+     */
+    public void setConfidenceLevel(double confidenceLevel) {
+        this.confidenceLevel = confidenceLevel;
+    }
+
+    public double getConfidenceLevel() {
+        return confidenceLevel;
+    }
+
+    /**
+     * Anytime sampling: the propagation stops when it has run for {@code timeBudget} milliseconds. A propagation
+     * stopped by this criterion is not reproducible.
+     * @param timeBudget maximum time in milliseconds; 0 disables this criterion.
+     */
+    public void setTimeBudget(long timeBudget) {
+        this.timeBudget = timeBudget;
+    }
+
+    public long getTimeBudget() {
+        return timeBudget;
+    }
+
+    /**
+     * @param listener receives the estimates while the propagation is sampling.
+     */
+    public void addSamplingListener(SamplingListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeSamplingListener(SamplingListener listener) {
+        listeners.remove(listener);
+    }
+
     public double getAlgorithmExecutionTime() {
         return algorithmExecutionTime;
     }
@@ -250,8 +575,32 @@ public abstract class StochasticPropagation extends InferenceAlgorithm implement
         this.storingSamples = storingSamples;
     }
 
+    /**
+     * @return the samples of the last propagation, with a row for each sample that contains the state of each
+     * sampled variable and the weight, or {@code null} if it did not store them. The matrix is built in each call;
+     * {@link #getStoredSamples()} takes less memory.
+     */
     public double[][] getSamples() {
-        return samples;
+        return storedSamples != null ? storedSamples.toArray() : null;
+    }
+
+    /**
+     * @return the samples of the last propagation, or {@code null} if it did not store them.
+     */
+    public SampleMatrix getStoredSamples() {
+        return storedSamples;
+    }
+
+    /**
+     * @param sampleSink receives the samples of each propagation as they are drawn, for example a
+     * {@link SampleFile}. May be {@code null}
+     */
+    public void setSampleSink(SampleSink sampleSink) {
+        this.sampleSink = sampleSink;
+    }
+
+    public SampleSink getSampleSink() {
+        return sampleSink;
     }
 
 
@@ -259,6 +608,33 @@ public abstract class StochasticPropagation extends InferenceAlgorithm implement
         return numPositiveSamples;
     }
 
+    /**
+     * @return the number of samples drawn by the last propagation, which in anytime sampling may be smaller than
+     * the sample size.
+     */
+    public int getNumSamples() {
+        return numSamples;
+    }
+
+    /**
+     * @return (sum of the weights)^2 / (sum of the squared weights) of the samples of the last propagation.
+     */
+    public double getEffectiveSampleSize() {
+        return effectiveSampleSize;
+    }
+
+    /**
+     * @return for each variable of interest, the half-width of the confidence interval, with the confidence level
+     * of {@link #getConfidenceLevel()}, of the probability of each state in the last propagation.
+     */
+    public HashMap<Variable, double[]> getConfidenceHalfWidths() {
+        HashMap<Variable, double[]> halfWidths = new HashMap<>();
+        for (int indexOfVariable = 0; indexOfVariable < accumulatedProbabilities.length; indexOfVariable++) {
+            halfWidths.put(variablesOfInterest.get(indexOfVariable), getHalfWidths(indexOfVariable));
+        }
+        return halfWidths;
+    }
+
     public double getAccumulatedWeight() {
         return accumulatedWeight;
     }
@@ -267,7 +643,7 @@ public abstract class StochasticPropagation extends InferenceAlgorithm implement
      * Returns the ratio of non-null samples versus total samples.
      */
     public double getPositiveSampleRatio() {
-        return numPositiveSamples / (double) sampleSize;
+        return numPositiveSamples / (double) numSamples;
     }
 
     @Override
@@ -286,4 +662,97 @@ public abstract class StochasticPropagation extends InferenceAlgorithm implement
     private void setLastPosteriorValues(HashMap<Variable, TablePotential> lastPosteriorValues) {
         this.lastPosteriorValues = lastPosteriorValues;
     }
+
+    /**
+     * Draws the samples of a block and accumulates their weights.
+     */
+    private class SamplingTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int firstSample;
+        private final int lastSample;
+        private final Random randomGenerator;
+        // randomGenerator, if it must be positioned at each sample
+        private final QuasiRandomGenerator quasiRandomGenerator;
+
+        private final double[][] accumulatedProbabilities;
+        private final double[][] accumulatedSquaredProbabilities;
+        private double accumulatedWeight;
+        private double accumulatedSquaredWeight;
+        private int numPositiveSamples;
+
+        /**
+         * @param firstSample     index of the first sample of the block
+         * @param lastSample      index of the sample that follows the block
+         * @param randomGenerator random generator used only by this block
+         */
+        SamplingTask(int firstSample, int lastSample, Random randomGenerator) {
+            this.firstSample = firstSample;
+            this.lastSample = lastSample;
+            this.randomGenerator = randomGenerator;
+            quasiRandomGenerator = (randomGenerator instanceof QuasiRandomGenerator) ?
+                    (QuasiRandomGenerator) randomGenerator : null;
+            accumulatedProbabilities = createAccumulatedProbabilities();
+            accumulatedSquaredProbabilities = createAccumulatedProbabilities();
+        }
+
+        @Override
+        protected void compute() {
+            int numOfVariablesToSample = indexesOfVariablesToSample.length;
+            // state of each variable of samplingPlan in the sample
+            int[] configuration = new int[samplingPlan.getNumVariables()];
+            // samples not yet given to the sinks
+            boolean writing = !sinks.isEmpty();
+            int[] statesToWrite = writing ? new int[SAMPLES_PER_WRITE * numOfVariablesToSample] : null;
+            double[] weightsToWrite = writing ? new double[SAMPLES_PER_WRITE] : null;
+            int firstSampleToWrite = firstSample;
+
+            // sample and store the results
+            // for each sample...
+            for (int sampleIndex = firstSample; sampleIndex < lastSample; sampleIndex++) {
+                if (quasiRandomGenerator != null) {
+                    quasiRandomGenerator.startSample(sampleIndex);
+                }
+                double weight = sample(configuration, randomGenerator);
+
+                double squaredWeight = weight * weight;
+                accumulatedWeight += weight;
+                accumulatedSquaredWeight += squaredWeight;
+                if (weight > 0) {
+                    numPositiveSamples++;
+                }
+
+                for (int indexOfVariable = 0; indexOfVariable < accumulatedProbabilities.length; indexOfVariable++) {
+                    int indexInPlan = indexesOfVariablesOfInterest[indexOfVariable];
+                    if (indexInPlan != -1) {
+                        int state = configuration[indexInPlan];
+                        accumulatedProbabilities[indexOfVariable][state] += weight;
+                        accumulatedSquaredProbabilities[indexOfVariable][state] += squaredWeight;
+                    }
+                }
+                if (writing) {
+                    int sampleToWrite = sampleIndex - firstSampleToWrite;
+                    int position = sampleToWrite * numOfVariablesToSample;
+                    for (int indexOfVariable = 0; indexOfVariable < numOfVariablesToSample; indexOfVariable++) {
+                        statesToWrite[position + indexOfVariable] =
+                                configuration[indexesOfVariablesToSample[indexOfVariable]];
+                    }
+                    weightsToWrite[sampleToWrite] = weight;
+                    if (sampleToWrite == SAMPLES_PER_WRITE - 1 || sampleIndex == lastSample - 1) {
+                        write(firstSampleToWrite, sampleToWrite + 1, statesToWrite, weightsToWrite);
+                        firstSampleToWrite = sampleIndex + 1;
+                    }
+                }
+            }
+        }
+
+        private void write(int firstSample, int numSamples, int[] states, double[] weights) {
+            synchronized (sinks) {
+                for (SampleSink sink : sinks) {
+                    sink.write(firstSample, numSamples, states, weights);
+                }
+            }
+        }
+    }
 }
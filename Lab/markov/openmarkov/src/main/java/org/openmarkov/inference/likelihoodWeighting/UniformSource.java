@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+package org.openmarkov.inference.likelihoodWeighting;
+
+/**
+ * Source of the uniform numbers from which a stochastic propagation draws its
+ * samples. Each sample takes its numbers in order, one per dimension, and the
+ * samplers take one per variable sampled, so with the quasi-random sources
+ * the dimension of a number is the position of its variable among those
+ * sampled.
+ */
+public enum UniformSource {
+
+    /**
+     * Independent pseudo-random numbers, as given by
+     * {@link org.openmarkov.core.model.network.modelUncertainty.XORShiftRandom}.
+     */
+    PSEUDO_RANDOM,
+
+    /**
+     * The points of the Sobol sequence, from the direction numbers of Joe and
+     * Kuo, scrambled with a random digital shift. The dimensions beyond the
+     * {@value QuasiRandomGenerator#MAX_SOBOL_DIMENSION} of the sequence are
+     * pseudo-random.
+     */
+    SOBOL,
+
+    /**
+     * A Latin hypercube: in each dimension, the samples fall in a random
+     * permutation of the intervals of width <code>1 / sampleSize</code>, one
+     * sample in each interval, at a random position inside it. The strata
+     * are only complete when all the samples are drawn.
+     */
+    LATIN_HYPERCUBE
+
+}
@@ -0,0 +1,639 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+package org.openmarkov.inference.loopyBeliefPropagation;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openmarkov.core.exception.IncompatibleEvidenceException;
+import org.openmarkov.core.exception.NonProjectablePotentialException;
+import org.openmarkov.core.exception.NotEvaluableNetworkException;
+import org.openmarkov.core.exception.WrongCriterionException;
+import org.openmarkov.core.inference.InferenceAlgorithm;
+import org.openmarkov.core.inference.MessagePassingOptions;
+import org.openmarkov.core.inference.annotation.InferenceAnnotation;
+import org.openmarkov.core.inference.tasks.Propagation;
+import org.openmarkov.core.model.network.EvidenceCase;
+import org.openmarkov.core.model.network.ProbNet;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.constraint.PNConstraint;
+import org.openmarkov.core.model.network.potential.PotentialRole;
+import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations;
+import org.openmarkov.core.model.network.type.BayesianNetworkType;
+import org.openmarkov.core.model.network.type.NetworkType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Loopy belief propagation for bayesian networks. The potentials of the
+ * network, projected on the evidence, are the factors of a factor graph in
+ * which messages are passed between the factors and their variables until
+ * they do not change; the belief of a variable is the normalized product of
+ * the messages it receives. The result is exact when the network is a
+ * polytree and an approximation otherwise, but the memory needed is that of
+ * the potentials and one message per variable of each potential, so it can be
+ * used in networks whose junction trees do not fit in memory.
+ * <p>
+ * The propagation is configured by the {@link MessagePassingOptions} of the
+ * network: the tolerance and the maximum number of iterations, the damping of
+ * the updates and the schedule. In the synchronous schedule each iteration
+ * updates all the messages from the factors and then all the messages from the
+ * variables, and the factors and variables are split among the threads of
+ * {@link DiscretePotentialOperations#getPool()} when the factors are big
+ * enough; the result does not depend on the number of threads. In the residual
+ * schedule (Elidan, McGraw and Koller, 2006) the message from a factor whose
+ * new value differs most from the current one is updated first, which usually
+ * needs fewer updates.
+ */
+@InferenceAnnotation(name = "LoopyBeliefPropagation")
+public class LoopyBeliefPropagation extends InferenceAlgorithm implements Propagation {
+
+	private final Logger logger;
+
+	private EvidenceCase postResolutionEvidence;
+
+	private List<Variable> variablesOfInterest;
+
+	// factor graph of the last propagation
+
+	private Variable[] variables;
+
+	// for each factor, its table
+	private double[][] factorTables;
+
+	// for each factor, the number of states of each of its variables
+	private int[][] factorDimensions;
+
+	// for each factor, an edge for each of its variables, in the order of the table
+	private int[][] factorEdges;
+
+	// for each variable, the edges of the factors that contain it
+	private int[][] variableEdges;
+
+	// for each edge, its factor, its variable and the position of the variable in the factor
+	private int[] edgeFactors;
+
+	private int[] edgeVariables;
+
+	private int[] edgePositions;
+
+	// for each edge, the message from the factor to the variable and from the variable to the factor
+	private double[][] factorMessages;
+
+	private double[][] variableMessages;
+
+	// state of the last propagation
+
+	private int numIterations;
+
+	private double maxResidual;
+
+	private boolean converged;
+
+	private double algorithmExecutionTime;
+
+	public LoopyBeliefPropagation(ProbNet probNet) throws NotEvaluableNetworkException {
+		super(probNet);
+		logger = LogManager.getLogger(LoopyBeliefPropagation.class.getName());
+		variablesOfInterest = probNet.getVariables();
+		postResolutionEvidence = new EvidenceCase();
+	}
+
+	@Override protected List<NetworkType> getPossibleNetworkTypes() {
+		List<NetworkType> possibleNetworkTypes = new ArrayList<>();
+		possibleNetworkTypes.add(BayesianNetworkType.getUniqueInstance());
+		return possibleNetworkTypes;
+	}
+
+	@Override protected List<PNConstraint> getAdditionalConstraints() {
+		return new ArrayList<>();
+	}
+
+	/**
+	 * @return The approximate posterior probability of each unobserved
+	 * variable of interest
+	 * @throws IncompatibleEvidenceException when the post-resolution evidence
+	 * contradicts the pre-resolution evidence, when the probability of the
+	 * evidence is zero in a potential or when the beliefs of a variable are all
+	 * zero
+	 */
+	@Override public HashMap<Variable, TablePotential> getPosteriorValues() throws IncompatibleEvidenceException {
+		long startTime = System.nanoTime();
+
+		EvidenceCase fusedEvidence = new EvidenceCase(postResolutionEvidence);
+		fusedEvidence.fuse(getPreResolutionEvidence(), true);
+		buildFactorGraph(fusedEvidence);
+
+		MessagePassingOptions options = probNet.getInferenceOptions().getMessagePassingOptions();
+		if (options == null) {
+			options = new MessagePassingOptions();
+		}
+		if (options.getSchedule() == MessagePassingOptions.Schedule.RESIDUAL) {
+			propagateByResidual(options);
+		} else {
+			propagateSynchronously(options);
+		}
+		if (!converged) {
+			logger.warn("Loopy belief propagation has not converged after " + numIterations
+					+ " iterations: the largest change of a message is " + maxResidual);
+		}
+
+		HashMap<Variable, TablePotential> posteriorValues = new HashMap<>();
+		HashMap<Variable, Integer> indexes = new HashMap<>();
+		for (int variable = 0; variable < variables.length; variable++) {
+			indexes.put(variables[variable], variable);
+		}
+		for (Variable variableOfInterest : variablesOfInterest) {
+			if (fusedEvidence.contains(variableOfInterest)) {
+				continue;
+			}
+			double[] belief = new double[variableOfInterest.getNumStates()];
+			Integer variable = indexes.get(variableOfInterest);
+			if (variable == null) {
+				// the variable is in no factor
+				Arrays.fill(belief, 1.0 / belief.length);
+			} else {
+				Arrays.fill(belief, 1.0);
+				for (int edge : variableEdges[variable]) {
+					double[] message = factorMessages[edge];
+					for (int state = 0; state < belief.length; state++) {
+						belief[state] *= message[state];
+					}
+				}
+				if (!normalize(belief)) {
+					throw new IncompatibleEvidenceException(
+							"The beliefs of " + variableOfInterest.getName() + " are zero.");
+				}
+			}
+			TablePotential posteriorProbability = new TablePotential(PotentialRole.JOINT_PROBABILITY,
+					variableOfInterest);
+			posteriorProbability.values = belief;
+			posteriorValues.put(variableOfInterest, posteriorProbability);
+		}
+
+		algorithmExecutionTime = (System.nanoTime() - startTime) / 1000000.0;
+		return posteriorValues;
+	}
+
+	/**
+	 * Projects the potentials of the network on the evidence and builds the
+	 * factor graph of the projected potentials, with uniform messages.
+	 *
+	 * @param evidence findings
+	 * @throws IncompatibleEvidenceException when a constant potential is zero
+	 */
+	private void buildFactorGraph(EvidenceCase evidence) throws IncompatibleEvidenceException {
+		List<TablePotential> potentials;
+		try {
+			potentials = probNet.tableProjectPotentials(evidence);
+		} catch (NonProjectablePotentialException | WrongCriterionException e) {
+			throw new IncompatibleEvidenceException("Unexpected inference exception :" + e.getMessage());
+		}
+		List<TablePotential> factors = new ArrayList<>();
+		for (TablePotential potential : potentials) {
+			if (potential.getVariables().size() != 0) {
+				factors.add(potential);
+			} else if (potential.values[0] == 0) {
+				throw new IncompatibleEvidenceException("Incompatible evidence");
+			}
+		}
+
+		HashMap<Variable, Integer> indexes = new HashMap<>();
+		List<Variable> graphVariables = new ArrayList<>();
+		List<List<Integer>> edgesOfVariables = new ArrayList<>();
+		int numFactors = factors.size();
+		factorTables = new double[numFactors][];
+		factorDimensions = new int[numFactors][];
+		factorEdges = new int[numFactors][];
+		int numEdges = 0;
+		for (TablePotential factor : factors) {
+			numEdges += factor.getVariables().size();
+		}
+		edgeFactors = new int[numEdges];
+		edgeVariables = new int[numEdges];
+		edgePositions = new int[numEdges];
+		factorMessages = new double[numEdges][];
+		variableMessages = new double[numEdges][];
+		int edge = 0;
+		for (int factor = 0; factor < numFactors; factor++) {
+			TablePotential potential = factors.get(factor);
+			List<Variable> factorVariables = potential.getVariables();
+			factorTables[factor] = potential.values;
+			factorDimensions[factor] = potential.getDimensions();
+			factorEdges[factor] = new int[factorVariables.size()];
+			for (int position = 0; position < factorVariables.size(); position++) {
+				Variable variable = factorVariables.get(position);
+				Integer index = indexes.get(variable);
+				if (index == null) {
+					index = graphVariables.size();
+					indexes.put(variable, index);
+					graphVariables.add(variable);
+					edgesOfVariables.add(new ArrayList<Integer>());
+				}
+				edgeFactors[edge] = factor;
+				edgeVariables[edge] = index;
+				edgePositions[edge] = position;
+				int numStates = variable.getNumStates();
+				factorMessages[edge] = new double[numStates];
+				Arrays.fill(factorMessages[edge], 1.0 / numStates);
+				variableMessages[edge] = new double[numStates];
+				Arrays.fill(variableMessages[edge], 1.0 / numStates);
+				factorEdges[factor][position] = edge;
+				edgesOfVariables.get(index).add(edge);
+				edge++;
+			}
+		}
+		variables = graphVariables.toArray(new Variable[graphVariables.size()]);
+		variableEdges = new int[variables.length][];
+		for (int variable = 0; variable < variables.length; variable++) {
+			List<Integer> edges = edgesOfVariables.get(variable);
+			variableEdges[variable] = new int[edges.size()];
+			for (int i = 0; i < edges.size(); i++) {
+				variableEdges[variable][i] = edges.get(i);
+			}
+		}
+	}
+
+	/**
+	 * Updates all the messages in each iteration, first those of the factors
+	 * and then those of the variables, until no message of a factor changes
+	 * more than the tolerance.
+	 *
+	 * @param options options of the propagation
+	 */
+	private void propagateSynchronously(MessagePassingOptions options) {
+		double damping = options.getDamping();
+		long totalSize = 0;
+		for (double[] table : factorTables) {
+			totalSize += table.length;
+		}
+		int numTasks = 1;
+		if (options.isParallelUpdates() && DiscretePotentialOperations.isWorthSplitting(totalSize)) {
+			numTasks = DiscretePotentialOperations.getPool().getParallelism()
+					* DiscretePotentialOperations.tasksPerThread;
+		}
+		int[] factorLimits = split(factorTables.length, numTasks);
+		int[] variableLimits = split(variables.length, numTasks);
+
+		converged = false;
+		maxResidual = Double.POSITIVE_INFINITY;
+		for (numIterations = 0; !converged && numIterations < options.getMaxIterations(); numIterations++) {
+			List<UpdateTask> factorTasks = new ArrayList<>();
+			for (int i = 0; i + 1 < factorLimits.length; i++) {
+				factorTasks.add(new UpdateTask(true, factorLimits[i], factorLimits[i + 1], damping));
+			}
+			runTasks(factorTasks);
+			maxResidual = 0;
+			for (UpdateTask task : factorTasks) {
+				maxResidual = Math.max(maxResidual, task.residual);
+			}
+			List<UpdateTask> variableTasks = new ArrayList<>();
+			for (int i = 0; i + 1 < variableLimits.length; i++) {
+				variableTasks.add(new UpdateTask(false, variableLimits[i], variableLimits[i + 1], damping));
+			}
+			runTasks(variableTasks);
+			converged = maxResidual < options.getTolerance();
+		}
+	}
+
+	/**
+	 * @param tasks tasks, run in the calling thread when there is only one
+	 */
+	private static void runTasks(List<UpdateTask> tasks) {
+		if (tasks.size() == 1) {
+			tasks.get(0).compute();
+		} else {
+			DiscretePotentialOperations.invokeAll(tasks);
+		}
+	}
+
+	/**
+	 * @param size     number of elements
+	 * @param numParts maximum number of parts
+	 * @return The limits of the parts: part <code>i</code> goes from
+	 * <code>limits[i]</code> to <code>limits[i + 1] - 1</code>
+	 */
+	private static int[] split(int size, int numParts) {
+		numParts = Math.max(1, Math.min(numParts, size));
+		int[] limits = new int[numParts + 1];
+		for (int part = 0; part <= numParts; part++) {
+			limits[part] = (int) ((long) size * part / numParts);
+		}
+		return limits;
+	}
+
+	/**
+	 * Residual belief propagation: the new message of each factor to each of
+	 * its variables is kept pending, and the pending message that differs
+	 * most from the current one is the next to be updated. After an update the
+	 * messages from the variable to its other factors and the pending messages
+	 * of those factors are recomputed, as well as the pending message of the
+	 * edge when the updates are damped.
+	 *
+	 * @param options options of the propagation
+	 */
+	private void propagateByResidual(MessagePassingOptions options) {
+		double damping = options.getDamping();
+		int numEdges = edgeFactors.length;
+		double[][] pendingMessages = new double[numEdges][];
+		ResidualQueue queue = new ResidualQueue(numEdges);
+		int[] states = new int[getMaxNumVariablesOfFactors()];
+		for (int edge = 0; edge < numEdges; edge++) {
+			pendingMessages[edge] = new double[factorMessages[edge].length];
+			queue.set(edge, computeFactorMessage(edge, damping, states, pendingMessages[edge]));
+		}
+
+		long maxUpdates = (long) options.getMaxIterations() * numEdges;
+		long numUpdates = 0;
+		while (numEdges > 0 && queue.getMaxResidual() >= options.getTolerance() && numUpdates < maxUpdates) {
+			int edge = queue.getMaxEdge();
+			double[] message = factorMessages[edge];
+			factorMessages[edge] = pendingMessages[edge];
+			pendingMessages[edge] = message;
+			numUpdates++;
+			if (damping > 0) {
+				// a damped update only moves the message part of the way to the new one, so the rest is pending
+				queue.set(edge, computeFactorMessage(edge, damping, states, pendingMessages[edge]));
+			} else {
+				queue.set(edge, 0);
+			}
+			for (int variableEdge : variableEdges[edgeVariables[edge]]) {
+				if (variableEdge != edge) {
+					computeVariableMessage(variableEdge, variableMessages[variableEdge]);
+					for (int factorEdge : factorEdges[edgeFactors[variableEdge]]) {
+						if (factorEdge != variableEdge) {
+							queue.set(factorEdge,
+									computeFactorMessage(factorEdge, damping, states, pendingMessages[factorEdge]));
+						}
+					}
+				}
+			}
+		}
+		maxResidual = numEdges > 0 ? queue.getMaxResidual() : 0;
+		converged = maxResidual < options.getTolerance();
+		numIterations = numEdges > 0 ? (int) ((numUpdates + numEdges - 1) / numEdges) : 0;
+	}
+
+	private int getMaxNumVariablesOfFactors() {
+		int maxNumVariables = 0;
+		for (int[] edges : factorEdges) {
+			maxNumVariables = Math.max(maxNumVariables, edges.length);
+		}
+		return maxNumVariables;
+	}
+
+	/**
+	 * Computes the message of the factor of an edge to its variable: the sum,
+	 * for each state of the variable, of the table of the factor multiplied by
+	 * the messages of its other variables, normalized and damped.
+	 *
+	 * @param edge    edge
+	 * @param damping weight of the current message
+	 * @param states  buffer for the configuration of the factor
+	 * @param message receives the new message
+	 * @return The largest difference between the new message and the current
+	 * one
+	 */
+	private double computeFactorMessage(int edge, double damping, int[] states, double[] message) {
+		int factor = edgeFactors[edge];
+		int target = edgePositions[edge];
+		int[] edges = factorEdges[factor];
+		int[] dimensions = factorDimensions[factor];
+		double[] table = factorTables[factor];
+		int numVariables = edges.length;
+		Arrays.fill(states, 0, numVariables, 0);
+		Arrays.fill(message, 0);
+		for (int position = 0; position < table.length; position++) {
+			double value = table[position];
+			if (value != 0) {
+				for (int j = 0; j < numVariables && value != 0; j++) {
+					if (j != target) {
+						value *= variableMessages[edges[j]][states[j]];
+					}
+				}
+				message[states[target]] += value;
+			}
+			// next configuration of the factor
+			for (int j = 0; j < numVariables; j++) {
+				if (++states[j] < dimensions[j]) {
+					break;
+				}
+				states[j] = 0;
+			}
+		}
+		normalize(message);
+		double[] current = factorMessages[edge];
+		double residual = 0;
+		for (int state = 0; state < message.length; state++) {
+			if (damping > 0) {
+				message[state] = (1 - damping) * message[state] + damping * current[state];
+			}
+			residual = Math.max(residual, Math.abs(message[state] - current[state]));
+		}
+		return residual;
+	}
+
+	/**
+	 * Computes the message of the variable of an edge to its factor: the
+	 * product of the messages of the other factors of the variable,
+	 * normalized.
+	 *
+	 * @param edge    edge
+	 * @param message receives the message
+	 */
+	private void computeVariableMessage(int edge, double[] message) {
+		Arrays.fill(message, 1.0);
+		for (int otherEdge : variableEdges[edgeVariables[edge]]) {
+			if (otherEdge != edge) {
+				double[] factorMessage = factorMessages[otherEdge];
+				for (int state = 0; state < message.length; state++) {
+					message[state] *= factorMessage[state];
+				}
+			}
+		}
+		normalize(message);
+	}
+
+	/**
+	 * @param values values
+	 * @return <code>false</code> if they add up to zero, in which case they
+	 * are not modified
+	 */
+	private static boolean normalize(double[] values) {
+		double sum = 0;
+		for (double value : values) {
+			sum += value;
+		}
+		if (sum == 0) {
+			return false;
+		}
+		for (int i = 0; i < values.length; i++) {
+			values[i] /= sum;
+		}
+		return true;
+	}
+
+	@Override public void setPostResolutionEvidence(EvidenceCase postResolutionEvidence) {
+		this.postResolutionEvidence = postResolutionEvidence;
+	}
+
+	@Override public void setVariablesOfInterest(List<Variable> variablesOfInterest) {
+		this.variablesOfInterest = variablesOfInterest;
+	}
+
+	/**
+	 * @return <code>true</code> if, in the last propagation, the messages
+	 * changed less than the tolerance before the maximum number of iterations
+	 */
+	public boolean isConverged() {
+		return converged;
+	}
+
+	/**
+	 * @return Number of iterations of the last propagation. In the residual
+	 * schedule, the number of updates divided by the number of messages,
+	 * rounded up
+	 */
+	public int getNumIterations() {
+		return numIterations;
+	}
+
+	/**
+	 * @return Largest change of a message in the last iteration of the last
+	 * propagation
+	 */
+	public double getMaxResidual() {
+		return maxResidual;
+	}
+
+	public double getAlgorithmExecutionTime() {
+		return algorithmExecutionTime;
+	}
+
+	/**
+	 * Updates the messages of a range of factors or of variables in the
+	 * synchronous schedule. The messages of the factors only read the
+	 * messages of the variables and vice versa, so the tasks of a phase are
+	 * independent.
+	 */
+	private class UpdateTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final boolean factors;
+
+		private final int first;
+
+		private final int last;
+
+		private final double damping;
+
+		// largest change of a message of the factors
+		private double residual;
+
+		UpdateTask(boolean factors, int first, int last, double damping) {
+			this.factors = factors;
+			this.first = first;
+			this.last = last;
+			this.damping = damping;
+		}
+
+		@Override protected void compute() {
+			if (factors) {
+				int[] states = new int[getMaxNumVariablesOfFactors()];
+				double[] message = new double[0];
+				for (int factor = first; factor < last; factor++) {
+					for (int edge : factorEdges[factor]) {
+						if (message.length != factorMessages[edge].length) {
+							message = new double[factorMessages[edge].length];
+						}
+						residual = Math.max(residual, computeFactorMessage(edge, damping, states, message));
+						System.arraycopy(message, 0, factorMessages[edge], 0, message.length);
+					}
+				}
+			} else {
+				for (int variable = first; variable < last; variable++) {
+					for (int edge : variableEdges[variable]) {
+						computeVariableMessage(edge, variableMessages[edge]);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Binary heap of the edges ordered by the residual of their pending
+	 * messages, with the position of each edge so that its residual can be
+	 * changed.
+	 */
+	private static class ResidualQueue {
+
+		private final int[] heap;
+
+		private final int[] positions;
+
+		private final double[] residuals;
+
+		ResidualQueue(int numEdges) {
+			heap = new int[numEdges];
+			positions = new int[numEdges];
+			residuals = new double[numEdges];
+			for (int edge = 0; edge < numEdges; edge++) {
+				heap[edge] = edge;
+				positions[edge] = edge;
+			}
+		}
+
+		int getMaxEdge() {
+			return heap[0];
+		}
+
+		double getMaxResidual() {
+			return residuals[heap[0]];
+		}
+
+		void set(int edge, double residual) {
+			double oldResidual = residuals[edge];
+			residuals[edge] = residual;
+			int position = positions[edge];
+			if (residual > oldResidual) {
+				// sift up
+				while (position > 0 && residuals[heap[(position - 1) / 2]] < residual) {
+					move(heap[(position - 1) / 2], position);
+					position = (position - 1) / 2;
+				}
+			} else {
+				// sift down
+				while (true) {
+					int child = 2 * position + 1;
+					if (child >= heap.length) {
+						break;
+					}
+					if (child + 1 < heap.length && residuals[heap[child + 1]] > residuals[heap[child]]) {
+						child++;
+					}
+					if (residuals[heap[child]] <= residual) {
+						break;
+					}
+					move(heap[child], position);
+					position = child;
+				}
+			}
+			move(edge, position);
+		}
+
+		private void move(int edge, int position) {
+			heap[position] = edge;
+			positions[edge] = position;
+		}
+	}
+
+}
@@ -8,10 +8,12 @@
 package org.openmarkov.inference.variableElimination;
 
 import org.openmarkov.core.exception.CostEffectivenessException;
+import org.openmarkov.core.inference.ParallelOptions;
 import org.openmarkov.core.model.network.Variable;
 import org.openmarkov.core.model.network.potential.GTablePotential;
 import org.openmarkov.core.model.network.potential.TablePotential;
 import org.openmarkov.core.model.network.potential.operation.DiscretePotentialOperations;
+import org.openmarkov.core.model.network.potential.operation.PotentialOperationsDispatcher;
 import org.openmarkov.inference.variableElimination.operation.CEPotentialOperation;
 
 import java.util.ArrayList;
@@ -27,6 +29,20 @@ public class ChanceVariableElimination {
 
 	public ChanceVariableElimination(Variable variableToDelete, List<TablePotential> probPotentials,
 			List<TablePotential> inputUtilityPotentials) throws CostEffectivenessException {
+		this(variableToDelete, probPotentials, inputUtilityPotentials, null);
+	}
+
+	/**
+	 * @param variableToDelete       chance variable to sum out
+	 * @param probPotentials         probability potentials that depend on the variable
+	 * @param inputUtilityPotentials utility potentials that depend on the variable
+	 * @param parallelOptions        decide when the operations are computed concurrently.
+	 *                               May be {@code null}
+	 * @throws CostEffectivenessException CostEffectivenessException
+	 */
+	public ChanceVariableElimination(Variable variableToDelete, List<TablePotential> probPotentials,
+			List<TablePotential> inputUtilityPotentials, ParallelOptions parallelOptions)
+			throws CostEffectivenessException {
 
 		List<TablePotential> utilityPotentialsByCriterion = DiscretePotentialOperations
 				.sumByCriterion(inputUtilityPotentials);
@@ -35,12 +51,14 @@ public class ChanceVariableElimination {
 
 		if (inputUtilityPotentials.isEmpty()) {
 			// add the marginal probability to the network
-			marginalProbability = DiscretePotentialOperations.multiplyAndMarginalize(probPotentials, variableToDelete);
+			marginalProbability = PotentialOperationsDispatcher
+					.multiplyAndMarginalize(probPotentials, variableToDelete, parallelOptions);
 		} else {
-			TablePotential jointProbability = DiscretePotentialOperations.multiply(probPotentials);
-			marginalProbability = DiscretePotentialOperations.marginalize(jointProbability, variableToDelete);
-			TablePotential conditionalProbability = DiscretePotentialOperations
-					.divide(jointProbability, marginalProbability);
+			TablePotential jointProbability = PotentialOperationsDispatcher.multiply(probPotentials, parallelOptions);
+			marginalProbability = PotentialOperationsDispatcher
+					.marginalize(jointProbability, variableToDelete, parallelOptions);
+			TablePotential conditionalProbability = PotentialOperationsDispatcher
+					.divide(jointProbability, marginalProbability, parallelOptions);
 			//Set to 0 every NaN cell in conditionalProbability
 			double[] conditionalProbabilityValues = conditionalProbability.values;
 			for (int i = 0; i < conditionalProbabilityValues.length; i++) {
@@ -15,6 +15,8 @@ import org.openmarkov.core.exception.NonProjectablePotentialException;
 import org.openmarkov.core.exception.PotentialOperationException;
 import org.openmarkov.core.exception.UnexpectedInferenceException;
 import org.openmarkov.core.exception.WrongCriterionException;
+import org.openmarkov.core.inference.InferenceOptions;
+import org.openmarkov.core.inference.ParallelOptions;
 import org.openmarkov.core.inference.heuristic.EliminationHeuristic;
 import org.openmarkov.core.model.network.Criterion;
 import org.openmarkov.core.model.network.NodeType;
@@ -25,6 +27,7 @@ import org.openmarkov.core.model.network.potential.Potential;
 import org.openmarkov.core.model.network.potential.PotentialRole;
 import org.openmarkov.core.model.network.potential.TablePotential;
 import org.openmarkov.core.model.network.potential.operation.DiscretePotentialOperations;
+import org.openmarkov.core.model.network.potential.operation.PotentialOperationsDispatcher;
 import org.openmarkov.inference.variableElimination.action.CreatePotentialUtility;
 
 import java.util.ArrayList;
@@ -66,6 +69,11 @@ public class VariableEliminationCore {
 
 	private EliminationHeuristic heuristic;
 
+	/**
+	 * Decide when the operations are computed concurrently
+	 */
+	private ParallelOptions parallelOptions;
+
 	/**
 	 * Decision variables with their policies.
 	 */
@@ -166,7 +174,7 @@ public class VariableEliminationCore {
 		pneSupport.doEdit(removeNodeEdit);
 		if (nodeType == NodeType.CHANCE) {
 			ChanceVariableElimination elimination = new ChanceVariableElimination(variableToDelete, probPotentials,
-					utilityPotentials);
+					utilityPotentials, parallelOptions);
 			markovDecisionNetwork.addPotential(elimination.getMarginalProbability());
 			for (Potential potential : elimination.getUtilityPotentials()) {
 				markovDecisionNetwork.addPotential(potential);
@@ -316,7 +324,7 @@ public class VariableEliminationCore {
 				probPotentials.add((TablePotential) potential);
 			}
 		}
-		return DiscretePotentialOperations.multiply(probPotentials);
+		return PotentialOperationsDispatcher.multiply(probPotentials, parallelOptions);
 	}
 
 	/**
@@ -331,6 +339,8 @@ public class VariableEliminationCore {
 		thereIsCEPPotential = false;
 		this.markovDecisionNetwork = markovDecisionNetwork;
 		this.heuristic = heuristic;
+		InferenceOptions inferenceOptions = markovDecisionNetwork.getInferenceOptions();
+		parallelOptions = (inferenceOptions != null) ? inferenceOptions.getParallelOptions() : null;
 
 		pneSupport = markovDecisionNetwork.getPNESupport();
 		pneSupport.addUndoableEditListener(heuristic);
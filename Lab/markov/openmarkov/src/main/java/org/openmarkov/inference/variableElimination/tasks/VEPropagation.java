@@ -17,9 +17,12 @@ import org.openmarkov.core.exception.NotEvaluableNetworkException;
 import org.openmarkov.core.exception.UnexpectedInferenceException;
 import org.openmarkov.core.exception.WrongCriterionException;
 import org.openmarkov.core.inference.MulticriteriaOptions;
+import org.openmarkov.core.inference.ParallelOptions;
 import org.openmarkov.core.inference.heuristic.EliminationHeuristic;
+import org.openmarkov.core.inference.tasks.BatchPropagation;
 import org.openmarkov.core.inference.tasks.Propagation;
 import org.openmarkov.core.inference.tasks.TaskUtilities;
+import org.openmarkov.core.io.database.CaseDatabase;
 import org.openmarkov.core.model.network.EvidenceCase;
 import org.openmarkov.core.model.network.Finding;
 import org.openmarkov.core.model.network.Node;
@@ -34,13 +37,21 @@ import org.openmarkov.core.model.network.potential.Potential;
 import org.openmarkov.core.model.network.potential.PotentialRole;
 import org.openmarkov.core.model.network.potential.TablePotential;
 import org.openmarkov.core.model.network.potential.operation.DiscretePotentialOperations;
+import org.openmarkov.inference.huginPropagation.ClusterOfVariables;
+import org.openmarkov.inference.huginPropagation.CompiledJunctionTree;
+import org.openmarkov.inference.huginPropagation.HuginPropagation;
 import org.openmarkov.inference.variableElimination.VariableEliminationCore;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Task: propagation
@@ -58,13 +69,39 @@ import java.util.List;
  * @author artasom
  */
 
-public class VEPropagation extends VariableElimination implements Propagation {
+public class VEPropagation extends VariableElimination implements Propagation, BatchPropagation {
 
-	// Attributes
-	private VariableEliminationCore variableEliminationCore = null;
+	// Constants
+	/**
+	 * Default value of {@link #setJoinTreeThreshold(int)}
+	 */
+	public static final int DEFAULT_JOIN_TREE_THRESHOLD = 3;
 
+	/**
+	 * Maximum ratio between the size of the junction tree shared by the cases
+	 * with findings for the same variables and the size of the junction tree
+	 * with the findings of a case projected. The observed variables split the
+	 * cliques of the latter, so above this ratio the propagation in the shared
+	 * junction tree costs more than compiling one junction tree for each case
+	 */
+	private static final int MAX_SHARED_JUNCTION_TREE_RATIO = 2;
+
+	// Attributes
 	private HashMap<Variable, TablePotential> posteriorValues;
 
+	/**
+	 * True when the optimal policies have been imposed and the network has
+	 * been transformed for variable elimination
+	 */
+	private boolean preprocessed;
+
+	/**
+	 * Number of variables of interest, not observed, from which all the
+	 * posterior values are computed by one propagation in a junction tree
+	 * instead of one elimination for each variable
+	 */
+	private int joinTreeThreshold = DEFAULT_JOIN_TREE_THRESHOLD;
+
 	/**
 	 * Evidence when the network has been resolved.
 	 * In influence diagrams this is Luque and Diez's evidence.
@@ -116,8 +153,20 @@ public class VEPropagation extends VariableElimination implements Propagation {
 
 	private void resolve() throws IncompatibleEvidenceException, NotEvaluableNetworkException {
 //		LogManager.getLogger(getClass()).trace("Resolving VEPropagation");
-		posteriorValues = new HashMap<>();
-		boolean isTemporal = !probNet.hasConstraint(OnlyAtemporalVariables.class);
+		preprocess();
+		probNet = TaskUtilities.extendPostResolutionEvidence(probNet, getPostResolutionEvidence());
+		posteriorValues = propagate(getAllEvidence(), variablesOfInterest, null, new HashMap<Variable, ProbNet>());
+	}
+
+	/**
+	 * Imposes the optimal policies and transforms the network into a network
+	 * that variable elimination can evaluate. It is done once for all the
+	 * evidence cases.
+	 */
+	private void preprocess() throws IncompatibleEvidenceException, NotEvaluableNetworkException {
+		if (preprocessed) {
+			return;
+		}
 		List<Node> decisionNodes = probNet.getNodes(NodeType.DECISION);
 
 		try {
@@ -137,11 +186,44 @@ public class VEPropagation extends VariableElimination implements Propagation {
 //		unicriterionPreprocess();
 		// TODO - Implement: For each super-value node, create a new node whose parents are all chance or decision nodes
 		exactAlgorithmsPreprocessing();
-		probNet = TaskUtilities.extendPostResolutionEvidence(probNet, getPostResolutionEvidence());
+		preprocessed = true;
+	}
 
+	/**
+	 * Computes the posterior values for an evidence case. It does not modify
+	 * the state of this object, so several cases can be propagated
+	 * concurrently. When at least {@link #getJoinTreeThreshold()} variables
+	 * of interest are not observed and the network can be evaluated by a
+	 * junction tree, their posterior values are obtained from the same
+	 * messages of a junction tree; otherwise, a variable elimination is run
+	 * for each variable.
+	 *
+	 * @param evidence            pre-resolution and post-resolution evidence
+	 * @param variablesOfInterest variables whose posterior values are computed
+	 * @param junctionTree        junction tree compiled, without findings, for
+	 *                            the observed variables of
+	 *                            <code>evidence</code>, which the cases with
+	 *                            findings for the same variables can share.
+	 *                            When it is <code>null</code>, the evidence is
+	 *                            projected on the network pruned for the
+	 *                            variables not observed, which is compiled into
+	 *                            a junction tree for this case only
+	 * @param prunedNetworks      network pruned for each variable of interest.
+	 *                            The pruning depends only on the variables of
+	 *                            the evidence, so the cases with findings for
+	 *                            the same variables can share it. The networks
+	 *                            not found are pruned and added
+	 * @return The posterior value of each variable of interest
+	 * @throws IncompatibleEvidenceException IncompatibleEvidenceException
+	 */
+	private HashMap<Variable, TablePotential> propagate(EvidenceCase evidence, List<Variable> variablesOfInterest,
+			CompiledJunctionTree junctionTree, Map<Variable, ProbNet> prunedNetworks)
+			throws IncompatibleEvidenceException {
+		HashMap<Variable, TablePotential> posteriorValues = new HashMap<>();
 		List<Variable> variablesOfInterestBelongingToEvidence = new ArrayList<>();
-		EvidenceCase evidence = getAllEvidence();
 		List<Variable> evidenceVariables = evidence.getVariables();
+		List<Variable> variablesNotObserved = new ArrayList<>();
+		List<Variable> variablesNotObservedInProbNet = new ArrayList<>();
 
 		if (variablesOfInterest != null) {
 			for (Variable variableOfInterest : variablesOfInterest) {
@@ -150,10 +232,8 @@ public class VEPropagation extends VariableElimination implements Propagation {
 					if (evidenceVariables.contains(variableOfInterestInProbnet)) {
 						variablesOfInterestBelongingToEvidence.add(variableOfInterestInProbnet);
 					} else {
-						ProbNet preprocessedNetwork = pruneNetwork(probNet.copy(), variableOfInterest);
-						ProbNet markovNetwork = TaskUtilities
-								.projectTablesAndBuildMarkovDecisionNetwork(preprocessedNetwork, evidence);
-						InvokeVariableEliminationCore(markovNetwork, evidence, variableOfInterest);
+						variablesNotObserved.add(variableOfInterest);
+						variablesNotObservedInProbNet.add(variableOfInterestInProbnet);
 					}
 				} catch (NodeNotFoundException e) {
 					e.printStackTrace();
@@ -161,6 +241,30 @@ public class VEPropagation extends VariableElimination implements Propagation {
 			}
 		}
 
+		HashMap<Variable, TablePotential> junctionTreeValues = null;
+		if (variablesNotObserved.size() >= joinTreeThreshold) {
+			junctionTreeValues = propagateJunctionTree(junctionTree, variablesNotObservedInProbNet, evidence);
+		}
+		if (junctionTreeValues != null) {
+			for (int i = 0; i < variablesNotObserved.size(); i++) {
+				posteriorValues.put(variablesNotObserved.get(i),
+						junctionTreeValues.get(variablesNotObservedInProbNet.get(i)));
+			}
+		} else {
+			for (Variable variableOfInterest : variablesNotObserved) {
+				ProbNet preprocessedNetwork = prunedNetworks.get(variableOfInterest);
+				if (preprocessedNetwork == null) {
+					preprocessedNetwork = pruneNetwork(probNet.copy(), Collections.singletonList(variableOfInterest),
+							evidence);
+					prunedNetworks.put(variableOfInterest, preprocessedNetwork);
+				}
+				ProbNet markovNetwork = TaskUtilities
+						.projectTablesAndBuildMarkovDecisionNetwork(preprocessedNetwork, evidence);
+				posteriorValues.put(variableOfInterest,
+						InvokeVariableEliminationCore(markovNetwork, evidence, variableOfInterest));
+			}
+		}
+
 		// We have to create a potential for each variable of interest that belongs to the evidence
 		TablePotential probPotential = null;
 		DeltaPotential deltaPotential;
@@ -180,13 +284,96 @@ public class VEPropagation extends VariableElimination implements Propagation {
 				e.printStackTrace();
 			}
 		}
+		return posteriorValues;
+	}
+
+	/**
+	 * Computes the posterior values of <code>variablesOfInterest</code> by a
+	 * propagation in a junction tree.
+	 *
+	 * @param junctionTree        junction tree compiled for the observed
+	 *                            variables of <code>evidence</code>, or
+	 *                            <code>null</code> to compile one with
+	 *                            <code>evidence</code> projected
+	 * @param variablesOfInterest variables of <code>probNet</code> not observed
+	 * @param evidence            pre-resolution and post-resolution evidence
+	 * @return The posterior value of each variable of interest, or
+	 * <code>null</code> when the network can not be evaluated by a junction
+	 * tree
+	 * @throws IncompatibleEvidenceException IncompatibleEvidenceException
+	 */
+	private HashMap<Variable, TablePotential> propagateJunctionTree(CompiledJunctionTree junctionTree,
+			List<Variable> variablesOfInterest, EvidenceCase evidence) throws IncompatibleEvidenceException {
+		boolean evidenceProjected = junctionTree == null;
+		if (evidenceProjected) {
+			junctionTree = compileJunctionTree(variablesOfInterest, evidence, true);
+			if (junctionTree == null) {
+				return null;
+			}
+		}
+		try {
+			HuginPropagation junctionTreePropagation = junctionTree.createPropagation();
+			// One variable of each tree is also queried, so that the normalization
+			// detects the evidence that is incompatible with a tree that does not
+			// contain any variable of interest
+			List<Variable> junctionTreeQuery = new ArrayList<>(variablesOfInterest);
+			for (ClusterOfVariables rootCluster : junctionTreePropagation.getClusterForest().getRootClusters()) {
+				List<Variable> clusterVariables = rootCluster.getVariables();
+				if (!clusterVariables.isEmpty() && !junctionTreeQuery.contains(clusterVariables.get(0))) {
+					junctionTreeQuery.add(clusterVariables.get(0));
+				}
+			}
+			if (evidenceProjected) {
+				return junctionTreePropagation.getPosteriorValues(junctionTreeQuery);
+			}
+			HashMap<Variable, TablePotential> junctionTreeValues = junctionTreePropagation
+					.getPosteriorValues(Collections.singletonList(evidence), junctionTreeQuery).get(0);
+			if (junctionTreeValues == null) {
+				throw new IncompatibleEvidenceException("The evidence is incompatible with the network.");
+			}
+			return junctionTreeValues;
+		} catch (NotEvaluableNetworkException e) {
+			// each variable is computed by a variable elimination
+			return null;
+		}
+	}
 
+	/**
+	 * Compiles the network pruned for <code>variablesOfInterest</code> and
+	 * the observed variables of <code>evidence</code> into a junction tree.
+	 *
+	 * @param variablesOfInterest variables not observed
+	 * @param evidence            pre-resolution and post-resolution evidence
+	 * @param projectEvidence     when <code>true</code>, the findings of
+	 *                            <code>evidence</code> are projected into the
+	 *                            junction tree, which is only valid for them;
+	 *                            otherwise, it is valid for any evidence case
+	 *                            with findings for the same variables
+	 * @return The junction tree, or <code>null</code> when the network has
+	 * decisions or utilities, there are conditioning variables or the network
+	 * can not be compiled
+	 * @throws IncompatibleEvidenceException IncompatibleEvidenceException
+	 */
+	private CompiledJunctionTree compileJunctionTree(List<Variable> variablesOfInterest, EvidenceCase evidence,
+			boolean projectEvidence) throws IncompatibleEvidenceException {
+		List<Variable> conditioningVariables = getConditioningVariables();
+		if ((conditioningVariables != null && !conditioningVariables.isEmpty())
+				|| !probNet.getNodes(NodeType.DECISION).isEmpty() || !probNet.getNodes(NodeType.UTILITY).isEmpty()) {
+			return null;
+		}
+		ProbNet prunedNetwork = pruneNetwork(probNet.copy(), variablesOfInterest, evidence);
+		try {
+			return new CompiledJunctionTree(prunedNetwork, projectEvidence ? evidence : null, null);
+		} catch (NotEvaluableNetworkException e) {
+			// each variable is computed by a variable elimination
+			return null;
+		}
 	}
 
 	// Methods
 
-	private void InvokeVariableEliminationCore(ProbNet network, EvidenceCase evidence, Variable variableOfInterest)
-			throws IncompatibleEvidenceException {
+	private TablePotential InvokeVariableEliminationCore(ProbNet network, EvidenceCase evidence,
+			Variable variableOfInterest) throws IncompatibleEvidenceException {
 		// Build list of variables to eliminate
 		List<Variable> variablesToEliminate = probNet.getChanceAndDecisionVariables();
 		variablesToEliminate.remove(variableOfInterest);
@@ -196,6 +383,7 @@ public class VEPropagation extends VariableElimination implements Propagation {
 		EliminationHeuristic heuristic = heuristicFactory(network, new ArrayList<Variable>(), evidence.getVariables(),
 				getConditioningVariables(), variablesToEliminate);
 
+		VariableEliminationCore variableEliminationCore = null;
 		try {
 			variableEliminationCore = new VariableEliminationCore(network, heuristic, true);
 		} catch (UnexpectedInferenceException e) {
@@ -238,29 +426,35 @@ public class VEPropagation extends VariableElimination implements Propagation {
 			}
 		}
 
-		posteriorValues.put(variableOfInterest, posteriorValue);
+		return posteriorValue;
 	}
 
 	/**
 	 * @param preprocessedNetwork
-	 * @param variableOfInterest
+	 * @param variablesOfInterest
+	 * @param evidence
 	 * @return
-	 * @throws IncompatibleEvidenceException
 	 */
-	private ProbNet pruneNetwork(ProbNet preprocessedNetwork, Variable variableOfInterest)
-			throws IncompatibleEvidenceException {
-		//Prune all the nodes except the variable of interest and its ancestors (and the corresponding findings).
+	private ProbNet pruneNetwork(ProbNet preprocessedNetwork, List<Variable> variablesOfInterest,
+			EvidenceCase evidence) {
+		//Prune all the nodes except the variables of interest and their ancestors (and the corresponding findings).
 		List<Variable> variablesNotToBePruned = new ArrayList<>();
-		variablesNotToBePruned.add(variableOfInterest);
-		for (Node node : ProbNetOperations.getNodeAncestors(preprocessedNetwork.getNode(variableOfInterest))) {
-			variablesNotToBePruned.add(node.getVariable());
+		for (Variable variableOfInterest : variablesOfInterest) {
+			if (!variablesNotToBePruned.contains(variableOfInterest)) {
+				variablesNotToBePruned.add(variableOfInterest);
+			}
+			for (Node node : ProbNetOperations.getNodeAncestors(preprocessedNetwork.getNode(variableOfInterest))) {
+				if (!variablesNotToBePruned.contains(node.getVariable())) {
+					variablesNotToBePruned.add(node.getVariable());
+				}
+			}
 		}
-		for (Finding finding : getAllEvidence().getFindings()) {
+		for (Finding finding : evidence.getFindings()) {
 			if (!variablesNotToBePruned.contains(finding.getVariable())) {
 				variablesNotToBePruned.add(finding.getVariable());
 			}
 		}
-		return ProbNetOperations.getPruned(preprocessedNetwork, variablesNotToBePruned, getAllEvidence());
+		return ProbNetOperations.getPruned(preprocessedNetwork, variablesNotToBePruned, evidence);
 	}
 
 	@Override public HashMap<Variable, TablePotential> getPosteriorValues()
@@ -271,6 +465,171 @@ public class VEPropagation extends VariableElimination implements Propagation {
 		return posteriorValues;
 	}
 
+	/**
+	 * Preprocesses the network once and propagates each group of cases with
+	 * the same observed variables in a task of the pool of the concurrent
+	 * operations. The cases with findings for the same variables share the
+	 * junction tree compiled for them, when the posterior values are computed
+	 * by a junction tree, and the cases of a group share the network pruned
+	 * for each variable of interest; only the propagation or the projection of
+	 * the evidence and the elimination are repeated for each case.
+	 */
+	@Override public List<HashMap<Variable, TablePotential>> getPosteriorValues(List<EvidenceCase> evidenceCases,
+			final List<Variable> variablesOfInterest) throws NotEvaluableNetworkException, NodeNotFoundException {
+		final List<HashMap<Variable, TablePotential>> posteriorValues = new ArrayList<>(
+				Collections.<HashMap<Variable, TablePotential>>nCopies(evidenceCases.size(), null));
+		try {
+			preprocess();
+		} catch (IncompatibleEvidenceException e) {
+			// the pre-resolution evidence is incompatible with every case
+			return posteriorValues;
+		}
+		// the variables of the preprocessed network, looked up before any case
+		// is propagated
+		final List<Variable> variablesOfInterestInProbNet = new ArrayList<>();
+		if (variablesOfInterest != null) {
+			for (Variable variableOfInterest : variablesOfInterest) {
+				variablesOfInterestInProbNet.add(probNet.getVariable(variableOfInterest.getName()));
+			}
+		}
+
+		// the evidence is extended before grouping the cases, because it may
+		// receive new findings
+		final List<EvidenceCase> compatibleEvidence = new ArrayList<>();
+		final List<Integer> caseIndexes = new ArrayList<>();
+		for (int i = 0; i < evidenceCases.size(); i++) {
+			EvidenceCase evidence = new EvidenceCase(getPreResolutionEvidence());
+			try {
+				evidence.addFindings(evidenceCases.get(i).getFindings());
+				evidence.extendEvidence(probNet);
+				compatibleEvidence.add(evidence);
+				caseIndexes.add(i);
+			} catch (IncompatibleEvidenceException | InvalidStateException | WrongCriterionException e) {
+				// posteriorValues.get(i) remains null
+			}
+		}
+
+		ParallelOptions parallelOptions = probNet.getInferenceOptions().getParallelOptions();
+		int parallelism = org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations
+				.getPool().getParallelism();
+		final boolean concurrent = parallelOptions != null && parallelOptions.isParallelPropagation() && parallelism > 1;
+		int maxGroupSize = Math.max(1, compatibleEvidence.size());
+		if (concurrent) {
+			int numTasks = parallelism
+					* org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations.tasksPerThread;
+			maxGroupSize = Math.max(1, (compatibleEvidence.size() + numTasks - 1) / numTasks);
+		}
+
+		// the groups of each pattern of observed variables are consecutive
+		Map<Set<Variable>, List<List<Integer>>> patterns = new LinkedHashMap<>();
+		for (List<Integer> group : TaskUtilities.groupByEvidenceVariables(compatibleEvidence, maxGroupSize)) {
+			Set<Variable> pattern = new HashSet<>(compatibleEvidence.get(group.get(0)).getVariables());
+			List<List<Integer>> patternGroups = patterns.get(pattern);
+			if (patternGroups == null) {
+				patternGroups = new ArrayList<>();
+				patterns.put(pattern, patternGroups);
+			}
+			patternGroups.add(group);
+		}
+
+		List<RecursiveAction> tasks = new ArrayList<>();
+		for (final List<List<Integer>> patternGroups : patterns.values()) {
+			tasks.add(new RecursiveAction() {
+				@Override protected void compute() {
+					List<EvidenceCase> patternCases = new ArrayList<>();
+					for (List<Integer> group : patternGroups) {
+						for (int i : group) {
+							patternCases.add(compatibleEvidence.get(i));
+						}
+					}
+					final CompiledJunctionTree junctionTree = compilePatternJunctionTree(patternCases,
+							variablesOfInterestInProbNet);
+					List<RecursiveAction> groupTasks = new ArrayList<>();
+					for (final List<Integer> group : patternGroups) {
+						groupTasks.add(new RecursiveAction() {
+							@Override protected void compute() {
+								Map<Variable, ProbNet> prunedNetworks = new HashMap<>();
+								for (int i : group) {
+									try {
+										posteriorValues.set(caseIndexes.get(i),
+												propagate(compatibleEvidence.get(i), variablesOfInterest,
+														junctionTree, prunedNetworks));
+									} catch (IncompatibleEvidenceException e) {
+										posteriorValues.set(caseIndexes.get(i), null);
+									}
+								}
+							}
+						});
+					}
+					if (concurrent && groupTasks.size() > 1) {
+						org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations
+								.invokeAll(groupTasks);
+					} else {
+						for (RecursiveAction groupTask : groupTasks) {
+							groupTask.invoke();
+						}
+					}
+				}
+			});
+		}
+		if (concurrent && tasks.size() > 1) {
+			org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations
+					.invokeAll(tasks);
+		} else {
+			for (RecursiveAction task : tasks) {
+				task.invoke();
+			}
+		}
+		return posteriorValues;
+	}
+
+	/**
+	 * Compiles the junction tree shared by the cases with findings for the
+	 * same variables.
+	 *
+	 * @param patternCases        cases with findings for the same variables
+	 * @param variablesOfInterest variables of <code>probNet</code> whose
+	 *                            posterior values are computed
+	 * @return The junction tree, without findings, or <code>null</code> when
+	 * the posterior values are computed by variable elimination or the
+	 * shared junction tree is more than
+	 * {@link #MAX_SHARED_JUNCTION_TREE_RATIO} times larger than the estimated
+	 * size of the junction tree with the findings of a case projected
+	 */
+	private CompiledJunctionTree compilePatternJunctionTree(List<EvidenceCase> patternCases,
+			List<Variable> variablesOfInterest) {
+		EvidenceCase evidence = patternCases.get(0);
+		List<Variable> evidenceVariables = evidence.getVariables();
+		List<Variable> variablesNotObserved = new ArrayList<>();
+		for (Variable variableOfInterest : variablesOfInterest) {
+			if (!evidenceVariables.contains(variableOfInterest)) {
+				variablesNotObserved.add(variableOfInterest);
+			}
+		}
+		if (variablesNotObserved.size() < joinTreeThreshold) {
+			return null;
+		}
+		CompiledJunctionTree junctionTree;
+		try {
+			junctionTree = compileJunctionTree(variablesNotObserved, evidence, false);
+		} catch (IncompatibleEvidenceException e) {
+			// Can not happen: the findings are not projected
+			return null;
+		}
+		if (junctionTree == null
+				|| junctionTree.getSize() > MAX_SHARED_JUNCTION_TREE_RATIO * junctionTree
+				.getProjectedSize(evidenceVariables)) {
+			return null;
+		}
+		return junctionTree;
+	}
+
+	@Override public List<HashMap<Variable, TablePotential>> getPosteriorValues(CaseDatabase database,
+			boolean[] observed, List<Variable> variablesOfInterest)
+			throws NotEvaluableNetworkException, NodeNotFoundException {
+		return getPosteriorValues(TaskUtilities.getEvidenceCases(probNet, database, observed), variablesOfInterest);
+	}
+
 	public EvidenceCase getPostResolutionEvidence() {
 		return postResolutionEvidence;
 	}
@@ -291,6 +650,27 @@ public class VEPropagation extends VariableElimination implements Propagation {
 		return evidence;
 	}
 
+	/**
+	 * @return Number of variables of interest, not observed, from which the
+	 * posterior values are computed by one propagation in a junction tree
+	 */
+	public int getJoinTreeThreshold() {
+		return joinTreeThreshold;
+	}
+
+	/**
+	 * @param joinTreeThreshold Number of variables of interest, not observed,
+	 *                          from which the posterior values are computed by
+	 *                          one propagation in a junction tree, which shares
+	 *                          the messages among the variables, instead of
+	 *                          one variable elimination for each variable.
+	 *                          <code>Integer.MAX_VALUE</code> always uses
+	 *                          variable elimination
+	 */
+	public void setJoinTreeThreshold(int joinTreeThreshold) {
+		this.joinTreeThreshold = joinTreeThreshold;
+	}
+
 	public List<Variable> getVariablesOfInterest() {
 		return variablesOfInterest;
 	}
@@ -298,4 +678,4 @@ public class VEPropagation extends VariableElimination implements Propagation {
 	public void setVariablesOfInterest(List<Variable> variablesOfInterest) {
 		this.variablesOfInterest = variablesOfInterest;
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.core.model.network.potential.operation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmarkov.core.model.network.EvidenceCase;
+import org.openmarkov.core.model.network.Finding;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.PotentialRole;
+import org.openmarkov.core.model.network.potential.TablePotential;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the operations that apply the evidence while they read the tables
+ * of the potentials with the same operations on copies of the tables
+ * projected on the evidence.
+ */
+public class EvidenceProjectionTest {
+
+	private double maxSparseDensity;
+
+	private boolean contiguousRuns;
+
+	private int sequentialThreshold;
+
+	@Before
+	public void saveOptions() {
+		maxSparseDensity = DiscretePotentialOperations.maxSparseDensity;
+		contiguousRuns = PotentialOperationPlan.contiguousRuns;
+		sequentialThreshold = org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations.sequentialThreshold;
+	}
+
+	@After
+	public void restoreOptions() {
+		DiscretePotentialOperations.maxSparseDensity = maxSparseDensity;
+		PotentialOperationPlan.contiguousRuns = contiguousRuns;
+		org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations.sequentialThreshold = sequentialThreshold;
+	}
+
+	@Test
+	public void operationsWithTheEvidenceAgreeWithProjectedCopies() throws Exception {
+		// the concurrent operations also split small tables
+		org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations.sequentialThreshold = 16;
+		Random random = new Random(37);
+		// dense operations by runs, dense operations by single positions and sparse operations
+		double[] sparseDensities = {0.0, 0.0, 1.0};
+		boolean[] runs = {true, false, true};
+		for (int mode = 0; mode < runs.length; mode++) {
+			DiscretePotentialOperations.maxSparseDensity = sparseDensities[mode];
+			PotentialOperationPlan.contiguousRuns = runs[mode];
+			for (int test = 0; test < 300; test++) {
+				assertProjections("mode " + mode + ", test " + test, random);
+			}
+		}
+	}
+
+	private static void assertProjections(String message, Random random) throws Exception {
+		List<Variable> variables = new ArrayList<>();
+		int numVariables = 2 + random.nextInt(7);
+		for (int i = 0; i < numVariables; i++) {
+			variables.add(new Variable("V" + i, 1 + random.nextInt(4)));
+		}
+		List<TablePotential> potentials = new ArrayList<>();
+		int numPotentials = 1 + random.nextInt(4);
+		for (int p = 0; p < numPotentials; p++) {
+			List<Variable> potentialVariables = new ArrayList<>();
+			for (Variable variable : variables) {
+				if (random.nextBoolean()) {
+					potentialVariables.add(variable);
+				}
+			}
+			Collections.shuffle(potentialVariables, random);
+			potentials.add(randomTable(potentialVariables, random));
+		}
+		EvidenceCase evidence = new EvidenceCase();
+		for (Variable variable : variables) {
+			if (random.nextInt(3) == 0) {
+				evidence.addFinding(new Finding(variable, random.nextInt(variable.getNumStates())));
+			}
+		}
+		List<double[]> originalValues = new ArrayList<>();
+		List<TablePotential> copies = new ArrayList<>();
+		List<TablePotential> projections = new ArrayList<>();
+		for (TablePotential potential : potentials) {
+			originalValues.add(potential.values.clone());
+			copies.add(potential.tableProject(evidence, null, null).get(0));
+			projections.add(potential.tableProjectSharingTable(evidence));
+		}
+		List<Variable> variablesToKeep = new ArrayList<>();
+		List<Variable> variablesToEliminate = new ArrayList<>();
+		for (Variable variable : AuxiliaryOperations.getUnionVariables(copies)) {
+			(random.nextBoolean() ? variablesToKeep : variablesToEliminate).add(variable);
+		}
+
+		assertSameTable(message + ", multiply and marginalize",
+				DiscretePotentialOperations.multiplyAndMarginalize(copies, variablesToKeep, variablesToEliminate),
+				DiscretePotentialOperations
+						.multiplyAndMarginalize(potentials, evidence, variablesToKeep, variablesToEliminate));
+		assertSameTable(message + ", multiply and marginalize onto the variables of interest",
+				DiscretePotentialOperations.multiplyAndMarginalize(copies, variablesToKeep),
+				DiscretePotentialOperations.multiplyAndMarginalize(potentials, evidence, variablesToKeep));
+		assertSameTable(message + ", concurrent multiply and marginalize",
+				org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations
+						.multiplyAndMarginalize(copies, variablesToKeep, variablesToEliminate),
+				org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations
+						.multiplyAndMarginalize(projections, variablesToKeep, variablesToEliminate));
+		TablePotential product = DiscretePotentialOperations.multiply(copies);
+		if (product != null && product.getNumVariables() > 0) {
+			assertSameTable(message + ", multiply", product, DiscretePotentialOperations.multiply(projections));
+			assertSameTable(message + ", concurrent multiply", product,
+					org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations
+							.multiply(projections));
+		}
+		for (int p = 0; p < potentials.size(); p++) {
+			assertArrayEquals(message + ", table " + p, originalValues.get(p), potentials.get(p).values, 0.0);
+		}
+	}
+
+	/**
+	 * Compares the values of the tables in each configuration, read through
+	 * the initial position and the offsets of each potential.
+	 */
+	private static void assertSameTable(String message, TablePotential expected, TablePotential actual) {
+		assertEquals(message, expected.getVariables(), actual.getVariables());
+		for (int position = 0; position < expected.getTableSize(); position++) {
+			int[] configuration = expected.getConfiguration(position);
+			double expectedValue = getValue(expected, configuration);
+			assertEquals(message, expectedValue, getValue(actual, configuration), 1E-12 * Math.abs(expectedValue));
+		}
+	}
+
+	private static double getValue(TablePotential potential, int[] configuration) {
+		int position = potential.getInitialPosition();
+		int[] offsets = potential.getOffsets();
+		for (int i = 0; i < configuration.length; i++) {
+			position += offsets[i] * configuration[i];
+		}
+		return potential.values[position];
+	}
+
+	/**
+	 * @return A table with a quarter of its values equal to 0
+	 */
+	private static TablePotential randomTable(List<Variable> variables, Random random) {
+		TablePotential potential = new TablePotential(variables, PotentialRole.CONDITIONAL_PROBABILITY);
+		for (int i = 0; i < potential.values.length; i++) {
+			potential.values[i] = (random.nextInt(4) == 0) ? 0.0 : random.nextDouble();
+		}
+		return potential;
+	}
+
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.core.model.network.potential.operation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openmarkov.core.model.network.EvidenceCase;
+import org.openmarkov.core.model.network.ProbNet;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.PotentialRole;
+import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.inference.TestNetworks;
+import org.openmarkov.inference.variableElimination.tasks.VEPropagation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the operations driven by the values different from 0 of sparse
+ * tables with the dense operations.
+ */
+public class SparseOperationsTest {
+
+	private double maxSparseDensity;
+
+	@Before
+	public void saveMaxSparseDensity() {
+		maxSparseDensity = DiscretePotentialOperations.maxSparseDensity;
+	}
+
+	@After
+	public void restoreMaxSparseDensity() {
+		DiscretePotentialOperations.maxSparseDensity = maxSparseDensity;
+	}
+
+	@Test
+	public void sparseAndDenseOperationsAgreeOnRandomTables() {
+		Random random = new Random(3);
+		List<Variable> variables = new ArrayList<>();
+		for (int i = 0; i < 6; i++) {
+			variables.add(new Variable("V" + i, 4 + random.nextInt(4)));
+		}
+		for (int test = 0; test < 200; test++) {
+			List<TablePotential> potentials = new ArrayList<>();
+			int numPotentials = 1 + random.nextInt(3);
+			for (int p = 0; p < numPotentials; p++) {
+				List<Variable> potentialVariables = new ArrayList<>(variables);
+				Collections.shuffle(potentialVariables, random);
+				potentials.add(randomTable(potentialVariables.subList(0, 3 + random.nextInt(2)),
+						(p == 0) ? 0.05 : random.nextDouble(), random));
+			}
+			List<Variable> variablesToKeep = new ArrayList<>();
+			List<Variable> variablesToEliminate = new ArrayList<>();
+			for (Variable variable : AuxiliaryOperations.getUnionVariables(potentials)) {
+				(random.nextBoolean() ? variablesToKeep : variablesToEliminate).add(variable);
+			}
+			assertSparseEqualsDense("test " + test, potentials, variablesToKeep, variablesToEliminate);
+		}
+	}
+
+	@Test
+	public void operationsReadTheValuesWrittenAfterAPreviousOperation() {
+		Random random = new Random(5);
+		Variable a = new Variable("A", 12);
+		Variable b = new Variable("B", 12);
+		Variable c = new Variable("C", 12);
+		TablePotential sparse = randomTable(Arrays.asList(a, b, c), 0.03, random);
+		TablePotential dense = randomTable(Arrays.asList(b, c), 1.0, random);
+		List<TablePotential> potentials = Arrays.asList(sparse, dense);
+		List<Variable> variablesToKeep = Collections.singletonList(a);
+		List<Variable> variablesToEliminate = Arrays.asList(b, c);
+		assertSparseEqualsDense("before the changes", potentials, variablesToKeep, variablesToEliminate);
+
+		// a value that was 0 is set through the potential and another one directly in the table
+		int zero = firstZero(sparse.values, 0);
+		sparse.setValue(sparse.getVariables(), sparse.getConfiguration(zero), 1.0);
+		sparse.values[firstZero(sparse.values, zero + 1)] = 2.0;
+		assertSparseEqualsDense("after the changes", potentials, variablesToKeep, variablesToEliminate);
+		TablePotential copy = new TablePotential(sparse);
+		TablePotential expected = DiscretePotentialOperations
+				.multiplyAndMarginalize(Arrays.asList(copy, dense), variablesToKeep, variablesToEliminate);
+		TablePotential actual = DiscretePotentialOperations
+				.multiplyAndMarginalize(potentials, variablesToKeep, variablesToEliminate);
+		assertValues("changed table and its copy", expected.values, actual.values);
+	}
+
+	@Test
+	public void propagationsReadTheConditionalProbabilitiesWrittenAfterAPreviousPropagation() throws Exception {
+		ProbNet probNet = TestNetworks.load("water.pgmx");
+		DiscretePotentialOperations.maxSparseDensity = 0.5;
+
+		// the largest table becomes deterministic: the cluster priors share its array
+		TablePotential largest = null;
+		for (Variable variable : probNet.getVariables()) {
+			TablePotential table = (TablePotential) probNet.getNode(variable).getPotentials().get(0);
+			if (largest == null || table.getTableSize() > largest.getTableSize()) {
+				largest = table;
+			}
+		}
+		setDeterministic(largest, 0);
+		Variable child = largest.getVariable(0);
+		TestNetworks.exactPosteriors(probNet, new EvidenceCase(), probNet.getVariables());
+		eliminateVariables(probNet, new EvidenceCase(), child);
+		// and then another state of the variable is certain in each configuration of the parents
+		setDeterministic(largest, 1);
+
+		EvidenceCase evidence = TestNetworks.sampleEvidence(probNet, 4, new Random(7));
+		List<Variable> variables = TestNetworks.getUnobservedVariables(probNet, evidence);
+		Map<Variable, TablePotential> sparsePosteriors = TestNetworks.exactPosteriors(probNet, evidence, variables);
+		Map<Variable, TablePotential> sparseEliminations = eliminateVariables(probNet, evidence, child);
+		DiscretePotentialOperations.maxSparseDensity = 0.0;
+		Map<Variable, TablePotential> densePosteriors = TestNetworks.exactPosteriors(probNet, evidence, variables);
+		TestNetworks.assertPosteriors("sparse and dense", densePosteriors, sparsePosteriors, variables, 1E-12);
+		List<Variable> children = Collections.singletonList(child);
+		TestNetworks.assertPosteriors("variable elimination", densePosteriors, sparseEliminations, children, 1E-12);
+	}
+
+	private static Map<Variable, TablePotential> eliminateVariables(ProbNet probNet, EvidenceCase evidence,
+			Variable variable) throws Exception {
+		VEPropagation propagation = new VEPropagation(probNet);
+		propagation.setPostResolutionEvidence(evidence);
+		propagation.setVariablesOfInterest(Collections.singletonList(variable));
+		return propagation.getPosteriorValues();
+	}
+
+	/**
+	 * Makes the state {@code (shift + c) % n} of the conditioned variable
+	 * certain in the configuration {@code c} of the parents.
+	 */
+	private static void setDeterministic(TablePotential potential, int shift) {
+		int numStates = potential.getVariable(0).getNumStates();
+		for (int i = 0; i < potential.values.length; i++) {
+			potential.values[i] = (i % numStates == (shift + i / numStates) % numStates) ? 1.0 : 0.0;
+		}
+	}
+
+	/**
+	 * Checks that the operation gives the same values with and without the
+	 * sparse operations.
+	 */
+	private void assertSparseEqualsDense(String message, List<TablePotential> potentials,
+			List<Variable> variablesToKeep, List<Variable> variablesToEliminate) {
+		DiscretePotentialOperations.maxSparseDensity = 0.1;
+		TablePotential sparse = DiscretePotentialOperations
+				.multiplyAndMarginalize(potentials, variablesToKeep, variablesToEliminate);
+		DiscretePotentialOperations.maxSparseDensity = 0.0;
+		TablePotential dense = DiscretePotentialOperations
+				.multiplyAndMarginalize(potentials, variablesToKeep, variablesToEliminate);
+		DiscretePotentialOperations.maxSparseDensity = 0.1;
+		assertEquals(message, dense.getVariables(), sparse.getVariables());
+		assertValues(message, dense.values, sparse.values);
+	}
+
+	private static void assertValues(String message, double[] expected, double[] actual) {
+		assertEquals(message, expected.length, actual.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(message, expected[i], actual[i], 1E-12 * Math.abs(expected[i]));
+		}
+	}
+
+	/**
+	 * @return A table whose values are 0 with probability
+	 * {@code 1 - density}
+	 */
+	private static TablePotential randomTable(List<Variable> variables, double density, Random random) {
+		TablePotential potential = new TablePotential(new ArrayList<>(variables),
+				PotentialRole.CONDITIONAL_PROBABILITY);
+		for (int i = 0; i < potential.values.length; i++) {
+			potential.values[i] = (random.nextDouble() < density) ? random.nextDouble() : 0.0;
+		}
+		return potential;
+	}
+
+	private static int firstZero(double[] values, int from) {
+		for (int i = from; i < values.length; i++) {
+			if (values[i] == 0.0) {
+				return i;
+			}
+		}
+		throw new AssertionError("No value is 0");
+	}
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.inference;
+
+import org.junit.Test;
+import org.openmarkov.core.exception.IncompatibleEvidenceException;
+import org.openmarkov.core.inference.tasks.BatchPropagation;
+import org.openmarkov.core.model.network.EvidenceCase;
+import org.openmarkov.core.model.network.Finding;
+import org.openmarkov.core.model.network.ProbNet;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.inference.huginPropagation.HuginPropagation;
+import org.openmarkov.inference.variableElimination.tasks.VEPropagation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertNull;
+
+/**
+ * Compares the batch queries of Hugin propagation and variable elimination
+ * with a query for each evidence case.
+ */
+public class BatchPropagationTest {
+
+	private static final String[] NETWORKS = {"asia.pgmx", "alarm.pgmx", "Child.pgmx", "insurance.pgmx"};
+
+	@Test
+	public void huginBatchAgreesWithSingleQueries() throws Exception {
+		for (boolean parallelPropagation : new boolean[] {true, false}) {
+			for (String network : NETWORKS) {
+				ProbNet probNet = TestNetworks.load(network);
+				probNet.getInferenceOptions().getParallelOptions().setParallelPropagation(parallelPropagation);
+				assertBatch(network + ", parallel " + parallelPropagation, probNet, new HuginPropagation(probNet),
+						false);
+			}
+		}
+	}
+
+	@Test
+	public void variableEliminationBatchAgreesWithSingleQueries() throws Exception {
+		for (String network : NETWORKS) {
+			ProbNet probNet = TestNetworks.load(network);
+			assertBatch(network, probNet, new VEPropagation(probNet), true);
+		}
+	}
+
+	/**
+	 * Checks the batch query of {@code propagation} on cases with a few
+	 * evidence patterns, some of them repeated and some incompatible.
+	 *
+	 * @param variableElimination {@code true} to compare with a variable
+	 *                            elimination for each case and variable;
+	 *                            {@code false} to compare with a Hugin
+	 *                            propagation for each case
+	 */
+	private static void assertBatch(String message, ProbNet probNet, BatchPropagation propagation,
+			boolean variableElimination) throws Exception {
+		Random random = new Random(23);
+		List<Variable> variables = new ArrayList<>(probNet.getVariables());
+		List<EvidenceCase> evidenceCases = new ArrayList<>();
+		for (int pattern = 0; pattern < 3; pattern++) {
+			Collections.shuffle(variables, random);
+			List<Variable> observed = new ArrayList<>(variables.subList(0, 1 + 2 * pattern));
+			for (int i = 0; i < 5; i++) {
+				evidenceCases.add(TestNetworks.sampleEvidence(probNet, observed, random));
+			}
+			// states chosen without looking at the network, so that some cases are incompatible
+			for (int i = 0; i < 2; i++) {
+				EvidenceCase evidence = new EvidenceCase();
+				for (Variable variable : observed) {
+					evidence.addFinding(new Finding(variable, random.nextInt(variable.getNumStates())));
+				}
+				evidenceCases.add(evidence);
+			}
+		}
+		Collections.shuffle(evidenceCases, random);
+		Collections.shuffle(variables, random);
+		List<Variable> variablesOfInterest = new ArrayList<>(variables.subList(0, 4));
+
+		List<HashMap<Variable, TablePotential>> posteriors = propagation
+				.getPosteriorValues(evidenceCases, variablesOfInterest);
+		for (int i = 0; i < evidenceCases.size(); i++) {
+			EvidenceCase evidence = evidenceCases.get(i);
+			Map<Variable, TablePotential> expected;
+			try {
+				expected = variableElimination ?
+						TestNetworks.eliminateVariables(probNet, evidence, variablesOfInterest) :
+						TestNetworks.exactPosteriors(probNet, evidence, variablesOfInterest);
+			} catch (IncompatibleEvidenceException e) {
+				assertNull(message + ", case " + i, posteriors.get(i));
+				continue;
+			}
+			TestNetworks.assertPosteriors(message + ", case " + i, expected, posteriors.get(i),
+					variablesOfInterest, 1E-10);
+		}
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.inference;
+
+import org.openmarkov.core.model.network.EvidenceCase;
+import org.openmarkov.core.model.network.Finding;
+import org.openmarkov.core.model.network.ProbNet;
+import org.openmarkov.core.model.network.ProbNetOperations;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.inference.huginPropagation.HuginPropagation;
+import org.openmarkov.inference.likelihoodWeighting.SamplingPlan;
+import org.openmarkov.inference.variableElimination.tasks.VEPropagation;
+import org.openmarkov.io.probmodel.reader.PGMXReader_0_2;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Networks, evidence and reference posteriors shared by the tests that
+ * compare inference algorithms.
+ */
+public final class TestNetworks {
+
+	private TestNetworks() {
+	}
+
+	/**
+	 * @param fileName name of a network in the {@code networks} resources
+	 * @return The network
+	 */
+	public static ProbNet load(String fileName) throws Exception {
+		try (InputStream stream = TestNetworks.class.getResourceAsStream("/networks/" + fileName)) {
+			assertNotNull(fileName, stream);
+			return new PGMXReader_0_2().loadProbNet(fileName, stream);
+		}
+	}
+
+	/**
+	 * @param probNet     network
+	 * @param numFindings number of findings
+	 * @param random      source of the configuration and of the variables
+	 * @return Evidence taken from a configuration sampled from
+	 * {@code probNet}, so that its probability is greater than 0
+	 */
+	public static EvidenceCase sampleEvidence(ProbNet probNet, int numFindings, Random random) throws Exception {
+		List<Variable> variables = new ArrayList<>(probNet.getVariables());
+		Collections.shuffle(variables, random);
+		return sampleEvidence(probNet, variables.subList(0, Math.min(numFindings, variables.size())), random);
+	}
+
+	/**
+	 * @param probNet   network
+	 * @param variables observed variables
+	 * @param random    source of the configuration
+	 * @return Evidence about {@code variables} taken from a configuration
+	 * sampled from {@code probNet}, so that its probability is greater than 0
+	 */
+	public static EvidenceCase sampleEvidence(ProbNet probNet, List<Variable> variables, Random random)
+			throws Exception {
+		List<Variable> sortedVariables = ProbNetOperations.sortTopologically(probNet, probNet.getVariables());
+		SamplingPlan plan = new SamplingPlan(probNet, sortedVariables);
+		int[] configuration = new int[sortedVariables.size()];
+		for (int i = 0; i < configuration.length; i++) {
+			configuration[i] = plan.sample(i, configuration, random.nextDouble());
+		}
+		EvidenceCase evidence = new EvidenceCase();
+		for (Variable variable : variables) {
+			evidence.addFinding(new Finding(variable, configuration[sortedVariables.indexOf(variable)]));
+		}
+		return evidence;
+	}
+
+	/**
+	 * @return The variables of {@code probNet} that are not in
+	 * {@code evidence}
+	 */
+	public static List<Variable> getUnobservedVariables(ProbNet probNet, EvidenceCase evidence) {
+		List<Variable> variables = new ArrayList<>(probNet.getVariables());
+		variables.removeAll(evidence.getVariables());
+		return variables;
+	}
+
+	/**
+	 * @return The posteriors of {@code variables} computed by a Hugin
+	 * propagation with the default options
+	 */
+	public static Map<Variable, TablePotential> exactPosteriors(ProbNet probNet, EvidenceCase evidence,
+			List<Variable> variables) throws Exception {
+		HuginPropagation propagation = new HuginPropagation(probNet);
+		propagation.setPostResolutionEvidence(evidence);
+		return propagation.getPosteriorValues(variables);
+	}
+
+	/**
+	 * @return The posteriors of {@code variables} computed by a variable
+	 * elimination for each one
+	 */
+	public static Map<Variable, TablePotential> eliminateVariables(ProbNet probNet, EvidenceCase evidence,
+			List<Variable> variables) throws Exception {
+		Map<Variable, TablePotential> posteriors = new HashMap<>();
+		for (Variable variable : variables) {
+			VEPropagation propagation = new VEPropagation(probNet);
+			propagation.setPostResolutionEvidence(evidence);
+			propagation.setVariablesOfInterest(Collections.singletonList(variable));
+			posteriors.put(variable, propagation.getPosteriorValues().get(variable));
+		}
+		return posteriors;
+	}
+
+	/**
+	 * Checks that the posteriors of {@code variables} differ at most by
+	 * {@code tolerance}.
+	 */
+	public static void assertPosteriors(String message, Map<Variable, TablePotential> expected,
+			Map<Variable, TablePotential> actual, List<Variable> variables, double tolerance) {
+		for (Variable variable : variables) {
+			TablePotential expectedPosterior = expected.get(variable);
+			TablePotential actualPosterior = actual.get(variable);
+			assertNotNull(message + ": " + variable, actualPosterior);
+			assertEquals(message + ": " + variable, expectedPosterior.values.length,
+					actualPosterior.values.length);
+			for (int i = 0; i < expectedPosterior.values.length; i++) {
+				assertEquals(message + ": " + variable, expectedPosterior.values[i], actualPosterior.values[i],
+						tolerance);
+			}
+		}
+	}
+
+	/**
+	 * Checks the posteriors estimated from samples to five times the largest
+	 * standard deviation of a probability estimated from
+	 * {@code effectiveSampleSize} samples.
+	 */
+	public static void assertSampledPosteriors(String message, Map<Variable, TablePotential> expected,
+			Map<Variable, TablePotential> actual, List<Variable> variables, double effectiveSampleSize) {
+		assertPosteriors(message, expected, actual, variables, 2.5 / Math.sqrt(effectiveSampleSize));
+	}
+
+}
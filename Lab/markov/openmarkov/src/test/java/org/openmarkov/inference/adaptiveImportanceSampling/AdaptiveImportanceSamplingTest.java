@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.inference.adaptiveImportanceSampling;
+
+import org.junit.Test;
+import org.openmarkov.core.model.network.EvidenceCase;
+import org.openmarkov.core.model.network.Finding;
+import org.openmarkov.core.model.network.NodeType;
+import org.openmarkov.core.model.network.ProbNet;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.PotentialRole;
+import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.core.model.network.type.BayesianNetworkType;
+import org.openmarkov.inference.TestNetworks;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the posteriors of adaptive importance sampling, with a fixed seed,
+ * with the exact posteriors, and checks the heuristic initialization of the
+ * importance function.
+ */
+public class AdaptiveImportanceSamplingTest {
+
+	private static final String[] NETWORKS = {"asia.pgmx", "alarm.pgmx", "Child.pgmx", "insurance.pgmx"};
+
+	private static final int SAMPLE_SIZE = 50000;
+
+	@Test
+	public void samplesApproximateTheExactPosteriors() throws Exception {
+		for (String network : NETWORKS) {
+			ProbNet probNet = TestNetworks.load(network);
+			EvidenceCase evidence = TestNetworks.sampleEvidence(probNet, 3, new Random(71));
+			List<Variable> variables = TestNetworks.getUnobservedVariables(probNet, evidence);
+			Map<Variable, TablePotential> exact = TestNetworks.exactPosteriors(probNet, evidence, variables);
+			for (boolean heuristicInitialization : new boolean[] {true, false}) {
+				AdaptiveImportanceSampling propagation = createPropagation(probNet, evidence, variables);
+				propagation.setHeuristicInitialization(heuristicInitialization);
+				TestNetworks.assertSampledPosteriors(network + ", heuristic initialization " + heuristicInitialization,
+						exact, propagation.getPosteriorValues(), variables, propagation.getEffectiveSampleSize());
+			}
+		}
+	}
+
+	@Test
+	public void smallProbabilitiesAreRaisedInDistributions() {
+		int numStates = 100;
+		double threshold = 0.08 / numStates;
+		// a column with a state of probability 0, 49 unlikely states and 50 states whose probability is smaller
+		// than the increase of the unlikely ones, followed by a column without small probabilities
+		double[] table = new double[2 * numStates];
+		for (int state = 1; state < numStates / 2; state++) {
+			table[state] = 1E-6;
+		}
+		for (int state = numStates / 2; state < numStates; state++) {
+			table[state] = (1 - 49 * 1E-6) / 50;
+		}
+		Arrays.fill(table, numStates, 2 * numStates, 1.0 / numStates);
+		double[] original = table.clone();
+
+		AdaptiveImportanceSampling.raiseSmallProbabilities(table, numStates);
+		for (int column = 0; column < table.length; column += numStates) {
+			double sum = 0;
+			for (int position = column; position < column + numStates; position++) {
+				assertTrue("position " + position, table[position] >= 0);
+				sum += table[position];
+			}
+			assertEquals("column " + column / numStates, 1.0, sum, 1E-12);
+		}
+		assertEquals(0.0, table[0], 0.0);
+		for (int state = 1; state < numStates / 2; state++) {
+			assertTrue("state " + state, table[state] >= threshold / 1.08);
+		}
+		// the probabilities that are not raised keep their ratios
+		for (int state = numStates / 2 + 1; state < numStates; state++) {
+			assertEquals("state " + state, original[state] / original[numStates / 2],
+					table[state] / table[numStates / 2], 1E-12);
+		}
+		for (int position = numStates; position < table.length; position++) {
+			assertEquals("position " + position, original[position], table[position], 1E-15);
+		}
+	}
+
+	/**
+	 * The importance function of the variable with 100 states, which is an
+	 * ancestor of the finding but not its parent, starts with its unlikely
+	 * states raised.
+	 */
+	@Test
+	public void unlikelyStatesOfManyStateVariablesAreSampled() throws Exception {
+		int numStates = 100;
+		ProbNet probNet = new ProbNet(BayesianNetworkType.getUniqueInstance());
+		Variable cause = new Variable("Cause", numStates);
+		Variable effect = new Variable("Effect", 2);
+		Variable observation = new Variable("Observation", 2);
+		probNet.addNode(cause, NodeType.CHANCE);
+		probNet.addNode(effect, NodeType.CHANCE);
+		probNet.addNode(observation, NodeType.CHANCE);
+		probNet.addLink(cause, effect, true);
+		probNet.addLink(effect, observation, true);
+		double[] prior = new double[numStates];
+		double[] likelihood = new double[2 * numStates];
+		for (int state = 0; state < numStates; state++) {
+			boolean unlikely = state < numStates / 2;
+			prior[state] = unlikely ? 1E-6 : (1 - 50 * 1E-6) / 50;
+			likelihood[2 * state + 1] = unlikely ? 0.9 : 0.1;
+			likelihood[2 * state] = 1 - likelihood[2 * state + 1];
+		}
+		probNet.addPotential(new TablePotential(Arrays.asList(cause), PotentialRole.CONDITIONAL_PROBABILITY, prior));
+		probNet.addPotential(new TablePotential(Arrays.asList(effect, cause), PotentialRole.CONDITIONAL_PROBABILITY,
+				likelihood));
+		probNet.addPotential(new TablePotential(Arrays.asList(observation, effect),
+				PotentialRole.CONDITIONAL_PROBABILITY, new double[] {0.99, 0.01, 0.01, 0.99}));
+		EvidenceCase evidence = new EvidenceCase();
+		evidence.addFinding(new Finding(observation, 1));
+		List<Variable> variables = Arrays.asList(cause, effect);
+
+		AdaptiveImportanceSampling propagation = createPropagation(probNet, evidence, variables);
+		TestNetworks.assertSampledPosteriors("100 states", TestNetworks.exactPosteriors(probNet, evidence, variables),
+				propagation.getPosteriorValues(), variables, propagation.getEffectiveSampleSize());
+	}
+
+	private static AdaptiveImportanceSampling createPropagation(ProbNet probNet, EvidenceCase evidence,
+			List<Variable> variables) throws Exception {
+		AdaptiveImportanceSampling propagation = new AdaptiveImportanceSampling(probNet);
+		propagation.setSampleSize(SAMPLE_SIZE);
+		propagation.setSeed(7L);
+		propagation.setPostResolutionEvidence(evidence);
+		propagation.setVariablesOfInterest(variables);
+		return propagation;
+	}
+
+}
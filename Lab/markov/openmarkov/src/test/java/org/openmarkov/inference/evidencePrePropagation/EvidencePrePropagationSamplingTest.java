@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.inference.evidencePrePropagation;
+
+import org.junit.Test;
+import org.openmarkov.core.model.network.EvidenceCase;
+import org.openmarkov.core.model.network.Node;
+import org.openmarkov.core.model.network.ProbNet;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.inference.TestNetworks;
+import org.openmarkov.inference.likelihoodWeighting.LikelihoodWeighting;
+import org.openmarkov.inference.likelihoodWeighting.StochasticPropagation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the posteriors of importance sampling with the findings
+ * pre-propagated, with a fixed seed, with the exact posteriors, when all,
+ * some or none of the findings are propagated.
+ */
+public class EvidencePrePropagationSamplingTest {
+
+	private static final String[] NETWORKS = {"alarm.pgmx", "insurance.pgmx", "win95pts.pgmx"};
+
+	private static final int SAMPLE_SIZE = 50000;
+
+	private static final int NUM_FINDINGS = 5;
+
+	@Test
+	public void propagatingAllTheFindingsGivesTheExactPosteriorsOfTheirAncestors() throws Exception {
+		for (String network : NETWORKS) {
+			ProbNet probNet = TestNetworks.load(network);
+			EvidenceCase evidence = TestNetworks.sampleEvidence(probNet, NUM_FINDINGS, new Random(103));
+			List<Variable> variables = TestNetworks.getUnobservedVariables(probNet, evidence);
+			Map<Variable, TablePotential> exact = TestNetworks.exactPosteriors(probNet, evidence, variables);
+			EvidencePrePropagationSampling propagation = createPropagation(probNet, evidence, variables);
+			Map<Variable, TablePotential> posteriors = propagation.getPosteriorValues();
+			assertEquals(network, NUM_FINDINGS, propagation.getPropagatedEvidence().getFindings().size());
+			// the samples are drawn from the posterior distribution, so all the weights are 1
+			assertEquals(network, SAMPLE_SIZE, propagation.getEffectiveSampleSize(), 1E-6);
+			TestNetworks.assertSampledPosteriors(network, exact, posteriors, variables,
+					propagation.getEffectiveSampleSize());
+			// the exact propagation of the whole network also multiplies the tables of the descendants, whose
+			// columns add up to 1 only to about five digits in these networks
+			List<Variable> ancestors = getUnobservedAncestors(probNet, evidence);
+			assertTrue(network, !ancestors.isEmpty());
+			TestNetworks.assertPosteriors(network + ", ancestors of the findings", exact, posteriors, ancestors,
+					1E-5);
+		}
+	}
+
+	/**
+	 * With a limit of 16 configurations, four of the five findings of
+	 * win95pts are propagated and the other one weights the samples.
+	 */
+	@Test
+	public void findingsNotPropagatedWeightTheSamples() throws Exception {
+		ProbNet probNet = TestNetworks.load("win95pts.pgmx");
+		EvidenceCase evidence = TestNetworks.sampleEvidence(probNet, NUM_FINDINGS, new Random(103));
+		List<Variable> variables = TestNetworks.getUnobservedVariables(probNet, evidence);
+		EvidencePrePropagationSampling propagation = createPropagation(probNet, evidence, variables);
+		propagation.setMaxJunctionTreeSize(16);
+		Map<Variable, TablePotential> posteriors = propagation.getPosteriorValues();
+		int numPropagated = propagation.getPropagatedEvidence().getFindings().size();
+		assertTrue("" + numPropagated, numPropagated > 0 && numPropagated < NUM_FINDINGS);
+		assertTrue(propagation.getEffectiveSampleSize() < SAMPLE_SIZE);
+		TestNetworks.assertSampledPosteriors("win95pts.pgmx", TestNetworks.exactPosteriors(probNet, evidence, variables),
+				posteriors, variables, propagation.getEffectiveSampleSize());
+	}
+
+	/**
+	 * Without junction tree, only the findings that have no unobserved
+	 * ancestors can be propagated, which does not change the samples of
+	 * likelihood weighting; their likelihood, which is constant, is left out
+	 * of the weights, so the posteriors only differ in rounding.
+	 */
+	@Test
+	public void withoutJunctionTreeItIsLikelihoodWeighting() throws Exception {
+		for (String network : NETWORKS) {
+			ProbNet probNet = TestNetworks.load(network);
+			EvidenceCase evidence = TestNetworks.sampleEvidence(probNet, NUM_FINDINGS, new Random(103));
+			List<Variable> variables = TestNetworks.getUnobservedVariables(probNet, evidence);
+			EvidencePrePropagationSampling propagation = createPropagation(probNet, evidence, variables);
+			propagation.setMaxJunctionTreeSize(0);
+			StochasticPropagation likelihoodWeighting = new LikelihoodWeighting(probNet);
+			likelihoodWeighting.setSampleSize(SAMPLE_SIZE);
+			likelihoodWeighting.setSeed(7L);
+			likelihoodWeighting.setPostResolutionEvidence(evidence);
+			likelihoodWeighting.setVariablesOfInterest(variables);
+			TestNetworks.assertPosteriors(network, likelihoodWeighting.getPosteriorValues(),
+					propagation.getPosteriorValues(), variables, 1E-12);
+		}
+	}
+
+	/**
+	 * @return The unobserved variables that are ancestors of a finding
+	 */
+	private static List<Variable> getUnobservedAncestors(ProbNet probNet, EvidenceCase evidence) {
+		Set<Variable> ancestors = new LinkedHashSet<>();
+		Deque<Node> pending = new ArrayDeque<>();
+		for (Variable finding : evidence.getVariables()) {
+			pending.push(probNet.getNode(finding));
+		}
+		while (!pending.isEmpty()) {
+			for (Node parent : probNet.getParents(pending.pop())) {
+				if (ancestors.add(parent.getVariable())) {
+					pending.push(parent);
+				}
+			}
+		}
+		List<Variable> unobservedAncestors = new ArrayList<>(ancestors);
+		unobservedAncestors.removeAll(evidence.getVariables());
+		return unobservedAncestors;
+	}
+
+	private static EvidencePrePropagationSampling createPropagation(ProbNet probNet, EvidenceCase evidence,
+			List<Variable> variables) throws Exception {
+		EvidencePrePropagationSampling propagation = new EvidencePrePropagationSampling(probNet);
+		propagation.setSampleSize(SAMPLE_SIZE);
+		propagation.setSeed(7L);
+		propagation.setPostResolutionEvidence(evidence);
+		propagation.setVariablesOfInterest(variables);
+		return propagation;
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.inference.gibbsSampling;
+
+import org.junit.Test;
+import org.openmarkov.core.model.network.EvidenceCase;
+import org.openmarkov.core.model.network.Finding;
+import org.openmarkov.core.model.network.NodeType;
+import org.openmarkov.core.model.network.ProbNet;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.PotentialRole;
+import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations;
+import org.openmarkov.core.model.network.type.BayesianNetworkType;
+import org.openmarkov.inference.TestNetworks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the posteriors of Gibbs sampling, with a fixed seed, with the exact
+ * posteriors. The samples of a chain are correlated, so the tolerance is not
+ * derived from the sample size but fixed; alarm is not compared because its
+ * chains mix too slowly for a tolerance of that order.
+ */
+public class GibbsSamplingTest {
+
+	private static final String[] NETWORKS = {"asia.pgmx", "Child.pgmx", "insurance.pgmx"};
+
+	private static final int SAMPLE_SIZE = 100000;
+
+	private static final double TOLERANCE = 0.03;
+
+	@Test
+	public void samplesApproximateTheExactPosteriors() throws Exception {
+		for (String network : NETWORKS) {
+			ProbNet probNet = TestNetworks.load(network);
+			Random random = new Random(73);
+			for (int numFindings : new int[] {0, 3}) {
+				EvidenceCase evidence = TestNetworks.sampleEvidence(probNet, numFindings, random);
+				List<Variable> variables = TestNetworks.getUnobservedVariables(probNet, evidence);
+				GibbsSampling propagation = createPropagation(probNet, evidence, variables);
+				String message = network + ", " + numFindings + " findings";
+				TestNetworks.assertPosteriors(message, TestNetworks.exactPosteriors(probNet, evidence, variables),
+						propagation.getPosteriorValues(), variables, TOLERANCE);
+				assertTrue(message, propagation.getMaxRHat() < 1.1);
+			}
+		}
+	}
+
+	@Test
+	public void chainsDoNotDependOnTheNumberOfThreads() throws Exception {
+		ProbNet probNet = TestNetworks.load("alarm.pgmx");
+		EvidenceCase evidence = TestNetworks.sampleEvidence(probNet, 3, new Random(79));
+		List<Variable> variables = TestNetworks.getUnobservedVariables(probNet, evidence);
+		ForkJoinPool pool = DiscretePotentialOperations.getPool();
+		Map<Variable, TablePotential> posteriors = null;
+		for (int numThreads : new int[] {1, 4}) {
+			ForkJoinPool threads = new ForkJoinPool(numThreads);
+			DiscretePotentialOperations.setPool(threads);
+			try {
+				GibbsSampling propagation = createPropagation(probNet, evidence, variables);
+				propagation.setSampleSize(SAMPLE_SIZE / 10);
+				if (posteriors == null) {
+					posteriors = propagation.getPosteriorValues();
+				} else {
+					TestNetworks.assertPosteriors("alarm.pgmx, " + numThreads + " threads", posteriors,
+							propagation.getPosteriorValues(), variables, 0.0);
+				}
+			} finally {
+				DiscretePotentialOperations.setPool(pool);
+				threads.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * The Markov blankets of the parents of a finding with four parents of 20
+	 * states have more than {@link GibbsSampling#MAX_BLANKET_TABLE_SIZE}
+	 * configurations, so their distributions are computed in each step.
+	 */
+	@Test
+	public void largeBlanketsAreComputedInEachStep() throws Exception {
+		int numStates = 20;
+		Random random = new Random(101);
+		ProbNet probNet = new ProbNet(BayesianNetworkType.getUniqueInstance());
+		Variable finding = new Variable("Finding", 2);
+		List<Variable> parents = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			Variable parent = new Variable("Parent" + i, numStates);
+			probNet.addNode(parent, NodeType.CHANCE);
+			double[] prior = new double[numStates];
+			double sum = 0;
+			for (int state = 0; state < numStates; state++) {
+				prior[state] = 0.5 + random.nextDouble();
+				sum += prior[state];
+			}
+			for (int state = 0; state < numStates; state++) {
+				prior[state] /= sum;
+			}
+			probNet.addPotential(
+					new TablePotential(Arrays.asList(parent), PotentialRole.CONDITIONAL_PROBABILITY, prior));
+			parents.add(parent);
+		}
+		probNet.addNode(finding, NodeType.CHANCE);
+		List<Variable> familyOfFinding = new ArrayList<>();
+		familyOfFinding.add(finding);
+		for (Variable parent : parents) {
+			probNet.addLink(parent, finding, true);
+			familyOfFinding.add(parent);
+		}
+		// the finding is more likely when the parents are in their last states
+		double[] likelihood = new double[2 * numStates * numStates * numStates * numStates];
+		for (int position = 0; position < likelihood.length; position += 2) {
+			int sumOfStates = 0;
+			for (int configuration = position / 2; configuration > 0; configuration /= numStates) {
+				sumOfStates += configuration % numStates;
+			}
+			likelihood[position + 1] = (sumOfStates + random.nextDouble()) / (4 * numStates);
+			likelihood[position] = 1 - likelihood[position + 1];
+		}
+		probNet.addPotential(
+				new TablePotential(familyOfFinding, PotentialRole.CONDITIONAL_PROBABILITY, likelihood));
+		EvidenceCase evidence = new EvidenceCase();
+		evidence.addFinding(new Finding(finding, 1));
+
+		GibbsSampling propagation = createPropagation(probNet, evidence, parents);
+		TestNetworks.assertPosteriors("large blankets", TestNetworks.exactPosteriors(probNet, evidence, parents),
+				propagation.getPosteriorValues(), parents, TOLERANCE / 10);
+	}
+
+	private static GibbsSampling createPropagation(ProbNet probNet, EvidenceCase evidence, List<Variable> variables)
+			throws Exception {
+		GibbsSampling propagation = new GibbsSampling(probNet);
+		propagation.setSampleSize(SAMPLE_SIZE);
+		propagation.setSeed(7L);
+		propagation.setPostResolutionEvidence(evidence);
+		propagation.setVariablesOfInterest(variables);
+		return propagation;
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.inference.huginPropagation;
+
+import org.junit.Test;
+import org.openmarkov.core.model.network.EvidenceCase;
+import org.openmarkov.core.model.network.ProbNet;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.inference.TestNetworks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares the propagations created by a junction tree compiled once with
+ * propagations that compile the network.
+ */
+public class CompiledJunctionTreeTest {
+
+	private static final String[] NETWORKS = {"asia.pgmx", "alarm.pgmx", "Child.pgmx", "insurance.pgmx",
+			"win95pts.pgmx"};
+
+	private static final int NUM_CASES = 12;
+
+	@Test
+	public void propagationsOfASharedJunctionTreeAgreeInManyThreads() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			for (String network : NETWORKS) {
+				ProbNet probNet = TestNetworks.load(network);
+				final List<Variable> variables = probNet.getVariables();
+				final CompiledJunctionTree junctionTree = new CompiledJunctionTree(probNet);
+				Random random = new Random(17);
+				List<EvidenceCase> evidenceCases = new ArrayList<>();
+				List<Future<Map<Variable, TablePotential>>> posteriors = new ArrayList<>();
+				for (int i = 0; i < NUM_CASES; i++) {
+					final EvidenceCase evidence = TestNetworks.sampleEvidence(probNet, i % 6, random);
+					evidenceCases.add(evidence);
+					posteriors.add(executor.submit(new Callable<Map<Variable, TablePotential>>() {
+						@Override public Map<Variable, TablePotential> call() throws Exception {
+							HuginPropagation propagation = junctionTree.createPropagation();
+							propagation.setPostResolutionEvidence(evidence);
+							return propagation.getPosteriorValues(variables);
+						}
+					}));
+				}
+				for (int i = 0; i < NUM_CASES; i++) {
+					EvidenceCase evidence = evidenceCases.get(i);
+					TestNetworks.assertPosteriors(network + ", case " + i,
+							TestNetworks.exactPosteriors(probNet, evidence, variables), posteriors.get(i).get(),
+							variables, 1E-10);
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void junctionTreeCompiledWithTheEvidenceAgrees() throws Exception {
+		for (String network : NETWORKS) {
+			ProbNet probNet = TestNetworks.load(network);
+			Random random = new Random(19);
+			for (int i = 0; i < 4; i++) {
+				EvidenceCase evidence = TestNetworks.sampleEvidence(probNet, 2 + 2 * i, random);
+				List<Variable> variables = TestNetworks.getUnobservedVariables(probNet, evidence);
+				HuginPropagation propagation = new CompiledJunctionTree(probNet, evidence, null)
+						.createPropagation();
+				TestNetworks.assertPosteriors(network + ", case " + i,
+						TestNetworks.exactPosteriors(probNet, evidence, variables),
+						propagation.getPosteriorValues(variables), variables, 1E-10);
+			}
+		}
+	}
+
+}
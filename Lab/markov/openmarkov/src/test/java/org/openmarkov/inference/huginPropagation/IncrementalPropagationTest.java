@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.inference.huginPropagation;
+
+import org.junit.Test;
+import org.openmarkov.core.model.network.EvidenceCase;
+import org.openmarkov.core.model.network.ProbNet;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.inference.TestNetworks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the incremental propagation of the changes of evidence with the
+ * propagation of the whole forest.
+ */
+public class IncrementalPropagationTest {
+
+	private static final String[] NETWORKS = {"asia.pgmx", "alarm.pgmx", "Child.pgmx", "insurance.pgmx",
+			"win95pts.pgmx"};
+
+	@Test
+	public void incrementalPropagationFollowsAdditionsChangesAndRetractions() throws Exception {
+		for (String network : NETWORKS) {
+			ProbNet probNet = TestNetworks.load(network);
+			Random random = new Random(11);
+			List<Variable> variables = new ArrayList<>(probNet.getVariables());
+			Collections.shuffle(variables, random);
+			List<Variable> observed = variables.subList(0, 4);
+			EvidenceCase first = TestNetworks.sampleEvidence(probNet, observed, random);
+			EvidenceCase second = TestNetworks.sampleEvidence(probNet, observed, random);
+			List<EvidenceCase> sequence = Arrays.asList(new EvidenceCase(),
+					// findings added
+					restrict(first, observed.subList(0, 1)), restrict(first, observed.subList(0, 3)),
+					// findings changed and added
+					second,
+					// findings retracted
+					restrict(second, Arrays.asList(observed.get(1), observed.get(3))), new EvidenceCase());
+
+			HuginPropagation propagation = new HuginPropagation(probNet);
+			propagation.setIncrementalPropagation(true);
+			for (int i = 0; i < sequence.size(); i++) {
+				EvidenceCase evidence = sequence.get(i);
+				String message = network + ", step " + i;
+				propagation.setPostResolutionEvidence(evidence);
+				// a part of the forest is distributed before the rest
+				List<Variable> someVariables = variables.subList(0, variables.size() / 3);
+				Map<Variable, TablePotential> expected = TestNetworks
+						.exactPosteriors(probNet, evidence, probNet.getVariables());
+				TestNetworks.assertPosteriors(message, expected, propagation.getPosteriorValues(someVariables),
+						someVariables, 1E-10);
+				TestNetworks.assertPosteriors(message, expected,
+						propagation.getPosteriorValues(probNet.getVariables()), probNet.getVariables(), 1E-10);
+			}
+		}
+	}
+
+	/**
+	 * @return The findings of {@code evidence} about {@code variables}
+	 */
+	private static EvidenceCase restrict(EvidenceCase evidence, List<Variable> variables) throws Exception {
+		EvidenceCase restriction = new EvidenceCase();
+		for (Variable variable : variables) {
+			restriction.addFinding(evidence.getFinding(variable));
+		}
+		return restriction;
+	}
+
+}
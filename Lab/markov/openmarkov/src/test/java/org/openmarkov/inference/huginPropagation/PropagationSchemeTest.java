@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.inference.huginPropagation;
+
+import org.junit.Test;
+import org.openmarkov.core.model.network.EvidenceCase;
+import org.openmarkov.core.model.network.ProbNet;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.inference.TestNetworks;
+import org.openmarkov.inference.huginPropagation.ClusterPropagation.PropagationScheme;
+import org.openmarkov.inference.huginPropagation.ClusterPropagation.StorageLevel;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the distribution of evidence by division of the stored
+ * separators (Hugin) with the products of the messages of the other
+ * children (Shafer-Shenoy).
+ */
+public class PropagationSchemeTest {
+
+	private static final String[] NETWORKS = {"asia.pgmx", "alarm.pgmx", "Child.pgmx", "insurance.pgmx",
+			"win95pts.pgmx", "water.pgmx"};
+
+	@Test
+	public void huginAndShaferShenoySchemesAgree() throws Exception {
+		for (String network : NETWORKS) {
+			ProbNet probNet = TestNetworks.load(network);
+			Random random = new Random(13);
+			for (int numFindings : new int[] {0, 3, 8}) {
+				EvidenceCase evidence = TestNetworks.sampleEvidence(probNet, numFindings, random);
+				List<Variable> variables = probNet.getVariables();
+				Map<Variable, TablePotential> hugin = propagate(probNet, evidence, PropagationScheme.HUGIN);
+				for (StorageLevel storageLevel : StorageLevel.values()) {
+					HuginPropagation propagation = new HuginPropagation(probNet);
+					propagation.setPropagationScheme(PropagationScheme.SHAFER_SHENOY);
+					propagation.setStorageLevel(storageLevel);
+					propagation.setPostResolutionEvidence(evidence);
+					TestNetworks.assertPosteriors(network + ", " + numFindings + " findings, " + storageLevel, hugin,
+							propagation.getPosteriorValues(variables), variables, 1E-10);
+				}
+			}
+		}
+	}
+
+	private static Map<Variable, TablePotential> propagate(ProbNet probNet, EvidenceCase evidence,
+			PropagationScheme propagationScheme) throws Exception {
+		HuginPropagation propagation = new HuginPropagation(probNet);
+		propagation.setPropagationScheme(propagationScheme);
+		propagation.setPostResolutionEvidence(evidence);
+		return propagation.getPosteriorValues(probNet.getVariables());
+	}
+
+}
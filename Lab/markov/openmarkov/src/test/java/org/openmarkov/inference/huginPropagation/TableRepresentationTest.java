@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.inference.huginPropagation;
+
+import org.junit.Test;
+import org.openmarkov.core.inference.TableRepresentation;
+import org.openmarkov.core.model.network.EvidenceCase;
+import org.openmarkov.core.model.network.Finding;
+import org.openmarkov.core.model.network.NodeType;
+import org.openmarkov.core.model.network.ProbNet;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.PotentialRole;
+import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.core.model.network.type.BayesianNetworkType;
+import org.openmarkov.inference.TestNetworks;
+import org.openmarkov.inference.huginPropagation.ClusterPropagation.PropagationScheme;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares the propagations with the tables of the clusters in single
+ * precision and in logarithms with the propagation in double precision.
+ */
+public class TableRepresentationTest {
+
+	private static final String[] NETWORKS = {"asia.pgmx", "alarm.pgmx", "Child.pgmx", "insurance.pgmx",
+			"win95pts.pgmx"};
+
+	private static final double[] TRANSITION = {0.9, 0.1, 0.1, 0.9};
+
+	private static final double[] OBSERVATION = {0.999, 0.001, 0.998, 0.002};
+
+	@Test
+	public void floatAndLogAgreeWithDouble() throws Exception {
+		for (String network : NETWORKS) {
+			ProbNet probNet = TestNetworks.load(network);
+			Random random = new Random(31);
+			List<Variable> variables = probNet.getVariables();
+			for (int numFindings : new int[] {0, 4}) {
+				EvidenceCase evidence = TestNetworks.sampleEvidence(probNet, numFindings, random);
+				for (PropagationScheme propagationScheme : PropagationScheme.values()) {
+					String message = network + ", " + numFindings + " findings, " + propagationScheme;
+					Map<Variable, TablePotential> expected = propagate(probNet, evidence, variables,
+							TableRepresentation.DOUBLE, propagationScheme);
+					TestNetworks.assertPosteriors(message + ", FLOAT", expected,
+							propagate(probNet, evidence, variables, TableRepresentation.FLOAT, propagationScheme),
+							variables, 1E-6);
+					TestNetworks.assertPosteriors(message + ", LOG", expected,
+							propagate(probNet, evidence, variables, TableRepresentation.LOG, propagationScheme),
+							variables, 1E-12);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A chain of hidden variables with an unlikely finding for each one,
+	 * whose probability underflows in double precision, is compared with
+	 * the forward-backward algorithm, which normalizes the messages.
+	 */
+	@Test
+	public void logPropagatesFindingsWhoseProbabilityUnderflows() throws Exception {
+		int length = 400;
+		ProbNet probNet = new ProbNet(BayesianNetworkType.getUniqueInstance());
+		EvidenceCase evidence = new EvidenceCase();
+		List<Variable> hidden = new ArrayList<>();
+		for (int i = 0; i < length; i++) {
+			Variable x = new Variable("X" + i, 2);
+			Variable y = new Variable("Y" + i, 2);
+			probNet.addNode(x, NodeType.CHANCE);
+			probNet.addNode(y, NodeType.CHANCE);
+			if (i == 0) {
+				probNet.addPotential(new TablePotential(Arrays.asList(x), PotentialRole.CONDITIONAL_PROBABILITY,
+						new double[] {0.5, 0.5}));
+			} else {
+				Variable previous = hidden.get(i - 1);
+				probNet.addLink(previous, x, true);
+				probNet.addPotential(new TablePotential(Arrays.asList(x, previous),
+						PotentialRole.CONDITIONAL_PROBABILITY, TRANSITION.clone()));
+			}
+			probNet.addLink(x, y, true);
+			probNet.addPotential(
+					new TablePotential(Arrays.asList(y, x), PotentialRole.CONDITIONAL_PROBABILITY, OBSERVATION.clone()));
+			evidence.addFinding(new Finding(y, 1));
+			hidden.add(x);
+		}
+
+		Map<Variable, TablePotential> posteriors = propagate(probNet, evidence, hidden, TableRepresentation.LOG,
+				PropagationScheme.HUGIN);
+		double[][] expected = forwardBackward(length);
+		for (int i = 0; i < length; i++) {
+			double[] values = posteriors.get(hidden.get(i)).values;
+			assertEquals("X" + i, expected[i][0], values[0], 1E-9);
+			assertEquals("X" + i, expected[i][1], values[1], 1E-9);
+		}
+	}
+
+	/**
+	 * @return The posterior probability of each hidden variable of the chain
+	 * when the state 1 is observed in every position
+	 */
+	private static double[][] forwardBackward(int length) {
+		double[][] forward = new double[length][];
+		double[] message = {0.5 * OBSERVATION[1], 0.5 * OBSERVATION[3]};
+		forward[0] = normalize(message);
+		for (int i = 1; i < length; i++) {
+			double[] previous = forward[i - 1];
+			forward[i] = normalize(new double[] {
+					(previous[0] * TRANSITION[0] + previous[1] * TRANSITION[2]) * OBSERVATION[1],
+					(previous[0] * TRANSITION[1] + previous[1] * TRANSITION[3]) * OBSERVATION[3]});
+		}
+		double[][] posteriors = new double[length][];
+		double[] backward = {1.0, 1.0};
+		for (int i = length - 1; i >= 0; i--) {
+			posteriors[i] = normalize(new double[] {forward[i][0] * backward[0], forward[i][1] * backward[1]});
+			// message from position i to position i - 1
+			double[] evidenceBackward = {OBSERVATION[1] * backward[0], OBSERVATION[3] * backward[1]};
+			backward = normalize(new double[] {
+					TRANSITION[0] * evidenceBackward[0] + TRANSITION[1] * evidenceBackward[1],
+					TRANSITION[2] * evidenceBackward[0] + TRANSITION[3] * evidenceBackward[1]});
+		}
+		return posteriors;
+	}
+
+	private static double[] normalize(double[] values) {
+		double sum = values[0] + values[1];
+		return new double[] {values[0] / sum, values[1] / sum};
+	}
+
+	private static Map<Variable, TablePotential> propagate(ProbNet probNet, EvidenceCase evidence,
+			List<Variable> variables, TableRepresentation tableRepresentation,
+			PropagationScheme propagationScheme) throws Exception {
+		probNet.getInferenceOptions().setTableRepresentation(tableRepresentation);
+		try {
+			HuginPropagation propagation = new HuginPropagation(probNet);
+			propagation.setPropagationScheme(propagationScheme);
+			propagation.setPostResolutionEvidence(evidence);
+			return propagation.getPosteriorValues(variables);
+		} finally {
+			probNet.getInferenceOptions().setTableRepresentation(TableRepresentation.DOUBLE);
+		}
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.inference.likelihoodWeighting;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the stratification of the quasi-random numbers and that they only
+ * depend on the seed, the sample and the dimension.
+ */
+public class QuasiRandomGeneratorTest {
+
+	private static final int DIMENSION = 20;
+
+	@Test
+	public void latinHypercubeHasOneSampleInEachStratum() {
+		for (int sampleSize : new int[] {1000, 777}) {
+			double[][] numbers = draw(new QuasiRandomGenerator(UniformSource.LATIN_HYPERCUBE, DIMENSION, sampleSize,
+					11L), sampleSize, DIMENSION);
+			assertStratified("Latin hypercube, " + sampleSize + " samples", numbers, sampleSize);
+		}
+	}
+
+	/**
+	 * The first 2^k points of the Sobol sequence have, in each dimension, one
+	 * point in each interval of width 2^-k, and so do those of the digitally
+	 * shifted sequence.
+	 */
+	@Test
+	public void sobolPointsHaveOnePointInEachDyadicInterval() {
+		int numPoints = 1 << 10;
+		double[][] numbers = draw(new QuasiRandomGenerator(UniformSource.SOBOL, DIMENSION, numPoints, 13L),
+				numPoints, DIMENSION);
+		assertStratified("Sobol", numbers, numPoints);
+	}
+
+	@Test
+	public void dimensionsBeyondTheSobolSequenceArePseudoRandom() {
+		int dimension = QuasiRandomGenerator.MAX_SOBOL_DIMENSION + 10;
+		QuasiRandomGenerator generator = new QuasiRandomGenerator(UniformSource.SOBOL, dimension, 100, 17L);
+		double[][] numbers = draw(generator, 100, dimension);
+		for (int sample = 0; sample < numbers.length; sample++) {
+			for (double number : numbers[sample]) {
+				assertTrue("sample " + sample, number >= 0 && number < 1);
+			}
+		}
+	}
+
+	@Test
+	public void numbersOnlyDependOnTheSeedTheSampleAndTheDimension() {
+		int sampleSize = 500;
+		for (UniformSource source : new UniformSource[] {UniformSource.SOBOL, UniformSource.LATIN_HYPERCUBE}) {
+			double[][] inOrder = draw(new QuasiRandomGenerator(source, DIMENSION, sampleSize, 19L), sampleSize,
+					DIMENSION);
+			// another generator with the same seed, positioned at the samples in a random order
+			List<Integer> samples = new ArrayList<>();
+			for (int sample = 0; sample < sampleSize; sample++) {
+				samples.add(sample);
+			}
+			Collections.shuffle(samples, new Random(23));
+			QuasiRandomGenerator generator = new QuasiRandomGenerator(source, DIMENSION, sampleSize, 19L);
+			for (int sample : samples) {
+				generator.startSample(sample);
+				double[] numbers = new double[DIMENSION];
+				for (int dimension = 0; dimension < DIMENSION; dimension++) {
+					numbers[dimension] = generator.nextDouble();
+				}
+				assertArrayEquals(source + ", sample " + sample, inOrder[sample], numbers, 0.0);
+			}
+			double[][] otherSeed = draw(new QuasiRandomGenerator(source, DIMENSION, sampleSize, 29L), sampleSize,
+					DIMENSION);
+			assertFalse(source.toString(), inOrder[0][0] == otherSeed[0][0] && inOrder[1][1] == otherSeed[1][1]);
+		}
+	}
+
+	/**
+	 * @return For each sample, in order, its numbers in each dimension
+	 */
+	private static double[][] draw(QuasiRandomGenerator generator, int numSamples, int dimension) {
+		double[][] numbers = new double[numSamples][dimension];
+		for (int sample = 0; sample < numSamples; sample++) {
+			generator.startSample(sample);
+			for (int i = 0; i < dimension; i++) {
+				numbers[sample][i] = generator.nextDouble();
+			}
+		}
+		return numbers;
+	}
+
+	/**
+	 * @param numbers   numbers of each sample
+	 * @param numStrata number of intervals of equal width of [0, 1)
+	 */
+	private static void assertStratified(String message, double[][] numbers, int numStrata) {
+		for (int dimension = 0; dimension < numbers[0].length; dimension++) {
+			int[] counts = new int[numStrata];
+			for (double[] sample : numbers) {
+				double number = sample[dimension];
+				assertTrue(message, number >= 0 && number < 1);
+				counts[(int) (number * numStrata)]++;
+			}
+			for (int stratum = 0; stratum < numStrata; stratum++) {
+				assertEquals(message + ", dimension " + dimension + ", stratum " + stratum, 1, counts[stratum]);
+			}
+		}
+	}
+
+}
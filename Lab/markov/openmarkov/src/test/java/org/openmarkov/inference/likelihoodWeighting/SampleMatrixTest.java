@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.inference.likelihoodWeighting;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openmarkov.core.model.network.EvidenceCase;
+import org.openmarkov.core.model.network.ProbNet;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.inference.TestNetworks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the samples kept by a {@code SampleMatrix} and streamed to a
+ * {@code SampleFile}.
+ */
+public class SampleMatrixTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void samplesAreReadAsTheyWereWrittenInAnyOrder() {
+		// one and two bytes per state
+		for (int numStates : new int[] {3, 300}) {
+			List<Variable> variables = Arrays.asList(new Variable("A", numStates), new Variable("B", 2),
+					new Variable("C", numStates));
+			int sampleSize = 10000;
+			int[][] states = new int[sampleSize][variables.size()];
+			double[] weights = new double[sampleSize];
+			Random random = new Random(61);
+			for (int sample = 0; sample < sampleSize; sample++) {
+				for (int variable = 0; variable < variables.size(); variable++) {
+					states[sample][variable] = random.nextInt(variables.get(variable).getNumStates());
+				}
+				weights[sample] = random.nextDouble();
+			}
+			List<Integer> blocks = new ArrayList<>();
+			for (int firstSample = 0; firstSample < sampleSize; firstSample += 1000) {
+				blocks.add(firstSample);
+			}
+			Collections.shuffle(blocks, random);
+
+			SampleMatrix matrix = new SampleMatrix();
+			matrix.open(variables, sampleSize);
+			for (int firstSample : blocks) {
+				write(matrix, firstSample, 1000, states, weights);
+			}
+			matrix.close(sampleSize);
+			assertSamples(numStates + " states", states, weights, matrix);
+		}
+	}
+
+	@Test
+	public void theSampleSizeIsOnlyAnUpperBound() {
+		List<Variable> variables = Arrays.asList(new Variable("A", 4), new Variable("B", 2));
+		int[][] states = {{3, 1}, {0, 1}, {2, 0}};
+		double[] weights = {0.5, 0.25, 1.0};
+		SampleMatrix matrix = new SampleMatrix();
+		// an anytime propagation that stops after a few samples
+		matrix.open(variables, Integer.MAX_VALUE);
+		write(matrix, 0, states.length, states, weights);
+		matrix.close(states.length);
+		assertSamples("anytime", states, weights, matrix);
+	}
+
+	@Test
+	public void storedAndStreamedSamplesGiveThePosteriors() throws Exception {
+		ProbNet probNet = TestNetworks.load("alarm.pgmx");
+		EvidenceCase evidence = TestNetworks.sampleEvidence(probNet, 3, new Random(67));
+		List<Variable> variables = TestNetworks.getUnobservedVariables(probNet, evidence);
+		File file = folder.newFile("samples");
+		for (boolean parallelSampling : new boolean[] {false, true}) {
+			LikelihoodWeighting propagation = new LikelihoodWeighting(probNet);
+			propagation.setSampleSize(40000);
+			propagation.setSeed(11L);
+			propagation.setParallelSampling(parallelSampling);
+			propagation.setPostResolutionEvidence(evidence);
+			propagation.setVariablesOfInterest(variables);
+			propagation.setStoringSamples(true);
+			propagation.setSampleSink(new SampleFile(file));
+			Map<Variable, TablePotential> posteriors = propagation.getPosteriorValues();
+
+			String message = "parallel " + parallelSampling;
+			SampleMatrix stored = propagation.getStoredSamples();
+			assertEquals(message, 40000, stored.getNumSamples());
+			for (Variable variable : variables) {
+				assertArrayEquals(message + ": " + variable, posteriors.get(variable).values,
+						getPosterior(stored, variable), 1E-12);
+			}
+			SampleMatrix read = new SampleMatrix();
+			SampleFile.read(file, probNet, read);
+			assertEquals(message, stored.getSampledVariables(), read.getSampledVariables());
+			assertSamples(message, toStates(stored), toWeights(stored), read);
+		}
+	}
+
+	private static void write(SampleMatrix matrix, int firstSample, int numSamples, int[][] states,
+			double[] weights) {
+		int numVariables = states[0].length;
+		int[] chunkStates = new int[numSamples * numVariables];
+		double[] chunkWeights = new double[numSamples];
+		for (int i = 0; i < numSamples; i++) {
+			System.arraycopy(states[firstSample + i], 0, chunkStates, i * numVariables, numVariables);
+			chunkWeights[i] = weights[firstSample + i];
+		}
+		matrix.write(firstSample, numSamples, chunkStates, chunkWeights);
+	}
+
+	private static void assertSamples(String message, int[][] states, double[] weights, SampleMatrix matrix) {
+		assertEquals(message, states.length, matrix.getNumSamples());
+		assertEquals(message, states.length, matrix.toArray().length);
+		for (int sample = 0; sample < states.length; sample++) {
+			for (int variable = 0; variable < states[sample].length; variable++) {
+				assertEquals(message, states[sample][variable], matrix.getState(sample, variable));
+			}
+			assertEquals(message, weights[sample], matrix.getWeight(sample), 0.0);
+		}
+	}
+
+	private static int[][] toStates(SampleMatrix matrix) {
+		int[][] states = new int[matrix.getNumSamples()][matrix.getSampledVariables().size()];
+		for (int sample = 0; sample < states.length; sample++) {
+			for (int variable = 0; variable < states[sample].length; variable++) {
+				states[sample][variable] = matrix.getState(sample, variable);
+			}
+		}
+		return states;
+	}
+
+	private static double[] toWeights(SampleMatrix matrix) {
+		double[] weights = new double[matrix.getNumSamples()];
+		for (int sample = 0; sample < weights.length; sample++) {
+			weights[sample] = matrix.getWeight(sample);
+		}
+		return weights;
+	}
+
+	/**
+	 * @return The weighted frequency of each state of {@code variable} in the
+	 * samples
+	 */
+	private static double[] getPosterior(SampleMatrix matrix, Variable variable) {
+		int index = matrix.getSampledVariables().indexOf(variable);
+		double[] posterior = new double[variable.getNumStates()];
+		double totalWeight = 0;
+		for (int sample = 0; sample < matrix.getNumSamples(); sample++) {
+			posterior[matrix.getState(sample, index)] += matrix.getWeight(sample);
+			totalWeight += matrix.getWeight(sample);
+		}
+		for (int state = 0; state < posterior.length; state++) {
+			posterior[state] /= totalWeight;
+		}
+		return posterior;
+	}
+
+}
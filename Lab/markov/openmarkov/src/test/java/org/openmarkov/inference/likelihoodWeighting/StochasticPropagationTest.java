@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.inference.likelihoodWeighting;
+
+import org.junit.Test;
+import org.openmarkov.core.model.network.EvidenceCase;
+import org.openmarkov.core.model.network.ProbNet;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.core.model.network.potential.TablePotential;
+import org.openmarkov.core.model.network.potential.operation.concurrent.DiscretePotentialOperations;
+import org.openmarkov.inference.TestNetworks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the posteriors of logic sampling and likelihood weighting, with a
+ * fixed seed, sequential or in parallel blocks and with pseudo-random or
+ * quasi-random numbers, with the exact posteriors, and checks the stopping
+ * criteria of anytime sampling.
+ */
+public class StochasticPropagationTest {
+
+	private static final String[] NETWORKS = {"asia.pgmx", "alarm.pgmx", "Child.pgmx", "insurance.pgmx"};
+
+	private static final int SAMPLE_SIZE = 50000;
+
+	private static final int ANYTIME_SAMPLE_SIZE = 10000000;
+
+	private static final double TARGET_PRECISION = 0.01;
+
+	@Test
+	public void samplesApproximateTheExactPosteriors() throws Exception {
+		for (String network : NETWORKS) {
+			ProbNet probNet = TestNetworks.load(network);
+			Random random = new Random(41);
+			for (int numFindings : new int[] {0, 3}) {
+				EvidenceCase evidence = TestNetworks.sampleEvidence(probNet, numFindings, random);
+				List<Variable> variables = TestNetworks.getUnobservedVariables(probNet, evidence);
+				Map<Variable, TablePotential> exact = TestNetworks.exactPosteriors(probNet, evidence, variables);
+				for (boolean logicSampling : new boolean[] {false, true}) {
+					StochasticPropagation propagation = createPropagation(probNet, evidence, variables,
+							logicSampling);
+					assertApproximates(message(network, numFindings, propagation), exact, propagation, variables);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void theSameSeedGivesTheSamePosteriors() throws Exception {
+		ProbNet probNet = TestNetworks.load("alarm.pgmx");
+		EvidenceCase evidence = TestNetworks.sampleEvidence(probNet, 3, new Random(43));
+		List<Variable> variables = TestNetworks.getUnobservedVariables(probNet, evidence);
+		for (boolean logicSampling : new boolean[] {false, true}) {
+			StochasticPropagation propagation = createPropagation(probNet, evidence, variables, logicSampling);
+			TestNetworks.assertPosteriors(message("alarm.pgmx", 3, propagation),
+					createPropagation(probNet, evidence, variables, logicSampling).getPosteriorValues(),
+					propagation.getPosteriorValues(), variables, 0.0);
+		}
+	}
+
+	@Test
+	public void parallelSamplesApproximateTheExactPosteriors() throws Exception {
+		for (String network : NETWORKS) {
+			ProbNet probNet = TestNetworks.load(network);
+			EvidenceCase evidence = TestNetworks.sampleEvidence(probNet, 3, new Random(59));
+			List<Variable> variables = TestNetworks.getUnobservedVariables(probNet, evidence);
+			Map<Variable, TablePotential> exact = TestNetworks.exactPosteriors(probNet, evidence, variables);
+			for (boolean logicSampling : new boolean[] {false, true}) {
+				StochasticPropagation propagation = createPropagation(probNet, evidence, variables, logicSampling);
+				propagation.setParallelSampling(true);
+				assertApproximates(message(network, 3, propagation) + ", parallel", exact, propagation, variables);
+			}
+		}
+	}
+
+	@Test
+	public void parallelSamplingDoesNotDependOnTheNumberOfThreads() throws Exception {
+		ProbNet probNet = TestNetworks.load("insurance.pgmx");
+		EvidenceCase evidence = TestNetworks.sampleEvidence(probNet, 3, new Random(53));
+		List<Variable> variables = TestNetworks.getUnobservedVariables(probNet, evidence);
+		ForkJoinPool pool = DiscretePotentialOperations.getPool();
+		for (boolean logicSampling : new boolean[] {false, true}) {
+			Map<Variable, TablePotential> posteriors = null;
+			for (int numThreads : new int[] {1, 4}) {
+				ForkJoinPool threads = new ForkJoinPool(numThreads);
+				DiscretePotentialOperations.setPool(threads);
+				try {
+					StochasticPropagation propagation = createPropagation(probNet, evidence, variables,
+							logicSampling);
+					propagation.setParallelSampling(true);
+					if (posteriors == null) {
+						posteriors = propagation.getPosteriorValues();
+					} else {
+						TestNetworks.assertPosteriors(message("insurance.pgmx", 3, propagation), posteriors,
+								propagation.getPosteriorValues(), variables, 0.0);
+					}
+				} finally {
+					DiscretePotentialOperations.setPool(pool);
+					threads.shutdown();
+				}
+			}
+		}
+	}
+
+	@Test
+	public void quasiRandomSamplesApproximateTheExactPosteriors() throws Exception {
+		for (String network : NETWORKS) {
+			ProbNet probNet = TestNetworks.load(network);
+			Random random = new Random(107);
+			for (int numFindings : new int[] {0, 3}) {
+				EvidenceCase evidence = TestNetworks.sampleEvidence(probNet, numFindings, random);
+				List<Variable> variables = TestNetworks.getUnobservedVariables(probNet, evidence);
+				Map<Variable, TablePotential> exact = TestNetworks.exactPosteriors(probNet, evidence, variables);
+				for (UniformSource uniformSource : new UniformSource[] {UniformSource.SOBOL,
+						UniformSource.LATIN_HYPERCUBE}) {
+					for (boolean logicSampling : new boolean[] {false, true}) {
+						StochasticPropagation propagation = createPropagation(probNet, evidence, variables,
+								logicSampling);
+						propagation.setUniformSource(uniformSource);
+						String message = message(network, numFindings, propagation) + ", " + uniformSource;
+						assertApproximates(message, exact, propagation, variables);
+						// the blocks draw the same samples as a sequential propagation; only the order in which
+						// the weights are added differs
+						StochasticPropagation parallelPropagation = createPropagation(probNet, evidence, variables,
+								logicSampling);
+						parallelPropagation.setUniformSource(uniformSource);
+						parallelPropagation.setParallelSampling(true);
+						TestNetworks.assertPosteriors(message + ", parallel", propagation.getLastPosteriorValues(),
+								parallelPropagation.getPosteriorValues(), variables, 1E-12);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void sobolSamplesAreCloserToTheExactPosteriorsThanPseudoRandomOnes() throws Exception {
+		for (String network : NETWORKS) {
+			ProbNet probNet = TestNetworks.load(network);
+			EvidenceCase evidence = new EvidenceCase();
+			List<Variable> variables = TestNetworks.getUnobservedVariables(probNet, evidence);
+			Map<Variable, TablePotential> exact = TestNetworks.exactPosteriors(probNet, evidence, variables);
+			double[] squaredErrors = new double[2];
+			UniformSource[] uniformSources = {UniformSource.PSEUDO_RANDOM, UniformSource.SOBOL};
+			for (int i = 0; i < uniformSources.length; i++) {
+				StochasticPropagation propagation = createPropagation(probNet, evidence, variables, true);
+				propagation.setUniformSource(uniformSources[i]);
+				Map<Variable, TablePotential> posteriors = propagation.getPosteriorValues();
+				for (Variable variable : variables) {
+					for (int state = 0; state < variable.getNumStates(); state++) {
+						double error = posteriors.get(variable).values[state] - exact.get(variable).values[state];
+						squaredErrors[i] += error * error;
+					}
+				}
+			}
+			assertTrue(network + ": " + squaredErrors[1] + " vs " + squaredErrors[0],
+					squaredErrors[1] < squaredErrors[0] / 4);
+		}
+	}
+
+	@Test
+	public void anytimeSamplingStopsAtTheTargetPrecision() throws Exception {
+		ProbNet probNet = TestNetworks.load("alarm.pgmx");
+		EvidenceCase evidence = TestNetworks.sampleEvidence(probNet, 3, new Random(61));
+		List<Variable> variables = TestNetworks.getUnobservedVariables(probNet, evidence);
+		Map<Variable, TablePotential> exact = TestNetworks.exactPosteriors(probNet, evidence, variables);
+		for (boolean parallelSampling : new boolean[] {false, true}) {
+			StochasticPropagation propagation = createPropagation(probNet, evidence, variables, false);
+			propagation.setSampleSize(ANYTIME_SAMPLE_SIZE);
+			propagation.setTargetPrecision(TARGET_PRECISION);
+			propagation.setParallelSampling(parallelSampling);
+			final List<SamplingProgress> progresses = new ArrayList<>();
+			propagation.addSamplingListener(new SamplingListener() {
+				@Override public void samplesDrawn(SamplingProgress progress) {
+					progresses.add(progress);
+				}
+			});
+			String message = message("alarm.pgmx", 3, propagation) + (parallelSampling ? ", parallel" : "");
+			assertApproximates(message, exact, propagation, variables);
+			assertTrue(message, propagation.getNumSamples() < ANYTIME_SAMPLE_SIZE);
+			for (double[] halfWidths : propagation.getConfidenceHalfWidths().values()) {
+				for (double halfWidth : halfWidths) {
+					assertTrue(message, halfWidth <= TARGET_PRECISION);
+				}
+			}
+			// the listeners receive the estimates of each check, the last one being the result
+			SamplingProgress last = progresses.get(progresses.size() - 1);
+			assertEquals(message, propagation.getNumSamples(), last.getNumSamples());
+			assertTrue(message, last.getMaxHalfWidth() <= TARGET_PRECISION);
+			for (int i = 1; i < progresses.size(); i++) {
+				assertTrue(message, progresses.get(i - 1).getNumSamples() < progresses.get(i).getNumSamples());
+				assertTrue(message, progresses.get(i - 1).getMaxHalfWidth() > TARGET_PRECISION);
+			}
+			TestNetworks.assertPosteriors(message, propagation.getPosteriorValues(), last.getPosteriorValues(),
+					variables, 1e-12);
+		}
+	}
+
+	@Test
+	public void anytimeParallelSamplingDoesNotDependOnTheNumberOfThreads() throws Exception {
+		ProbNet probNet = TestNetworks.load("insurance.pgmx");
+		EvidenceCase evidence = TestNetworks.sampleEvidence(probNet, 3, new Random(53));
+		List<Variable> variables = TestNetworks.getUnobservedVariables(probNet, evidence);
+		ForkJoinPool pool = DiscretePotentialOperations.getPool();
+		StochasticPropagation first = null;
+		Map<Variable, TablePotential> firstPosteriors = null;
+		for (int numThreads : new int[] {1, 4}) {
+			ForkJoinPool threads = new ForkJoinPool(numThreads);
+			DiscretePotentialOperations.setPool(threads);
+			try {
+				StochasticPropagation propagation = createPropagation(probNet, evidence, variables, false);
+				propagation.setSampleSize(ANYTIME_SAMPLE_SIZE);
+				// precise enough to need several waves of blocks
+				propagation.setTargetPrecision(TARGET_PRECISION / 5);
+				propagation.setParallelSampling(true);
+				Map<Variable, TablePotential> posteriors = propagation.getPosteriorValues();
+				if (first == null) {
+					first = propagation;
+					firstPosteriors = posteriors;
+				} else {
+					String message = message("insurance.pgmx", 3, propagation) + ", parallel";
+					assertEquals(message, first.getNumSamples(), propagation.getNumSamples());
+					TestNetworks.assertPosteriors(message, firstPosteriors, posteriors, variables,
+							0.0);
+				}
+			} finally {
+				DiscretePotentialOperations.setPool(pool);
+				threads.shutdown();
+			}
+		}
+	}
+
+	@Test
+	public void anytimeSamplingStopsWhenTheTimeBudgetExpires() throws Exception {
+		ProbNet probNet = TestNetworks.load("alarm.pgmx");
+		EvidenceCase evidence = TestNetworks.sampleEvidence(probNet, 3, new Random(61));
+		List<Variable> variables = TestNetworks.getUnobservedVariables(probNet, evidence);
+		Map<Variable, TablePotential> exact = TestNetworks.exactPosteriors(probNet, evidence, variables);
+		for (boolean parallelSampling : new boolean[] {false, true}) {
+			// the sample size is not reachable within the budget
+			StochasticPropagation propagation = createPropagation(probNet, evidence, variables, false);
+			propagation.setSampleSize(Integer.MAX_VALUE);
+			propagation.setTimeBudget(200);
+			propagation.setParallelSampling(parallelSampling);
+			String message = message("alarm.pgmx", 3, propagation) + (parallelSampling ? ", parallel" : "");
+			assertApproximates(message, exact, propagation, variables);
+			assertTrue(message, propagation.getNumSamples() < Integer.MAX_VALUE);
+		}
+	}
+
+	private static void assertApproximates(String message, Map<Variable, TablePotential> exact,
+			StochasticPropagation propagation, List<Variable> variables) throws Exception {
+		Map<Variable, TablePotential> posteriors = propagation.getPosteriorValues();
+		TestNetworks.assertSampledPosteriors(message, exact, posteriors, variables,
+				propagation.getEffectiveSampleSize());
+	}
+
+	private static StochasticPropagation createPropagation(ProbNet probNet, EvidenceCase evidence, List<Variable> variables,
+			boolean logicSampling) throws Exception {
+		StochasticPropagation propagation = logicSampling ?
+				new LogicSampling(probNet) :
+				new LikelihoodWeighting(probNet);
+		propagation.setSampleSize(SAMPLE_SIZE);
+		propagation.setSeed(7L);
+		propagation.setPostResolutionEvidence(evidence);
+		propagation.setVariablesOfInterest(variables);
+		return propagation;
+	}
+
+	private static String message(String network, int numFindings, StochasticPropagation propagation) {
+		return network + ", " + numFindings + " findings, " + propagation.getClass().getSimpleName();
+	}
+
+}
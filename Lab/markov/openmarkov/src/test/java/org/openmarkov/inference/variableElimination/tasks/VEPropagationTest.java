@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) CISIAD, UNED, Spain,  2019. Licensed under the GPLv3 licence
+ * Unless required by applicable law or agreed to in writing,
+ * this code is distributed on an "AS IS" basis,
+ * WITHOUT WARRANTIES OF ANY KIND.
+ */
+
+package org.openmarkov.inference.variableElimination.tasks;
+
+import org.junit.Test;
+import org.openmarkov.core.exception.NodeNotFoundException;
+import org.openmarkov.core.model.network.EvidenceCase;
+import org.openmarkov.core.model.network.ProbNet;
+import org.openmarkov.core.model.network.Variable;
+import org.openmarkov.inference.TestNetworks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the posterior values of several variables of interest, obtained
+ * from the messages of a junction tree, with a variable elimination for each
+ * variable.
+ */
+public class VEPropagationTest {
+
+	private static final String[] NETWORKS = {"asia.pgmx", "alarm.pgmx", "Child.pgmx", "insurance.pgmx",
+			"water.pgmx"};
+
+	@Test
+	public void variablesOfInterestAgreeWithAnEliminationForEachVariable() throws Exception {
+		for (String network : NETWORKS) {
+			ProbNet probNet = TestNetworks.load(network);
+			Random random = new Random(29);
+			for (int numFindings : new int[] {0, 2, 5}) {
+				EvidenceCase evidence = TestNetworks.sampleEvidence(probNet, numFindings, random);
+				// the observed variables are also queried
+				List<Variable> variables = new ArrayList<>(probNet.getVariables());
+				Collections.shuffle(variables, random);
+				variables = variables.subList(0, Math.min(12, variables.size()));
+				VEPropagation propagation = new VEPropagation(probNet);
+				propagation.setPostResolutionEvidence(evidence);
+				propagation.setVariablesOfInterest(variables);
+				// the columns of some conditional probabilities add up to 1 only
+				// approximately, so the junction tree, which normalizes the product
+				// of all of them, and the elimination in the network pruned for each
+				// variable do not give the same digits
+				TestNetworks.assertPosteriors(network + ", " + numFindings + " findings",
+						TestNetworks.eliminateVariables(probNet, evidence, variables),
+						propagation.getPosteriorValues(), variables, 1E-5);
+			}
+		}
+	}
+
+	@Test(expected = NodeNotFoundException.class)
+	public void batchReportsAnUnknownVariableOfInterest() throws Exception {
+		ProbNet probNet = TestNetworks.load("asia.pgmx");
+		List<Variable> variables = new ArrayList<>(probNet.getVariables());
+		variables.add(new Variable("Unknown", 2));
+		new VEPropagation(probNet).getPosteriorValues(Collections.singletonList(new EvidenceCase()), variables);
+	}
+
+}